@@ -0,0 +1,202 @@
+package bench;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Banc d'essai des messages privés (/msg).
+ *
+ * Des paires émetteur/destinataire s'échangent des messages privés pendant que
+ * N sessions inactives restent connectées. Le routage passant par l'index des
+ * noms, le débit ne doit pas dépendre du nombre de sessions inactives.
+ * Chaque émetteur garde au plus WINDOW messages sans accusé (le statut
+ * renvoyé par le serveur), pour ne pas mesurer les pertes des files pleines.
+ *
+ * Usage: java bench.DirectMessageBenchmark [paires] [messages par paire] [inactifs...]
+ */
+public class DirectMessageBenchmark {
+    private static final String HOST = "localhost";
+    private static final String PREFIX = "(privé) bench ";
+    private static final int WINDOW = 64;
+
+    public static void main(String[] args) throws Exception {
+        int pairs = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int[] idleCounts = { 0, 1000 };
+        if (args.length > 2) {
+            idleCounts = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                idleCounts[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        List<String> results = new ArrayList<>();
+        int port = 22445;
+        for (int idle : idleCounts) {
+            results.add(run(port, pairs, messages, idle));
+            port += 2;
+        }
+
+        System.out.println();
+        System.out.println("=== RESULTATS (" + pairs + " paires, " + messages + " messages par paire) ===");
+        System.out.println(String.format("%10s %12s %14s %12s %12s",
+            "inactifs", "duree (ms)", "messages/s", "p50 (us)", "p99 (us)"));
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    private static String run(int port, int pairs, int messages, int idleSessions) throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setTransportMode(ServerConfig.TransportMode.NIO);
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(""); // on mesure le transport, pas le disque
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        List<BenchSession> sessions = new ArrayList<>();
+        for (int i = 0; i < idleSessions; i++) {
+            sessions.add(BenchSession.open(port, "idle" + i, null));
+        }
+
+        int total = pairs * messages;
+        long[] latencies = new long[total];
+        AtomicInteger received = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+        Receiver receiver = (latency) -> {
+            int index = received.getAndIncrement();
+            if (index < total) {
+                latencies[index] = latency;
+            }
+            done.countDown();
+        };
+
+        List<BenchSession> senders = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            sessions.add(BenchSession.open(port, "dst" + i, receiver));
+            BenchSession sender = BenchSession.open(port, "src" + i, null);
+            senders.add(sender);
+            sessions.add(sender);
+        }
+        // Laisser les annonces de connexion se propager avant de mesurer
+        Thread.sleep(2000);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < pairs; i++) {
+            BenchSession sender = senders.get(i);
+            String recipient = "dst" + i;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    for (int k = 0; k < messages; k++) {
+                        sender.acquireWindow();
+                        sender.send(new Message(sender.username,
+                            "/msg " + recipient + " bench " + System.nanoTime()));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    System.err.println("Emetteur interrompu: " + e.getMessage());
+                }
+            }));
+        }
+        boolean complete = done.await(60, TimeUnit.SECONDS);
+        long elapsedNanos = System.nanoTime() - start;
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+
+        for (BenchSession session : sessions) {
+            session.close();
+        }
+        server.shutdown();
+        Thread.sleep(1000);
+
+        int count = Math.min(received.get(), total);
+        if (!complete) {
+            System.err.println("Seulement " + count + "/" + total + " messages recus");
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        return String.format("%10d %12d %14d %12d %12d",
+            idleSessions, elapsedNanos / 1_000_000,
+            count * 1_000_000_000L / Math.max(1, elapsedNanos),
+            percentile(sorted, 0.50) / 1000, percentile(sorted, 0.99) / 1000);
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return -1;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * quantile))];
+    }
+
+    private interface Receiver {
+        void received(long latencyNanos);
+    }
+
+    /**
+     * Session au format binaire. Les statuts renvoyés par le serveur à
+     * l'émetteur libèrent sa fenêtre d'envoi.
+     */
+    private static class BenchSession {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final String username;
+        private final Semaphore window;
+
+        private BenchSession(Socket socket, DataOutputStream out, String username) {
+            this.socket = socket;
+            this.out = out;
+            this.username = username;
+            this.window = new Semaphore(WINDOW);
+        }
+
+        static BenchSession open(int port, String username, Receiver receiver) throws IOException {
+            Socket socket = new Socket(HOST, port);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            in.readFully(new byte[MessageCodec.HANDSHAKE_LENGTH]);
+
+            BenchSession session = new BenchSession(socket, out, username);
+            Thread.ofVirtual().name("bench-" + username).start(() -> {
+                try {
+                    while (true) {
+                        Message message = MessageCodec.read(in);
+                        String content = message.getContent();
+                        if (receiver != null && content != null && content.startsWith(PREFIX)) {
+                            receiver.received(System.nanoTime() - Long.parseLong(content.substring(PREFIX.length())));
+                        } else if (content != null && content.startsWith("Message privé")) {
+                            session.window.release();
+                        }
+                    }
+                } catch (IOException e) {
+                    // Session fermée
+                }
+            });
+            return session;
+        }
+
+        void acquireWindow() throws InterruptedException {
+            window.acquire();
+        }
+
+        synchronized void send(Message message) throws IOException {
+            MessageCodec.write(out, message);
+            out.flush();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
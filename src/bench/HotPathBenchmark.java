@@ -0,0 +1,80 @@
+package bench;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.InMemoryClients;
+import server.ServerConfig;
+
+/**
+ * Micro-bancs des chemins chauds du serveur, à relancer avant chaque
+ * livraison pour repérer une régression de débit ou d'allocation :
+ * - sérialisation Java d'un Message (ObjectOutputStream avec reset()),
+ *   comparée à l'encodage binaire MessageCodec ;
+ * - Message.toString() ;
+ * - ChatServer.broadcastMessage vers N clients en mémoire ;
+ * - getConnectedUsers() et la réponse à /list (sendUserList).
+ *
+ * Usage: java bench.HotPathBenchmark [clients...]   (défaut : 10 100 1000)
+ */
+public class HotPathBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] clientCounts = { 10, 100, 1000 };
+        if (args.length > 0) {
+            clientCounts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                clientCounts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        MicroBenchmark bench = new MicroBenchmark(3, 5, 1000);
+        List<MicroBenchmark.Result> results = new ArrayList<>();
+        System.out.println(MicroBenchmark.Result.header());
+
+        Message message = new Message("alice", "Bonjour tout le monde, comment allez-vous ?");
+
+        // Format des anciens clients : un flux d'objets remis à zéro après chaque message
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objects = new ObjectOutputStream(bytes);
+        results.add(bench.run("Message ObjectOutputStream+reset", () -> {
+            bytes.reset();
+            objects.writeObject(message);
+            objects.reset();
+            objects.flush();
+            return bytes;
+        }));
+        results.add(bench.run("Message MessageCodec.encode", () -> MessageCodec.encode(message)));
+        results.add(bench.run("Message.toString", message::toString));
+
+        for (int count : clientCounts) {
+            ServerConfig config = new ServerConfig();
+            config.setHistoryDirectory(""); // on mesure la diffusion, pas le disque
+            config.setLogLevel(ServerConfig.LogLevel.WARN); // ni le journal des connexions
+            ChatServer server = new ChatServer(config);
+            InMemoryClients clients = InMemoryClients.attach(server, "user", count);
+
+            results.add(bench.run("broadcastMessage N=" + count, () -> {
+                clients.broadcastFrom(0, message);
+                return clients;
+            }));
+            results.add(bench.run("getConnectedUsers N=" + count, server::getConnectedUsers));
+            results.add(bench.run("sendUserList N=" + count, () -> {
+                clients.sendUserList(0);
+                return clients;
+            }));
+
+            clients.detach();
+        }
+
+        System.out.println();
+        System.out.println("=== RESULTATS ===");
+        System.out.println(MicroBenchmark.Result.header());
+        for (MicroBenchmark.Result result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Petit harnais de micro-mesure, dans l'esprit de JMH : itérations de
+ * chauffe, puis itérations mesurées à durée fixe sur le thread courant.
+ *
+ * En plus du débit, il relève les octets alloués par opération (compteur
+ * d'allocation du thread, extension HotSpot de ThreadMXBean) ainsi que le
+ * nombre et la durée des collectes pendant la mesure, comme le profileur
+ * GC de JMH.
+ */
+final class MicroBenchmark {
+
+    /**
+     * Opération mesurée. Son résultat est conservé pour que le JIT ne puisse
+     * pas supprimer le calcul.
+     */
+    interface Operation {
+        Object run() throws Exception;
+    }
+
+    static final class Result {
+        final String name;
+        final double opsPerSecond;
+        final double bytesPerOp;
+        final double allocMbPerSecond;
+        final long gcCount;
+        final long gcMillis;
+
+        Result(String name, double opsPerSecond, double bytesPerOp, double allocMbPerSecond,
+               long gcCount, long gcMillis) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+            this.allocMbPerSecond = allocMbPerSecond;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        static String header() {
+            return String.format("%-40s %14s %12s %12s %8s %10s",
+                "banc", "ops/s", "octets/op", "alloc Mo/s", "gc", "gc (ms)");
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %14.0f %12.1f %12.1f %8d %10d",
+                name, opsPerSecond, bytesPerOp, allocMbPerSecond, gcCount, gcMillis);
+        }
+    }
+
+    private static Object sink;
+
+    private final int warmupIterations;
+    private final int iterations;
+    private final long iterationNanos;
+    private final com.sun.management.ThreadMXBean threads;
+
+    MicroBenchmark(int warmupIterations, int iterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.iterations = iterations;
+        this.iterationNanos = TimeUnit.MILLISECONDS.toNanos(iterationMillis);
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        this.threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    Result run(String name, Operation operation) throws Exception {
+        for (int i = 0; i < warmupIterations; i++) {
+            iterate(operation);
+        }
+        System.gc();
+
+        long threadId = Thread.currentThread().threadId();
+        long gcCountBefore = gcCount();
+        long gcMillisBefore = gcMillis();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long ops = 0;
+        for (int i = 0; i < iterations; i++) {
+            ops += iterate(operation);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        double seconds = elapsed / 1e9;
+        Result result = new Result(name, ops / seconds, (double) allocated / ops,
+            allocated / seconds / (1024 * 1024), gcCount() - gcCountBefore, gcMillis() - gcMillisBefore);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Une itération : l'opération en boucle, par lots, jusqu'à la durée prévue.
+     * @return le nombre d'opérations effectuées
+     */
+    private long iterate(Operation operation) throws Exception {
+        long deadline = System.nanoTime() + iterationNanos;
+        long ops = 0;
+        int batch = 1;
+        do {
+            for (int i = 0; i < batch; i++) {
+                sink = operation.run();
+            }
+            ops += batch;
+            if (batch < 1024) {
+                batch <<= 1;
+            }
+        } while (System.nanoTime() < deadline);
+        return ops;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,104 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import common.Constants;
+import common.Message;
+import server.ChatServer;
+import server.InMemoryClients;
+import server.ServerConfig;
+
+/**
+ * Banc d'essai des salons : le coût d'une diffusion quand N clients sont
+ * répartis dans R salons, comparé à une diffusion à tout le serveur (un seul
+ * salon global). Avec la table salon → membres, une diffusion ne paie que
+ * les membres de son salon, soit environ R fois moins de remises.
+ *
+ * La dernière mesure refait la diffusion pendant qu'un autre thread fait
+ * entrer et sortir des clients des salons sans arrêt : les diffusions ne
+ * doivent pas les attendre.
+ *
+ * Usage: java bench.RoomBenchmark [clients] [salons...]   (défaut : 5000 clients, 1 10 100 1000 salons)
+ */
+public class RoomBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int[] roomCounts = { 1, 10, 100, 1000 };
+        if (args.length > 1) {
+            roomCounts = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                roomCounts[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+
+        MicroBenchmark bench = new MicroBenchmark(3, 5, 1000);
+        List<MicroBenchmark.Result> results = new ArrayList<>();
+        System.out.println(MicroBenchmark.Result.header());
+
+        ServerConfig config = new ServerConfig();
+        config.setHistoryDirectory(""); // on mesure la diffusion, pas le disque
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        ChatServer server = new ChatServer(config);
+        InMemoryClients clients = InMemoryClients.attach(server, "user", count);
+
+        // Référence : tout le monde reçoit tout
+        Message global = new Message("user0", "Bonjour tout le monde, comment allez-vous ?");
+        results.add(bench.run("global N=" + count, () -> {
+            clients.broadcastFrom(0, global);
+            return clients;
+        }));
+
+        for (int roomCount : roomCounts) {
+            // Client i dans le salon i % R, et seulement là
+            Message[] messages = new Message[roomCount];
+            for (int r = 0; r < roomCount; r++) {
+                messages[r] = new Message("user" + r, "Bonjour le salon, comment allez-vous ?");
+                messages[r].setRoom("salle" + r);
+            }
+            for (int i = 0; i < count; i++) {
+                clients.joinRoom(i, "salle" + (i % roomCount));
+                clients.leaveRoom(i, Constants.DEFAULT_ROOM);
+            }
+            int[] next = new int[1];
+            MicroBenchmark.Operation broadcast = () -> {
+                int r = next[0]++ % roomCount;
+                clients.broadcastFrom(r, messages[r]);
+                return clients;
+            };
+            String name = "salons R=" + roomCount + " (" + count / roomCount + " membres)";
+            results.add(bench.run(name, broadcast));
+
+            // Va-et-vient permanent pendant les diffusions
+            Thread churn = new Thread(() -> {
+                for (long k = 0; !Thread.currentThread().isInterrupted(); k++) {
+                    int index = (int) (k % count);
+                    String room = "salle" + ((k / count + index) % roomCount);
+                    clients.joinRoom(index, "passage");
+                    clients.leaveRoom(index, "passage");
+                    clients.joinRoom(index, room);
+                    clients.leaveRoom(index, room);
+                    clients.joinRoom(index, "salle" + (index % roomCount));
+                }
+            }, "churn");
+            churn.setDaemon(true);
+            churn.start();
+            results.add(bench.run(name + " + va-et-vient", broadcast));
+            churn.interrupt();
+            churn.join();
+
+            for (int i = 0; i < count; i++) {
+                clients.joinRoom(i, Constants.DEFAULT_ROOM);
+                clients.leaveRoom(i, "salle" + (i % roomCount));
+            }
+        }
+        clients.detach();
+
+        System.out.println();
+        System.out.println("=== RESULTATS ===");
+        System.out.println(MicroBenchmark.Result.header());
+        for (MicroBenchmark.Result result : results) {
+            System.out.println(result);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import javax.management.ObjectName;
+import common.Constants;
+import common.Message;
+import server.ChatServer;
+import server.InMemoryClients;
+import server.ServerConfig;
+
+/**
+ * Banc d'essai de /search : des millions de lignes au vocabulaire de Zipf
+ * (quelques mots très fréquents, une longue traîne de mots rares) passent
+ * par la diffusion et sont indexées au fil de l'eau ; on relève le débit
+ * d'indexation, les fusions de segments et la mémoire, puis la latence de
+ * requêtes de formes variées sur l'index plein.
+ *
+ * Usage: java bench.SearchBenchmark [lignes] [requêtes]   (défaut : 2000000 lignes, 200 requêtes par forme)
+ */
+public class SearchBenchmark {
+    private static final String[] SYLLABLES = { "ba", "ce", "di", "fo", "gu", "la", "me", "ni", "po", "ru",
+        "sa", "te", "vi", "zo", "ka", "lu", "mi", "no", "pe", "ti" };
+    private static final int VOCABULARY = 50_000;
+    private static final int SENDERS = 500;
+    private static final int ROOMS = 20;
+    private static final int WARMUP = 20;
+
+    public static void main(String[] args) throws Exception {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int port = 22700;
+
+        ServerConfig config = ServerConfig.fromArgs(new String[] { "--search-docs=" + lines });
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(""); // on mesure l'index, pas le disque
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        try {
+            // Un seul client, hors de tout salon : les diffusions ne sont remises à personne
+            InMemoryClients clients = InMemoryClients.attach(server, "bench", 1);
+            clients.leaveRoom(0, Constants.DEFAULT_ROOM);
+
+            String[] words = new String[VOCABULARY];
+            double[] cumulative = new double[VOCABULARY];
+            double sum = 0;
+            for (int rank = 0; rank < VOCABULARY; rank++) {
+                words[rank] = word(rank);
+                sum += 1.0 / (rank + 1);
+                cumulative[rank] = sum;
+            }
+            Random random = new Random(42);
+
+            long start = System.nanoTime();
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                content.setLength(0);
+                int count = 8 + random.nextInt(8);
+                for (int w = 0; w < count; w++) {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+                    content.append(words[Math.min(VOCABULARY - 1, rank < 0 ? -rank - 1 : rank)]).append(' ');
+                }
+                Message message = new Message("membre" + random.nextInt(SENDERS), content.toString());
+                message.setRoom("salle" + random.nextInt(ROOMS));
+                clients.broadcastFrom(0, message);
+                // L'indexation ne doit pas perdre de lignes : on laisse le thread suivre
+                if ((i & 4095) == 4095) {
+                    while (i + 1 - counter(port, "SearchIndexed") > 4096) {
+                        Thread.sleep(1);
+                    }
+                }
+            }
+            while (counter(port, "SearchIndexed") + counter(port, "SearchDropped") < lines) {
+                Thread.sleep(10);
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Thread.sleep(500); // dernier segment scellé
+            System.gc();
+            Runtime runtime = Runtime.getRuntime();
+            System.out.println(String.format("%d lignes indexees en %.1f s (%.0f lignes/s), %d perdues, %d fusions, tas %d Mo",
+                counter(port, "SearchIndexed"), seconds, lines / seconds, counter(port, "SearchDropped"),
+                counter(port, "SearchMerges"), (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024)));
+
+            List<String> results = new ArrayList<>();
+            results.add(measure(clients, "mot frequent", words[3], queries));
+            results.add(measure(clients, "mot moyen", words[300], queries));
+            results.add(measure(clients, "mot rare", words[30_000], queries));
+            results.add(measure(clients, "frequent ET moyen", words[3] + " " + words[300], queries));
+            results.add(measure(clients, "deux moyens", words[200] + " " + words[700], queries));
+            results.add(measure(clients, "prefixe", words[40].substring(0, 4) + "*", queries));
+            results.add(measure(clients, "from: seul", "from:membre7", queries));
+            results.add(measure(clients, "moyen from:", words[300] + " from:membre7", queries));
+            results.add(measure(clients, "moyen in: since:1h", words[300] + " in:salle3 since:1h", queries));
+            results.add(measure(clients, "moyen page:50", words[300] + " page:50", queries));
+
+            System.out.println();
+            System.out.println("=== RESULTATS (" + lines + " lignes, " + queries + " requetes par forme) ===");
+            System.out.println(String.format("%-22s %12s %10s %10s %10s", "requete", "trouves", "p50 (us)", "p99 (us)", "max (us)"));
+            for (String line : results) {
+                System.out.println(line);
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Mot pseudo-français du rang donné : deux à quatre syllabes, les rangs
+     * voisins partagent leurs premières syllabes (utile pour les préfixes).
+     */
+    private static String word(int rank) {
+        StringBuilder word = new StringBuilder();
+        int value = rank;
+        do {
+            word.append(SYLLABLES[value % SYLLABLES.length]);
+            value /= SYLLABLES.length;
+        } while (value > 0);
+        while (word.length() < 4) {
+            word.append("xa");
+        }
+        return word.reverse().toString();
+    }
+
+    private static String measure(InMemoryClients clients, String name, String request, int queries) {
+        int found = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            found = clients.search(request);
+        }
+        long[] micros = new long[queries];
+        for (int i = 0; i < queries; i++) {
+            long start = System.nanoTime();
+            found = clients.search(request);
+            micros[i] = (System.nanoTime() - start) / 1000;
+        }
+        Arrays.sort(micros);
+        return String.format("%-22s %12d %10d %10d %10d", name, found,
+            micros[queries / 2], micros[Math.min(queries - 1, (int) (queries * 0.99))], micros[queries - 1]);
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+}
@@ -0,0 +1,180 @@
+package bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import common.Message;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Banc d'essai comparant les modes THREAD et VIRTUAL du serveur.
+ *
+ * Pour chaque mode, un serveur est démarré dans la JVM, N sessions inactives
+ * s'y connectent, puis un émetteur envoie des messages qu'une sonde chronomètre.
+ * Les lecteurs côté banc sont des threads virtuels : le nombre de threads
+ * plateforme mesuré est donc celui du serveur.
+ *
+ * Usage: java bench.ThreadModeBenchmark [sessions] [messages]
+ */
+public class ThreadModeBenchmark {
+    private static final String HOST = "localhost";
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        List<String> results = new ArrayList<>();
+        int port = 22345;
+        for (ServerConfig.TransportMode mode : new ServerConfig.TransportMode[] {
+                ServerConfig.TransportMode.THREAD, ServerConfig.TransportMode.VIRTUAL }) {
+            results.add(run(mode, port, sessions, messages));
+            port += 2;
+        }
+
+        System.out.println();
+        System.out.println("=== RESULTATS (" + sessions + " sessions, " + messages + " messages) ===");
+        System.out.println(String.format("%-8s %12s %16s %12s %12s %12s",
+            "mode", "connexion", "threads plat.", "RSS (Mo)", "p50 (us)", "p99 (us)"));
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    private static String run(ServerConfig.TransportMode mode, int port, int sessions, int messages)
+            throws Exception {
+        ServerConfig config = new ServerConfig();
+        config.setTransportMode(mode);
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(""); // on mesure le transport, pas le disque
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threads.getThreadCount();
+
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        List<BenchSession> idle = new ArrayList<>();
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            idle.add(BenchSession.open(port, "idle" + i, null));
+        }
+        long connectMillis = (System.nanoTime() - connectStart) / 1_000_000;
+
+        // Laisser les annonces de connexion se propager avant de mesurer
+        Thread.sleep(2000);
+        int serverThreads = threads.getThreadCount() - threadsBefore;
+        long rss = residentSetKilobytes();
+
+        BlockingQueue<Long> latencies = new LinkedBlockingQueue<>();
+        BenchSession probe = BenchSession.open(port, "probe", latencies);
+        BenchSession sender = BenchSession.open(port, "sender", null);
+        Thread.sleep(500);
+
+        for (int i = 0; i < messages; i++) {
+            sender.send(new Message("sender", "bench " + System.nanoTime()));
+            Thread.sleep(2);
+        }
+
+        long[] samples = new long[messages];
+        int received = 0;
+        for (; received < messages; received++) {
+            Long latency = latencies.poll(10, TimeUnit.SECONDS);
+            if (latency == null) {
+                break;
+            }
+            samples[received] = latency;
+        }
+        Arrays.sort(samples, 0, received);
+
+        sender.close();
+        probe.close();
+        for (BenchSession session : idle) {
+            session.close();
+        }
+        server.shutdown();
+        Thread.sleep(1000);
+
+        return String.format("%-8s %10d ms %16d %12s %12d %12d",
+            mode, connectMillis, serverThreads,
+            rss < 0 ? "n/d" : String.valueOf(rss / 1024),
+            percentile(samples, received, 0.50) / 1000,
+            percentile(samples, received, 0.99) / 1000);
+    }
+
+    private static long percentile(long[] sorted, int count, double quantile) {
+        if (count == 0) {
+            return -1;
+        }
+        return sorted[Math.min(count - 1, (int) (count * quantile))];
+    }
+
+    /**
+     * Mémoire résidente du processus (Linux uniquement), -1 si indisponible.
+     */
+    private static long residentSetKilobytes() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Pas de /proc : on ne mesure pas
+        }
+        return -1;
+    }
+
+    /**
+     * Session de chat minimale parlant le même protocole que ChatClient.
+     */
+    private static class BenchSession {
+        private final Socket socket;
+        private final ObjectOutputStream out;
+
+        private BenchSession(Socket socket, ObjectOutputStream out) {
+            this.socket = socket;
+            this.out = out;
+        }
+
+        static BenchSession open(int port, String username, BlockingQueue<Long> latencies)
+                throws IOException {
+            Socket socket = new Socket(HOST, port);
+            ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
+            out.flush();
+            ObjectInputStream in = new ObjectInputStream(socket.getInputStream());
+            out.writeObject(username);
+            out.flush();
+
+            Thread.ofVirtual().name("bench-" + username).start(() -> {
+                try {
+                    while (true) {
+                        Message message = (Message) in.readObject();
+                        String content = message.getContent();
+                        if (latencies != null && content != null && content.startsWith("bench ")) {
+                            latencies.add(System.nanoTime() - Long.parseLong(content.substring(6)));
+                        }
+                    }
+                } catch (IOException | ClassNotFoundException e) {
+                    // Session fermée
+                }
+            });
+            return new BenchSession(socket, out);
+        }
+
+        synchronized void send(Message message) throws IOException {
+            out.writeObject(message);
+            out.flush();
+            out.reset();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
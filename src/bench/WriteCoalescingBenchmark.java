@@ -0,0 +1,178 @@
+package bench;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.management.ObjectName;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Banc d'essai du regroupement des écritures : pour chaque transport, avec et
+ * sans attente de la suite d'une rafale (--flush-delay-us), un émetteur envoie
+ * une salve à N récepteurs ; on compte les appels d'écriture du serveur
+ * (SocketWrites) pour les messages remis. Puis un message toutes les 5 ms :
+ * la latence ne doit pas souffrir quand le trafic est calme.
+ *
+ * Usage: java bench.WriteCoalescingBenchmark [récepteurs] [messages]   (défaut : 20 récepteurs, 5000 messages)
+ */
+public class WriteCoalescingBenchmark {
+    private static final int QUIET_MESSAGES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int receivers = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int messages = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+
+        List<String> results = new ArrayList<>();
+        int port = 22600;
+        for (String transport : new String[] { "thread", "virtual", "nio" }) {
+            for (long delay : new long[] { 0, 50 }) {
+                results.add(run(transport, delay, port, receivers, messages));
+                port += 2;
+            }
+        }
+
+        System.out.println();
+        System.out.println("=== RESULTATS (" + receivers + " recepteurs, " + messages + " messages) ===");
+        System.out.println(String.format("%-8s %9s %12s %12s %10s %12s %10s %10s",
+            "mode", "delai us", "remises", "ecritures", "msg/appel", "salve (ms)", "p50 (us)", "p99 (us)"));
+        for (String line : results) {
+            System.out.println(line);
+        }
+    }
+
+    private static String run(String transport, long delayMicros, int port, int receivers, int messages)
+            throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {
+            "--transport=" + transport, "--flush-delay-us=" + delayMicros, "--flood-rate=0", "--flood-bytes=0" });
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(""); // on mesure le transport, pas le disque
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        config.setPresenceWindowMillis(0);
+        config.setOutboundCapacity(messages + 64); // toute la salve doit arriver
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        try {
+            CountDownLatch done = new CountDownLatch(receivers);
+            long[] latencies = new long[QUIET_MESSAGES];
+            AtomicInteger quiet = new AtomicInteger();
+            List<Session> sessions = new ArrayList<>();
+            for (int i = 0; i < receivers; i++) {
+                boolean probe = i == 0;
+                sessions.add(new Session(port, "r" + i, content -> {
+                    if (content.equals("salve " + (messages - 1))) {
+                        done.countDown();
+                    } else if (probe && content.startsWith("calme ")) {
+                        int n = quiet.getAndIncrement();
+                        if (n < latencies.length) {
+                            latencies[n] = (System.nanoTime() - Long.parseLong(content.substring(6))) / 1000;
+                        }
+                    }
+                }));
+            }
+            Session sender = new Session(port, "emetteur", content -> { });
+            Thread.sleep(500);
+
+            // Salve : un appel d'écriture par message côté émetteur
+            long writesBefore = counter(port, "SocketWrites");
+            long outBefore = counter(port, "MessagesOut");
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) {
+                sender.send("salve " + i);
+            }
+            done.await(30, TimeUnit.SECONDS);
+            long burstMillis = (System.nanoTime() - start) / 1_000_000;
+            long writes = counter(port, "SocketWrites") - writesBefore;
+            long delivered = counter(port, "MessagesOut") - outBefore;
+
+            // Trafic calme
+            for (int i = 0; i < QUIET_MESSAGES; i++) {
+                sender.send("calme " + System.nanoTime());
+                Thread.sleep(5);
+            }
+            Thread.sleep(200);
+            int measured = Math.min(quiet.get(), latencies.length);
+            long[] sorted = Arrays.copyOf(latencies, measured);
+            Arrays.sort(sorted);
+
+            sender.close();
+            for (Session session : sessions) {
+                session.close();
+            }
+            return String.format("%-8s %9d %12d %12d %10.1f %12d %10d %10d", transport, delayMicros,
+                delivered, writes, writes > 0 ? (double) delivered / writes : 0.0, burstMillis,
+                percentile(sorted, 0.50), percentile(sorted, 0.99));
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+
+    /**
+     * Session binaire minimale ; le lecteur passe le contenu des TEXT à sink.
+     */
+    private static final class Session {
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final String username;
+
+        Session(int port, String username, Consumer<String> sink) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        Message message = MessageCodec.read(in);
+                        if (message.getType() == Message.MessageType.TEXT) {
+                            sink.accept(message.getContent());
+                        }
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "bench-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
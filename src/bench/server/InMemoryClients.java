@@ -0,0 +1,162 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import common.Message;
+
+/**
+ * Clients en mémoire pour les bancs d'essai : de vrais ClientHandler inscrits
+ * auprès du serveur (connexion, nom, liste des utilisateurs), dont la connexion
+ * se contente de compter les trames et de les rendre. Aucune socket n'est
+ * ouverte, on ne mesure donc que le travail du serveur.
+ *
+ * Rangée avec les bancs d'essai et compilée seulement avec eux, mais dans le
+ * paquet server pour atteindre ses classes internes.
+ */
+public final class InMemoryClients {
+    private final ChatServer server;
+    private final List<ClientHandler> handlers;
+    private final LongAdder frames;
+    private final LongAdder bytes;
+
+    private InMemoryClients(ChatServer server) {
+        this.server = server;
+        this.handlers = new ArrayList<>();
+        this.frames = new LongAdder();
+        this.bytes = new LongAdder();
+    }
+
+    /**
+     * Connecte count clients au format binaire, nommés prefix0, prefix1...
+     */
+    public static InMemoryClients attach(ChatServer server, String prefix, int count) {
+        InMemoryClients clients = new InMemoryClients(server);
+        for (int i = 0; i < count; i++) {
+            ClientHandler handler = new ClientHandler(clients.new CountingConnection(server.getConfig(), server.getMetrics()),
+                new DetachedSocket(i), server);
+            server.addClient(handler);
+            handler.handleLogin(new Message(prefix + i, "", Message.MessageType.CONNECT));
+            clients.handlers.add(handler);
+        }
+        return clients;
+    }
+
+    public int size() {
+        return handlers.size();
+    }
+
+    /**
+     * Diffuse un message de chat comme s'il venait du client index.
+     */
+    public void broadcastFrom(int index, Message message) {
+        server.broadcastMessage(message, handlers.get(index));
+    }
+
+    /**
+     * Fait entrer le client index dans un salon, sans annonce.
+     */
+    public void joinRoom(int index, String room) {
+        handlers.get(index).enterRoom(room);
+    }
+
+    /**
+     * Fait sortir le client index d'un salon, sans annonce.
+     */
+    public void leaveRoom(int index, String room) {
+        handlers.get(index).exitRoom(room);
+    }
+
+    /**
+     * Construit et envoie la réponse à /list au client index.
+     */
+    public void sendUserList(int index) {
+        handlers.get(index).sendUserList();
+    }
+
+    /**
+     * Exécute une requête /search sur le thread appelant, dans tous les salons.
+     * @return le nombre de messages trouvés
+     */
+    public int search(String request) {
+        return server.getSearch().search(SearchQuery.parse(request, System.currentTimeMillis()), null).total;
+    }
+
+    public long framesDelivered() {
+        return frames.sum();
+    }
+
+    public long bytesDelivered() {
+        return bytes.sum();
+    }
+
+    public void detach() {
+        for (ClientHandler handler : handlers) {
+            handler.disconnect();
+        }
+        handlers.clear();
+    }
+
+    /**
+     * Connexion qui accepte tout : la trame est comptée puis rendue aussitôt.
+     */
+    private final class CountingConnection implements Connection {
+        private final OutboundQueue queue;
+
+        CountingConnection(ServerConfig config, ServerMetrics metrics) {
+            this.queue = new OutboundQueue(config, metrics);
+        }
+
+        @Override
+        public WireFormat format() {
+            return WireFormat.BINARY;
+        }
+
+        @Override
+        public boolean send(OutboundFrame frame) {
+            frames.increment();
+            bytes.add(frame.length());
+            frame.release();
+            return true;
+        }
+
+        @Override
+        public OutboundQueue outboundQueue() {
+            return queue;
+        }
+
+        @Override
+        public boolean pauseReading(long nanos) {
+            return true; // rien n'est lu
+        }
+
+        @Override
+        public void close() throws IOException {
+            queue.close();
+        }
+    }
+
+    /**
+     * Socket jamais connectée : ClientHandler n'en lit que l'adresse et le port.
+     */
+    private static final class DetachedSocket extends Socket {
+        private final int port;
+
+        DetachedSocket(int port) {
+            this.port = port;
+        }
+
+        @Override
+        public InetAddress getInetAddress() {
+            return InetAddress.getLoopbackAddress();
+        }
+
+        @Override
+        public int getPort() {
+            return port;
+        }
+    }
+}
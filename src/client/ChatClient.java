@@ -2,53 +2,79 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import common.Message;
+import common.MessageCodec;
 import common.Constants;
+import common.LoginAttributes;
+import common.PresenceUpdate;
 
 public class ChatClient {
+    // Noms affichés au plus dans une annonce groupée d'arrivées ou de départs
+    private static final int ROSTER_NAMES_SHOWN = 10;
+    // Acquittement cumulatif au plus tous les ACK_EVERY messages ou ACK_INTERVAL_MS
+    private static final int ACK_EVERY = 32;
+    private static final long ACK_INTERVAL_MS = 5000;
+    private static final int RESUME_ATTEMPTS = 10;
+    
     private Socket tcpSocket;
     private DatagramSocket udpSocket;
-    private ObjectOutputStream tcpOut;
+    private ObjectOutputStream tcpOut;   // ancien format (sérialisation Java)
     private ObjectInputStream tcpIn;
+    private DataOutputStream frameOut;   // format binaire MessageCodec
+    private DataInputStream frameIn;
+    private boolean binaryProtocol;
     private InetAddress serverAddress;
     private String username;
     private boolean isConnected;
     private Scanner scanner;
+    // Liste locale des connectés, tenue à jour par les messages PRESENCE (format binaire)
+    private final TreeSet<String> roster;
+    private long rosterVersion;
+    private boolean resyncRequested;
+    // Session reprenable (format binaire) : jeton et numéro de la dernière trame lue
+    private volatile String sessionToken;
+    private long received;
+    private long acked;
+    private long ackedAt;
+    // Battements de cœur : heure de la dernière trame reçue (format binaire)
+    private volatile long lastHeard;
+    private final AtomicInteger pendingWrites = new AtomicInteger();
     
     public ChatClient(String username) {
         this.username = username;
         this.isConnected = false;
         this.scanner = new Scanner(System.in);
+        this.roster = new TreeSet<>();
+        this.rosterVersion = -1; // pas encore d'instantané
     }
     
     public boolean connect() {
         System.out.println("🔗 Connexion au serveur " + Constants.SERVER_IP + ":" + Constants.TCP_PORT + "...");
         
+        // Vérifier que le nom d'utilisateur n'est pas vide
+        if (username == null || username.trim().isEmpty()) {
+            username = "User" + System.currentTimeMillis();
+        }
+        
         try {
-            // Connexion TCP
-            tcpSocket = new Socket();
-            tcpSocket.connect(new InetSocketAddress(Constants.SERVER_IP, Constants.TCP_PORT), 5000);
-            
-            // IMPORTANT: Ordre correct des flux
-            tcpOut = new ObjectOutputStream(tcpSocket.getOutputStream());
-            tcpOut.flush(); // CRITIQUE !
-            
-            tcpIn = new ObjectInputStream(tcpSocket.getInputStream());
-            
-            // Connexion UDP
+            // Socket UDP ouverte d'abord : son port est annoncé au serveur à la connexion
             udpSocket = new DatagramSocket();
             serverAddress = InetAddress.getByName(Constants.SERVER_IP);
             
-            // Envoyer le nom d'utilisateur - vérifier qu'il n'est pas vide
-            if (username == null || username.trim().isEmpty()) {
-                username = "User" + System.currentTimeMillis();
+            // Format binaire d'abord, sérialisation Java si le serveur est ancien
+            if (!connectBinary()) {
+                System.out.println("ℹ️ Serveur ancien : passage en sérialisation Java");
+                connectSerialized();
             }
             
-            System.out.println("📤 Envoi du nom d'utilisateur: " + username);
-            tcpOut.writeObject(username);
-            tcpOut.flush();
-            
             isConnected = true;
             System.out.println("✅ Connecté au serveur avec succès!");
             
@@ -66,6 +92,66 @@ public class ChatClient {
         }
     }
     
+    private void openSocket() throws IOException {
+        tcpSocket = new Socket();
+        tcpSocket.connect(new InetSocketAddress(Constants.SERVER_IP, Constants.TCP_PORT), 5000);
+    }
+    
+    /**
+     * Tente la poignée de main binaire ; false si le serveur ne la comprend pas
+     * (un ancien serveur répond par un en-tête de sérialisation puis ferme).
+     */
+    private boolean connectBinary() throws IOException {
+        openSocket();
+        frameOut = new DataOutputStream(new BufferedOutputStream(tcpSocket.getOutputStream()));
+        frameIn = new DataInputStream(new BufferedInputStream(tcpSocket.getInputStream()));
+        frameOut.write(MessageCodec.handshake(MessageCodec.VERSION));
+        frameOut.flush();
+        
+        try {
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            frameIn.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+        } catch (IOException e) {
+            tcpSocket.close();
+            return false;
+        }
+        binaryProtocol = true;
+        
+        System.out.println("📤 Envoi du nom d'utilisateur: " + username);
+        Map<String, String> hello = new LinkedHashMap<>();
+        hello.put(LoginAttributes.UDP_PORT, String.valueOf(udpSocket.getLocalPort()));
+        if (sessionToken == null) {
+            hello.put(LoginAttributes.HISTORY, "last:" + Constants.HISTORY_ON_CONNECT);
+            hello.put(LoginAttributes.RESUME, "1");
+        } else {
+            // Reprise : le serveur renvoie seulement ce qui suit la dernière trame lue
+            hello.put(LoginAttributes.RESUME, sessionToken + ":" + received);
+        }
+        hello.put(LoginAttributes.PRESENCE, "1");
+        hello.put(LoginAttributes.HEARTBEAT, "1");
+        String attributes = LoginAttributes.format(hello);
+        MessageCodec.write(frameOut, new Message(username, attributes, Message.MessageType.CONNECT));
+        frameOut.flush();
+        lastHeard = System.nanoTime();
+        return true;
+    }
+    
+    private void connectSerialized() throws IOException {
+        openSocket();
+        
+        // IMPORTANT: Ordre correct des flux
+        tcpOut = new ObjectOutputStream(tcpSocket.getOutputStream());
+        tcpOut.flush(); // CRITIQUE !
+        
+        tcpIn = new ObjectInputStream(tcpSocket.getInputStream());
+        binaryProtocol = false;
+        
+        System.out.println("📤 Envoi du nom d'utilisateur: " + username);
+        tcpOut.writeObject(username);
+        tcpOut.flush();
+    }
+    
     public void start() {
         if (!connect()) {
             System.out.println("Appuyez sur Entrée pour quitter...");
@@ -78,6 +164,17 @@ public class ChatClient {
         receiverThread.setDaemon(true);
         receiverThread.start();
         
+        // Seul un serveur binaire connaît notre port UDP et nous renvoie des datagrammes
+        if (binaryProtocol) {
+            Thread udpReceiverThread = new Thread(() -> receiveUDPMessages(), "udp-receive");
+            udpReceiverThread.setDaemon(true);
+            udpReceiverThread.start();
+            
+            Thread heartbeatThread = new Thread(() -> heartbeat(), "heartbeat");
+            heartbeatThread.setDaemon(true);
+            heartbeatThread.start();
+        }
+        
         // Afficher les instructions
         showHelp();
         
@@ -100,7 +197,11 @@ public class ChatClient {
                     String udpMessage = input.substring(5);
                     sendUDPMessage(udpMessage);
                 } else if (input.equals(Constants.CMD_LIST)) {
-                    sendMessage(new Message(username, "/list"));
+                    if (binaryProtocol) {
+                        showRoster(); // liste locale, sans aller-retour au serveur
+                    } else {
+                        sendMessage(new Message(username, "/list"));
+                    }
                 } else {
                     sendMessage(new Message(username, input));
                 }
@@ -113,20 +214,53 @@ public class ChatClient {
     
     private void sendMessage(Message message) {
         try {
-            if (tcpOut != null && isConnected) {
-                tcpOut.writeObject(message);
-                tcpOut.flush();
-                tcpOut.reset(); // Évite la corruption d'objets
+            if (isConnected) {
+                writeMessage(message);
             }
         } catch (IOException e) {
+            if (sessionToken != null) {
+                // Le thread de réception voit aussi la coupure et reprend la session
+                System.err.println("❌ Message non envoyé, reconnexion en cours");
+                return;
+            }
             System.err.println("❌ Erreur d'envoi du message: " + e.getMessage());
             disconnect();
         }
     }
     
+    /**
+     * Écrit un message ; seul le dernier d'une série d'écrivains simultanés
+     * (console, PONG, acquittements) vide le tampon, en un seul envoi.
+     */
+    private void writeMessage(Message message) throws IOException {
+        pendingWrites.incrementAndGet();
+        synchronized (this) {
+            boolean last = pendingWrites.decrementAndGet() == 0;
+            if (binaryProtocol) {
+                MessageCodec.write(frameOut, message);
+                if (last) {
+                    frameOut.flush();
+                }
+            } else {
+                tcpOut.writeObject(message);
+                if (last) {
+                    tcpOut.flush();
+                    tcpOut.reset(); // Évite la corruption d'objets
+                }
+            }
+        }
+    }
+    
+    private Message readMessage() throws IOException, ClassNotFoundException {
+        if (binaryProtocol) {
+            return MessageCodec.read(frameIn);
+        }
+        return (Message) tcpIn.readObject();
+    }
+    
     private void sendUDPMessage(String message) {
         try {
-            byte[] buffer = message.getBytes();
+            byte[] buffer = message.getBytes(StandardCharsets.UTF_8);
             DatagramPacket packet = new DatagramPacket(
                 buffer, buffer.length, serverAddress, Constants.UDP_PORT);
             udpSocket.send(packet);
@@ -139,16 +273,40 @@ public class ChatClient {
     private void receiveMessages() {
         while (isConnected) {
             try {
-                Message message = (Message) tcpIn.readObject();
-                if (message != null) {
+                Message message = readMessage();
+                if (message == null) {
+                    continue;
+                }
+                lastHeard = System.nanoTime();
+                if (message.getType() == Message.MessageType.SESSION) {
+                    startSession(message);
+                    continue;
+                }
+                if (sessionToken != null) {
+                    received++;
+                    acknowledge();
+                }
+                if (message.getType() == Message.MessageType.PING) {
+                    sendMessage(new Message(username, "", Message.MessageType.PONG));
+                } else if (message.getType() == Message.MessageType.PONG) {
+                    // Le serveur répond : rien d'autre à faire
+                } else if (message.getType() == Message.MessageType.PRESENCE) {
+                    applyPresence(message);
+                } else {
                     System.out.println("\n" + message.toString());
                     System.out.print("Vous (" + username + ")> ");
                 }
             } catch (EOFException e) {
+                if (isConnected && resumeSession()) {
+                    continue;
+                }
                 System.out.println("\n🔌 Déconnecté du serveur");
                 disconnect();
                 break;
             } catch (IOException | ClassNotFoundException e) {
+                if (isConnected && e instanceof IOException && resumeSession()) {
+                    continue;
+                }
                 if (isConnected) {
                     System.err.println("\n❌ Erreur de réception: " + e.getMessage());
                     disconnect();
@@ -158,10 +316,212 @@ public class ChatClient {
         }
     }
     
+    /**
+     * Message SESSION : jeton à présenter en cas de reconnexion, et numéro de
+     * ce message dans le flux (chaque trame suivante compte pour un).
+     */
+    private void startSession(Message message) {
+        Map<String, String> fields = LoginAttributes.parse(message.getContent());
+        String token = fields.get(LoginAttributes.SESSION_TOKEN);
+        String sequence = fields.get(LoginAttributes.SESSION_SEQUENCE);
+        if (token == null || sequence == null) {
+            return;
+        }
+        if (sessionToken != null && !"1".equals(fields.get(LoginAttributes.SESSION_RESUMED))) {
+            // Session expirée côté serveur : tout repart de zéro, liste comprise
+            System.out.println("\nℹ️ Session expirée, nouvelle connexion");
+            synchronized (roster) {
+                rosterVersion = -1;
+            }
+        }
+        sessionToken = token;
+        received = Long.parseLong(sequence);
+        acked = received;
+        ackedAt = System.nanoTime();
+    }
+    
+    /**
+     * Acquittement cumulatif : le serveur peut oublier tout ce qui a été lu.
+     */
+    private void acknowledge() {
+        long now = System.nanoTime();
+        if (received - acked >= ACK_EVERY || now - ackedAt >= ACK_INTERVAL_MS * 1_000_000L) {
+            acked = received;
+            ackedAt = now;
+            sendMessage(new Message(username, "/ack " + received));
+        }
+    }
+    
+    /**
+     * Battements de cœur côté client : après HEARTBEAT_INTERVAL_SECONDS sans
+     * rien recevoir, un PING ; sans réponse avant IDLE_TIMEOUT_SECONDS, la
+     * connexion est tenue pour morte (NAT expiré, réseau coupé) et fermée, ce
+     * qui lance la reprise de session depuis le thread de réception.
+     */
+    private void heartbeat() {
+        long interval = TimeUnit.SECONDS.toNanos(Constants.HEARTBEAT_INTERVAL_SECONDS);
+        long timeout = TimeUnit.SECONDS.toNanos(Constants.IDLE_TIMEOUT_SECONDS);
+        long pingedFor = 0;
+        while (isConnected) {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long heard = lastHeard;
+            long silent = System.nanoTime() - heard;
+            if (silent >= timeout) {
+                lastHeard = System.nanoTime(); // une seule fermeture, le temps de la reconnexion
+                try {
+                    tcpSocket.close();
+                } catch (IOException e) {
+                    // Déjà fermée
+                }
+            } else if (silent >= interval && pingedFor != heard) {
+                pingedFor = heard;
+                sendMessage(new Message(username, "", Message.MessageType.PING));
+            }
+        }
+    }
+    
+    /**
+     * Connexion perdue sans /quit : reconnexion avec le jeton de session. Le
+     * serveur ne renvoie que les messages manqués, sans annoncer de départ ni
+     * de retour aux autres.
+     * @return false si aucune reconnexion n'a abouti
+     */
+    private boolean resumeSession() {
+        if (!binaryProtocol || sessionToken == null) {
+            return false;
+        }
+        System.out.println("\n🔄 Connexion perdue, reconnexion...");
+        for (int attempt = 1; attempt <= RESUME_ATTEMPTS && isConnected; attempt++) {
+            try {
+                synchronized (this) {
+                    tcpSocket.close();
+                    if (connectBinary()) {
+                        return true;
+                    }
+                }
+            } catch (IOException e) {
+                // Serveur injoignable pour l'instant : on réessaie
+            }
+            try {
+                Thread.sleep(Math.min(attempt * 500L, 3000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Met à jour la liste locale. Un delta qui ne suit pas la version connue
+     * déclenche une demande de resynchronisation (/presence version).
+     */
+    private void applyPresence(Message message) {
+        PresenceUpdate update;
+        try {
+            update = PresenceUpdate.parse(message.getContent());
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        
+        synchronized (roster) {
+            if (update.getKind() == PresenceUpdate.Kind.SNAPSHOT) {
+                boolean first = rosterVersion < 0;
+                roster.clear();
+                roster.addAll(update.getNames());
+                rosterVersion = update.getVersion();
+                resyncRequested = false;
+                if (first) {
+                    showRoster();
+                }
+                return;
+            }
+            if (rosterVersion < 0 || update.getVersion() <= rosterVersion) {
+                return; // avant l'instantané, ou déjà appliqué
+            }
+            if (update.getVersion() > rosterVersion + 1) {
+                if (!resyncRequested) {
+                    resyncRequested = true;
+                    sendMessage(new Message(username, "/presence " + rosterVersion));
+                }
+                return;
+            }
+            rosterVersion = update.getVersion();
+            resyncRequested = false;
+            if (update.getKind() == PresenceUpdate.Kind.JOIN) {
+                roster.addAll(update.getNames());
+            } else {
+                roster.removeAll(update.getNames());
+            }
+        }
+        
+        boolean joined = update.getKind() == PresenceUpdate.Kind.JOIN;
+        List<String> names = update.getNames();
+        String text;
+        if (names.size() == 1) {
+            text = names.get(0) + (joined ? Constants.CONNECT_MESSAGE : Constants.DISCONNECT_MESSAGE);
+        } else {
+            // Annonce groupée pendant une vague de connexions : on résume
+            text = (joined ? "+" : "-") + names.size() + (joined ? " connecté(e)s: " : " déconnecté(e)s: ")
+                + String.join(", ", names.subList(0, Math.min(names.size(), ROSTER_NAMES_SHOWN)))
+                + (names.size() > ROSTER_NAMES_SHOWN ? "..." : "");
+        }
+        Message notice = new Message(message.getSender(), text,
+            joined ? Message.MessageType.CONNECT : Message.MessageType.DISCONNECT, message.getTimestamp());
+        System.out.println("\n" + notice.toString());
+        System.out.print("Vous (" + username + ")> ");
+    }
+    
+    private void showRoster() {
+        StringBuilder userList;
+        synchronized (roster) {
+            userList = new StringBuilder("👥 Utilisateurs connectés (" + roster.size() + "):\n");
+            for (String user : roster) {
+                userList.append("  • ").append(user).append("\n");
+            }
+        }
+        System.out.println(userList);
+    }
+    
+    /**
+     * Reçoit les trames UDP relayées par le serveur (même format que sur TCP).
+     * Les datagrammes perdus ou malformés sont simplement ignorés.
+     */
+    private void receiveUDPMessages() {
+        byte[] buffer = new byte[65507];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (isConnected) {
+            try {
+                packet.setLength(buffer.length);
+                udpSocket.receive(packet);
+                if (packet.getLength() < 4) {
+                    continue;
+                }
+                Message message = MessageCodec.decode(buffer, 4, packet.getLength() - 4);
+                System.out.println("\n📡 [UDP] " + message.toString());
+                System.out.print("Vous (" + username + ")> ");
+            } catch (StreamCorruptedException e) {
+                // Datagramme illisible : ignoré
+            } catch (IOException e) {
+                break; // socket fermée à la déconnexion
+            }
+        }
+    }
+    
     private void showHelp() {
         System.out.println("\n📋 COMMANDES DISPONIBLES:");
         System.out.println("  /help           - Afficher cette aide");
         System.out.println("  /list           - Lister les utilisateurs connectés");
+        System.out.println("  /msg [user] [message] - Envoyer un message privé");
+        System.out.println("  /history [n]    - Revoir les n derniers messages");
+        System.out.println("  /search [mots] [from:nom] [since:2h] [page:N] - Chercher dans les messages");
+        System.out.println("  /join [salon]   - Rejoindre un salon (il devient le salon courant)");
+        System.out.println("  /leave [salon]  - Quitter un salon (par défaut le salon courant)");
+        System.out.println("  /rooms          - Lister les salons ouverts");
         System.out.println("  /udp [message]  - Envoyer un message via UDP");
         System.out.println("  /quit           - Quitter le chat");
         System.out.println();
@@ -173,18 +533,15 @@ public class ChatClient {
             
             try {
                 // Envoyer un message de déconnexion si possible
-                if (tcpOut != null && tcpSocket != null && !tcpSocket.isClosed()) {
+                if (tcpSocket != null && !tcpSocket.isClosed()) {
                     try {
                         Message quitMsg = new Message(username, Constants.CMD_QUIT);
-                        tcpOut.writeObject(quitMsg);
-                        tcpOut.flush();
+                        writeMessage(quitMsg);
                     } catch (Exception e) {
                         // Ignorer
                     }
                 }
                 
-                if (tcpOut != null) tcpOut.close();
-                if (tcpIn != null) tcpIn.close();
                 if (tcpSocket != null && !tcpSocket.isClosed()) {
                     tcpSocket.close();
                 }
@@ -14,12 +14,33 @@ public class Constants {
     public static final String CMD_UDP = "/udp";
     public static final String CMD_HELP = "/help";
     public static final String CMD_PRIVATE = "/msg";
+    public static final String CMD_JOIN = "/join";
+    public static final String CMD_LEAVE = "/leave";
+    public static final String CMD_ROOMS = "/rooms";
+    
+    // Salons : chacun rejoint le salon par défaut à la connexion
+    public static final String DEFAULT_ROOM = "general";
+    public static final int MAX_ROOMS_PER_CLIENT = 32;
+    public static final int MAX_ROOM_NAME_LENGTH = 32;
+    
+    // Au-delà, le nom est tronqué à la connexion
+    public static final int MAX_USERNAME_LENGTH = 32;
     
     // Messages système
     public static final String SYSTEM_SENDER = "SERVEUR";
     public static final String CONNECT_MESSAGE = " s'est connecté(e)";
     public static final String DISCONNECT_MESSAGE = " s'est déconnecté(e)";
     
+    // Messages d'historique demandés à la connexion
+    public static final int HISTORY_ON_CONNECT = 20;
+    
+    // Battements de cœur : PING après ce silence, connexion tenue pour morte après le second
+    public static final int HEARTBEAT_INTERVAL_SECONDS = 15;
+    public static final int IDLE_TIMEOUT_SECONDS = 45;
+    
     // Tailles de buffer
     public static final int BUFFER_SIZE = 1024;
+    
+    // Taille maximale acceptée pour un message reçu
+    public static final int MAX_FRAME_SIZE = 1024 * 1024;
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogramme de latences en microsecondes, à précision relative constante
+ * (environ 3 %) : valeurs exactes jusqu'à 63 µs, puis 32 classes par puissance
+ * de deux. Taille fixe, enregistrement sans verrou ni allocation, utilisable
+ * depuis un grand nombre de threads.
+ *
+ * Les classes sont réparties en bandes (une par cœur, au plus 16) : chaque
+ * thread incrémente celle que désigne son identifiant, si bien que les
+ * écrivains et les boucles NIO ne se disputent pas les mêmes lignes de cache.
+ * La lecture additionne les bandes.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;            // 64 µs
+    private static final int MAX_EXPONENT = 40;                         // ~12 jours
+    private static final int BUCKETS = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = Math.min(16,
+        Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)));
+
+    private final AtomicLongArray[] stripes;
+    private final LongAdder total;
+    private final LongAdder sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.stripes = new AtomicLongArray[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        this.total = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        stripes[stripe()].incrementAndGet(bucket(micros));
+        total.increment();
+        sum.add(micros);
+        long current = max.get();
+        while (micros > current && !max.compareAndSet(current, micros)) {
+            current = max.get(); // relevé entre-temps par un autre thread
+        }
+    }
+
+    private static int stripe() {
+        if (STRIPES == 1) {
+            return 0;
+        }
+        long id = Thread.currentThread().threadId() * 0x9E3779B97F4A7C15L;
+        return (int) (id >>> 32) & (STRIPES - 1);
+    }
+
+    private static int bucket(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= 6
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - SUB_BITS - 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Plus grande valeur représentée par une classe.
+     */
+    private static long upperBound(int bucket) {
+        if (bucket < LINEAR_LIMIT) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + SUB_BITS + 1;
+        int sub = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        long base = (1L << exponent) + ((long) sub << (exponent - SUB_BITS));
+        return base + (1L << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * Latence en deçà de laquelle se trouve la fraction quantile des valeurs
+     * (0.99 pour le p99), en microsecondes ; -1 si l'histogramme est vide.
+     */
+    public long percentile(double quantile) {
+        long count = total.sum();
+        if (count == 0) {
+            return -1;
+        }
+        long rank = Math.max(1, (long) Math.ceil(count * quantile));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            for (AtomicLongArray stripe : stripes) {
+                seen += stripe.get(i);
+            }
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long count() {
+        return total.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public double mean() {
+        long count = total.sum();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Résumé sur une ligne : nombre, p50, p99, p999 et max en microsecondes.
+     */
+    public String summary() {
+        return String.format("n=%d p50=%dus p99=%dus p999=%dus max=%dus",
+            count(), percentile(0.50), percentile(0.99), percentile(0.999), max());
+    }
+}
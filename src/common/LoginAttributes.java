@@ -0,0 +1,55 @@
+package common;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Attributs facultatifs transmis par un client binaire dans le contenu de son
+ * message CONNECT, sous la forme cle=valeur;cle=valeur.
+ * Un serveur ignore les clés qu'il ne connaît pas.
+ */
+public final class LoginAttributes {
+    public static final String UDP_PORT = "udp";
+    // Historique à relire à la connexion : last:N ou since:heure en ms
+    public static final String HISTORY = "history";
+    // Le client tient sa propre liste des connectés à partir des messages PRESENCE
+    public static final String PRESENCE = "presence";
+    // Session reprenable : "1" pour en ouvrir une, "jeton:numéro" pour reprendre
+    // après la dernière trame reçue (numéro du message SESSION, puis +1 par trame)
+    public static final String RESUME = "resume";
+    // Le client répond aux PING du serveur : sa connexion est surveillée
+    public static final String HEARTBEAT = "heartbeat";
+
+    // Champs du message SESSION envoyé par le serveur, même format
+    public static final String SESSION_TOKEN = "token";
+    public static final String SESSION_SEQUENCE = "seq";   // numéro de ce message dans le flux
+    public static final String SESSION_RESUMED = "resumed"; // 1 si la session continue
+
+    private LoginAttributes() {
+    }
+
+    public static Map<String, String> parse(String content) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        if (content == null || content.isEmpty()) {
+            return attributes;
+        }
+        for (String pair : content.split(";")) {
+            int separator = pair.indexOf('=');
+            if (separator > 0) {
+                attributes.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+            }
+        }
+        return attributes;
+    }
+
+    public static String format(Map<String, String> attributes) {
+        StringBuilder content = new StringBuilder();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            if (content.length() > 0) {
+                content.append(';');
+            }
+            content.append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return content.toString();
+    }
+}
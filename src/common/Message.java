@@ -11,9 +11,14 @@ public class Message implements Serializable {
     private String content;
     private Date timestamp;
     private MessageType type;
+    private String room; // salon du message, null pour tout le serveur
     
     public enum MessageType {
-        TEXT, CONNECT, DISCONNECT, ERROR, INFO
+        TEXT, CONNECT, DISCONNECT, ERROR, INFO,
+        PRESENCE, // liste des connectés versionnée, voir PresenceUpdate (clients binaires seulement)
+        SESSION,  // jeton et numéro de flux d'une session reprenable, voir LoginAttributes
+        PING,     // battement de cœur, dans les deux sens : l'autre côté répond PONG
+        PONG
     }
     
     // Constructeurs
@@ -31,6 +36,13 @@ public class Message implements Serializable {
         this.type = type;
     }
     
+    public Message(String sender, String content, MessageType type, Date timestamp) {
+        this.sender = sender;
+        this.content = content;
+        this.timestamp = timestamp;
+        this.type = type;
+    }
+    
     // Getters et setters
     public String getSender() {
         return sender;
@@ -60,6 +72,14 @@ public class Message implements Serializable {
         this.type = type;
     }
     
+    public String getRoom() {
+        return room;
+    }
+    
+    public void setRoom(String room) {
+        this.room = room;
+    }
+    
     // Méthode d'affichage
     @Override
     public String toString() {
@@ -76,7 +96,8 @@ public class Message implements Serializable {
             case INFO:
                 return "[" + time + "] " + "ℹ️ INFO: " + content;
             default:
-                return "[" + time + "] " + sender + ": " + content;
+                String where = room != null && !room.equals(Constants.DEFAULT_ROOM) ? "#" + room + " " : "";
+                return "[" + time + "] " + where + sender + ": " + content;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,314 @@
+package common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Format binaire compact des messages, partagé par le client et le serveur.
+ *
+ * Poignée de main : le client envoie MAGIC suivi de sa version, le serveur
+ * répond MAGIC suivi de la version retenue. Un flux commençant par 0xACED
+ * est en revanche un ancien client en sérialisation Java.
+ *
+ * Trame : [int longueur][byte version][byte type][byte drapeaux][long horodatage]
+ *         [varint n][n octets UTF-8 expéditeur][varint n][n octets UTF-8 contenu]
+ *         puis, si FLAG_ROOM : [varint n][n octets UTF-8 salon]
+ * La longueur couvre tout ce qui suit ; les octets en trop sont ignorés, ce qui
+ * permet d'ajouter des champs optionnels (signalés par les drapeaux) sans casser
+ * les anciens décodeurs.
+ */
+public final class MessageCodec {
+    public static final byte VERSION = 1;
+    public static final byte[] MAGIC = { 'C', 'H', 'A', 'T' };
+    public static final int HANDSHAKE_LENGTH = MAGIC.length + 1;
+
+    // Champs optionnels présents après le contenu
+    public static final byte FLAG_ROOM = 0x01;
+
+    // version + type + drapeaux + horodatage
+    private static final int FIXED_LENGTH = 1 + 1 + 1 + 8;
+    private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Octets de poignée de main pour la version donnée.
+     */
+    public static byte[] handshake(byte version) {
+        byte[] bytes = Arrays.copyOf(MAGIC, HANDSHAKE_LENGTH);
+        bytes[MAGIC.length] = version;
+        return bytes;
+    }
+
+    /**
+     * Vérifie une poignée de main reçue et retourne la version annoncée.
+     * @throws StreamCorruptedException si les octets ne sont pas une poignée de main
+     */
+    public static byte checkHandshake(byte[] bytes, int offset) throws StreamCorruptedException {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[offset + i] != MAGIC[i]) {
+                throw new StreamCorruptedException("Poignee de main invalide");
+            }
+        }
+        byte version = bytes[offset + MAGIC.length];
+        if (version < 1) {
+            throw new StreamCorruptedException("Version de protocole invalide: " + version);
+        }
+        return version;
+    }
+
+    /**
+     * Encode un message en trame complète, préfixe de longueur compris.
+     */
+    public static byte[] encode(Message message) {
+        byte[] frame = new byte[frameLength(message)];
+        encode(message, frame, 0);
+        return frame;
+    }
+
+    /**
+     * Taille de la trame complète de ce message, préfixe de longueur compris.
+     */
+    public static int frameLength(Message message) {
+        return textFrameLength(message.getSender(), message.getRoom(), utf8Length(message.getContent()));
+    }
+
+    /**
+     * Encode la trame directement dans un tableau fourni (par exemple recyclé),
+     * sans tableau intermédiaire pour les chaînes.
+     * @return la position qui suit la trame
+     */
+    public static int encode(Message message, byte[] target, int offset) {
+        int contentLength = utf8Length(message.getContent());
+        String room = message.getRoom();
+        int pos = putHeader(target, offset, message.getType(), message.getTimestamp().getTime(),
+            message.getSender(), room, contentLength);
+        pos = putUtf8(target, pos, message.getContent());
+        return putRoom(target, pos, room);
+    }
+
+    /**
+     * Taille d'une trame dont le contenu est déjà en UTF-8 (voir encodeText).
+     * @param room salon, null pour une trame sans salon
+     */
+    public static int textFrameLength(String sender, String room, int contentLength) {
+        return 4 + bodyLength(sender, room, contentLength);
+    }
+
+    /**
+     * Encode une trame TEXT à partir d'un contenu déjà en UTF-8 (un datagramme
+     * reçu par exemple), sans le décoder en chaîne. Des octets UTF-8 invalides
+     * seront remplacés par U+FFFD au décodage.
+     * @return la position qui suit la trame
+     */
+    public static int encodeText(String sender, String room, long timestamp, byte[] content, int contentOffset,
+                                 int contentLength, byte[] target, int offset) {
+        int pos = putHeader(target, offset, Message.MessageType.TEXT, timestamp, sender, room, contentLength);
+        System.arraycopy(content, contentOffset, target, pos, contentLength);
+        return putRoom(target, pos + contentLength, room);
+    }
+
+    private static int bodyLength(String sender, String room, int contentLength) {
+        int senderLength = utf8Length(sender);
+        int length = FIXED_LENGTH
+            + varIntSize(senderLength) + senderLength
+            + varIntSize(contentLength) + contentLength;
+        if (room != null) {
+            int roomLength = utf8Length(room);
+            length += varIntSize(roomLength) + roomLength;
+        }
+        return length;
+    }
+
+    /**
+     * Écrit tout ce qui précède les octets du contenu, longueur de celui-ci comprise.
+     * @return la position du contenu
+     */
+    private static int putHeader(byte[] target, int offset, Message.MessageType type, long timestamp,
+                                 String sender, String room, int contentLength) {
+        int pos = putInt(target, offset, bodyLength(sender, room, contentLength));
+        target[pos++] = VERSION;
+        target[pos++] = (byte) type.ordinal();
+        target[pos++] = room != null ? FLAG_ROOM : 0;
+        pos = putLong(target, pos, timestamp);
+        pos = putVarInt(target, pos, utf8Length(sender));
+        pos = putUtf8(target, pos, sender);
+        return putVarInt(target, pos, contentLength);
+    }
+
+    private static int putRoom(byte[] target, int pos, String room) {
+        if (room == null) {
+            return pos;
+        }
+        pos = putVarInt(target, pos, utf8Length(room));
+        return putUtf8(target, pos, room);
+    }
+
+    /**
+     * Décode le corps d'une trame (ce qui suit le préfixe de longueur).
+     */
+    public static Message decode(byte[] bytes, int offset, int length) throws IOException {
+        int end = offset + length;
+        if (length < FIXED_LENGTH) {
+            throw new StreamCorruptedException("Trame trop courte: " + length);
+        }
+        int pos = offset;
+        pos++; // version : les champs de la version 1 sont lus par toutes les versions
+        int typeIndex = bytes[pos++] & 0xFF;
+        byte flags = bytes[pos++];
+        long timestamp = getLong(bytes, pos);
+        pos += 8;
+
+        int senderLength = getVarInt(bytes, pos, end);
+        pos += varIntSize(senderLength);
+        String sender = getString(bytes, pos, senderLength, end);
+        pos += senderLength;
+
+        int contentLength = getVarInt(bytes, pos, end);
+        pos += varIntSize(contentLength);
+        String content = getString(bytes, pos, contentLength, end);
+        pos += contentLength;
+
+        Message.MessageType type = typeIndex < TYPES.length ? TYPES[typeIndex] : Message.MessageType.INFO;
+        Message message = new Message(sender, content, type, new Date(timestamp));
+        if ((flags & FLAG_ROOM) != 0) {
+            int roomLength = getVarInt(bytes, pos, end);
+            pos += varIntSize(roomLength);
+            message.setRoom(getString(bytes, pos, roomLength, end));
+        }
+        return message;
+    }
+
+    /**
+     * Lit une trame complète sur un flux bloquant.
+     */
+    public static Message read(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > Constants.MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Longueur de trame invalide: " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body, 0, length);
+    }
+
+    public static void write(OutputStream out, Message message) throws IOException {
+        out.write(encode(message));
+    }
+
+    // Outils d'encodage
+    private static int utf8Length(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3; // y compris un demi-caractère isolé, relu comme U+FFFD
+            }
+        }
+        return length;
+    }
+
+    private static int putUtf8(byte[] frame, int pos, String value) {
+        if (value == null) {
+            return pos;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                frame[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                frame[pos++] = (byte) (0xC0 | (c >> 6));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                frame[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                frame[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                frame[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                frame[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                frame[pos++] = (byte) (0xE0 | (c >> 12));
+                frame[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                frame[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+
+    private static int varIntSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int putInt(byte[] frame, int pos, int value) {
+        frame[pos] = (byte) (value >>> 24);
+        frame[pos + 1] = (byte) (value >>> 16);
+        frame[pos + 2] = (byte) (value >>> 8);
+        frame[pos + 3] = (byte) value;
+        return pos + 4;
+    }
+
+    private static int putLong(byte[] frame, int pos, long value) {
+        for (int i = 7; i >= 0; i--) {
+            frame[pos++] = (byte) (value >>> (i * 8));
+        }
+        return pos;
+    }
+
+    private static int putVarInt(byte[] frame, int pos, int value) {
+        while ((value & ~0x7F) != 0) {
+            frame[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        frame[pos++] = (byte) value;
+        return pos;
+    }
+
+    private static long getLong(byte[] bytes, int pos) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[pos + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int getVarInt(byte[] bytes, int pos, int end) throws StreamCorruptedException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (pos >= end) {
+                throw new StreamCorruptedException("Trame tronquee");
+            }
+            byte b = bytes[pos++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("Entier variable invalide");
+    }
+
+    private static String getString(byte[] bytes, int pos, int length, int end)
+            throws StreamCorruptedException {
+        if (length < 0 || pos + length > end) {
+            throw new StreamCorruptedException("Trame tronquee");
+        }
+        return new String(bytes, pos, length, StandardCharsets.UTF_8);
+    }
+}
\ No newline at end of file
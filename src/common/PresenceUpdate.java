@@ -0,0 +1,91 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Contenu d'un message PRESENCE : un instantané complet de la liste des
+ * connectés, ou un delta d'arrivées / de départs, toujours avec la version de
+ * la liste qui en résulte.
+ *
+ * Format texte : une première ligne "=version" (instantané), "+version"
+ * (arrivées) ou "-version" (départs), puis un nom par ligne.
+ */
+public final class PresenceUpdate {
+
+    public enum Kind {
+        SNAPSHOT('='),
+        JOIN('+'),
+        LEAVE('-');
+
+        private final char marker;
+
+        Kind(char marker) {
+            this.marker = marker;
+        }
+    }
+
+    private final Kind kind;
+    private final long version;
+    private final List<String> names;
+
+    private PresenceUpdate(Kind kind, long version, List<String> names) {
+        this.kind = kind;
+        this.version = version;
+        this.names = names;
+    }
+
+    public static String format(Kind kind, long version, Collection<String> names) {
+        StringBuilder content = new StringBuilder().append(kind.marker).append(version);
+        for (String name : names) {
+            content.append('\n').append(name);
+        }
+        return content.toString();
+    }
+
+    public static String format(Kind kind, long version, String name) {
+        return kind.marker + Long.toString(version) + '\n' + name;
+    }
+
+    /**
+     * @throws IllegalArgumentException si le contenu n'est pas une mise à jour de présence
+     */
+    public static PresenceUpdate parse(String content) {
+        if (content == null || content.isEmpty()) {
+            throw new IllegalArgumentException("Presence vide");
+        }
+        Kind kind = null;
+        for (Kind candidate : Kind.values()) {
+            if (candidate.marker == content.charAt(0)) {
+                kind = candidate;
+            }
+        }
+        if (kind == null) {
+            throw new IllegalArgumentException("Presence inconnue: " + content.charAt(0));
+        }
+
+        int lineEnd = content.indexOf('\n');
+        long version = Long.parseLong(content.substring(1, lineEnd < 0 ? content.length() : lineEnd));
+        List<String> names = new ArrayList<>();
+        while (lineEnd >= 0) {
+            int next = content.indexOf('\n', lineEnd + 1);
+            names.add(content.substring(lineEnd + 1, next < 0 ? content.length() : next));
+            lineEnd = next;
+        }
+        return new PresenceUpdate(kind, version, Collections.unmodifiableList(names));
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public List<String> getNames() {
+        return names;
+    }
+}
@@ -0,0 +1,171 @@
+package loadtest;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import common.LoginAttributes;
+import common.Message;
+import common.MessageCodec;
+
+/**
+ * Client simulé, sans console : même poignée de main et même message de
+ * connexion que ChatClient.connect() en format binaire.
+ *
+ * Les messages de mesure portent l'heure d'envoi prévue (System.nanoTime(),
+ * partagée par tous les bots de la JVM) : "lt <nanos>". Le bot qui les reçoit
+ * enregistre la latence de bout en bout dans les statistiques communes.
+ */
+class Bot {
+    static final String PROBE = "lt ";
+    private static final String PRIVATE_PROBE = "(privé) " + PROBE;
+    private static final String USER_LIST = "👥";
+
+    private final String username;
+    private final LoadStats stats;
+    private final ConcurrentLinkedQueue<Long> pendingLists;
+    private Socket socket;
+    private DataOutputStream out;
+    private DatagramSocket udpSocket;
+    private InetSocketAddress udpServer;
+    private volatile boolean closed;
+
+    Bot(String username, LoadStats stats) {
+        this.username = username;
+        this.stats = stats;
+        this.pendingLists = new ConcurrentLinkedQueue<>();
+    }
+
+    String username() {
+        return username;
+    }
+
+    /**
+     * Se connecte et attend le message de bienvenue.
+     */
+    void connect(LoadTestConfig config) throws IOException {
+        long start = System.nanoTime();
+        if (config.isUdp()) {
+            udpSocket = new DatagramSocket();
+            udpServer = new InetSocketAddress(config.getHost(), config.getUdpPort());
+        }
+
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(config.getHost(), config.getPort()), 10_000);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+        out.write(MessageCodec.handshake(MessageCodec.VERSION));
+        String attributes = udpSocket == null ? "" : LoginAttributes.format(
+            Map.of(LoginAttributes.UDP_PORT, String.valueOf(udpSocket.getLocalPort())));
+        MessageCodec.write(out, new Message(username, attributes, Message.MessageType.CONNECT));
+        out.flush();
+
+        byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+        in.readFully(reply);
+        MessageCodec.checkHandshake(reply, 0);
+        MessageCodec.read(in); // bienvenue
+        stats.join.recordNanos(System.nanoTime() - start);
+
+        Thread.ofVirtual().name("bot-" + username).start(() -> receive(in));
+        if (udpSocket != null) {
+            Thread.ofVirtual().name("bot-udp-" + username).start(this::receiveUdp);
+        }
+    }
+
+    private void receive(DataInputStream in) {
+        try {
+            while (!closed) {
+                Message message = MessageCodec.read(in);
+                stats.received.increment();
+                String content = message.getContent();
+                if (content == null) {
+                    continue;
+                }
+                if (content.startsWith(PROBE)) {
+                    stats.broadcast.recordNanos(System.nanoTime() - parseNanos(content, PROBE.length()));
+                } else if (content.startsWith(PRIVATE_PROBE)) {
+                    stats.direct.recordNanos(System.nanoTime() - parseNanos(content, PRIVATE_PROBE.length()));
+                } else if (content.startsWith(USER_LIST)) {
+                    Long sent = pendingLists.poll();
+                    if (sent != null) {
+                        stats.list.recordNanos(System.nanoTime() - sent);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!closed) {
+                stats.disconnected.increment();
+            }
+        }
+    }
+
+    private void receiveUdp() {
+        byte[] buffer = new byte[65507];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        try {
+            while (!closed) {
+                packet.setLength(buffer.length);
+                udpSocket.receive(packet);
+                if (packet.getLength() < 4) {
+                    continue;
+                }
+                Message message = MessageCodec.decode(buffer, 4, packet.getLength() - 4);
+                String content = message.getContent();
+                if (content != null && content.startsWith(PROBE)) {
+                    stats.udp.recordNanos(System.nanoTime() - parseNanos(content, PROBE.length()));
+                }
+            }
+        } catch (IOException e) {
+            // Socket fermée
+        }
+    }
+
+    private static long parseNanos(String content, int from) {
+        int end = content.indexOf(' ', from);
+        return Long.parseLong(end < 0 ? content.substring(from) : content.substring(from, end));
+    }
+
+    void sendBroadcast(long intendedNanos, String padding) throws IOException {
+        send(PROBE + intendedNanos + padding);
+        stats.sentBroadcast.increment();
+    }
+
+    void sendDirect(String recipient, long intendedNanos) throws IOException {
+        send("/msg " + recipient + " " + PROBE + intendedNanos);
+        stats.sentDirect.increment();
+    }
+
+    void sendList() throws IOException {
+        // Réponses dans l'ordre des demandes : une file suffit pour les apparier
+        pendingLists.add(System.nanoTime());
+        send("/list");
+    }
+
+    void sendUdp(long intendedNanos) throws IOException {
+        byte[] payload = (PROBE + intendedNanos).getBytes(StandardCharsets.UTF_8);
+        udpSocket.send(new DatagramPacket(payload, payload.length, udpServer));
+        stats.sentUdp.increment();
+    }
+
+    private synchronized void send(String content) throws IOException {
+        MessageCodec.write(out, new Message(username, content));
+        out.flush();
+    }
+
+    void close() {
+        closed = true;
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Ignorer
+        }
+        if (udpSocket != null) {
+            udpSocket.close();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package loadtest;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import common.Message;
+import common.MessageCodec;
+import common.PresenceUpdate;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification de bout en bout d'une grappe : plusieurs nœuds dans cette JVM,
+ * sur des ports locaux, et quelques clients répartis entre eux. Contrôle la
+ * liste partagée, la diffusion (reçue une seule fois et dans l'ordre sur les
+ * autres nœuds), les messages privés entre nœuds, l'unicité des noms, et les
+ * départs, y compris l'arrêt d'un nœud entier. Puis, sur des nœuds à part :
+ * un même nom pris sur deux nœuds avant leur liaison, et un nœud qui n'a pas
+ * le secret de la grappe.
+ *
+ * Usage: java loadtest.ClusterCheck [noeuds] [port de base]   (défaut : 3 17000)
+ * Le nœud i utilise les ports base+3i (TCP), base+3i+1 (UDP), base+3i+2 (grappe).
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class ClusterCheck {
+    private static final long TIMEOUT_MILLIS = 10_000;
+    private static final int BURST = 200;
+    private static final String SECRET = "secret-de-test";
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int basePort = args.length > 1 ? Integer.parseInt(args[1]) : 17000;
+        if (nodes < 3) {
+            System.err.println("Il faut au moins 3 noeuds");
+            System.exit(1);
+        }
+        ClusterCheck check = new ClusterCheck();
+        check.run(nodes, basePort);
+        check.conflicts(basePort + 3 * nodes);
+        System.out.println();
+        System.out.println(check.failures.isEmpty() ? "Grappe OK" : check.failures.size() + " verification(s) en echec");
+        System.exit(check.failures.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Nœud sur les ports port (TCP), port+1 (UDP) et port+2 (grappe).
+     */
+    private static ChatServer startNode(String nodeId, int port, String peers, String secret) throws IOException {
+        ServerConfig config = new ServerConfig();
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setClusterPort(port + 2);
+        config.setClusterSecret(secret);
+        config.setNodeId(nodeId);
+        config.setPeers(peers);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        ChatServer server = new ChatServer(config);
+        server.open();
+        return server;
+    }
+
+    void run(int nodes, int basePort) throws Exception {
+        List<ChatServer> servers = new ArrayList<>();
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < nodes; i++) {
+            // Chaque nœud appelle les précédents : grappe maillée
+            servers.add(startNode("noeud-" + (char) ('A' + i), basePort + 3 * i, peers.toString(), SECRET));
+            peers.append(peers.length() > 0 ? "," : "").append("localhost:").append(basePort + 3 * i + 2);
+        }
+
+        try {
+            Client alice = new Client("alice", basePort, false);
+            Client bob = new Client("bob", basePort + 3, false);
+            Client carol = new Client("carol", basePort + 6, false);
+
+            // 1. Liste partagée : /list sur un nœud voit les clients des autres
+            check(awaitListed(alice, "bob", "carol"), "/list sur le noeud A voit bob (B) et carol (C)");
+
+            // 2. Une diffusion est reçue une fois par chaque autre client, jamais par son auteur
+            alice.send("bonjour de alice");
+            Predicate<Message> hello = m -> m.getContent().equals("bonjour de alice");
+            check(count(bob.collect(1000), hello) == 1 && count(carol.collect(0), hello) == 1
+                && count(alice.collect(0), hello) == 0, "diffusion entre noeuds recue une seule fois");
+
+            // 3. Une rafale garde son ordre d'un nœud à l'autre
+            for (int i = 0; i < BURST; i++) {
+                carol.send("rafale " + i);
+            }
+            check(inOrder(alice.collect(2000)) && inOrder(bob.collect(0)),
+                BURST + " diffusions recues dans l'ordre, sans doublon");
+
+            // 4. Message privé vers un client d'un autre nœud
+            bob.send("/msg carol salut");
+            check(carol.await(m -> m.getSender().equals("bob") && m.getContent().equals("(privé) salut"),
+                TIMEOUT_MILLIS) != null, "/msg de bob (B) vers carol (C)");
+
+            // 5. Un nom pris sur un autre nœud est refusé
+            Client alice2 = new Client("alice", basePort + 6, false);
+            check(alice2.welcome.getContent().equals("Bienvenue alice_2!"),
+                "nom deja pris sur un autre noeud: " + alice2.welcome.getContent());
+
+            // 6. L'instantané de présence comprend les clients de tous les nœuds,
+            // une fois l'arrivée de alice_2 (C) parvenue au nœud B
+            check(awaitListed(bob, "alice_2"), "/list sur le noeud B voit alice_2 (C)");
+            Client dave = new Client("dave", basePort + 3, true);
+            Message snapshot = dave.await(m -> m.getType() == Message.MessageType.PRESENCE, TIMEOUT_MILLIS);
+            check(snapshot != null && PresenceUpdate.parse(snapshot.getContent()).getNames()
+                .containsAll(List.of("alice", "alice_2", "bob", "carol", "dave")),
+                "instantane de presence de toute la grappe");
+
+            // 7. Départ d'un client annoncé sur les autres nœuds
+            bob.close();
+            check(alice.await(m -> m.getType() == Message.MessageType.DISCONNECT
+                && m.getContent().startsWith("bob"), TIMEOUT_MILLIS) != null, "depart de bob annonce sur A");
+
+            // 8. Arrêt d'un nœud : ses clients quittent la liste des autres
+            servers.get(2).shutdown();
+            check(dave.await(m -> m.getType() == Message.MessageType.PRESENCE
+                && PresenceUpdate.parse(m.getContent()).getKind() == PresenceUpdate.Kind.LEAVE
+                && PresenceUpdate.parse(m.getContent()).getNames().contains("carol"), TIMEOUT_MILLIS) != null,
+                "arret du noeud C: carol retiree de la liste");
+        } finally {
+            for (ChatServer server : servers) {
+                server.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Noms en double et secret : Y démarre en appelant X, encore fermé, et
+     * ne le rappelle qu'une seconde plus tard ; zoe a le temps de se
+     * connecter sur les deux.
+     */
+    void conflicts(int basePort) throws Exception {
+        List<ChatServer> servers = new ArrayList<>();
+        try {
+            servers.add(startNode("noeud-Y", basePort + 3, "localhost:" + (basePort + 2), SECRET));
+            Client zoeY = new Client("zoe", basePort + 3, false);
+            servers.add(startNode("noeud-X", basePort, "", SECRET));
+            Client zoeX = new Client("zoe", basePort, false);
+            check(zoeY.welcome.getContent().equals("Bienvenue zoe!") && zoeX.welcome.getContent().equals("Bienvenue zoe!"),
+                "zoe connectee sur X et sur Y avant leur liaison");
+
+            // 9. Le nom revient au nœud au plus petit nom : zoe (Y) est déconnectée
+            check(zoeY.awaitClosed(TIMEOUT_MILLIS), "liaison de X et Y: zoe (Y) deconnectee, le nom reste a X");
+
+            // 10. Sur Y, zoe désigne désormais le client de X
+            Client yann = new Client("yann", basePort + 3, false);
+            yann.send("/msg zoe coucou");
+            check(zoeX.await(m -> m.getSender().equals("yann") && m.getContent().equals("(privé) coucou"),
+                TIMEOUT_MILLIS) != null, "/msg zoe depuis Y atteint zoe (X)");
+
+            // 11. Un nœud sans le bon secret n'est pas relié
+            servers.add(startNode("noeud-W", basePort + 6, "localhost:" + (basePort + 2), "autre-secret"));
+            new Client("intrus", basePort + 6, false);
+            check(!awaitListed(zoeX, 3000, "intrus"), "noeud W sans le bon secret refuse par X");
+        } finally {
+            for (ChatServer server : servers) {
+                server.shutdown();
+            }
+        }
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Relance /list jusqu'à ce que tous ces noms y figurent, au plus TIMEOUT_MILLIS.
+     */
+    private static boolean awaitListed(Client client, String... names) throws IOException, InterruptedException {
+        return awaitListed(client, TIMEOUT_MILLIS, names);
+    }
+
+    private static boolean awaitListed(Client client, long millis, String... names)
+            throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (System.nanoTime() < deadline) {
+            client.send("/list");
+            Message list = client.await(m -> m.getContent().startsWith("👥"), 1000);
+            if (list != null && List.of(list.getContent().split("\\s+")).containsAll(List.of(names))) {
+                return true;
+            }
+            Thread.sleep(200);
+        }
+        return false;
+    }
+
+    private static int count(List<Message> messages, Predicate<Message> filter) {
+        int count = 0;
+        for (Message message : messages) {
+            if (filter.test(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean inOrder(List<Message> messages) {
+        int expected = 0;
+        for (Message message : messages) {
+            if (message.getContent().startsWith("rafale ")) {
+                if (Integer.parseInt(message.getContent().substring(7)) != expected) {
+                    return false;
+                }
+                expected++;
+            }
+        }
+        return expected == BURST;
+    }
+
+    /**
+     * Client binaire minimal : les messages reçus s'accumulent dans une file.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+        private final CountDownLatch closed = new CountDownLatch(1);
+        final Message welcome;
+
+        Client(String username, int port, boolean presence) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            inbox = new LinkedBlockingQueue<>();
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, presence ? "presence=1" : "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+            welcome = MessageCodec.read(in);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException e) {
+                    closed.countDown(); // connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        /**
+         * Premier message reçu qui correspond, les autres sont écartés.
+         */
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        boolean awaitClosed(long millis) throws InterruptedException {
+            return closed.await(millis, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         * Messages reçus après une attente de millis.
+         */
+        List<Message> collect(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            List<Message> messages = new ArrayList<>();
+            inbox.drainTo(messages);
+            return messages;
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
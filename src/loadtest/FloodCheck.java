@@ -0,0 +1,276 @@
+package loadtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.management.ObjectName;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification de l'étape d'admission, sur des serveurs lancés dans cette
+ * JVM avec des débits bas : un client qui inonde est refusé (une seule
+ * ERROR) sans gêner les autres, le mode retard ralentit l'émetteur sans rien
+ * perdre, et le budget global borne les diffusions de tous les clients.
+ *
+ * Usage: java loadtest.FloodCheck [thread|virtual|nio] [port]   (défaut : thread 17300)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class FloodCheck {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final int RATE = 20;
+    private static final int BURST = 20;
+    private static final int FLOOD = 100;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17300;
+        FloodCheck check = new FloodCheck();
+        check.refusal(transport, port);
+        check.delay(transport, port + 10);
+        check.globalBudget(transport, port + 20);
+        System.out.println();
+        System.out.println(check.failures.isEmpty() ? "Admission OK (" + transport + ")"
+            : check.failures.size() + " verification(s) en echec");
+        System.exit(check.failures.isEmpty() ? 0 : 1);
+    }
+
+    private static ChatServer start(String transport, int port, String... options) throws IOException {
+        String[] args = new String[options.length + 1];
+        args[0] = "--transport=" + transport;
+        System.arraycopy(options, 0, args, 1, options.length);
+        ServerConfig config = ServerConfig.fromArgs(args);
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.ERROR);
+        config.setPresenceWindowMillis(0);
+        ChatServer server = new ChatServer(config);
+        server.open();
+        return server;
+    }
+
+    /**
+     * Politique error : au-delà de la rafale, les messages sont refusés.
+     */
+    private void refusal(String transport, int port) throws Exception {
+        ChatServer server = start(transport, port, "--flood-policy=error",
+            "--flood-rate=" + RATE, "--flood-burst=" + BURST);
+        try {
+            Client watcher = Client.connect("watcher", port);
+            Client flooder = Client.connect("flooder", port);
+            Client polite = Client.connect("polite", port);
+            watcher.collect(200);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < FLOOD; i++) {
+                flooder.send("flot " + i);
+            }
+            polite.send("bonjour");
+            List<Message> seen = watcher.collect(1000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            int passed = count(seen, m -> m.getContent().startsWith("flot "));
+            check(passed >= BURST && passed <= BURST + RATE * seconds + 2,
+                passed + "/" + FLOOD + " messages admis (rafale " + BURST + ", " + RATE + "/s)");
+            check(count(flooder.collect(0), m -> m.getType() == Message.MessageType.ERROR) == 1,
+                "une seule ERROR pour toute la salve");
+            check(count(seen, m -> m.getContent().equals("bonjour")) == 1,
+                "le message d'un autre client passe pendant l'inondation");
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(BURST / RATE) + 200);
+            flooder.send("apres pause");
+            check(watcher.await(m -> m.getContent().equals("apres pause"), TIMEOUT_MILLIS) != null,
+                "seau rempli apres une pause : l'emetteur est de nouveau admis");
+
+            long refused = counter(port, "FloodRefused");
+            check(refused == FLOOD - passed, "compteur: " + refused + " messages refuses");
+            watcher.close();
+            flooder.close();
+            polite.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Politique delay : l'émetteur est ralenti, rien n'est perdu.
+     */
+    private void delay(String transport, int port) throws Exception {
+        ChatServer server = start(transport, port, "--flood-policy=delay",
+            "--flood-rate=" + RATE, "--flood-burst=" + BURST);
+        try {
+            Client watcher = Client.connect("watcher", port);
+            Client flooder = Client.connect("flooder", port);
+            watcher.collect(200);
+
+            int total = BURST + 2 * RATE; // deux secondes au-delà de la rafale
+            long start = System.nanoTime();
+            for (int i = 0; i < total; i++) {
+                flooder.send("flot " + i);
+            }
+            // Le premier message hors rafale attend lui aussi son tour (1/RATE s)
+            watcher.await(m -> m.getContent().equals("flot " + (BURST - 1)), TIMEOUT_MILLIS);
+            long burstEnd = System.nanoTime();
+            Message held = watcher.await(m -> m.getContent().equals("flot " + BURST), TIMEOUT_MILLIS);
+            double heldSeconds = (System.nanoTime() - burstEnd) / 1e9;
+            Message last = watcher.await(m -> m.getContent().equals("flot " + (total - 1)), TIMEOUT_MILLIS);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            List<Message> seen = watcher.collect(200);
+            check(held != null && heldSeconds >= 0.6 / RATE, "premier message hors rafale retenu "
+                + String.format("%.0f", heldSeconds * 1000) + " ms (attendu : " + 1000 / RATE + " ms)");
+            check(last != null && seconds >= 1.8, total + " messages recus en " + String.format("%.1f", seconds)
+                + " s (attendu : environ " + (total - BURST) / RATE + " s)");
+            check(count(flooder.collect(0), m -> m.getType() == Message.MessageType.ERROR) == 0
+                && count(seen, m -> m.getContent().startsWith("flot ")) == 0,
+                "aucun refus, aucun doublon");
+            check(counter(port, "FloodDelayed") > 0 && counter(port, "FloodRefused") == 0,
+                "compteurs: " + counter(port, "FloodDelayed") + " messages retardes");
+            watcher.close();
+            flooder.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Budget global : plusieurs émetteurs sages ensemble ne dépassent pas la
+     * capacité de diffusion du serveur.
+     */
+    private void globalBudget(String transport, int port) throws Exception {
+        int budget = 100; // remises/s
+        ChatServer server = start(transport, port, "--flood-policy=drop", "--flood-rate=0",
+            "--flood-global=" + budget);
+        try {
+            Client watcher = Client.connect("watcher", port);
+            Client first = Client.connect("first", port);
+            Client second = Client.connect("second", port);
+            watcher.collect(200);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < FLOOD; i++) {
+                first.send("premier " + i);
+                second.send("second " + i);
+            }
+            List<Message> seen = watcher.collect(1000);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            // Chaque diffusion coûte deux remises (trois clients, sans l'émetteur)
+            int passed = count(seen, m -> m.getContent().startsWith("premier ") || m.getContent().startsWith("second "));
+            check(passed >= budget / 2 && passed <= (budget + budget * seconds) / 2 + 2,
+                passed + "/" + 2 * FLOOD + " diffusions admises pour un budget de " + budget + " remises/s");
+            check(count(first.collect(0), m -> m.getType() == Message.MessageType.ERROR) == 0,
+                "politique drop : aucune ERROR");
+            watcher.close();
+            first.close();
+            second.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    private static int count(List<Message> messages, Predicate<Message> filter) {
+        int count = 0;
+        for (Message message : messages) {
+            if (filter.test(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Client binaire minimal.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+
+        private Client(String username, int port) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            socket.setTcpNoDelay(true); // la rafale part d'un bloc, sans attendre d'acquittement
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port) throws IOException, InterruptedException {
+            Client client = new Client(username, port);
+            Thread.sleep(100);
+            return client;
+        }
+
+        /**
+         * Un message par trame, sans attendre : c'est le serveur qui doit freiner.
+         */
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        List<Message> collect(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            List<Message> messages = new ArrayList<>();
+            inbox.drainTo(messages);
+            return messages;
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package loadtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import common.LoginAttributes;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification des battements de cœur, sur un serveur lancé dans cette JVM
+ * avec des délais courts : une connexion qui ne s'identifie pas est fermée, un
+ * client qui ne répond plus aux PING est évincé et son départ annoncé, un
+ * client qui répond reste connecté, un ancien client silencieux n'est pas
+ * touché.
+ *
+ * Usage: java loadtest.IdleCheck [thread|virtual|nio] [port]   (défaut : thread 17200)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class IdleCheck {
+    private static final int HEARTBEAT_SECONDS = 1;
+    private static final int IDLE_TIMEOUT_SECONDS = 3;
+    // Marge : le contrôle tombe au tic de la roue qui suit l'échéance
+    private static final long SLACK_MILLIS = 1_500;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17200;
+        System.exit(new IdleCheck().run(transport, port) ? 0 : 1);
+    }
+
+    boolean run(String transport, int port) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--transport=" + transport});
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        config.setPresenceWindowMillis(0);
+        config.setResumeTimeoutSeconds(0);
+        config.setHeartbeatSeconds(HEARTBEAT_SECONDS);
+        config.setIdleTimeoutSeconds(IDLE_TIMEOUT_SECONDS);
+        ChatServer server = new ChatServer(config);
+        server.open();
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT_SECONDS) + SLACK_MILLIS;
+
+        try {
+            // 1. Connexion ouverte sans jamais s'identifier
+            long start = System.nanoTime();
+            try (Socket silent = new Socket("localhost", port)) {
+                silent.setSoTimeout((int) (timeoutMillis + SLACK_MILLIS));
+                boolean closed;
+                try {
+                    closed = silent.getInputStream().read() == -1;
+                } catch (IOException e) {
+                    closed = true; // RST : fermée aussi
+                }
+                long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                check(closed && elapsed >= TimeUnit.SECONDS.toMillis(IDLE_TIMEOUT_SECONDS) - 300,
+                    "connexion non identifiee fermee apres " + elapsed + " ms");
+            }
+
+            Client watcher = Client.connect("watcher", port, "");
+            Client alive = Client.connect("alive", port, LoginAttributes.HEARTBEAT + "=1");
+            Client frozen = Client.connect("frozen", port, LoginAttributes.HEARTBEAT + "=1");
+            alive.answerPings = true;
+            Client legacy = Client.connect("legacy", port, "");
+
+            // 2. Client qui ne répond plus : PING, puis éviction et départ annoncé
+            check(frozen.await(m -> m.getType() == Message.MessageType.PING, timeoutMillis) != null,
+                "PING recu apres " + HEARTBEAT_SECONDS + " s de silence");
+            Message left = watcher.await(m -> m.getType() == Message.MessageType.DISCONNECT
+                && m.getContent().startsWith("frozen"), timeoutMillis);
+            check(left != null, "client muet evince, depart annonce");
+            check(frozen.awaitClosed(SLACK_MILLIS), "connexion du client muet fermee");
+
+            // 3. Client qui répond aux PING, ancien client silencieux : toujours là
+            Thread.sleep(timeoutMillis);
+            check(alive.pongs > 0 && alive.isOpen(), "client qui repond conserve (" + alive.pongs + " PONG)");
+            check(legacy.isOpen(), "ancien client silencieux conserve (keepalive TCP)");
+            alive.send("toujours la");
+            check(watcher.await(m -> m.getContent().equals("toujours la"), timeoutMillis) != null,
+                "diffusion normale apres plusieurs battements");
+
+            // 4. Compteurs exposés en JMX
+            MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+            long pings = (Long) mbeans.getAttribute(name, "PingsSent");
+            long evictions = (Long) mbeans.getAttribute(name, "IdleEvictions");
+            check(pings >= 2 && evictions == 2,
+                "compteurs: " + pings + " PING envoyes, " + evictions + " connexions fermees");
+
+            alive.close();
+            legacy.close();
+            watcher.close();
+        } finally {
+            server.shutdown();
+        }
+
+        System.out.println();
+        System.out.println(failures.isEmpty() ? "Inactivite OK (" + transport + ")" : failures.size() + " verification(s) en echec");
+        return failures.isEmpty();
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Client binaire minimal ; répond aux PING seulement si answerPings.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+        volatile boolean answerPings;
+        volatile int pongs;
+        private volatile boolean closed;
+
+        private Client(String username, int port, String attributes) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, attributes, Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        Message message = MessageCodec.read(in);
+                        if (message.getType() == Message.MessageType.PING && answerPings) {
+                            write(new Message(username, "", Message.MessageType.PONG));
+                            pongs++;
+                        }
+                        inbox.add(message);
+                    }
+                } catch (IOException e) {
+                    closed = true;
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port, String attributes) throws IOException, InterruptedException {
+            Client client = new Client(username, port, attributes);
+            Thread.sleep(100);
+            return client;
+        }
+
+        private synchronized void write(Message message) throws IOException {
+            MessageCodec.write(out, message);
+            out.flush();
+        }
+
+        void send(String content) throws IOException {
+            write(new Message(username, content));
+        }
+
+        boolean isOpen() {
+            return !closed;
+        }
+
+        boolean awaitClosed(long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            while (!closed && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            return closed;
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package loadtest;
+
+import java.util.concurrent.atomic.LongAdder;
+import common.LatencyHistogram;
+
+/**
+ * Compteurs et histogrammes partagés par tous les bots d'un essai.
+ */
+class LoadStats {
+    final LatencyHistogram join = new LatencyHistogram();
+    final LatencyHistogram broadcast = new LatencyHistogram();
+    final LatencyHistogram direct = new LatencyHistogram();
+    final LatencyHistogram list = new LatencyHistogram();
+    final LatencyHistogram udp = new LatencyHistogram();
+
+    final LongAdder connected = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder disconnected = new LongAdder();
+    final LongAdder sentBroadcast = new LongAdder();
+    final LongAdder sentDirect = new LongAdder();
+    final LongAdder sentUdp = new LongAdder();
+    final LongAdder received = new LongAdder();
+}
@@ -0,0 +1,204 @@
+package loadtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import common.LatencyHistogram;
+
+/**
+ * Générateur de charge : des milliers de bots sans console contre un serveur
+ * local, selon les scénarios choisis, puis un rapport de latences de bout en
+ * bout (p50/p99/p999), de débit et de connexions.
+ *
+ * Chaque bot et chaque flux de messages tourne sur un thread virtuel. Les
+ * envois suivent un calendrier fixe et portent leur heure prévue : un serveur
+ * qui prend du retard voit ce retard compté dans les latences, au lieu de
+ * simplement ralentir le générateur.
+ *
+ * Sous Linux, penser à relever la limite de descripteurs (ulimit -n) des deux
+ * côtés pour plusieurs milliers de bots.
+ */
+public class LoadTest {
+
+    private interface PacedAction {
+        void run(long intendedNanos) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config;
+        try {
+            config = LoadTestConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadTestConfig.usage());
+            System.exit(1);
+            return;
+        }
+        new LoadTest().run(config);
+    }
+
+    void run(LoadTestConfig config) throws InterruptedException {
+        LoadStats stats = new LoadStats();
+        System.out.println("Essai de charge: " + config.getBots() + " bots, scenarios " +
+            config.getScenarios() + ", " + config.getDurationSeconds() + " s");
+
+        // 1. Connexions : toutes à la fois pour une tempête de connexions
+        int concurrency = config.has(LoadTestConfig.Scenario.JOIN_STORM)
+            ? config.getBots() : config.getConnectConcurrency();
+        long connectStart = System.nanoTime();
+        List<Bot> bots = connectAll(config, stats, concurrency);
+        long connectElapsed = System.nanoTime() - connectStart;
+        System.out.println("Bots connectes: " + bots.size() + "/" + config.getBots() +
+            " en " + TimeUnit.NANOSECONDS.toMillis(connectElapsed) + " ms");
+
+        // 2. Trafic pendant la durée demandée
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        List<Thread> flows = startFlows(config, bots, deadline);
+        for (Thread flow : flows) {
+            flow.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // Laisser arriver les derniers messages
+        Thread.sleep(2000);
+        report(config, stats, bots.size(), connectElapsed, elapsed);
+
+        for (Bot bot : bots) {
+            bot.close();
+        }
+    }
+
+    private List<Bot> connectAll(LoadTestConfig config, LoadStats stats, int concurrency)
+            throws InterruptedException {
+        List<Bot> bots = new ArrayList<>();
+        for (int i = 0; i < config.getBots(); i++) {
+            bots.add(new Bot("bot" + i, stats));
+        }
+
+        Semaphore permits = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(bots.size());
+        List<Bot> connected = java.util.Collections.synchronizedList(new ArrayList<>());
+        for (Bot bot : bots) {
+            permits.acquire();
+            Thread.ofVirtual().start(() -> {
+                try {
+                    bot.connect(config);
+                    connected.add(bot);
+                    stats.connected.increment();
+                } catch (IOException e) {
+                    stats.failed.increment();
+                    bot.close();
+                } finally {
+                    permits.release();
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return new ArrayList<>(connected);
+    }
+
+    private List<Thread> startFlows(LoadTestConfig config, List<Bot> bots, long deadline) {
+        List<Thread> flows = new ArrayList<>();
+        String padding = " " + "x".repeat(Math.max(0, config.getPayloadBytes() - 24));
+
+        for (int i = 0; i < bots.size(); i++) {
+            Bot bot = bots.get(i);
+            if (config.has(LoadTestConfig.Scenario.STEADY)) {
+                flows.add(paced(config.getChatRate(), deadline,
+                    intended -> bot.sendBroadcast(intended, padding)));
+            }
+            if (config.has(LoadTestConfig.Scenario.DM) && bots.size() > 1) {
+                flows.add(paced(config.getDmRate(), deadline, intended -> {
+                    Bot peer = bots.get(ThreadLocalRandom.current().nextInt(bots.size()));
+                    if (peer != bot) {
+                        bot.sendDirect(peer.username(), intended);
+                    }
+                }));
+            }
+            if (config.has(LoadTestConfig.Scenario.LIST_SPAM)) {
+                flows.add(paced(config.getListRate(), deadline, intended -> bot.sendList()));
+            }
+            if (config.isUdp() && i < config.getUdpSenders()) {
+                double burstRate = 1000.0 / config.getUdpIntervalMillis();
+                flows.add(paced(burstRate, deadline, intended -> {
+                    for (int k = 0; k < config.getUdpBurst(); k++) {
+                        bot.sendUdp(System.nanoTime());
+                    }
+                }));
+            }
+        }
+        return flows;
+    }
+
+    /**
+     * Lance un flux à débit fixe, avec un décalage de départ aléatoire pour
+     * ne pas synchroniser tous les bots.
+     */
+    private static Thread paced(double ratePerSecond, long deadline, PacedAction action) {
+        return Thread.ofVirtual().start(() -> {
+            if (ratePerSecond <= 0) {
+                return;
+            }
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+            long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(Math.max(1, interval));
+            try {
+                while (next < deadline) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                        continue;
+                    }
+                    action.run(next);
+                    next += interval;
+                }
+            } catch (IOException e) {
+                // Connexion perdue : comptée par le bot
+            }
+        });
+    }
+
+    private static void report(LoadTestConfig config, LoadStats stats, int connected,
+                               long connectNanos, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        long peers = Math.max(0, connected - 1);
+
+        System.out.println();
+        System.out.println("=== RESULTATS ===");
+        System.out.println(String.format("Connexions: reussies=%d echecs=%d perdues=%d",
+            stats.connected.sum(), stats.failed.sum(), stats.disconnected.sum()));
+        System.out.println(String.format("Recus: %d messages (%.0f/s)",
+            stats.received.sum(), stats.received.sum() / seconds));
+        System.out.println();
+        System.out.println(String.format("%-12s %10s %10s %10s %10s %10s %10s %10s",
+            "latence", "n", "debit/s", "p50 (us)", "p99 (us)", "p999 (us)", "max (us)", "remis"));
+        line("connexion", stats.join, connectNanos / 1e9, -1);
+        if (config.has(LoadTestConfig.Scenario.STEADY)) {
+            line("diffusion", stats.broadcast, seconds, stats.sentBroadcast.sum() * peers);
+        }
+        if (config.has(LoadTestConfig.Scenario.DM)) {
+            line("prive", stats.direct, seconds, stats.sentDirect.sum());
+        }
+        if (config.has(LoadTestConfig.Scenario.LIST_SPAM)) {
+            line("/list", stats.list, seconds, -1);
+        }
+        if (config.isUdp()) {
+            line("udp", stats.udp, seconds, stats.sentUdp.sum() * peers);
+        }
+    }
+
+    private static void line(String name, LatencyHistogram histogram, double seconds, long expected) {
+        String delivered = expected <= 0 ? "-"
+            : String.format("%.1f%%", 100.0 * histogram.count() / expected);
+        System.out.println(String.format("%-12s %10d %10.0f %10d %10d %10d %10d %10s",
+            name, histogram.count(), histogram.count() / seconds,
+            histogram.percentile(0.50), histogram.percentile(0.99), histogram.percentile(0.999),
+            histogram.max(), delivered));
+    }
+}
@@ -0,0 +1,178 @@
+package loadtest;
+
+import java.util.EnumSet;
+import java.util.Set;
+import common.Constants;
+
+/**
+ * Paramètres d'un essai de charge, lus depuis la ligne de commande sous la
+ * forme --cle=valeur (comme ServerConfig).
+ */
+class LoadTestConfig {
+
+    enum Scenario {
+        JOIN_STORM, // tous les bots se connectent en même temps
+        STEADY,     // messages de chat diffusés à débit constant
+        DM,         // messages privés vers un bot tiré au hasard
+        LIST_SPAM,  // /list en boucle
+        UDP_BURST   // rafales de datagrammes sur la voie UDP
+    }
+
+    private String host = Constants.SERVER_IP;
+    private int port = Constants.TCP_PORT;
+    private int udpPort = Constants.UDP_PORT;
+    private int bots = 1000;
+    private Set<Scenario> scenarios = EnumSet.of(Scenario.JOIN_STORM, Scenario.STEADY);
+    private int durationSeconds = 30;
+    private int connectConcurrency = 64;
+    private double chatRate = 0.1;
+    private int payloadBytes = 64;
+    private double dmRate = 1;
+    private double listRate = 0.1;
+    private int udpSenders = 10;
+    private int udpBurst = 20;
+    private int udpIntervalMillis = 1000;
+
+    static LoadTestConfig fromArgs(String[] args) {
+        LoadTestConfig config = new LoadTestConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Argument invalide: " + arg);
+            }
+            String key = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (key) {
+                case "host":
+                    config.host = value;
+                    break;
+                case "port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "udp-port":
+                    config.udpPort = Integer.parseInt(value);
+                    break;
+                case "bots":
+                    config.bots = positive(key, Integer.parseInt(value));
+                    break;
+                case "scenarios":
+                    config.scenarios = EnumSet.noneOf(Scenario.class);
+                    for (String name : value.split(",")) {
+                        config.scenarios.add(Scenario.valueOf(name.trim().toUpperCase().replace('-', '_')));
+                    }
+                    break;
+                case "duration-s":
+                    config.durationSeconds = positive(key, Integer.parseInt(value));
+                    break;
+                case "connect-concurrency":
+                    config.connectConcurrency = positive(key, Integer.parseInt(value));
+                    break;
+                case "chat-rate":
+                    config.chatRate = Double.parseDouble(value);
+                    break;
+                case "payload":
+                    config.payloadBytes = Integer.parseInt(value);
+                    break;
+                case "dm-rate":
+                    config.dmRate = Double.parseDouble(value);
+                    break;
+                case "list-rate":
+                    config.listRate = Double.parseDouble(value);
+                    break;
+                case "udp-senders":
+                    config.udpSenders = Integer.parseInt(value);
+                    break;
+                case "udp-burst":
+                    config.udpBurst = positive(key, Integer.parseInt(value));
+                    break;
+                case "udp-interval-ms":
+                    config.udpIntervalMillis = positive(key, Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue: --" + key);
+            }
+        }
+        return config;
+    }
+
+    private static int positive(String key, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException("--" + key + " doit etre positif");
+        }
+        return value;
+    }
+
+    static String usage() {
+        return "Usage: java loadtest.LoadTest [--host=H] [--port=P] [--udp-port=P] [--bots=N]\n"
+            + "         [--scenarios=join-storm,steady,dm,list-spam,udp-burst] [--duration-s=S]\n"
+            + "         [--connect-concurrency=N] [--chat-rate=R] [--payload=OCTETS] [--dm-rate=R]\n"
+            + "         [--list-rate=R] [--udp-senders=N] [--udp-burst=N] [--udp-interval-ms=T]\n"
+            + "Les debits (rate) sont en messages par seconde et par bot.";
+    }
+
+    boolean has(Scenario scenario) {
+        return scenarios.contains(scenario);
+    }
+
+    boolean isUdp() {
+        return has(Scenario.UDP_BURST);
+    }
+
+    // Getters
+    String getHost() {
+        return host;
+    }
+
+    int getPort() {
+        return port;
+    }
+
+    int getUdpPort() {
+        return udpPort;
+    }
+
+    int getBots() {
+        return bots;
+    }
+
+    Set<Scenario> getScenarios() {
+        return scenarios;
+    }
+
+    int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    int getConnectConcurrency() {
+        return connectConcurrency;
+    }
+
+    double getChatRate() {
+        return chatRate;
+    }
+
+    int getPayloadBytes() {
+        return payloadBytes;
+    }
+
+    double getDmRate() {
+        return dmRate;
+    }
+
+    double getListRate() {
+        return listRate;
+    }
+
+    int getUdpSenders() {
+        return udpSenders;
+    }
+
+    int getUdpBurst() {
+        return udpBurst;
+    }
+
+    int getUdpIntervalMillis() {
+        return udpIntervalMillis;
+    }
+}
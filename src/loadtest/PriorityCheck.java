@@ -0,0 +1,184 @@
+package loadtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.management.ObjectName;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification des voies de sortie sur un serveur lancé dans cette JVM : un
+ * client qui ne lit plus accumule des milliers de lignes de texte ; sa
+ * réponse à /rooms passe devant, le texte n'est ni perdu ni affamé par une
+ * salve de commandes, et les temps d'attente par voie sont publiés.
+ *
+ * Usage: java loadtest.PriorityCheck [thread|virtual|nio] [port]   (défaut : thread 17500)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class PriorityCheck {
+    private static final long TIMEOUT_MILLIS = 20_000;
+    private static final int LINES = 20_000;
+    private static final int COMMANDS = 200;
+    private static final int CONTROL_BURST = 8;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17500;
+        System.exit(new PriorityCheck().run(transport, port) ? 0 : 1);
+    }
+
+    boolean run(String transport, int port) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--transport=" + transport,
+            "--flood-rate=0", "--flood-bytes=0", "--control-burst=" + CONTROL_BURST});
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        config.setPresenceWindowMillis(0);
+        config.setOutboundCapacity(LINES + 1000); // rien ne doit être perdu
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        try {
+            Client slow = new Client("lent", port, true);
+            Client sender = new Client("emetteur", port, false);
+            Thread.sleep(200);
+
+            // Le client lent ne lit plus : le texte s'accumule dans sa file
+            String padding = "x".repeat(400);
+            for (int i = 0; i < LINES; i++) {
+                sender.send("ligne " + i + " " + padding);
+            }
+            Thread.sleep(1000);
+            for (int i = 0; i < COMMANDS; i++) {
+                slow.send("/rooms");
+            }
+            Thread.sleep(500);
+            slow.resume();
+
+            // Ordre d'arrivée chez le client lent
+            int lines = 0;
+            int replies = 0;
+            int textBeforeReply = -1;
+            int longestRun = 0;
+            int run = 0;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+            while ((lines < LINES || replies < COMMANDS) && System.nanoTime() < deadline) {
+                Message message = slow.inbox.poll(100, TimeUnit.MILLISECONDS);
+                if (message == null) {
+                    continue;
+                }
+                if (message.getType() == Message.MessageType.TEXT && message.getContent().startsWith("ligne ")) {
+                    lines++;
+                    run = 0;
+                } else if (message.getContent().startsWith("🏠 Salons")) {
+                    if (textBeforeReply < 0) {
+                        textBeforeReply = lines;
+                    }
+                    replies++;
+                    // Seules comptent les salves pendant que du texte attend encore
+                    if (lines < LINES) {
+                        longestRun = Math.max(longestRun, ++run);
+                    }
+                }
+            }
+
+            check(lines == LINES, lines + "/" + LINES + " lignes recues, aucune perdue");
+            check(textBeforeReply >= 0 && textBeforeReply < LINES / 2,
+                "reponse a /rooms apres " + textBeforeReply + " lignes sur " + LINES + " (passe devant le texte en file)");
+            check(replies == COMMANDS && longestRun <= CONTROL_BURST + 1,
+                "texte non affame : au plus " + longestRun + " reponses d'affilee (limite " + CONTROL_BURST + ")");
+            long controlWait = counter(port, "ControlLaneWaitP99Micros");
+            long textWait = counter(port, "TextLaneWaitP99Micros");
+            check(controlWait < textWait, "attente p99 : controle " + controlWait + " us, texte " + textWait + " us");
+
+            slow.close();
+            sender.close();
+        } finally {
+            server.shutdown();
+        }
+
+        System.out.println();
+        System.out.println(failures.isEmpty() ? "Voies de sortie OK (" + transport + ")" : failures.size() + " verification(s) en echec");
+        return failures.isEmpty();
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Client binaire minimal ; un client en pause ne lit rien avant resume().
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+        private final CountDownLatch reading;
+
+        Client(String username, int port, boolean paused) throws IOException {
+            this.username = username;
+            socket = new Socket();
+            socket.setReceiveBufferSize(8192); // petite fenêtre : le retard reste dans la file du serveur
+            socket.connect(new InetSocketAddress("localhost", port));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            reading = new CountDownLatch(paused ? 1 : 0);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    reading.await();
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException | InterruptedException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void resume() {
+            reading.countDown();
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package loadtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.management.ObjectName;
+import common.LoginAttributes;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification des derniers messages gardés en mémoire, sur des serveurs
+ * lancés dans cette JVM sans historique disque : un client qui arrive reçoit
+ * les derniers messages de son salon juste après la bienvenue, dans l'ordre
+ * et dans les limites en messages et en octets, y compris en rejoignant un
+ * salon et pendant une vague de connexions.
+ *
+ * Usage: java loadtest.RecentCheck [thread|virtual|nio] [port]   (défaut : thread 17600)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class RecentCheck {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final int KEPT = 10;
+    private static final int STORM = 300;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17600;
+        RecentCheck check = new RecentCheck();
+        check.backfill(transport, port);
+        check.byteLimit(transport, port + 10);
+        System.out.println();
+        System.out.println(check.failures.isEmpty() ? "Derniers messages OK (" + transport + ")"
+            : check.failures.size() + " verification(s) en echec");
+        System.exit(check.failures.isEmpty() ? 0 : 1);
+    }
+
+    private static ChatServer start(String transport, int port, String... options) throws IOException {
+        String[] args = new String[options.length + 3];
+        args[0] = "--transport=" + transport;
+        args[1] = "--flood-rate=0";
+        args[2] = "--flood-bytes=0";
+        System.arraycopy(options, 0, args, 3, options.length);
+        ServerConfig config = ServerConfig.fromArgs(args);
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(""); // tout doit venir de la mémoire
+        config.setLogLevel(ServerConfig.LogLevel.ERROR);
+        config.setPresenceWindowMillis(0);
+        ChatServer server = new ChatServer(config);
+        server.open();
+        return server;
+    }
+
+    private void backfill(String transport, int port) throws Exception {
+        ChatServer server = start(transport, port, "--recent-messages=" + KEPT);
+        try {
+            Client alice = Client.connect("alice", port, null);
+            for (int i = 0; i < 15; i++) {
+                alice.send("m" + i);
+            }
+            Thread.sleep(300);
+
+            // 1. Juste après la bienvenue, les KEPT derniers, dans l'ordre
+            Client bob = Client.connect("bob", port, "last:20");
+            List<String> seen = bob.textsUntilEnd();
+            check(seen.equals(expected("m", 5, 15)) && bob.welcomeFirst,
+                "bienvenue puis " + seen.size() + " derniers messages dans l'ordre : " + seen);
+
+            // 2. Ancien client (sans demande d'historique) : même chose
+            Client carol = Client.connect("carol", port, null);
+            check(carol.textsUntilEnd().equals(expected("m", 5, 15)), "client sans demande d'historique servi aussi");
+
+            // 3. Demande plus courte que l'anneau
+            Client dave = Client.connect("dave", port, "last:3");
+            check(dave.textsUntilEnd().equals(expected("m", 12, 15)), "last:3 : les trois derniers");
+
+            // 4. /join : les derniers messages du salon rejoint, et seulement eux
+            alice.send("/join dev");
+            alice.await(m -> m.getContent().startsWith("Vous avez rejoint #dev"), TIMEOUT_MILLIS);
+            alice.send("d0");
+            alice.send("d1");
+            Thread.sleep(300);
+            bob.send("/join dev");
+            bob.await(m -> m.getContent().startsWith("Vous avez rejoint #dev"), TIMEOUT_MILLIS);
+            check(bob.textsUntilEnd().equals(expected("d", 0, 2)), "/join dev : derniers messages de #dev");
+
+            // 5. Vague de connexions : tout vient de la mémoire
+            long servedBefore = counter(port, "RecentServed");
+            List<Client> storm = new ArrayList<>();
+            for (int i = 0; i < STORM; i++) {
+                storm.add(new Client("vague" + i, port, "last:20"));
+            }
+            int complete = 0;
+            for (Client client : storm) {
+                if (client.textsUntilEnd().size() == KEPT) {
+                    complete++;
+                }
+            }
+            long served = counter(port, "RecentServed") - servedBefore;
+            check(complete == STORM && served == (long) STORM * KEPT && counter(port, "HistoryReplays") == 0,
+                complete + "/" + STORM + " connexions servies (" + served + " messages), aucune relecture disque");
+
+            for (Client client : storm) {
+                client.close();
+            }
+            alice.close();
+            bob.close();
+            carol.close();
+            dave.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Limite en octets : les messages les plus anciens sortent d'abord.
+     */
+    private void byteLimit(String transport, int port) throws Exception {
+        ChatServer server = start(transport, port, "--recent-messages=100", "--recent-bytes=2048");
+        try {
+            Client alice = Client.connect("alice", port, null);
+            String padding = "x".repeat(300);
+            for (int i = 0; i < 20; i++) {
+                alice.send("b" + i + " " + padding);
+            }
+            Thread.sleep(300);
+            Client bob = Client.connect("bob", port, "last:100");
+            List<String> seen = bob.textsUntilEnd();
+            check(!seen.isEmpty() && seen.size() <= 2048 / 300 && seen.get(seen.size() - 1).startsWith("b19 "),
+                seen.size() + " messages de 300 octets pour une limite de 2048 octets, le plus recent en dernier");
+            alice.close();
+            bob.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static List<String> expected(String prefix, int from, int to) {
+        List<String> expected = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            expected.add(prefix + i);
+        }
+        return expected;
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Client binaire minimal.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+        private boolean welcomeFirst;
+
+        Client(String username, int port, String history) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            String attributes = history != null ? LoginAttributes.format(Map.of(LoginAttributes.HISTORY, history)) : "";
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, attributes, Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port, String history) throws IOException, InterruptedException {
+            Client client = new Client(username, port, history);
+            Thread.sleep(100);
+            return client;
+        }
+
+        /**
+         * Textes reçus jusqu'à la fin d'historique ; note si la bienvenue les précédait.
+         */
+        List<String> textsUntilEnd() throws InterruptedException {
+            List<String> texts = new ArrayList<>();
+            boolean welcomed = false;
+            Message message;
+            while ((message = await(m -> true, TIMEOUT_MILLIS)) != null) {
+                if (message.getContent().startsWith("📜 Fin de l'historique")) {
+                    break;
+                }
+                if (message.getContent().startsWith("Bienvenue")) {
+                    welcomed = true;
+                } else if (message.getType() == Message.MessageType.TEXT) {
+                    welcomeFirst = welcomed;
+                    texts.add(message.getContent());
+                }
+            }
+            return texts;
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package loadtest;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import common.LoginAttributes;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification de bout en bout de la reprise de session, sur un serveur lancé
+ * dans cette JVM : un client coupé sans /quit se reconnecte avec son jeton,
+ * reçoit exactement les messages manqués, dans l'ordre, et les autres ne voient
+ * ni départ ni retour. Contrôle aussi l'acquittement (une reprise avant la
+ * trame acquittée est refusée) et l'expiration d'une session abandonnée.
+ *
+ * Usage: java loadtest.ResumeCheck [thread|virtual|nio] [port]   (défaut : thread 17100)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class ResumeCheck {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final int RESUME_TIMEOUT_SECONDS = 2;
+    private static final int MISSED = 50;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17100;
+        System.exit(new ResumeCheck().run(transport, port) ? 0 : 1);
+    }
+
+    boolean run(String transport, int port) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--transport=" + transport});
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        config.setPresenceWindowMillis(0);
+        config.setResumeTimeoutSeconds(RESUME_TIMEOUT_SECONDS);
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        try {
+            Client alice = Client.connect("alice", port, "1");
+            Client bob = Client.connect("bob", port, "");
+            check(alice.sessionSequence == 1 && alice.token != null, "message SESSION en tete du flux, numero 1");
+            bob.collect(200);
+
+            // 1. Coupure brutale, messages envoyés pendant l'absence, reprise
+            alice.await(m -> m.getContent().startsWith("Bienvenue"), TIMEOUT_MILLIS);
+            alice.collect(200);
+            alice.kill();
+            Thread.sleep(200);
+            for (int i = 0; i < MISSED; i++) {
+                bob.send("pendant " + i);
+            }
+            Thread.sleep(200);
+            Client resumed = Client.connect("alice", port, alice.token + ":" + alice.received);
+            check(resumed.resumed && resumed.sessionSequence == alice.received + 1,
+                "reprise acceptee, numerotation continue (" + resumed.sessionSequence + ")");
+            List<Message> replay = resumed.collect(500);
+            check(inOrder(replay, "pendant ", MISSED), MISSED + " messages manques recus une fois, dans l'ordre");
+            check(count(replay, m -> m.getContent().startsWith("🔄 Session reprise")) == 1,
+                "annonce de la reprise au client");
+
+            // 2. Ni départ ni retour annoncé aux autres
+            List<Message> seenByBob = bob.collect(200);
+            check(count(seenByBob, m -> m.getContent().startsWith("alice")) == 0,
+                "aucune annonce de depart/retour d'alice");
+
+            // 3. Le trafic courant suit la reprise
+            bob.send("apres reprise");
+            check(resumed.await(m -> m.getContent().equals("apres reprise"), TIMEOUT_MILLIS) != null,
+                "diffusion recue apres la reprise");
+            resumed.send("de retour");
+            check(bob.await(m -> m.getSender().equals("alice") && m.getContent().equals("de retour"),
+                TIMEOUT_MILLIS) != null, "alice peut de nouveau envoyer sous son nom");
+
+            // 4. Reprise alors que le serveur croit encore l'ancienne connexion vivante
+            resumed.collect(200);
+            Client again = Client.connect("alice", port, resumed.token + ":" + resumed.received);
+            bob.send("apres seconde reprise");
+            check(again.resumed && again.await(m -> m.getContent().equals("apres seconde reprise"),
+                TIMEOUT_MILLIS) != null && resumed.await(m -> true, 500) == null,
+                "seconde reprise, l'ancienne connexion est fermee");
+
+            // 5. Une reprise avant la trame acquittée est refusée : connexion neuve
+            again.collect(200);
+            again.send("/ack " + again.received);
+            Thread.sleep(200);
+            again.kill();
+            Thread.sleep(200);
+            Client stale = Client.connect("alice", port, again.token + ":" + (again.received - 1));
+            check(!stale.resumed && stale.welcome != null && stale.welcome.getContent().equals("Bienvenue alice!"),
+                "reprise avant l'acquittement refusee, nouvelle session");
+            stale.close();
+
+            // 6. Session abandonnée : départ annoncé à l'expiration seulement
+            Client carol = Client.connect("carol", port, "1");
+            bob.collect(200);
+            carol.kill();
+            boolean early = bob.await(m -> m.getContent().startsWith("carol"), 1000) != null;
+            Message left = bob.await(m -> m.getType() == Message.MessageType.DISCONNECT
+                && m.getContent().startsWith("carol"), TimeUnit.SECONDS.toMillis(RESUME_TIMEOUT_SECONDS) + TIMEOUT_MILLIS);
+            check(!early && left != null, "session expiree apres " + RESUME_TIMEOUT_SECONDS + " s, depart annonce");
+            bob.close();
+        } finally {
+            server.shutdown();
+        }
+
+        System.out.println();
+        System.out.println(failures.isEmpty() ? "Reprise OK (" + transport + ")" : failures.size() + " verification(s) en echec");
+        return failures.isEmpty();
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    private static int count(List<Message> messages, Predicate<Message> filter) {
+        int count = 0;
+        for (Message message : messages) {
+            if (filter.test(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean inOrder(List<Message> messages, String prefix, int expectedCount) {
+        int expected = 0;
+        for (Message message : messages) {
+            if (message.getContent().startsWith(prefix)) {
+                if (Integer.parseInt(message.getContent().substring(prefix.length())) != expected) {
+                    return false;
+                }
+                expected++;
+            }
+        }
+        return expected == expectedCount;
+    }
+
+    /**
+     * Client binaire minimal qui compte les trames comme ChatClient : le
+     * message SESSION donne le numéro courant, chaque trame suivante +1.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+        volatile String token;
+        volatile long sessionSequence;
+        volatile boolean resumed;
+        volatile long received;
+        volatile Message welcome;
+
+        private Client(String username, int port, String resume) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            String attributes = resume.isEmpty() ? "" : LoginAttributes.RESUME + "=" + resume;
+            MessageCodec.write(out, new Message(username, attributes, Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+            if (!resume.isEmpty()) {
+                Message session = MessageCodec.read(in);
+                Map<String, String> fields = LoginAttributes.parse(session.getContent());
+                token = fields.get(LoginAttributes.SESSION_TOKEN);
+                sessionSequence = Long.parseLong(fields.get(LoginAttributes.SESSION_SEQUENCE));
+                resumed = "1".equals(fields.get(LoginAttributes.SESSION_RESUMED));
+                received = sessionSequence;
+            }
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        Message message = MessageCodec.read(in);
+                        received++;
+                        if (welcome == null && message.getContent().startsWith("Bienvenue")) {
+                            welcome = message;
+                        }
+                        inbox.add(message);
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port, String resume) throws IOException, InterruptedException {
+            Client client = new Client(username, port, resume);
+            Thread.sleep(100);
+            return client;
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        List<Message> collect(long millis) throws InterruptedException {
+            Thread.sleep(millis);
+            List<Message> messages = new ArrayList<>();
+            inbox.drainTo(messages);
+            return messages;
+        }
+
+        /**
+         * Coupure sans /quit, comme un réseau qui tombe.
+         */
+        void kill() throws IOException {
+            socket.setSoLinger(true, 0);
+            socket.close();
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package loadtest;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification des salons sur un serveur lancé dans cette JVM : un message
+ * ne va qu'aux membres de son salon, les arrivées et départs sont annoncés
+ * au salon seulement, /leave et /rooms se comportent comme prévu.
+ *
+ * Usage: java loadtest.RoomCheck [thread|virtual|nio] [port]   (défaut : thread 17400)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class RoomCheck {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final long QUIET_MILLIS = 300;
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17400;
+        System.exit(new RoomCheck().run(transport, port) ? 0 : 1);
+    }
+
+    boolean run(String transport, int port) throws Exception {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--transport=" + transport});
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory("");
+        config.setLogLevel(ServerConfig.LogLevel.WARN);
+        config.setPresenceWindowMillis(0);
+        ChatServer server = new ChatServer(config);
+        server.open();
+
+        try {
+            Client alice = Client.connect("alice", port);
+            Client bob = Client.connect("bob", port);
+            Client carol = Client.connect("carol", port);
+
+            // 1. Salon par défaut : tout le monde y est
+            alice.send("bonjour");
+            check(bob.await(m -> m.getContent().equals("bonjour") && "general".equals(m.getRoom()), TIMEOUT_MILLIS) != null
+                && carol.await(m -> m.getContent().equals("bonjour"), TIMEOUT_MILLIS) != null,
+                "salon par defaut commun, salon indique dans la trame");
+
+            // 2. /join : annonce au salon seulement
+            alice.send("/join dev");
+            alice.await(m -> m.getContent().startsWith("Vous avez rejoint #dev"), TIMEOUT_MILLIS);
+            bob.send("/join #dev");
+            check(alice.await(m -> m.getContent().contains("bob a rejoint #dev"), TIMEOUT_MILLIS) != null,
+                "arrivee annoncee aux membres du salon");
+            bob.await(m -> m.getContent().startsWith("Vous avez rejoint #dev"), TIMEOUT_MILLIS);
+            check(carol.none(m -> m.getContent().contains("#dev"), QUIET_MILLIS), "rien pour les non-membres");
+
+            // 3. Le texte va dans le salon courant, et seulement là
+            alice.send("dans dev");
+            check(bob.await(m -> m.getContent().equals("dans dev") && "dev".equals(m.getRoom()), TIMEOUT_MILLIS) != null,
+                "message du salon courant recu par un membre");
+            check(carol.none(m -> m.getContent().equals("dans dev"), QUIET_MILLIS), "message du salon absent chez les autres");
+
+            // 4. Salon explicite dans la trame : un salon rejoint mais non courant
+            Message toGeneral = new Message("alice", "dans general");
+            toGeneral.setRoom("general");
+            alice.send(toGeneral);
+            check(carol.await(m -> m.getContent().equals("dans general"), TIMEOUT_MILLIS) != null,
+                "salon explicite (general) malgre le salon courant dev");
+            Message elsewhere = new Message("carol", "intrusion");
+            elsewhere.setRoom("dev");
+            carol.send(elsewhere);
+            check(carol.await(m -> m.getType() == Message.MessageType.ERROR, TIMEOUT_MILLIS) != null
+                && alice.none(m -> m.getContent().equals("intrusion"), QUIET_MILLIS),
+                "salon non rejoint refuse");
+
+            // 5. /rooms
+            carol.send("/rooms");
+            Message rooms = carol.await(m -> m.getContent().startsWith("🏠 Salons"), TIMEOUT_MILLIS);
+            check(rooms != null && rooms.getContent().contains("#dev (2)") && rooms.getContent().contains("> #general (3)"),
+                "/rooms : salons, membres et salon courant");
+
+            // 6. /leave : annonce, plus rien ensuite
+            bob.send("/leave");
+            check(alice.await(m -> m.getContent().contains("bob a quitté #dev"), TIMEOUT_MILLIS) != null,
+                "depart du salon annonce");
+            bob.await(m -> m.getContent().startsWith("Vous avez quitté #dev"), TIMEOUT_MILLIS);
+            alice.send("apres depart");
+            check(bob.none(m -> m.getContent().equals("apres depart"), QUIET_MILLIS), "plus de messages apres /leave");
+
+            // 7. Plus aucun salon : le texte est refusé
+            carol.send("/leave general");
+            carol.await(m -> m.getContent().startsWith("Vous avez quitté"), TIMEOUT_MILLIS);
+            carol.send("seule");
+            check(carol.await(m -> m.getType() == Message.MessageType.ERROR
+                && m.getContent().startsWith("Aucun salon"), TIMEOUT_MILLIS) != null, "sans salon, texte refuse");
+
+            alice.close();
+            bob.close();
+            carol.close();
+        } finally {
+            server.shutdown();
+        }
+
+        System.out.println();
+        System.out.println(failures.isEmpty() ? "Salons OK (" + transport + ")" : failures.size() + " verification(s) en echec");
+        return failures.isEmpty();
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Client binaire minimal.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+
+        private Client(String username, int port) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port) throws IOException, InterruptedException {
+            Client client = new Client(username, port);
+            Thread.sleep(100);
+            return client;
+        }
+
+        void send(String content) throws IOException {
+            send(new Message(username, content));
+        }
+
+        void send(Message message) throws IOException {
+            MessageCodec.write(out, message);
+            out.flush();
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Vrai si aucun message reçu pendant millis ne correspond.
+         */
+        boolean none(Predicate<Message> filter, long millis) throws InterruptedException {
+            return await(filter, millis) == null;
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
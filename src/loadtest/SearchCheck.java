@@ -0,0 +1,252 @@
+package loadtest;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import javax.management.ObjectName;
+import common.Message;
+import common.MessageCodec;
+import server.ChatServer;
+import server.ServerConfig;
+
+/**
+ * Vérification de /search sur des serveurs lancés dans cette JVM : termes
+ * sans accents ni majuscules, préfixes, from:, in:, since:, pages, salons
+ * du client seulement, et index reconstruit depuis l'historique sur disque
+ * au redémarrage.
+ *
+ * Usage: java loadtest.SearchCheck [thread|virtual|nio] [port]   (défaut : thread 17700)
+ * Code de sortie 0 si tout est correct, 1 sinon.
+ */
+public class SearchCheck {
+    private static final long TIMEOUT_MILLIS = 5_000;
+    private static final long INDEXED_MILLIS = 500; // un segment est scellé toutes les 200 ms
+
+    private final List<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        String transport = args.length > 0 ? args[0] : "thread";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 17700;
+        SearchCheck check = new SearchCheck();
+        check.queries(transport, port);
+        check.restart(transport, port + 10);
+        System.out.println();
+        System.out.println(check.failures.isEmpty() ? "Recherche OK (" + transport + ")"
+            : check.failures.size() + " verification(s) en echec");
+        System.exit(check.failures.isEmpty() ? 0 : 1);
+    }
+
+    private static ChatServer start(String transport, int port, String historyDirectory) throws IOException {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--transport=" + transport,
+            "--flood-rate=0", "--flood-bytes=0"});
+        config.setTcpPort(port);
+        config.setUdpPort(port + 1);
+        config.setHistoryDirectory(historyDirectory);
+        config.setLogLevel(ServerConfig.LogLevel.ERROR);
+        config.setPresenceWindowMillis(0);
+        ChatServer server = new ChatServer(config);
+        server.open();
+        return server;
+    }
+
+    private void queries(String transport, int port) throws Exception {
+        ChatServer server = start(transport, port, "");
+        try {
+            Client alice = Client.connect("alice", port);
+            Client bob = Client.connect("bob", port);
+            Client carol = Client.connect("carol", port);
+            alice.send("Pizza ce soir ?");
+            Thread.sleep(100); // ordre de diffusion fixé : chaque client a son thread
+            bob.send("la pizza était froide");
+            bob.send("Réunion à 14h");
+            carol.send("il fait beau l'été");
+            Thread.sleep(INDEXED_MILLIS);
+
+            // 1. Termes : les plus récents d'abord
+            List<String> lines = carol.search("/search pizza");
+            check(lines.size() == 3 && lines.get(0).startsWith("🔎 2 résultats") && lines.get(1).endsWith("bob: la pizza était froide")
+                && lines.get(2).endsWith("alice: Pizza ce soir ?"), "/search pizza : 2 resultats, le plus recent d'abord");
+
+            // 2. Accents et majuscules ignorés, préfixe, from:
+            check(carol.search("/search ETE").size() == 2, "/search ETE trouve \"l'été\"");
+            check(carol.search("/search reunion").size() == 2, "/search reunion trouve \"Réunion\"");
+            check(carol.search("/search piz*").get(0).startsWith("🔎 2 résultats"), "/search piz* : prefixe");
+            lines = carol.search("/search pizza from:bob");
+            check(lines.size() == 2 && lines.get(1).endsWith("bob: la pizza était froide"), "from:bob");
+            check(carol.search("/search pizza froide soir").get(0).startsWith("🔎 Aucun résultat"),
+                "tous les termes sont requis");
+
+            // 3. Seulement les salons du client ; in:
+            alice.send("/join dev");
+            alice.await(m -> m.getContent().startsWith("Vous avez rejoint #dev"), TIMEOUT_MILLIS);
+            alice.send("pizza reservee a dev");
+            Thread.sleep(INDEXED_MILLIS);
+            check(carol.search("/search pizza").get(0).startsWith("🔎 2 résultats"), "salon non rejoint invisible");
+            lines = alice.search("/search pizza in:dev");
+            check(lines.size() == 2 && lines.get(1).contains("#dev alice: pizza reservee a dev"), "in:dev");
+
+            // 4. since:
+            bob.send("ancien soleil");
+            Thread.sleep(1500);
+            bob.send("nouveau soleil");
+            Thread.sleep(INDEXED_MILLIS);
+            lines = carol.search("/search soleil since:1s");
+            check(lines.size() == 2 && lines.get(1).endsWith("nouveau soleil"), "since:1s");
+            check(carol.search("/search soleil since:1h").size() == 3, "since:1h");
+
+            // 5. Pages de 10
+            for (int i = 0; i < 25; i++) {
+                bob.send("lot " + i);
+            }
+            Thread.sleep(INDEXED_MILLIS);
+            lines = carol.search("/search lot");
+            check(lines.size() == 12 && lines.get(0).contains("(page 1/3)") && lines.get(1).endsWith("lot 24")
+                && lines.get(11).contains("page:2"), "page 1/3 : 10 resultats et la suite annoncee");
+            lines = carol.search("/search lot page:3");
+            check(lines.size() == 6 && lines.get(5).endsWith("lot 0"), "page:3 : les 5 plus anciens");
+
+            // 6. Requête invalide
+            carol.send("/search");
+            check(carol.await(m -> m.getType() == Message.MessageType.ERROR
+                && m.getContent().startsWith("Usage: /search"), TIMEOUT_MILLIS) != null, "/search sans terme refuse");
+
+            long queries = counter(port, "SearchQueries");
+            long p99 = counter(port, "SearchP99Micros");
+            check(queries >= 12 && p99 < 50_000, queries + " requetes, p99 " + p99 + " us");
+
+            alice.close();
+            bob.close();
+            carol.close();
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    /**
+     * Au redémarrage, l'index est reconstruit depuis l'historique sur disque.
+     */
+    private void restart(String transport, int port) throws Exception {
+        Path directory = Files.createTempDirectory("search-check");
+        try {
+            ChatServer first = start(transport, port, directory.toString());
+            try {
+                Client alice = Client.connect("alice", port);
+                alice.send("archive disque numero un");
+                alice.send("archive disque numero deux");
+                Thread.sleep(INDEXED_MILLIS);
+                alice.close();
+            } finally {
+                first.shutdown();
+            }
+
+            ChatServer second = start(transport, port, directory.toString());
+            try {
+                Client bob = Client.connect("bob", port);
+                List<String> lines = bob.search("/search archive from:alice");
+                check(lines.size() == 3 && lines.get(1).endsWith("alice: archive disque numero deux"),
+                    "apres redemarrage, historique sur disque indexe");
+                bob.close();
+            } finally {
+                second.shutdown();
+            }
+        } finally {
+            try (var files = Files.walk(directory)) {
+                files.sorted((a, b) -> b.compareTo(a)).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static long counter(int port, String attribute) throws Exception {
+        ObjectName name = new ObjectName("chat.server:type=Metrics,port=" + port);
+        return (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(name, attribute);
+    }
+
+    private void check(boolean ok, String description) {
+        System.out.println((ok ? "[OK] " : "[ECHEC] ") + description);
+        if (!ok) {
+            failures.add(description);
+        }
+    }
+
+    /**
+     * Client binaire minimal.
+     */
+    private static final class Client {
+        private final String username;
+        private final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Message> inbox;
+
+        private Client(String username, int port) throws IOException {
+            this.username = username;
+            socket = new Socket("localhost", port);
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            inbox = new LinkedBlockingQueue<>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            out.write(MessageCodec.handshake(MessageCodec.VERSION));
+            MessageCodec.write(out, new Message(username, "", Message.MessageType.CONNECT));
+            out.flush();
+            byte[] reply = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            in.readFully(reply);
+            MessageCodec.checkHandshake(reply, 0);
+
+            Thread reader = new Thread(() -> {
+                try {
+                    while (true) {
+                        inbox.add(MessageCodec.read(in));
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée
+                }
+            }, "check-" + username);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        static Client connect(String username, int port) throws IOException, InterruptedException {
+            Client client = new Client(username, port);
+            Thread.sleep(100);
+            return client;
+        }
+
+        /**
+         * Envoie la requête et rend les lignes de la page de résultats (vide si rien n'arrive).
+         */
+        List<String> search(String request) throws IOException, InterruptedException {
+            send(request);
+            Message result = await(m -> m.getType() == Message.MessageType.INFO
+                && m.getContent().startsWith("🔎"), TIMEOUT_MILLIS);
+            return result == null ? List.of() : List.of(result.getContent().split("\n"));
+        }
+
+        void send(String content) throws IOException {
+            MessageCodec.write(out, new Message(username, content));
+            out.flush();
+        }
+
+        Message await(Predicate<Message> filter, long millis) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                Message message = inbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (message != null && filter.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+
+        void close() throws IOException {
+            send("/quit");
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Étape d'admission devant la diffusion et les commandes : un client ne peut
+ * pas consommer à lui seul la capacité de diffusion du serveur.
+ *
+ * Chaque client a deux seaux à jetons, messages/s et octets/s ; les
+ * diffusions puisent en plus dans un budget global exprimé en remises/s (un
+ * message diffusé à N clients coûte N), qui est ce que la diffusion paie
+ * vraiment. Tout se compte sans verrou (TokenBucket).
+ *
+ * Un message en trop est retardé, ignoré ou refusé selon --flood-policy ; en
+ * mode retard, l'attente est bornée et au-delà le message est refusé.
+ */
+final class Admission {
+    // Au-delà, un client en retard voit ses messages refusés
+    static final long MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Seaux d'un client ; null pour une limite désactivée.
+     */
+    static final class Quota {
+        final TokenBucket messages;
+        final TokenBucket bytes;
+        boolean refused; // dernier message refusé (thread de lecture) : une ERROR par salve
+
+        Quota(TokenBucket messages, TokenBucket bytes) {
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    private final ServerConfig config;
+    private final TokenBucket deliveries;
+    private final long maxDelay;
+
+    Admission(ServerConfig config) {
+        this.config = config;
+        this.deliveries = config.getFloodGlobalRate() > 0
+            ? new TokenBucket(config.getFloodGlobalRate(), config.getFloodGlobalRate())
+            : null;
+        this.maxDelay = config.getFloodPolicy() == ServerConfig.FloodPolicy.DELAY ? MAX_DELAY_NANOS : 0;
+    }
+
+    ServerConfig.FloodPolicy policy() {
+        return config.getFloodPolicy();
+    }
+
+    Quota newQuota() {
+        int rate = config.getFloodRate();
+        int burst = config.getFloodBurst();
+        int byteRate = config.getFloodByteRate();
+        // Même durée de rafale pour les octets que pour les messages (une seconde sans limite de messages)
+        long byteBurst = rate > 0 ? (long) byteRate * burst / rate : byteRate;
+        return new Quota(
+            rate > 0 ? new TokenBucket(rate, burst) : null,
+            byteRate > 0 ? new TokenBucket(byteRate, byteBurst) : null);
+    }
+
+    /**
+     * Prend dans les seaux du client, et dans le budget global pour une diffusion.
+     * @param bytes taille du message
+     * @param recipients destinataires d'une diffusion, 0 pour une commande
+     * @return -1 si le message est refusé (rien n'est pris), sinon le délai
+     *         à respecter avant de le traiter, en ns
+     */
+    long admit(Quota quota, int bytes, int recipients) {
+        long now = System.nanoTime();
+        long delay = 0;
+        if (quota.messages != null) {
+            delay = quota.messages.acquire(1, now, maxDelay);
+            if (delay < 0) {
+                return -1;
+            }
+        }
+        if (quota.bytes != null) {
+            long wait = quota.bytes.acquire(bytes, now, maxDelay);
+            if (wait < 0) {
+                refund(quota, 0);
+                return -1;
+            }
+            delay = Math.max(delay, wait);
+        }
+        if (deliveries != null && recipients > 0) {
+            long wait = deliveries.acquire(recipients, now, maxDelay);
+            if (wait < 0) {
+                refund(quota, bytes);
+                return -1;
+            }
+            delay = Math.max(delay, wait);
+        }
+        return delay;
+    }
+
+    /**
+     * Rend les messages (et bytes octets, s'ils avaient été pris) d'une demande refusée plus loin.
+     */
+    private static void refund(Quota quota, int bytes) {
+        if (quota.messages != null) {
+            quota.messages.refund(1);
+        }
+        if (quota.bytes != null && bytes > 0) {
+            quota.bytes.refund(bytes);
+        }
+    }
+}
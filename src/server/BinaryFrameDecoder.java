@@ -0,0 +1,37 @@
+package server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import common.Constants;
+import common.MessageCodec;
+
+/**
+ * Découpe les trames MessageCodec préfixées par leur longueur.
+ */
+class BinaryFrameDecoder extends FrameDecoder {
+
+    @Override
+    List<Object> decode(ByteBuffer input) throws IOException {
+        append(input);
+        List<Object> messages = new ArrayList<>();
+        int pos = 0;
+
+        while (length - pos >= 4) {
+            int frameLength = ((buffer[pos] & 0xFF) << 24) | ((buffer[pos + 1] & 0xFF) << 16)
+                | ((buffer[pos + 2] & 0xFF) << 8) | (buffer[pos + 3] & 0xFF);
+            if (frameLength < 0 || frameLength > Constants.MAX_FRAME_SIZE) {
+                throw new StreamCorruptedException("Longueur de trame invalide: " + frameLength);
+            }
+            if (length - pos - 4 < frameLength) {
+                break; // trame incomplète : on attend la suite
+            }
+            messages.add(MessageCodec.decode(buffer, pos + 4, frameLength));
+            pos += 4 + frameLength;
+        }
+        discard(pos);
+        return messages;
+    }
+}
@@ -2,18 +2,51 @@ package server;
 
 import java.io.*;
 import java.net.*;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
 import java.util.*;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import common.Message;
-import common.Constants;
 
 public class ChatServer {
+    private final ServerConfig config;
     private ServerSocket tcpServerSocket;
-    private DatagramSocket udpSocket;
-    private List<ClientHandler> clients;
+    private NioTransport nioTransport;
+    private UdpLane udpLane;
+    private HistoryLog history;
+    private HistoryWriter historyWriter;
+    private final ClientRegistry clients;
+    private final ServerMetrics metrics;
+    private Presence presence;
+    private final ResumeSessions sessions;
+    private final Admission admission;
+    private final Rooms rooms;
+    private final RecentMessages recent;
+    private final SearchIndex search;
+    private ClusterBridge cluster;
+    private IdleWheel idleWheel;
+    private MetricsEndpoint metricsEndpoint;
+    private ObjectName metricsName;
     private boolean isRunning;
     
     public ChatServer() {
-        this.clients = Collections.synchronizedList(new ArrayList<>());
+        this(new ServerConfig());
+    }
+    
+    public ChatServer(ServerConfig config) {
+        this.config = config;
+        // Annuaire sans verrou global : les diffusions parcourent un instantané,
+        // ce qui évite aussi d'épingler les threads virtuels sur un moniteur
+        this.clients = new ClientRegistry();
+        this.metrics = new ServerMetrics(clients);
+        this.sessions = new ResumeSessions(config);
+        this.admission = new Admission(config);
+        this.recent = new RecentMessages(config);
+        this.rooms = new Rooms(recent);
+        this.search = new SearchIndex(config, metrics);
+        ServerLog.configure(config);
         this.isRunning = true;
     }
     
@@ -23,71 +56,163 @@ public class ChatServer {
         System.out.println("====================================\n");
         
         try {
-            // Essayer de libérer le port si nécessaire
-            releasePorts();
-            
-            // Démarrer le serveur TCP
-            tcpServerSocket = new ServerSocket(Constants.TCP_PORT);
-            System.out.println("[OK] Serveur TCP demarre sur le port " + Constants.TCP_PORT);
-            
-            // Démarrer le serveur UDP
-            udpSocket = new DatagramSocket(Constants.UDP_PORT);
-            System.out.println("[OK] Serveur UDP demarre sur le port " + Constants.UDP_PORT);
+            open();
             
             // Ajouter un hook d'arrêt
-            Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
-            
-            // Thread pour accepter les connexions TCP
-            Thread tcpThread = new Thread(() -> {
-                System.out.println("[INFO] En attente de connexions TCP...");
-                acceptTCPConnections();
-            });
-            tcpThread.setDaemon(true);
-            tcpThread.start();
-            
-            // Thread pour gérer les messages UDP
-            Thread udpThread = new Thread(() -> {
-                System.out.println("[INFO] En attente de messages UDP...");
-                handleUDPMessages();
-            });
-            udpThread.setDaemon(true);
-            udpThread.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
             
             // Console d'administration
             adminConsole();
             
         } catch (BindException e) {
-            System.err.println("[ERREUR] Le port " + Constants.TCP_PORT + " est deja utilise!");
+            System.err.println("[ERREUR] Le port " + config.getTcpPort() + " est deja utilise!");
             System.err.println("   Causes possibles:");
             System.err.println("   1. Une instance du serveur est deja en cours d'execution");
             System.err.println("   2. Le port n'a pas ete libere apres un arret brutal");
             System.err.println("\nSolutions:");
             System.err.println("   1. Fermez l'autre instance du serveur");
-            System.err.println("   2. Changez le port dans Constants.java");
+            System.err.println("   2. Changez le port avec --tcp-port=P");
             System.err.println("   3. Attendez 30 secondes que le port se libere");
             System.err.println("\n   Ou executez la commande suivante dans un terminal:");
-            System.err.println("   Windows: netstat -ano | findstr :" + Constants.TCP_PORT);
-            System.err.println("   Linux/Mac: lsof -i :" + Constants.TCP_PORT);
+            System.err.println("   Windows: netstat -ano | findstr :" + config.getTcpPort());
+            System.err.println("   Linux/Mac: lsof -i :" + config.getTcpPort());
             
         } catch (IOException e) {
             System.err.println("[ERREUR] Erreur lors du demarrage du serveur: " + e.getMessage());
         }
     }
     
+    /**
+     * Ouvre les ports et lance les threads réseau, sans console d'administration
+     * (utilisé tel quel par les bancs d'essai).
+     */
+    public void open() throws IOException {
+        if (config.isLogFileEnabled()) {
+            ServerLog.openFile(config.getLogFile());
+        }
+        
+        // Essayer de libérer le port si nécessaire
+        releasePorts();
+        
+        // Après la construction : Presence rappelle le serveur pour diffuser
+        presence = new Presence(this);
+        presence.start();
+        
+        // Démarrer le serveur TCP
+        if (config.getTransportMode() == ServerConfig.TransportMode.NIO) {
+            nioTransport = new NioTransport(this, config.getReactorThreads());
+            tcpServerSocket = nioTransport.bind(config.getTcpPort());
+            System.out.println("[OK] Serveur TCP (NIO, " + config.getReactorThreads() + 
+                " boucles) demarre sur le port " + config.getTcpPort());
+        } else {
+            tcpServerSocket = new ServerSocket(config.getTcpPort());
+            System.out.println("[OK] Serveur TCP (" + config.getTransportMode() + 
+                ") demarre sur le port " + config.getTcpPort());
+        }
+        
+        // Historique des diffusions, écrit par son propre thread
+        if (config.isHistoryEnabled()) {
+            history = HistoryLog.open(config);
+            historyWriter = new HistoryWriter(history);
+            startThread("history-writer", true, historyWriter);
+            System.out.println("[OK] Historique dans " + config.getHistoryDirectory());
+        }
+        
+        // Index de /search : l'historique sur disque d'abord, avant toute diffusion
+        if (search.isEnabled()) {
+            if (history != null) {
+                long start = System.nanoTime();
+                int seeded = search.seed(history);
+                System.out.println("[OK] Recherche: " + seeded + " messages de l'historique indexes en "
+                    + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+            startThread("search-indexer", true, search);
+        }
+        
+        // Démarrer le serveur UDP
+        udpLane = new UdpLane(this, config.getUdpPort());
+        System.out.println("[OK] Serveur UDP demarre sur le port " + config.getUdpPort() + 
+            " (" + udpLane.receivers() + " recepteurs)");
+        
+        exposeMetrics();
+        
+        // Liens avec les autres nœuds de la grappe
+        if (config.isClusterEnabled()) {
+            cluster = new ClusterBridge(this);
+            cluster.start();
+            System.out.println("[OK] Noeud " + cluster.getNodeId() + ", liens de grappe sur " + 
+                config.getClusterBind() + ":" + config.getClusterPort());
+        }
+        
+        // Surveillance des connexions muettes, avant les premières connexions
+        if (config.getHeartbeatSeconds() > 0) {
+            idleWheel = new IdleWheel(config);
+            startThread("idle-wheel", true, idleWheel::run);
+        }
+        
+        // Thread pour accepter les connexions TCP
+        if (nioTransport != null) {
+            nioTransport.start();
+        } else {
+            startThread("tcp-accept", true, () -> {
+                System.out.println("[INFO] En attente de connexions TCP...");
+                acceptTCPConnections();
+            });
+        }
+        
+        // Récepteurs UDP et thread de diffusion
+        udpLane.start();
+    }
+    
+    /**
+     * Publie les métriques en JMX et, si un port est configuré, en texte brut
+     * sur l'interface locale. Un échec ici n'empêche pas le serveur de tourner.
+     */
+    private void exposeMetrics() throws IOException {
+        try {
+            metricsName = new ObjectName("chat.server:type=Metrics,port=" + config.getTcpPort());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(metrics, ServerMetricsMBean.class), metricsName);
+        } catch (JMException e) {
+            metricsName = null;
+            System.err.println("[ATTENTION] Metriques JMX indisponibles: " + e.getMessage());
+        }
+        
+        if (config.isMetricsEndpointEnabled()) {
+            metricsEndpoint = new MetricsEndpoint(metrics, config.getMetricsPort());
+            metricsEndpoint.start();
+            System.out.println("[OK] Metriques sur http://127.0.0.1:" + config.getMetricsPort() + "/metrics");
+        }
+    }
+    
+    /**
+     * Démarre une tâche sur un thread virtuel en mode VIRTUAL, sur un thread
+     * plateforme sinon (les threads virtuels sont toujours des démons).
+     */
+    void startThread(String name, boolean daemon, Runnable task) {
+        if (config.getTransportMode() == ServerConfig.TransportMode.VIRTUAL) {
+            Thread.ofVirtual().name(name).start(task);
+        } else {
+            Thread thread = new Thread(task, name);
+            thread.setDaemon(daemon);
+            thread.start();
+        }
+    }
+    
     /**
      * Tente de libérer les ports s'ils sont bloqués
      */
     private void releasePorts() {
         try {
             // Tester si le port TCP est libre
-            ServerSocket testSocket = new ServerSocket(Constants.TCP_PORT);
+            ServerSocket testSocket = new ServerSocket(config.getTcpPort());
             testSocket.close();
-            System.out.println("[INFO] Port TCP " + Constants.TCP_PORT + " est libre");
+            System.out.println("[INFO] Port TCP " + config.getTcpPort() + " est libre");
         } catch (IOException e) {
-            System.out.println("[ATTENTION] Port TCP " + Constants.TCP_PORT + " est occupe - tentative de liberation...");
+            System.out.println("[ATTENTION] Port TCP " + config.getTcpPort() + " est occupe - tentative de liberation...");
             try {
                 // Forcer la libération
-                new ServerSocket(Constants.TCP_PORT).close();
+                new ServerSocket(config.getTcpPort()).close();
                 Thread.sleep(500);
                 System.out.println("[OK] Port TCP libere");
             } catch (Exception ex) {
@@ -97,11 +222,11 @@ public class ChatServer {
         
         try {
             // Tester si le port UDP est libre
-            DatagramSocket testSocket = new DatagramSocket(Constants.UDP_PORT);
+            DatagramSocket testSocket = new DatagramSocket(config.getUdpPort());
             testSocket.close();
-            System.out.println("[INFO] Port UDP " + Constants.UDP_PORT + " est libre");
+            System.out.println("[INFO] Port UDP " + config.getUdpPort() + " est libre");
         } catch (IOException e) {
-            System.out.println("[ATTENTION] Port UDP " + Constants.UDP_PORT + " est occupe");
+            System.out.println("[ATTENTION] Port UDP " + config.getUdpPort() + " est occupe");
         }
     }
     
@@ -109,100 +234,246 @@ public class ChatServer {
         while (isRunning) {
             try {
                 Socket clientSocket = tcpServerSocket.accept();
+                clientSocket.setKeepAlive(true); // seul recours pour les clients sans PING
                 String clientAddress = clientSocket.getInetAddress().getHostAddress();
-                System.out.println("[CONNEXION] Nouvelle connexion TCP depuis: " + clientAddress);
+                ServerLog.info(ServerLog.Category.CONNECTION, "[CONNEXION] Nouvelle connexion TCP depuis: {}", clientAddress);
                 
                 ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                clients.add(clientHandler);
-                new Thread(clientHandler).start();
+                clients.register(clientHandler);
+                clientHandler.watchIdle();
+                startThread("client-" + clientAddress + ":" + clientSocket.getPort(), false, clientHandler);
                 
             } catch (SocketException e) {
                 if (isRunning) {
-                    System.err.println("[ERREUR] Socket ferme: " + e.getMessage());
+                    ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Socket ferme: {}", e.getMessage());
                 }
                 break;
             } catch (IOException e) {
                 if (isRunning) {
-                    System.err.println("[ERREUR] Erreur d'acceptation de connexion: " + e.getMessage());
+                    ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Erreur d'acceptation de connexion: {}", e.getMessage());
                 }
             }
         }
     }
     
-    private void handleUDPMessages() {
-        byte[] buffer = new byte[Constants.BUFFER_SIZE];
-        
-        while (isRunning) {
-            try {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                udpSocket.receive(packet);
-                
-                String message = new String(packet.getData(), 0, packet.getLength());
-                InetAddress clientAddress = packet.getAddress();
-                int clientPort = packet.getPort();
-                
-                System.out.println("[UDP] Message UDP recu de " + clientAddress + ":" + clientPort);
-                broadcastUDPMessage(message, clientAddress, clientPort);
-                
-            } catch (SocketException e) {
-                if (isRunning) {
-                    System.err.println("[ERREUR] Socket UDP ferme: " + e.getMessage());
-                }
-                break;
-            } catch (IOException e) {
-                if (isRunning) {
-                    System.err.println("[ERREUR] Erreur UDP: " + e.getMessage());
-                }
-            }
+    ServerConfig getConfig() {
+        return config;
+    }
+    
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+    
+    Presence getPresence() {
+        return presence;
+    }
+    
+    /**
+     * Surveillance d'inactivité, null si les battements de cœur sont désactivés.
+     */
+    IdleWheel getIdleWheel() {
+        return idleWheel;
+    }
+    
+    ResumeSessions getSessions() {
+        return sessions;
+    }
+    
+    Admission getAdmission() {
+        return admission;
+    }
+    
+    RecentMessages getRecent() {
+        return recent;
+    }
+
+    SearchIndex getSearch() {
+        return search;
+    }
+
+    Rooms getRooms() {
+        return rooms;
+    }
+    
+    /**
+     * Liens vers les autres nœuds, null pour un serveur seul.
+     */
+    ClusterBridge getCluster() {
+        return cluster;
+    }
+    
+    /**
+     * Enregistre un client accepté par le transport NIO.
+     */
+    void addClient(ClientHandler client) {
+        clients.register(client);
+        client.watchIdle();
+    }
+    
+    /**
+     * Retire sans annonce une connexion qui a repris la session d'un autre
+     * client : c'est ce dernier qui reste dans la liste.
+     */
+    void forgetClient(ClientHandler client) {
+        clients.remove(client);
+    }
+    
+    /**
+     * Réserve le nom choisi par un client.
+     * @return false si un autre client connecté porte déjà ce nom
+     */
+    boolean reserveUsername(ClientHandler client, String username) {
+        if (cluster != null) {
+            // Sous le verrou de Presence : une arrivée d'un autre nœud ne passe pas entre les deux
+            return presence.reserve(username, () -> clients.bindUsername(client, username));
         }
+        return clients.bindUsername(client, username);
     }
     
-    public synchronized void broadcastMessage(Message message, ClientHandler sender) {
-        synchronized(clients) {
-            Iterator<ClientHandler> iterator = clients.iterator();
-            while (iterator.hasNext()) {
-                ClientHandler client = iterator.next();
-                if (client != sender && client.isConnected()) {
-                    client.sendMessage(message);
-                }
+    ClientHandler findClient(String username) {
+        return clients.findByUsername(username);
+    }
+    
+    /**
+     * Diffuse aux membres du salon du message, ou à tous les clients s'il n'en
+     * a pas (annonces du serveur).
+     */
+    public void broadcastMessage(Message message, ClientHandler sender) {
+        fanOut(message, sender, cluster != null);
+    }
+    
+    /**
+     * Diffusion reçue d'un autre nœud : remise aux clients locaux seulement.
+     */
+    void deliverFromPeer(Message message) {
+        fanOut(message, null, false);
+    }
+    
+    private void fanOut(Message message, ClientHandler sender, boolean forward) {
+        // Encodé une seule fois par format de fil, puis partagé par tous les destinataires
+        long start = System.nanoTime();
+        EncodedMessage encoded = new EncodedMessage(message);
+        ClientHandler[] recipients = message.getRoom() != null
+            ? rooms.members(message.getRoom()) : clients.snapshot();
+        for (ClientHandler client : recipients) {
+            // Pas avant l'identification : une session reprise doit recevoir
+            // ses messages manqués avant le trafic courant
+            if (client != sender && client.isConnected() && client.getUsername() != null) {
+                client.sendEncoded(encoded);
             }
         }
+        metrics.broadcastFanout.recordNanos(System.nanoTime() - start);
+        recent.add(encoded);
+        search.submit(message);
+        if (historyWriter != null) {
+            // La trame binaire sert aussi d'enregistrement : pas de second encodage
+            historyWriter.submit(encoded.frameFor(WireFormat.BINARY));
+        }
+        if (forward) {
+            // Et de contenu aux enregistrements envoyés aux autres nœuds
+            OutboundFrame frame = encoded.frameFor(WireFormat.BINARY);
+            cluster.forwardBroadcast(frame);
+            frame.release();
+        }
+        encoded.release();
     }
     
-    public synchronized void broadcastUDPMessage(String message, InetAddress senderAddress, int senderPort) {
-        synchronized(clients) {
-            for (ClientHandler client : clients) {
-                if (client.isConnected()) {
-                    client.sendUDPMessage(message);
+    /**
+     * Envoie un message privé vers le nœud de son destinataire.
+     * @return false si le destinataire n'est connu sur aucun autre nœud
+     */
+    boolean forwardPrivate(String recipient, Message message) {
+        String nodeId = cluster != null ? presence.nodeOf(recipient) : null;
+        if (nodeId == null) {
+            return false;
+        }
+        EncodedMessage encoded = new EncodedMessage(message);
+        boolean sent = cluster.forwardPrivate(nodeId, recipient, encoded.frameFor(WireFormat.BINARY));
+        encoded.release();
+        return sent;
+    }
+    
+    /**
+     * Message privé reçu d'un autre nœud pour un client local.
+     */
+    void deliverPrivateFromPeer(String recipient, Message message) {
+        ClientHandler client = clients.findByUsername(recipient);
+        if (client == null || !client.isConnected() || !client.sendMessage(message)) {
+            ServerLog.info(ServerLog.Category.CLUSTER, "[GRAPPE] Message prive pour {} non remis", recipient);
+        }
+    }
+    
+    /**
+     * Diffuse des arrivées ou départs : le delta versionné aux clients qui
+     * gèrent la présence, le message CONNECT/DISCONNECT (ou le résumé) aux
+     * autres et à l'historique. legacy peut être null quand le résumé a déjà
+     * été envoyé. Seuls les clients dont la liste reçue à l'arrivée précède
+     * version le reçoivent : ni l'arrivant lui-même, ni un client encore en
+     * cours d'identification. Appelé par le thread d'envoi de Presence, dans
+     * l'ordre des versions.
+     */
+    void broadcastPresence(Message delta, Message legacy, long version) {
+        long start = System.nanoTime();
+        EncodedMessage encodedDelta = new EncodedMessage(delta);
+        EncodedMessage encodedLegacy = legacy != null ? new EncodedMessage(legacy) : null;
+        for (ClientHandler client : clients.snapshot()) {
+            if (client.isConnected() && client.presenceVersion() < version) {
+                EncodedMessage encoded = client.supportsPresence() ? encodedDelta : encodedLegacy;
+                if (encoded != null) {
+                    client.sendEncoded(encoded);
                 }
             }
         }
+        metrics.broadcastFanout.recordNanos(System.nanoTime() - start);
+        encodedDelta.release();
+        if (encodedLegacy != null) {
+            if (historyWriter != null) {
+                historyWriter.submit(encodedLegacy.frameFor(WireFormat.BINARY));
+            }
+            encodedLegacy.release();
+        }
     }
     
-    public synchronized void removeClient(ClientHandler client) {
-        clients.remove(client);
-        System.out.println("[DECONNEXION] Client deconnecte. Clients connectes: " + clients.size());
-        
-        if (client.getUsername() != null) {
-            Message disconnectMsg = new Message(
-                Constants.SYSTEM_SENDER, 
-                client.getUsername() + Constants.DISCONNECT_MESSAGE,
-                Message.MessageType.DISCONNECT
-            );
-            broadcastMessage(disconnectMsg, null);
-        }
-    }
-    
-    public synchronized List<String> getConnectedUsers() {
-        List<String> users = new ArrayList<>();
-        synchronized(clients) {
-            for (ClientHandler client : clients) {
-                if (client.getUsername() != null) {
-                    users.add(client.getUsername());
-                }
+    /**
+     * Renvoie un datagramme déjà encodé aux membres du salon qui ont une voie
+     * UDP, sauf à son expéditeur. Appelé par le thread de diffusion UDP.
+     */
+    void broadcastUDPMessage(ByteBuffer datagram, ClientHandler sender, String room) {
+        for (ClientHandler client : rooms.members(room)) {
+            if (client != sender && client.isConnected()) {
+                client.sendUDPMessage(datagram);
             }
         }
-        return users;
+    }
+    
+    /**
+     * Journal de l'historique, null s'il est désactivé.
+     */
+    HistoryLog getHistory() {
+        return history;
+    }
+    
+    UdpLane getUdpLane() {
+        return udpLane;
+    }
+    
+    public void removeClient(ClientHandler client) {
+        if (!clients.remove(client)) {
+            return;
+        }
+        if (client.getUdpEndpoint() != null && udpLane != null) {
+            udpLane.unregister(client, client.getUdpEndpoint());
+        }
+        ServerLog.info(ServerLog.Category.CONNECTION, "[DECONNEXION] Client deconnecte. Clients connectes: {}", clients.size());
+        
+        presence.leave(client);
+    }
+    
+    /**
+     * Clients connectés, y compris sur les autres nœuds de la grappe.
+     */
+    public List<String> getConnectedUsers() {
+        return cluster != null ? presence.names() : clients.usernames();
     }
     
     private void adminConsole() {
@@ -213,6 +484,8 @@ public class ChatServer {
         System.out.println("  /list - Afficher les clients connectes");
         System.out.println("  /stop - Arreter le serveur");
         System.out.println("  /ports - Verifier l'etat des ports");
+        System.out.println("  /stats - Afficher les metriques du serveur");
+        System.out.println("  /cluster - Afficher les liens avec les autres noeuds");
         System.out.println("  /help - Afficher cette aide");
         System.out.println("=================================\n");
         
@@ -225,16 +498,38 @@ public class ChatServer {
                     List<String> users = getConnectedUsers();
                     System.out.println("Clients connectes (" + users.size() + "):");
                     for (String user : users) {
-                        System.out.println("  - " + user);
+                        ClientHandler client = clients.findByUsername(user);
+                        if (client != null) {
+                            System.out.println("  - " + user + "  [file " + 
+                                client.getQueueLanes() + ", pertes " + client.getDroppedMessages() + "]");
+                        } else if (cluster != null && presence.nodeOf(user) != null) {
+                            System.out.println("  - " + user + "  [noeud " + presence.nodeOf(user) + "]");
+                        }
                     }
                     break;
                     
                 case "/ports":
                     System.out.println("Etat des ports:");
-                    System.out.println("  TCP " + Constants.TCP_PORT + ": " + 
+                    System.out.println("  TCP " + config.getTcpPort() + ": " + 
                         (tcpServerSocket != null && !tcpServerSocket.isClosed() ? "[ACTIF]" : "[INACTIF]"));
-                    System.out.println("  UDP " + Constants.UDP_PORT + ": " + 
-                        (udpSocket != null && !udpSocket.isClosed() ? "[ACTIF]" : "[INACTIF]"));
+                    System.out.println("  UDP " + config.getUdpPort() + ": " + 
+                        (udpLane != null && udpLane.isOpen() ? "[ACTIF]" : "[INACTIF]"));
+                    break;
+                    
+                case "/stats":
+                    System.out.println(metrics.report());
+                    break;
+                    
+                case "/cluster":
+                    if (cluster == null) {
+                        System.out.println("Serveur seul (--cluster-port non configure)");
+                        break;
+                    }
+                    List<String> links = cluster.describePeers();
+                    System.out.println("Noeud " + cluster.getNodeId() + ", liens (" + links.size() + "):");
+                    for (String link : links) {
+                        System.out.println("  - " + link);
+                    }
                     break;
                     
                 case "/stop":
@@ -243,7 +538,7 @@ public class ChatServer {
                     break;
                     
                 case "/help":
-                    System.out.println("Commandes: /list, /ports, /stop, /help");
+                    System.out.println("Commandes: /list, /ports, /stats, /cluster, /stop, /help");
                     break;
                     
                 default:
@@ -259,18 +554,43 @@ public class ChatServer {
     public void stop() {
         if (!isRunning) return;
         
+        shutdown();
+        System.exit(0);
+    }
+    
+    /**
+     * Ferme les ports et déconnecte les clients sans quitter la JVM.
+     */
+    public void shutdown() {
+        if (!isRunning) return;
+        
         isRunning = false;
         System.out.println("\nArret du serveur...");
+        ServerLog.flush();
         
         // Déconnecter tous les clients
-        synchronized(clients) {
-            for (ClientHandler client : clients) {
-                client.disconnect();
-            }
-            clients.clear();
+        for (ClientHandler client : clients.snapshot()) {
+            client.disconnect();
+        }
+        clients.clear();
+        rooms.clear();
+        recent.clear();
+        search.close();
+        sessions.close();
+        if (idleWheel != null) {
+            idleWheel.close();
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+        if (presence != null) {
+            presence.close();
         }
         
         // Fermer le serveur TCP
+        if (nioTransport != null) {
+            nioTransport.close();
+        }
         try {
             if (tcpServerSocket != null && !tcpServerSocket.isClosed()) {
                 tcpServerSocket.close();
@@ -280,12 +600,28 @@ public class ChatServer {
             System.err.println("[ERREUR] Erreur fermeture TCP: " + e.getMessage());
         }
         
-        if (udpSocket != null && !udpSocket.isClosed()) {
-		    udpSocket.close();
+        if (historyWriter != null) {
+            historyWriter.close();
+            System.out.println("[OK] Historique ferme");
+        }
+        
+        if (metricsEndpoint != null) {
+            metricsEndpoint.close();
+        }
+        if (metricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (JMException e) {
+                // Déjà retiré
+            }
+        }
+        
+        if (udpLane != null && udpLane.isOpen()) {
+		    udpLane.close();
 		    System.out.println("[OK] Serveur UDP arrete");
 		}
         
+        ServerLog.flush();
         System.out.println("[OK] Serveur arrete proprement.");
-        System.exit(0);
     }
 }
\ No newline at end of file
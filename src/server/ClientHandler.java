@@ -2,103 +2,577 @@ package server;
 
 import java.io.*;
 import java.net.*;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.nio.ByteBuffer;
 import common.Message;
 import common.Constants;
+import common.LoginAttributes;
+import common.MessageCodec;
 
 public class ClientHandler implements Runnable {
+    
+    enum DeliveryStatus {
+        DELIVERED,     // dans la file de sortie du destinataire
+        UNKNOWN_USER,
+        NOT_DELIVERED  // écarté par la politique de client lent
+    }
+    
     private Socket clientSocket;
     private ChatServer server;
-    private ObjectOutputStream out;
-    private ObjectInputStream in;
-    private String username;
+    private volatile Connection connection; // remplacée à la reprise d'une session
+    private volatile String username;
+    private long connectionId;
+    private volatile InetSocketAddress udpEndpoint;
+    private volatile boolean presenceAware;
+    // Version de présence de la liste reçue à l'arrivée : les deltas jusqu'à elle y sont déjà
+    private volatile long presenceVersion = Long.MAX_VALUE;
     private String clientAddress;
     private int clientPort;
-    private boolean isConnected;
+    private final long acceptedAt;
+    private volatile boolean isConnected;
+    // Session reprenable (clients binaires qui la demandent) : null sinon
+    private volatile ResumeBuffer resume;
+    private String sessionToken;
+    private final Object sendLock = new Object(); // ordonne envois, coupure et reprise
+    private boolean detached;  // connexion perdue, session gardée (sous sendLock)
+    private int detachCount;   // sous sendLock : une expiration ne vaut que pour sa coupure
+    // Connexion qui a repris la session d'un autre ClientHandler : tout lui est transmis
+    private volatile ClientHandler resumedInto;
+    // Surveillance d'inactivité (IdleWheel) : heure du dernier objet reçu
+    private volatile long lastHeard;
+    private volatile boolean heartbeat; // le client répond aux PING
+    private long pingedFor; // lastHeard au moment du dernier PING (thread de la roue)
+    private volatile IdleWheel.Entry idleEntry;
+    // Débit permis à ce client (Admission)
+    private final Admission.Quota quota;
+    // Salons rejoints ; le texte sans salon explicite va dans le salon courant
+    private final Set<String> rooms = ConcurrentHashMap.newKeySet();
+    private volatile String currentRoom;
     
     public ClientHandler(Socket socket, ChatServer server) {
+        this(null, socket, server);
+    }
+    
+    /**
+     * Constructeur utilisé par le transport NIO : la connexion est déjà ouverte
+     * et c'est le Reactor qui appelle handleLogin/handleIncoming.
+     */
+    ClientHandler(Connection connection, Socket socket, ChatServer server) {
+        this.connection = connection;
         this.clientSocket = socket;
         this.server = server;
         this.clientAddress = socket.getInetAddress().getHostAddress();
         this.clientPort = socket.getPort();
+        this.acceptedAt = System.nanoTime();
+        this.lastHeard = acceptedAt;
+        this.quota = server.getAdmission().newQuota();
         this.isConnected = true;
     }
     
     @Override
     public void run() {
+        SocketConnection socketConnection = null;
         try {
-            // IMPORTANT: Ordre des flux - d'abord OutputStream puis InputStream
-            out = new ObjectOutputStream(clientSocket.getOutputStream());
-            out.flush(); // Très important !
-            in = new ObjectInputStream(clientSocket.getInputStream());
+            socketConnection = new SocketConnection(clientSocket,
+                new OutboundQueue(server.getConfig(), server.getMetrics()), this, server.getConfig(), server.getMetrics());
+            connection = socketConnection;
+            server.startThread("writer-" + clientAddress + ":" + clientPort, true, socketConnection::writeLoop);
             
             // Recevoir le nom d'utilisateur avec gestion d'erreur
-            Object obj = in.readObject();
-            if (obj instanceof String) {
-                username = (String) obj;
-            } else {
-                username = "Anonyme" + System.currentTimeMillis();
-            }
-            
-            // Vérifier que le nom n'est pas vide
-            if (username == null || username.trim().isEmpty()) {
-                username = "Client" + clientPort;
-            }
-            
-            System.out.println("👤 " + username + " a rejoint le chat (" + clientAddress + ")");
-            
-            // Envoyer message de bienvenue
-            Message welcomeMsg = new Message(
-                Constants.SYSTEM_SENDER,
-                "Bienvenue " + username + "!",
-                Message.MessageType.INFO
-            );
-            sendMessage(welcomeMsg);
-            
-            // Notifier les autres clients
-            Message connectMsg = new Message(
-                Constants.SYSTEM_SENDER,
-                username + Constants.CONNECT_MESSAGE,
-                Message.MessageType.CONNECT
-            );
-            server.broadcastMessage(connectMsg, this);
-            
-            // Envoyer la liste des utilisateurs
-            sendUserList();
+            handleLogin(socketConnection.readObject());
             
             // Boucle principale de réception des messages
             while (isConnected) {
                 try {
-                    Message message = (Message) in.readObject();
-                    
-                    if (message != null && message.getContent() != null) {
-                        System.out.println("💬 [" + username + "] " + message.getContent());
-                        
-                        // Vérifier si c'est une commande
-                        if (message.getContent().startsWith("/")) {
-                            handleCommand(message.getContent());
-                        } else {
-                            // Diffuser le message normal
-                            server.broadcastMessage(message, this);
-                        }
-                    }
-                    
+                    handleIncoming(socketConnection.readObject());
                 } catch (EOFException e) {
-                    // Fin normale de la connexion
-                    System.out.println("👋 " + username + " s'est déconnecté proprement");
+                    connectionClosed(socketConnection);
                     break;
                 } catch (ClassNotFoundException e) {
-                    System.err.println("❌ Erreur de désérialisation: " + e.getMessage());
+                    ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Erreur de désérialisation: {}", e.getMessage());
                 }
             }
             
         } catch (IOException e) {
-            System.err.println("❌ Erreur avec " + (username != null ? username : "client inconnu") + 
-                             ": " + e.getMessage());
+            connectionFailed(socketConnection, e);
         } catch (ClassNotFoundException e) {
-            System.err.println("❌ Erreur de lecture du nom d'utilisateur: " + e.getMessage());
+            ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Erreur de lecture du nom d'utilisateur: {}", e.getMessage());
         } finally {
-            disconnect();
+            if (resume == null) {
+                disconnect(); // une session reprenable attend sa reprise ou son expiration
+            }
+        }
+    }
+    
+    /**
+     * Premier objet reçu : le nom d'utilisateur (String pour les anciens clients,
+     * Message de type CONNECT pour les clients au format binaire).
+     */
+    void handleLogin(Object obj) {
+        server.getMetrics().messagesIn.increment();
+        lastHeard = System.nanoTime();
+        Map<String, String> attributes = Map.of();
+        String name;
+        if (obj instanceof String) {
+            name = (String) obj;
+        } else if (obj instanceof Message) {
+            name = ((Message) obj).getSender();
+            attributes = LoginAttributes.parse(((Message) obj).getContent());
+        } else {
+            name = "Anonyme" + System.currentTimeMillis();
+        }
+        
+        // Reconnexion avec un jeton : pas de nouvelle arrivée, seulement les messages manqués
+        String resumeRequest = attributes.get(LoginAttributes.RESUME);
+        if (resumeRequest != null && resumeSession(resumeRequest, attributes)) {
+            return;
+        }
+        
+        // Vérifier que le nom n'est pas vide
+        if (name == null || name.trim().isEmpty()) {
+            name = "Client" + clientPort;
+        }
+        
+        // Le nom circule entre nœuds en UTF modifié, limité à 65535 octets
+        if (name.length() > Constants.MAX_USERNAME_LENGTH) {
+            int end = Constants.MAX_USERNAME_LENGTH;
+            if (Character.isHighSurrogate(name.charAt(end - 1))) {
+                end--; // ne pas couper un caractère en deux
+            }
+            name = name.substring(0, end);
+        }
+        
+        // Session ouverte avant que le nom ne soit joignable : tout ce qui
+        // arrive ensuite (privés, diffusions) suit le message SESSION
+        if (resumeRequest != null) {
+            openSession();
+        }
+        
+        // Le nom sert d'adresse aux messages privés : il doit être unique.
+        // Le champ n'est posé qu'une fois réservé : les diffusions l'ignorent jusque-là
+        String chosen = name;
+        for (int suffix = 2; !server.reserveUsername(this, chosen); suffix++) {
+            chosen = name + "_" + suffix;
+        }
+        username = chosen;
+        registerUdpEndpoint(clientSocket.getInetAddress(), attributes.get(LoginAttributes.UDP_PORT));
+        presenceAware = attributes.containsKey(LoginAttributes.PRESENCE);
+        heartbeat = attributes.containsKey(LoginAttributes.HEARTBEAT);
+        
+        ServerLog.info(ServerLog.Category.CONNECTION, "👤 {} a rejoint le chat ({})", username, clientAddress);
+        
+        // Envoyer message de bienvenue
+        Message welcomeMsg = new Message(
+            Constants.SYSTEM_SENDER,
+            "Bienvenue " + username + "!",
+            Message.MessageType.INFO
+        );
+        sendMessage(welcomeMsg);
+        // De l'acceptation de la connexion à la mise en file de la bienvenue
+        server.getMetrics().handshake.recordNanos(System.nanoTime() - acceptedAt);
+        enterRoom(Constants.DEFAULT_ROOM);
+        
+        // Derniers messages du salon, depuis la mémoire ; le disque seulement
+        // pour une demande "since:" ou si la mémoire est désactivée
+        String history = attributes.get(LoginAttributes.HISTORY);
+        boolean fromDisk = history != null && (!server.getRecent().isEnabled() || !history.startsWith("last:"));
+        if (!fromDisk) {
+            sendRecent(Constants.DEFAULT_ROOM, history != null ? parseCount(history.substring(5)) : Integer.MAX_VALUE,
+                history != null);
+        }
+        
+        // Notifier les autres clients et envoyer la liste des utilisateurs
+        server.getPresence().join(this);
+        
+        if (fromDisk) {
+            replayHistory(history);
+        }
+    }
+    
+    private static int parseCount(String count) {
+        try {
+            return Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            return Constants.HISTORY_ON_CONNECT;
+        }
+    }
+    
+    /**
+     * Envoie les derniers messages du salon gardés en mémoire, déjà encodés,
+     * suivis de la fin d'historique s'il y en avait (ou si le client en a demandé).
+     */
+    private void sendRecent(String room, int max, boolean requested) {
+        Connection current = connection;
+        if (current == null) {
+            return;
+        }
+        // Comme la relecture sur disque : pas plus de la moitié de la file de sortie
+        max = Math.min(max, Math.max(1, server.getConfig().getOutboundCapacity() / 2));
+        List<EncodedMessage> recent = server.getRecent().recent(room, current.format(), max);
+        for (EncodedMessage encoded : recent) {
+            sendEncoded(encoded);
+            encoded.release();
+        }
+        server.getMetrics().recentServed.add(recent.size());
+        if (requested || !recent.isEmpty()) {
+            sendBehindText(new Message(Constants.SYSTEM_SENDER,
+                "📜 Fin de l'historique (" + recent.size() + " messages)", Message.MessageType.INFO));
+        }
+    }
+    
+    /**
+     * Objets suivants : messages de chat ou commandes.
+     */
+    void handleIncoming(Object obj) {
+        ClientHandler owner = resumedInto;
+        if (owner != null) {
+            owner.handleIncoming(obj);
+            isConnected = owner.isConnected();
+            return;
+        }
+        if (!(obj instanceof Message)) {
+            ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Objet inattendu de {}: {}", username, obj);
+            return;
+        }
+        Message message = (Message) obj;
+        server.getMetrics().messagesIn.increment();
+        lastHeard = System.nanoTime();
+        if (message.getType() == Message.MessageType.PING) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "", Message.MessageType.PONG));
+            return;
+        } else if (message.getType() == Message.MessageType.PONG) {
+            return; // seule compte l'heure de réception
+        }
+        
+        if (message.getContent() != null && message.getContent().startsWith("/ack ")) {
+            acknowledge(message.getContent().substring(5).trim()); // fréquent : pas journalisé
+        } else if (message.getContent() != null) {
+            boolean command = message.getContent().startsWith("/");
+            String room = command ? null : (message.getRoom() != null ? message.getRoom() : currentRoom);
+            int recipients = room != null ? server.getRooms().size(room) - 1 : 0;
+            if (!message.getContent().equals("/quit") && !admit(message, recipients)) {
+                return;
+            }
+            process(message, command, room);
+        }
+    }
+    
+    /**
+     * Message déjà admis dont la connexion a retenu le traitement jusqu'à la
+     * fin d'une pause de lecture.
+     */
+    void handleAdmitted(Message message) {
+        ClientHandler owner = resumedInto;
+        if (owner != null) {
+            owner.handleAdmitted(message);
+            isConnected = owner.isConnected();
+            return;
+        }
+        boolean command = message.getContent().startsWith("/");
+        String room = command ? null : (message.getRoom() != null ? message.getRoom() : currentRoom);
+        process(message, command, room);
+    }
+    
+    private void process(Message message, boolean command, String room) {
+        // Une ligne par message : journal asynchrone et limité en débit
+        ServerLog.info(ServerLog.Category.CHAT, "💬 [{}] {}", username, message.getContent());
+        
+        // Vérifier si c'est une commande
+        if (command) {
+            handleCommand(message.getContent());
+        } else if (room == null || !rooms.contains(room)) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, room == null
+                ? "Aucun salon : /join [salon] pour en rejoindre un"
+                : "Vous n'êtes pas dans #" + room, Message.MessageType.ERROR));
+        } else {
+            // Diffuser le message aux membres du salon
+            message.setRoom(room);
+            server.broadcastMessage(message, this);
+        }
+    }
+    
+    /**
+     * Étape d'admission, avant toute diffusion ou commande : débit de ce
+     * client et, pour une diffusion, budget global du serveur. Un message en
+     * trop retarde la lecture de ce client, ou est écarté selon --flood-policy.
+     * @param recipients destinataires d'une diffusion, 0 pour une commande
+     * @return false si le message ne doit pas être traité maintenant (écarté,
+     *         ou rendu par la connexion à la fin de la pause)
+     */
+    private boolean admit(Message message, int recipients) {
+        Admission admission = server.getAdmission();
+        long delay = admission.admit(quota, MessageCodec.frameLength(message), Math.max(0, recipients));
+        if (delay >= 0) {
+            quota.refused = false;
+            if (delay > 0) {
+                server.getMetrics().floodDelayed.increment();
+                // Pause sans attente sur place : la connexion rend le message après
+                return connection.pauseReading(delay);
+            }
+            return true;
+        }
+        server.getMetrics().floodRefused.increment();
+        if (!quota.refused) {
+            ServerLog.warn(ServerLog.Category.CONNECTION, "⛔ {} depasse son debit, messages ecartes", username);
+            if (admission.policy() != ServerConfig.FloodPolicy.DROP) {
+                sendMessage(new Message(Constants.SYSTEM_SENDER,
+                    "Trop de messages : ralentissez, les suivants sont ignorés", Message.MessageType.ERROR));
+            }
+        }
+        quota.refused = true;
+        return false;
+    }
+    
+    /**
+     * Fin de la connexion source. Sans /quit, une session reprenable est
+     * seulement suspendue.
+     */
+    void connectionClosed(Connection source) {
+        ClientHandler owner = resumedInto;
+        if (owner != null) {
+            owner.connectionClosed(source);
+            return;
+        }
+        if (detach(source)) {
+            return; // session suspendue, ou ancienne connexion d'une session reprise
+        }
+        // Fin normale de la connexion
+        ServerLog.info(ServerLog.Category.CONNECTION, "👋 {} s'est déconnecté proprement", username);
+        disconnect();
+    }
+    
+    void connectionFailed(Connection source, Exception e) {
+        ClientHandler owner = resumedInto;
+        if (owner != null) {
+            owner.connectionFailed(source, e);
+            return;
+        }
+        if (detach(source)) {
+            return;
+        }
+        if (isConnected) {
+            ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Erreur avec {}: {}",
+                username != null ? username : "client inconnu", e.getMessage());
+        }
+        disconnect();
+    }
+    
+    /**
+     * Ouvre une session reprenable : le message SESSION (jeton, numéro 1) est la
+     * première trame numérotée du flux. Clients binaires seulement.
+     */
+    private void openSession() {
+        if (connection == null || connection.format() != WireFormat.BINARY
+                || !server.getConfig().isResumeEnabled()) {
+            return;
+        }
+        ResumeBuffer buffer = new ResumeBuffer(server.getConfig().getResumeBufferFrames());
+        synchronized (sendLock) {
+            sessionToken = server.getSessions().open(this);
+            connection.outboundQueue().startRecording(buffer, sessionFrame(1, false));
+            resume = buffer;
+        }
+    }
+    
+    private OutboundFrame sessionFrame(long sequence, boolean resumed) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(LoginAttributes.SESSION_TOKEN, sessionToken);
+        fields.put(LoginAttributes.SESSION_SEQUENCE, Long.toString(sequence));
+        fields.put(LoginAttributes.SESSION_RESUMED, resumed ? "1" : "0");
+        EncodedMessage encoded = new EncodedMessage(new Message(Constants.SYSTEM_SENDER,
+            LoginAttributes.format(fields), Message.MessageType.SESSION));
+        OutboundFrame frame = encoded.frameFor(WireFormat.BINARY);
+        encoded.release();
+        return frame;
+    }
+    
+    /**
+     * Connexion source perdue sans /quit : la session reste ouverte le temps de
+     * la reprise, les messages qui arrivent entre-temps vont au tampon.
+     * @return false si ce client n'a pas de session reprenable
+     */
+    private boolean detach(Connection source) {
+        int count;
+        synchronized (sendLock) {
+            if (source != connection) {
+                return true; // déjà remplacée par une reprise : rien à faire
+            }
+            if (resume == null || !isConnected) {
+                return false;
+            }
+            if (detached) {
+                return true;
+            }
+            detachLocked();
+            count = detachCount;
+        }
+        ServerLog.info(ServerLog.Category.CONNECTION, "🔌 {} a perdu sa connexion, session gardee {} s",
+            username, server.getSessions().timeoutSeconds());
+        server.getSessions().expireLater(() -> expire(count));
+        return true;
+    }
+    
+    private void detachLocked() {
+        detached = true;
+        detachCount++;
+        try {
+            connection.close(); // les trames encore en file sont numérotées au passage
+        } catch (IOException e) {
+            // Déjà fermée
+        }
+    }
+    
+    private void expire(int count) {
+        synchronized (sendLock) {
+            if (!detached || detachCount != count) {
+                return; // reprise entre-temps
+            }
+        }
+        ServerLog.info(ServerLog.Category.CONNECTION, "⌛ Session de {} expiree", username);
+        disconnect();
+    }
+    
+    /**
+     * Demande "jeton:numéro" d'un client qui se reconnecte. En cas de succès,
+     * ce ClientHandler ne fait plus que transmettre à celui de la session.
+     * @return false pour traiter la connexion comme une nouvelle arrivée
+     */
+    private boolean resumeSession(String request, Map<String, String> attributes) {
+        int separator = request.lastIndexOf(':');
+        ClientHandler owner = separator > 0 ? server.getSessions().find(request.substring(0, separator)) : null;
+        if (owner == null || owner == this) {
+            return false;
+        }
+        long received;
+        try {
+            received = Long.parseLong(request.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        int replayed = owner.resumeFrom(connection, clientSocket.getInetAddress(),
+            attributes.get(LoginAttributes.UDP_PORT), received);
+        if (replayed < 0) {
+            // Messages manquants déjà perdus : l'ancienne session se termine
+            // et le client repart d'une connexion neuve
+            owner.disconnect();
+            return false;
+        }
+        resumedInto = owner;
+        server.forgetClient(this);
+        ServerLog.info(ServerLog.Category.CONNECTION, "🔄 {} a repris sa session ({} messages renvoyes)",
+            owner.getUsername(), replayed);
+        owner.sendMessage(new Message(Constants.SYSTEM_SENDER,
+            "🔄 Session reprise (" + replayed + " messages manqués)", Message.MessageType.INFO));
+        return true;
+    }
+    
+    /**
+     * Rattache la session à une nouvelle connexion : message SESSION, puis les
+     * trames qui suivent received, puis le trafic courant.
+     * @return le nombre de trames renvoyées, -1 si la reprise est impossible
+     */
+    private int resumeFrom(Connection replacement, InetAddress address, String udpPort, long received) {
+        int replayed;
+        synchronized (sendLock) {
+            ResumeBuffer buffer = resume;
+            if (buffer == null || !isConnected || replacement.format() != WireFormat.BINARY) {
+                return -1;
+            }
+            if (!detached) {
+                detachLocked(); // l'ancienne connexion n'a pas encore été vue coupée
+            }
+            List<OutboundFrame> missed = buffer.rewind(received);
+            if (missed == null) {
+                return -1;
+            }
+            connection = replacement;
+            detached = false;
+            replacement.outboundQueue().startRecording(buffer, sessionFrame(received + 1, true));
+            for (OutboundFrame frame : missed) {
+                try {
+                    replacement.send(frame);
+                } catch (IOException e) {
+                    // File saturée : la suite est perdue, le client le verra à la version de présence
+                }
+            }
+            replayed = missed.size();
+        }
+        registerUdpEndpoint(address, udpPort);
+        lastHeard = System.nanoTime();
+        watchIdle();
+        return replayed;
+    }
+    
+    /**
+     * Confie cette connexion à la surveillance d'inactivité, s'il y en a une.
+     */
+    void watchIdle() {
+        IdleWheel wheel = server.getIdleWheel();
+        if (wheel == null) {
+            return;
+        }
+        IdleWheel.Entry previous = idleEntry;
+        if (previous != null) {
+            previous.cancel();
+        }
+        idleEntry = wheel.watch(this);
+    }
+    
+    /**
+     * Échéance de surveillance, sur le thread de IdleWheel. Trop longtemps
+     * sans rien recevoir, la connexion est fermée (une session reprenable est
+     * seulement suspendue) ; plus tôt, un client qui gère les battements de
+     * cœur reçoit un PING auquel il répond par un PONG.
+     * @return délai avant le prochain contrôle, en ns ; -1 pour ne plus surveiller
+     */
+    long checkIdle(long now, long interval, long timeout) {
+        if (!isConnected || resumedInto != null || isDetached()) {
+            return -1;
+        }
+        boolean identified = username != null;
+        if (identified && !heartbeat) {
+            return -1; // ne répondrait pas aux PING : reste le keepalive TCP
+        }
+        long heard = lastHeard;
+        long silent = now - heard;
+        if (silent >= timeout) {
+            server.getMetrics().idleEvictions.increment();
+            connectionFailed(connection, new IOException(
+                "aucun message depuis " + TimeUnit.NANOSECONDS.toSeconds(silent) + " s"));
+            return -1;
+        }
+        if (!identified || silent < interval) {
+            return (identified ? interval : timeout) - silent; // pas de PING avant l'identification
+        }
+        if (pingedFor != heard) {
+            pingedFor = heard;
+            server.getMetrics().pingsSent.increment();
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "", Message.MessageType.PING));
+        }
+        return timeout - silent;
+    }
+    
+    private boolean isDetached() {
+        synchronized (sendLock) {
+            return detached;
+        }
+    }
+    
+    private void acknowledge(String sequence) {
+        ResumeBuffer buffer = resume;
+        if (buffer == null) {
+            return;
+        }
+        try {
+            buffer.ack(Long.parseLong(sequence));
+        } catch (NumberFormatException e) {
+            ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Acquittement invalide de {}: {}", username, sequence);
         }
     }
     
@@ -107,6 +581,25 @@ public class ClientHandler implements Runnable {
             sendUserList();
         } else if (command.startsWith("/msg ")) {
             handlePrivateMessage(command);
+        } else if (command.equals("/history") || command.startsWith("/history ")) {
+            String count = command.substring("/history".length()).trim();
+            replayHistory("last:" + (count.isEmpty() ? "20" : count));
+        } else if (command.equals("/search") || command.startsWith("/search ")) {
+            handleSearch(command.substring("/search".length()));
+        } else if (command.startsWith("/presence ")) {
+            // Resynchronisation demandée par un client qui a vu un trou dans les versions
+            try {
+                server.getPresence().resync(this, Long.parseLong(command.substring(10).trim()));
+            } catch (NumberFormatException e) {
+                sendMessage(new Message(Constants.SYSTEM_SENDER, "Version invalide", Message.MessageType.ERROR));
+            }
+        } else if (command.startsWith(Constants.CMD_JOIN + " ")) {
+            handleJoin(command.substring(Constants.CMD_JOIN.length()).trim());
+        } else if (command.equals(Constants.CMD_LEAVE) || command.startsWith(Constants.CMD_LEAVE + " ")) {
+            String room = command.substring(Constants.CMD_LEAVE.length()).trim();
+            handleLeave(room.isEmpty() ? currentRoom : room);
+        } else if (command.equals(Constants.CMD_ROOMS)) {
+            sendRoomList();
         } else if (command.equals("/help")) {
             sendHelp();
         } else if (command.equals("/quit")) {
@@ -114,7 +607,130 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    private void sendUserList() {
+    /**
+     * /join : rejoint le salon (créé au besoin) et en fait le salon courant ;
+     * ses membres en sont avertis.
+     */
+    private void handleJoin(String room) {
+        if (room.startsWith("#")) {
+            room = room.substring(1);
+        }
+        if (!isValidRoomName(room)) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Nom de salon invalide (lettres, chiffres, - et _, "
+                + Constants.MAX_ROOM_NAME_LENGTH + " caractères au plus)", Message.MessageType.ERROR));
+            return;
+        }
+        if (rooms.contains(room)) {
+            currentRoom = room;
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Salon courant : #" + room, Message.MessageType.INFO));
+            return;
+        }
+        if (!enterRoom(room)) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Trop de salons (" + Constants.MAX_ROOMS_PER_CLIENT
+                + " au plus) : /leave [salon] d'abord", Message.MessageType.ERROR));
+            return;
+        }
+        announceRoom(room, "➡️ " + username + " a rejoint #" + room);
+        sendMessage(new Message(Constants.SYSTEM_SENDER, "Vous avez rejoint #" + room + " ("
+            + server.getRooms().size(room) + " membres ici)", Message.MessageType.INFO));
+        sendRecent(room, Integer.MAX_VALUE, false);
+    }
+    
+    /**
+     * /leave : quitte le salon ; le salon courant devient le salon par défaut
+     * s'il en est encore membre, sinon un autre de ses salons.
+     */
+    private void handleLeave(String room) {
+        if (room != null && room.startsWith("#")) {
+            room = room.substring(1);
+        }
+        if (room == null || !exitRoom(room)) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Vous n'êtes pas dans ce salon",
+                Message.MessageType.ERROR));
+            return;
+        }
+        announceRoom(room, "⬅️ " + username + " a quitté #" + room);
+        String current = currentRoom;
+        sendMessage(new Message(Constants.SYSTEM_SENDER, "Vous avez quitté #" + room
+            + (current != null ? ", salon courant : #" + current : ", plus aucun salon"), Message.MessageType.INFO));
+    }
+    
+    private void announceRoom(String room, String text) {
+        Message announcement = new Message(Constants.SYSTEM_SENDER, text, Message.MessageType.INFO);
+        announcement.setRoom(room);
+        server.broadcastMessage(announcement, this);
+    }
+    
+    private static boolean isValidRoomName(String room) {
+        if (room.isEmpty() || room.length() > Constants.MAX_ROOM_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < room.length(); i++) {
+            char c = room.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Entre dans un salon et en fait le salon courant, sans annonce.
+     * @return false si le client a déjà atteint le nombre maximal de salons
+     */
+    boolean enterRoom(String room) {
+        if (!rooms.contains(room) && rooms.size() >= Constants.MAX_ROOMS_PER_CLIENT) {
+            return false;
+        }
+        rooms.add(room);
+        server.getRooms().join(room, this);
+        currentRoom = room;
+        return true;
+    }
+    
+    /**
+     * Sort d'un salon, sans annonce.
+     * @return false si le client n'en était pas membre
+     */
+    boolean exitRoom(String room) {
+        if (!rooms.remove(room)) {
+            return false;
+        }
+        server.getRooms().leave(room, this);
+        if (room.equals(currentRoom)) {
+            String next = rooms.contains(Constants.DEFAULT_ROOM) ? Constants.DEFAULT_ROOM : null;
+            if (next == null) {
+                for (String other : rooms) {
+                    next = other;
+                    break;
+                }
+            }
+            currentRoom = next;
+        }
+        return true;
+    }
+    
+    /**
+     * /rooms : salons ouverts sur ce nœud et leurs membres ; * devant les
+     * salons rejoints, > devant le salon courant.
+     */
+    private void sendRoomList() {
+        Map<String, Integer> counts = server.getRooms().counts();
+        StringBuilder list = new StringBuilder("🏠 Salons (" + counts.size() + "):\n");
+        String current = currentRoom;
+        for (Map.Entry<String, Integer> room : counts.entrySet()) {
+            String mark = room.getKey().equals(current) ? "> " : rooms.contains(room.getKey()) ? "* " : "  ";
+            list.append("  ").append(mark).append('#').append(room.getKey())
+                .append(" (").append(room.getValue()).append(")\n");
+        }
+        sendMessage(new Message(Constants.SYSTEM_SENDER, list.toString(), Message.MessageType.INFO));
+    }
+    
+    String getCurrentRoom() {
+        return currentRoom;
+    }
+    
+    void sendUserList() {
         List<String> users = server.getConnectedUsers();
         StringBuilder userList = new StringBuilder("👥 Utilisateurs connectés (" + users.size() + "):\n");
         for (String user : users) {
@@ -129,16 +745,109 @@ public class ClientHandler implements Runnable {
     }
     
     private void handlePrivateMessage(String command) {
-        String[] parts = command.substring(5).split(" ", 2);
-        if (parts.length == 2) {
-            String recipient = parts[0];
-            String privateMsg = parts[1];
-            Message infoMsg = new Message(
+        String[] parts = command.substring(5).trim().split(" ", 2);
+        if (parts.length < 2 || parts[1].trim().isEmpty()) {
+            sendMessage(new Message(
                 Constants.SYSTEM_SENDER,
-                "Message privé pour " + recipient + ": " + privateMsg,
-                Message.MessageType.INFO
-            );
-            sendMessage(infoMsg);
+                "Usage: /msg [user] [message]",
+                Message.MessageType.ERROR
+            ));
+            return;
+        }
+        String recipientName = parts[0];
+        Message status;
+        switch (sendPrivateMessage(recipientName, parts[1])) {
+            case DELIVERED:
+                status = new Message(Constants.SYSTEM_SENDER,
+                    "Message privé envoyé à " + recipientName, Message.MessageType.INFO);
+                break;
+            case UNKNOWN_USER:
+                status = new Message(Constants.SYSTEM_SENDER,
+                    "Utilisateur inconnu: " + recipientName, Message.MessageType.ERROR);
+                break;
+            default:
+                status = new Message(Constants.SYSTEM_SENDER,
+                    "Message privé non remis à " + recipientName + " (client saturé)",
+                    Message.MessageType.ERROR);
+                break;
+        }
+        sendMessage(status);
+    }
+    
+    /**
+     * Remet un message au seul destinataire, trouvé par l'index des noms :
+     * aucun parcours de la liste des clients.
+     */
+    DeliveryStatus sendPrivateMessage(String recipientName, String text) {
+        ClientHandler recipient = server.findClient(recipientName);
+        // Type TEXT pour rester lisible par les anciens clients
+        Message privateMsg = new Message(username, "(privé) " + text);
+        if (recipient == null || !recipient.isConnected()) {
+            // Peut-être connecté sur un autre nœud de la grappe
+            return server.forwardPrivate(recipientName, privateMsg)
+                ? DeliveryStatus.DELIVERED : DeliveryStatus.UNKNOWN_USER;
+        }
+        return recipient.sendMessage(privateMsg) ? DeliveryStatus.DELIVERED : DeliveryStatus.NOT_DELIVERED;
+    }
+    
+    /**
+     * Relit l'historique pour ce client : "last:N" (N derniers messages) ou
+     * "since:T" (messages reçus par le serveur depuis T, en ms). La relecture
+     * est limitée à la moitié de la file de sortie pour ne pas la saturer.
+     */
+    private void replayHistory(String request) {
+        HistoryLog history = server.getHistory();
+        if (history == null) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Historique désactivé sur ce serveur",
+                Message.MessageType.ERROR));
+            return;
+        }
+        server.getMetrics().historyReplays.increment();
+        int max = Math.max(1, server.getConfig().getOutboundCapacity() / 2);
+        // Seulement les salons de ce client (et les annonces à tout le serveur) :
+        // la limite porte sur les messages remis, pas sur tout le journal
+        Predicate<Message> mine = message -> message.getRoom() == null || rooms.contains(message.getRoom());
+        try {
+            int count;
+            if (request.startsWith("since:")) {
+                count = history.replaySince(Long.parseLong(request.substring(6)), max, mine, this::sendMessage);
+            } else if (request.startsWith("last:")) {
+                int requested = Integer.parseInt(request.substring(5));
+                count = history.replayLast(Math.max(0, Math.min(requested, max)), mine, this::sendMessage);
+            } else {
+                throw new NumberFormatException(request);
+            }
+            sendBehindText(new Message(Constants.SYSTEM_SENDER,
+                "📜 Fin de l'historique (" + count + " messages)", Message.MessageType.INFO));
+        } catch (NumberFormatException e) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Usage: /history [nombre]",
+                Message.MessageType.ERROR));
+        } catch (IOException e) {
+            ServerLog.error(ServerLog.Category.HISTORY, "❌ Erreur de relecture de l'historique pour {}: {}", username, e.getMessage());
+        }
+    }
+    
+    /**
+     * /search : la requête part sur le pool de recherche, la page de résultats
+     * revient en INFO. Seuls les salons de ce client sont fouillés.
+     */
+    private void handleSearch(String request) {
+        SearchIndex search = server.getSearch();
+        if (!search.isEnabled()) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Recherche désactivée sur ce serveur",
+                Message.MessageType.ERROR));
+            return;
+        }
+        SearchQuery query;
+        try {
+            query = SearchQuery.parse(request, System.currentTimeMillis());
+        } catch (IllegalArgumentException e) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, e.getMessage(), Message.MessageType.ERROR));
+            return;
+        }
+        if (!search.submit(query, Set.copyOf(rooms), this::sendMessage)) {
+            sendMessage(new Message(Constants.SYSTEM_SENDER, "Trop de recherches en cours, réessayez",
+                Message.MessageType.ERROR));
         }
     }
     
@@ -146,6 +855,11 @@ public class ClientHandler implements Runnable {
         String helpText = "📋 Commandes disponibles:\n" +
                          "  /list - Voir les utilisateurs connectés\n" +
                          "  /msg [user] [message] - Envoyer un message privé\n" +
+                         "  /join [salon] - Rejoindre un salon (il devient le salon courant)\n" +
+                         "  /leave [salon] - Quitter un salon (par défaut le salon courant)\n" +
+                         "  /rooms - Voir les salons ouverts\n" +
+                         "  /history [n] - Revoir les n derniers messages\n" +
+                         "  /search [mots] [from:nom] [since:2h] - Chercher dans les messages\n" +
                          "  /help - Afficher cette aide\n" +
                          "  /quit - Quitter le chat";
         Message helpMsg = new Message(
@@ -156,47 +870,159 @@ public class ClientHandler implements Runnable {
         sendMessage(helpMsg);
     }
     
-    public void sendMessage(Message message) {
+    /**
+     * @return true si le message a été mis dans la file de sortie du client
+     */
+    public boolean sendMessage(Message message) {
+        EncodedMessage encoded = new EncodedMessage(message);
+        boolean queued = sendEncoded(encoded);
+        encoded.release();
+        return queued;
+    }
+    
+    /**
+     * Message système qui clôt une suite de messages de chat : il passe par la
+     * voie du texte pour arriver après eux.
+     */
+    private void sendBehindText(Message message) {
+        Connection current = connection;
+        if (current == null) {
+            return;
+        }
+        WireFormat format = current.format();
+        EncodedMessage encoded = new EncodedMessage(message, format, format.encode(message).behindText());
+        sendEncoded(encoded);
+        encoded.release();
+    }
+    
+    /**
+     * Envoie un message déjà encodé (partagé entre les destinataires d'une diffusion).
+     */
+    boolean sendEncoded(EncodedMessage encoded) {
         try {
-            if (out != null) {
-                out.writeObject(message);
-                out.flush();
-                out.reset(); // Important pour éviter la corruption d'objets
+            ResumeBuffer buffer = resume;
+            if (buffer == null) {
+                return send(encoded);
+            }
+            synchronized (sendLock) {
+                if (detached) {
+                    // Gardé pour la reprise, numéroté comme s'il avait été écrit
+                    OutboundFrame frame = encoded.frameFor(WireFormat.BINARY);
+                    buffer.record(frame);
+                    frame.release();
+                    return true;
+                }
+                return send(encoded);
             }
         } catch (IOException e) {
-            System.err.println("❌ Erreur d'envoi à " + username + ": " + e.getMessage());
+            ServerLog.warn(ServerLog.Category.CONNECTION, "❌ Erreur d'envoi à {}: {}", username, e.getMessage());
             disconnect();
+            return false;
         }
     }
     
-    public void sendUDPMessage(String message) {
-        // Implémentez selon vos besoins
+    private boolean send(EncodedMessage encoded) throws IOException {
+        Connection current = connection;
+        WireFormat format = current != null ? current.format() : null;
+        return format != null && current.send(encoded.frameFor(format));
+    }
+    
+    /**
+     * Enregistre la voie UDP annoncée par le client : ses datagrammes viendront
+     * de son adresse TCP et de ce port. À la reprise d'une session, la nouvelle
+     * voie remplace l'ancienne.
+     */
+    private void registerUdpEndpoint(InetAddress address, String port) {
+        UdpLane udpLane = server.getUdpLane();
+        if (port == null || udpLane == null) {
+            return;
+        }
+        try {
+            int udpPort = Integer.parseInt(port);
+            if (udpPort > 0 && udpPort <= 0xFFFF) {
+                InetSocketAddress previous = udpEndpoint;
+                if (previous != null) {
+                    udpLane.unregister(this, previous);
+                }
+                udpEndpoint = new InetSocketAddress(address, udpPort);
+                udpLane.register(this, udpEndpoint);
+            }
+        } catch (NumberFormatException e) {
+            ServerLog.warn(ServerLog.Category.UDP, "❌ Port UDP invalide pour {}: {}", username, port);
+        }
+    }
+    
+    /**
+     * Le client tient sa liste des connectés à partir des messages PRESENCE.
+     */
+    boolean supportsPresence() {
+        return presenceAware;
+    }
+    
+    long presenceVersion() {
+        return presenceVersion;
+    }
+    
+    void setPresenceVersion(long presenceVersion) {
+        this.presenceVersion = presenceVersion;
+    }
+    
+    InetSocketAddress getUdpEndpoint() {
+        return udpEndpoint;
+    }
+    
+    /**
+     * Envoie une trame UDP déjà encodée, si le client a une voie UDP.
+     */
+    void sendUDPMessage(ByteBuffer datagram) {
+        InetSocketAddress endpoint = udpEndpoint;
+        if (endpoint != null) {
+            server.getUdpLane().send(datagram, endpoint);
+        }
     }
     
     public void disconnect() {
+        if (resumedInto != null) {
+            isConnected = false; // la connexion appartient désormais à la session reprise
+            return;
+        }
         if (isConnected) {
             isConnected = false;
             
             // Notifier les autres avant de se déconnecter
-            if (username != null) {
-                server.removeClient(this);
+            server.removeClient(this);
+            for (String room : rooms) {
+                server.getRooms().leave(room, this);
             }
             
             try {
-                if (out != null) out.close();
-                if (in != null) in.close();
-                if (clientSocket != null && !clientSocket.isClosed()) {
+                if (connection != null) {
+                    connection.close();
+                } else if (clientSocket != null && !clientSocket.isClosed()) {
                     clientSocket.close();
                 }
             } catch (IOException e) {
                 // Ignorer les erreurs de fermeture
             }
+            ResumeBuffer buffer = resume;
+            if (buffer != null) {
+                server.getSessions().remove(sessionToken, this);
+                buffer.close();
+            }
             
-            System.out.println("🔌 Déconnexion de " + (username != null ? username : "client"));
+            ServerLog.info(ServerLog.Category.CONNECTION, "🔌 Déconnexion de {}", username != null ? username : "client");
         }
     }
     
     // Getters
+    long getConnectionId() {
+        return connectionId;
+    }
+    
+    void setConnectionId(long connectionId) {
+        this.connectionId = connectionId;
+    }
+    
     public String getUsername() {
         return username;
     }
@@ -212,4 +1038,22 @@ public class ClientHandler implements Runnable {
     public boolean isConnected() {
         return isConnected;
     }
+    
+    /**
+     * Nombre de messages en attente d'écriture vers ce client.
+     */
+    public int getQueueDepth() {
+        return connection != null ? connection.outboundQueue().size() : 0;
+    }
+    
+    /**
+     * Voies de la file de sortie, chacune face à sa capacité.
+     */
+    public String getQueueLanes() {
+        return connection != null ? connection.outboundQueue().describeLanes() : "vide";
+    }
+    
+    public long getDroppedMessages() {
+        return connection != null ? connection.outboundQueue().dropped() : 0;
+    }
 }
\ No newline at end of file
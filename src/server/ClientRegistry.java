@@ -0,0 +1,126 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Annuaire des clients connectés, sans verrou global.
+ *
+ * Deux index (identifiant de connexion et nom d'utilisateur) donnent un accès
+ * direct à un client. Les diffusions parcourent un instantané en tableau : une
+ * arrivée ou un départ ne fait qu'incrémenter un numéro de version, et le
+ * tableau n'est reconstruit qu'à la diffusion suivante. Une rafale de
+ * connexions coûte donc une seule reconstruction, et non une copie par client
+ * comme avec une liste copiée à l'écriture.
+ */
+final class ClientRegistry {
+    private static final ClientHandler[] EMPTY = new ClientHandler[0];
+
+    private final ConcurrentHashMap<Long, ClientHandler> byId;
+    private final ConcurrentHashMap<String, ClientHandler> byUsername;
+    private final AtomicLong nextId;
+    private final AtomicLong version;
+    private volatile Snapshot snapshot;
+
+    ClientRegistry() {
+        this.byId = new ConcurrentHashMap<>();
+        this.byUsername = new ConcurrentHashMap<>();
+        this.nextId = new AtomicLong();
+        this.version = new AtomicLong();
+        this.snapshot = new Snapshot(0, EMPTY);
+    }
+
+    /**
+     * Enregistre une connexion acceptée et lui attribue son identifiant.
+     */
+    void register(ClientHandler client) {
+        long id = nextId.incrementAndGet();
+        client.setConnectionId(id);
+        byId.put(id, client);
+        version.incrementAndGet();
+    }
+
+    /**
+     * Réserve un nom d'utilisateur pour ce client.
+     * @return false si le nom est déjà pris par un autre client
+     */
+    boolean bindUsername(ClientHandler client, String username) {
+        ClientHandler owner = byUsername.putIfAbsent(username, client);
+        return owner == null || owner == client;
+    }
+
+    /**
+     * Retire un client des deux index.
+     * @return false s'il avait déjà été retiré
+     */
+    boolean remove(ClientHandler client) {
+        if (!byId.remove(client.getConnectionId(), client)) {
+            return false;
+        }
+        String username = client.getUsername();
+        if (username != null) {
+            byUsername.remove(username, client);
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    ClientHandler findById(long connectionId) {
+        return byId.get(connectionId);
+    }
+
+    ClientHandler findByUsername(String username) {
+        return byUsername.get(username);
+    }
+
+    /**
+     * Tableau des clients à parcourir pour une diffusion. Il contient au moins
+     * tous les clients enregistrés avant l'appel ; ne pas le modifier.
+     */
+    ClientHandler[] snapshot() {
+        long current = version.get();
+        Snapshot cached = snapshot;
+        if (cached.version == current) {
+            return cached.clients;
+        }
+        // La lecture de la table suit celle de la version : tout ce qui a été
+        // enregistré avant figure dans le nouveau tableau
+        Snapshot rebuilt = new Snapshot(current, byId.values().toArray(EMPTY));
+        if (snapshot.version < current) {
+            snapshot = rebuilt; // au pire un tableau plus ancien écrase celui-ci et sera refait
+        }
+        return rebuilt.clients;
+    }
+
+    /**
+     * Noms des clients identifiés, triés.
+     */
+    List<String> usernames() {
+        List<String> names = new ArrayList<>(byUsername.keySet());
+        Collections.sort(names);
+        return names;
+    }
+
+    int size() {
+        return byId.size();
+    }
+
+    void clear() {
+        byId.clear();
+        byUsername.clear();
+        version.incrementAndGet();
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final ClientHandler[] clients;
+
+        Snapshot(long version, ClientHandler[] clients) {
+            this.version = version;
+            this.clients = clients;
+        }
+    }
+}
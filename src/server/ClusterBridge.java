@@ -0,0 +1,533 @@
+package server;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import common.Constants;
+import common.MessageCodec;
+
+/**
+ * Liens TCP entre les nœuds d'une grappe.
+ *
+ * Chaque nœud garde ses propres clients et relaie aux autres nœuds ce qui
+ * doit les atteindre : diffusions de ses clients, messages privés destinés à
+ * un client distant, arrivées et départs. Un enregistrement reçu d'un autre
+ * nœud n'est remis qu'aux clients locaux, jamais relayé : avec une grappe
+ * maillée (chaque nœud relié à tous les autres), une diffusion traverse donc
+ * chaque lien une seule fois.
+ *
+ * Les enregistrements en attente sur un lien partent groupés dans une trame :
+ * [int longueur][int nombre] puis, pour chaque enregistrement, [byte type]
+ * suivi de son contenu. Une diffusion réutilise la trame binaire déjà encodée
+ * pour les clients locaux.
+ *
+ * À l'ouverture d'un lien, chaque nœud annonce ses connectés ; à la coupure,
+ * les connectés de l'autre nœud sont retirés de la liste. Entre deux nœuds,
+ * un seul lien est gardé : le second est refermé, sauf appels croisés où les
+ * deux côtés gardent celui qu'a appelé le nœud au plus petit nom.
+ *
+ * Le port des liens n'écoute que sur --cluster-bind (la boucle locale par
+ * défaut). À la poignée de main, chaque nœud envoie un nombre aléatoire et
+ * répond à celui de l'autre par un HMAC-SHA256 du secret de grappe : un lien
+ * sans le bon secret est refermé avant tout enregistrement, et le secret ne
+ * circule jamais.
+ */
+final class ClusterBridge {
+    private static final int MAGIC = 0x43484E44; // "CHND"
+    private static final byte VERSION = 2;
+    private static final int NONCE_BYTES = 16;
+    private static final int PROOF_BYTES = 32; // HMAC-SHA256
+    private static final int QUEUE_CAPACITY = 65536;
+    private static final int BATCH_BYTES = 64 * 1024;
+    private static final int MAX_BATCH_LENGTH = BATCH_BYTES + Constants.MAX_FRAME_SIZE + 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final long RETRY_MIN_MILLIS = 500;
+    private static final long RETRY_MAX_MILLIS = 10_000;
+
+    // Types d'enregistrement
+    private static final byte BROADCAST = 'B'; // [trame du message]
+    private static final byte PRIVATE = 'P';   // [UTF destinataire][trame du message]
+    private static final byte JOIN = 'J';      // [UTF nom]
+    private static final byte LEAVE = 'L';     // [UTF nom]
+
+    private final ChatServer server;
+    private final String nodeId;
+    private final SecretKeySpec secret;
+    private final SecureRandom random;
+    private final ConcurrentHashMap<String, Peer> peers; // nœud -> lien ouvert
+    private ServerSocket listener;
+    private volatile boolean running;
+
+    ClusterBridge(ChatServer server) {
+        this.server = server;
+        this.nodeId = server.getConfig().getNodeId();
+        String key = server.getConfig().getClusterSecret();
+        this.secret = key.isEmpty() ? null : new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.random = new SecureRandom();
+        this.peers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Ouvre le port des liens et contacte les nœuds configurés.
+     */
+    void start() throws IOException {
+        ServerConfig config = server.getConfig();
+        if (secret == null) {
+            throw new IOException("Secret de grappe manquant (--cluster-secret)");
+        }
+        listener = new ServerSocket(config.getClusterPort(), 50, InetAddress.getByName(config.getClusterBind()));
+        running = true;
+        server.startThread("cluster-accept", true, this::acceptLoop);
+        for (InetSocketAddress peer : config.getPeers()) {
+            server.startThread("cluster-dial-" + peer.getHostString() + ":" + peer.getPort(), true,
+                () -> dialLoop(peer));
+        }
+    }
+
+    String getNodeId() {
+        return nodeId;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = listener.accept();
+                server.startThread("cluster-link-" + socket.getPort(), true, () -> {
+                    try (socket) {
+                        link(socket, false);
+                    } catch (IOException e) {
+                        ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Lien refuse: {}", e.getMessage());
+                    }
+                });
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error(ServerLog.Category.CLUSTER, "[GRAPPE] Erreur d'acceptation: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Garde un lien ouvert vers un nœud configuré : reconnexion avec délai
+     * croissant, et aucune tentative tant qu'un lien existe déjà (ouvert par
+     * l'autre nœud par exemple).
+     */
+    private void dialLoop(InetSocketAddress address) {
+        long delay = RETRY_MIN_MILLIS;
+        String known = null;
+        boolean reported = false;
+        while (running) {
+            if (known == null || !peers.containsKey(known)) {
+                try (Socket socket = new Socket()) {
+                    socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                        CONNECT_TIMEOUT_MILLIS);
+                    known = link(socket, true);
+                    delay = RETRY_MIN_MILLIS;
+                    reported = false;
+                } catch (IOException e) {
+                    if (!reported && running) {
+                        ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Noeud {} injoignable: {}",
+                            address, e.getMessage());
+                        reported = true;
+                    }
+                    delay = Math.min(delay * 2, RETRY_MAX_MILLIS);
+                }
+            }
+            try {
+                // Un peu d'aléa pour que deux nœuds ne se rappellent pas en même temps
+                Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Poignée de main puis lecture du lien jusqu'à sa coupure, sur le thread
+     * appelant.
+     * @param dialed true si ce nœud a appelé, false s'il a accepté
+     * @return le nom du nœud distant
+     */
+    private String link(Socket socket, boolean dialed) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setKeepAlive(true);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), BATCH_BYTES));
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BATCH_BYTES));
+        // Un inconnu qui se tait ne garde pas le thread du lien
+        socket.setSoTimeout(CONNECT_TIMEOUT_MILLIS);
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(nodeId);
+        out.write(nonce);
+        out.flush();
+        if (in.readInt() != MAGIC) {
+            throw new StreamCorruptedException("Poignee de main de noeud invalide");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Version de noeud non geree: " + version);
+        }
+        String peerId = in.readUTF();
+        byte[] peerNonce = new byte[NONCE_BYTES];
+        in.readFully(peerNonce);
+        if (peerId.equals(nodeId)) {
+            throw new StreamCorruptedException("Noeud distant avec le meme nom: " + peerId);
+        }
+
+        // Chacun prouve qu'il connaît le secret sur le nombre de l'autre
+        out.write(proof(nodeId, peerNonce, nonce));
+        out.flush();
+        byte[] peerProof = new byte[PROOF_BYTES];
+        in.readFully(peerProof);
+        if (!MessageDigest.isEqual(peerProof, proof(peerId, nonce, peerNonce))) {
+            throw new StreamCorruptedException("Secret de grappe refuse pour " + peerId);
+        }
+        socket.setSoTimeout(0);
+
+        // Les deux nœuds s'accordent sur ce lien : appelé par le plus petit nom ou non
+        boolean preferred = dialed == (nodeId.compareTo(peerId) < 0);
+        Peer peer = new Peer(peerId, socket, out, preferred);
+        Peer existing;
+        while ((existing = peers.putIfAbsent(peerId, peer)) != null) {
+            if (!preferred || existing.preferred) {
+                return peerId; // déjà relié à ce nœud
+            }
+            // Appels croisés : l'autre lien cède, une fois ses connectés retirés
+            existing.close();
+            try {
+                if (!existing.detached.await(CONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return peerId;
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Lien avec " + peerId + " interrompu");
+            }
+        }
+        server.startThread("cluster-writer-" + peerId, true, peer::writeLoop);
+        server.getPresence().attachPeer(peer);
+        ServerLog.info(ServerLog.Category.CLUSTER, "[GRAPPE] Lien etabli avec {} ({})",
+            peerId, socket.getRemoteSocketAddress());
+        try {
+            peer.readLoop(in);
+        } catch (IOException e) {
+            if (running) {
+                ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Lien perdu avec {}: {}", peerId,
+                    e instanceof EOFException ? "connexion fermee" : e.getMessage());
+            }
+        } finally {
+            // Connectés retirés avant de libérer la place : un nouveau lien
+            // avec ce nœud ne voit jamais leurs anciennes annonces
+            peer.close();
+            server.getPresence().detachPeer(peerId, peer.names);
+            peers.remove(peerId, peer);
+            peer.detached.countDown();
+        }
+        return peerId;
+    }
+
+    /**
+     * HMAC du secret sur le nom de l'émetteur, le nombre reçu et le sien.
+     */
+    private byte[] proof(String sender, byte[] challenge, byte[] own) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secret);
+            mac.update(sender.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            mac.update(challenge);
+            mac.update(own);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 indisponible", e);
+        }
+    }
+
+    /**
+     * Relaie une diffusion d'un client local à chaque autre nœud.
+     */
+    void forwardBroadcast(OutboundFrame frame) {
+        for (Peer peer : peers.values()) {
+            peer.enqueue(new Record(BROADCAST, null, frame.retain()));
+        }
+    }
+
+    /**
+     * Envoie un message privé au nœud du destinataire.
+     * @return false si le nœud n'est pas relié
+     */
+    boolean forwardPrivate(String peerId, String recipient, OutboundFrame frame) {
+        Peer peer = peers.get(peerId);
+        if (peer == null) {
+            frame.release();
+            return false;
+        }
+        return peer.enqueue(new Record(PRIVATE, recipient, frame));
+    }
+
+    /**
+     * Annonce l'arrivée d'un client local. Appelé par le thread d'envoi de
+     * Presence : les nœuds voient les arrivées et départs dans l'ordre.
+     */
+    void publishJoin(String name) {
+        for (Peer peer : peers.values()) {
+            if (peer.active) {
+                peer.enqueue(new Record(JOIN, name, null));
+            }
+        }
+    }
+
+    void publishLeave(String name) {
+        for (Peer peer : peers.values()) {
+            if (peer.active) {
+                peer.enqueue(new Record(LEAVE, name, null));
+            }
+        }
+    }
+
+    /**
+     * État des liens, pour la console d'administration.
+     */
+    List<String> describePeers() {
+        List<String> lines = new ArrayList<>();
+        for (Peer peer : peers.values()) {
+            lines.add(peer.nodeId + " " + peer.socket.getRemoteSocketAddress()
+                + "  [file " + peer.outbound.size() + ", " + peer.names.size() + " connectes]");
+        }
+        return lines;
+    }
+
+    void close() {
+        running = false;
+        try {
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException e) {
+            // Déjà fermé
+        }
+        for (Peer peer : peers.values()) {
+            peer.close();
+        }
+    }
+
+    /**
+     * Enregistrement en attente d'envoi. La trame éventuelle est une référence
+     * détenue par l'enregistrement, rendue une fois écrite ou abandonnée.
+     */
+    private static final class Record {
+        final byte type;
+        final String name;
+        final OutboundFrame frame;
+
+        Record(byte type, String name, OutboundFrame frame) {
+            this.type = type;
+            this.name = name;
+            this.frame = frame;
+        }
+
+        void release() {
+            if (frame != null) {
+                frame.release();
+            }
+        }
+    }
+
+    private static final Record END = new Record((byte) 0, null, null);
+
+    /**
+     * Un lien ouvert vers un autre nœud : une file d'enregistrements vidée
+     * par un écrivain dédié, et la lecture sur le thread du lien.
+     */
+    final class Peer {
+        final String nodeId;
+        final Socket socket;
+        private final DataOutputStream out;
+        private final LinkedBlockingQueue<Record> outbound;
+        final Set<String> names; // connectés annoncés par ce nœud, lus et modifiés par le lecteur
+        final boolean preferred; // lien gardé en cas d'appels croisés
+        final CountDownLatch detached = new CountDownLatch(1); // fermé et retiré de la grappe
+        volatile boolean active; // nos connectés lui ont été annoncés
+        private volatile boolean closed;
+
+        Peer(String nodeId, Socket socket, DataOutputStream out, boolean preferred) {
+            this.nodeId = nodeId;
+            this.socket = socket;
+            this.out = out;
+            this.preferred = preferred;
+            this.outbound = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+            this.names = ConcurrentHashMap.newKeySet();
+        }
+
+        /**
+         * Annonce les connectés locaux, puis laisse passer les arrivées et
+         * départs suivants. Appelé par le thread d'envoi de Presence, dans
+         * l'ordre des autres annonces.
+         */
+        void activate(Collection<String> localNames) {
+            for (String name : localNames) {
+                enqueue(new Record(JOIN, name, null));
+            }
+            active = true;
+        }
+
+        /**
+         * Un nœud qui ne lit plus assez vite est déconnecté plutôt que de
+         * laisser la file grossir : il se resynchronise en se reconnectant.
+         */
+        boolean enqueue(Record record) {
+            if (!closed && outbound.offer(record)) {
+                return true;
+            }
+            record.release();
+            if (!closed) {
+                ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] File pleine vers {}, lien ferme", nodeId);
+                close();
+            }
+            return false;
+        }
+
+        void writeLoop() {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(BATCH_BYTES);
+            DataOutputStream batch = new DataOutputStream(buffer);
+            List<Record> pending = new ArrayList<>();
+            try {
+                while (!closed) {
+                    Record first = outbound.take();
+                    if (first == END) {
+                        break;
+                    }
+                    pending.add(first);
+                    outbound.drainTo(pending, 1024);
+
+                    int count = 0;
+                    for (Record record : pending) {
+                        if (record == END) {
+                            break;
+                        }
+                        write(batch, record);
+                        count++;
+                        if (buffer.size() >= BATCH_BYTES) {
+                            sendBatch(buffer, count);
+                            count = 0;
+                        }
+                    }
+                    if (count > 0) {
+                        sendBatch(buffer, count);
+                    }
+                    out.flush();
+                    releaseAll(pending);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Erreur d'envoi vers {}: {}", nodeId, e.getMessage());
+                }
+                close();
+            } catch (InterruptedException e) {
+                close();
+            } finally {
+                releaseAll(pending);
+                outbound.drainTo(pending);
+                releaseAll(pending);
+            }
+        }
+
+        private void write(DataOutputStream batch, Record record) throws IOException {
+            batch.writeByte(record.type);
+            if (record.name != null) {
+                batch.writeUTF(record.name);
+            }
+            if (record.frame != null) {
+                batch.write(record.frame.bytes(), 0, record.frame.length());
+            }
+        }
+
+        private void sendBatch(ByteArrayOutputStream buffer, int count) throws IOException {
+            out.writeInt(4 + buffer.size());
+            out.writeInt(count);
+            buffer.writeTo(out);
+            buffer.reset();
+            ServerMetrics metrics = server.getMetrics();
+            metrics.clusterBatchesOut.increment();
+            metrics.clusterRecordsOut.add(count);
+        }
+
+        private void releaseAll(List<Record> records) {
+            for (Record record : records) {
+                record.release();
+            }
+            records.clear();
+        }
+
+        void readLoop(DataInputStream in) throws IOException {
+            while (!closed) {
+                int length = in.readInt();
+                if (length < 4 || length > MAX_BATCH_LENGTH) {
+                    throw new StreamCorruptedException("Longueur de trame de noeud invalide: " + length);
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                DataInputStream records = new DataInputStream(new ByteArrayInputStream(body));
+                int count = records.readInt();
+                for (int i = 0; i < count; i++) {
+                    dispatch(records);
+                }
+                server.getMetrics().clusterRecordsIn.add(count);
+            }
+        }
+
+        private void dispatch(DataInputStream records) throws IOException {
+            byte type = records.readByte();
+            switch (type) {
+                case BROADCAST:
+                    server.deliverFromPeer(MessageCodec.read(records));
+                    break;
+                case PRIVATE:
+                    String recipient = records.readUTF();
+                    server.deliverPrivateFromPeer(recipient, MessageCodec.read(records));
+                    break;
+                case JOIN:
+                    String joined = records.readUTF();
+                    if (server.getPresence().joinRemote(joined, nodeId)) {
+                        names.add(joined);
+                    }
+                    break;
+                case LEAVE:
+                    String left = records.readUTF();
+                    if (names.remove(left)) {
+                        server.getPresence().leaveRemote(left, nodeId);
+                    }
+                    break;
+                default:
+                    throw new StreamCorruptedException("Enregistrement de noeud inconnu: " + type);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            outbound.offer(END);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Déjà fermé
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Transport sous-jacent d'un ClientHandler : socket bloquante ou canal NIO.
+ * La logique de connexion, de commandes et de diffusion reste dans ClientHandler.
+ */
+interface Connection {
+
+    /**
+     * Format négocié avec le client, ou null tant que la poignée de main n'est pas faite.
+     */
+    WireFormat format();
+
+    /**
+     * Met en file une trame encodée dans le format de cette connexion, sans
+     * jamais bloquer sur le réseau. La connexion prend possession de la
+     * référence passée et la rend dans tous les cas, y compris en cas d'erreur.
+     * @return false si la trame a été écartée par la politique de client lent
+     * @throws SlowConsumerException si le client ne suit plus et doit être déconnecté
+     */
+    boolean send(OutboundFrame frame) throws IOException;
+
+    OutboundQueue outboundQueue();
+
+    /**
+     * Cesse de lire ce client pendant nanos : ce qu'il envoie reste dans les
+     * tampons TCP, qui finissent par le bloquer. Appelé pendant le traitement
+     * d'un message reçu, sur le thread qui traite cette connexion.
+     * @return true si la pause est déjà écoulée et le message peut être
+     *         traité ; false si la connexion le remettra à
+     *         ClientHandler.handleAdmitted à la fin de la pause
+     */
+    boolean pauseReading(long nanos);
+
+    void close() throws IOException;
+}
@@ -0,0 +1,56 @@
+package server;
+
+import common.Message;
+
+/**
+ * Message accompagné de ses trames, encodées à la demande au plus une fois
+ * par format de fil. Utilisé par un seul thread le temps d'une diffusion,
+ * puis rendu avec release().
+ */
+final class EncodedMessage {
+    private static final WireFormat[] FORMATS = WireFormat.values();
+
+    private final Message message;
+    private final OutboundFrame[] frames;
+
+    EncodedMessage(Message message) {
+        this.message = message;
+        this.frames = new OutboundFrame[FORMATS.length];
+    }
+
+    /**
+     * Message déjà encodé pour format ; frame est la référence de départ.
+     */
+    EncodedMessage(Message message, WireFormat format, OutboundFrame frame) {
+        this(message);
+        frames[format.ordinal()] = frame;
+    }
+
+    Message message() {
+        return message;
+    }
+
+    /**
+     * Trame pour ce format, avec une référence supplémentaire pour l'appelant.
+     */
+    OutboundFrame frameFor(WireFormat format) {
+        OutboundFrame frame = frames[format.ordinal()];
+        if (frame == null) {
+            frame = format.encode(message);
+            frames[format.ordinal()] = frame;
+        }
+        return frame.retain();
+    }
+
+    /**
+     * Rend la référence de départ de chaque trame encodée.
+     */
+    void release() {
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null) {
+                frames[i].release();
+                frames[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import common.Constants;
+
+/**
+ * Découpe en objets un flux reçu par morceaux sur un canal non bloquant.
+ * Les octets non encore exploitables restent dans le tampon interne.
+ */
+abstract class FrameDecoder {
+    protected byte[] buffer;
+    protected int length;
+
+    protected FrameDecoder() {
+        this.buffer = new byte[Constants.BUFFER_SIZE];
+    }
+
+    /**
+     * Ajoute les octets lus et retourne les objets devenus complets.
+     */
+    abstract List<Object> decode(ByteBuffer input) throws IOException, ClassNotFoundException;
+
+    protected void append(ByteBuffer input) throws StreamCorruptedException {
+        int needed = length + input.remaining();
+        if (needed > Constants.MAX_FRAME_SIZE) {
+            throw new StreamCorruptedException("Message trop volumineux (" + needed + " octets)");
+        }
+        if (needed > buffer.length) {
+            byte[] grown = new byte[Math.max(needed, buffer.length * 2)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+        int count = input.remaining();
+        input.get(buffer, length, count);
+        length += count;
+    }
+
+    /**
+     * Retire du début du tampon les octets déjà traités.
+     */
+    protected void discard(int count) {
+        System.arraycopy(buffer, count, buffer, 0, length - count);
+        length -= count;
+    }
+}
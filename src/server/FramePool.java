@@ -0,0 +1,52 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recyclage des tableaux d'octets des trames sortantes, par classes de taille
+ * en puissances de deux (64 octets à 64 Ko). Les trames plus grandes ne sont
+ * pas recyclées. Un tableau qui n'est jamais rendu est simplement ramassé par
+ * le GC : le pool ne peut donc pas fuir.
+ */
+final class FramePool {
+    private static final int MIN_SHIFT = 6;
+    private static final int MAX_SHIFT = 16;
+    private static final int MAX_PER_CLASS = 1024;
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static final ArrayBlockingQueue<byte[]>[] CLASSES =
+        new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+
+    static {
+        for (int i = 0; i < CLASSES.length; i++) {
+            CLASSES[i] = new ArrayBlockingQueue<>(MAX_PER_CLASS);
+        }
+    }
+
+    private FramePool() {
+    }
+
+    /**
+     * Fournit un tableau d'au moins length octets.
+     */
+    static byte[] acquire(int length) {
+        int shift = shiftFor(length);
+        if (shift > MAX_SHIFT) {
+            return new byte[length];
+        }
+        byte[] bytes = CLASSES[shift - MIN_SHIFT].poll();
+        return bytes != null ? bytes : new byte[1 << shift];
+    }
+
+    static void release(byte[] bytes) {
+        int shift = Integer.numberOfTrailingZeros(bytes.length);
+        if (Integer.bitCount(bytes.length) == 1 && shift >= MIN_SHIFT && shift <= MAX_SHIFT) {
+            CLASSES[shift - MIN_SHIFT].offer(bytes);
+        }
+    }
+
+    private static int shiftFor(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+        return Math.max(shift, MIN_SHIFT);
+    }
+}
@@ -0,0 +1,187 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import common.Message;
+
+/**
+ * Historique des diffusions : journal en ajout seul, découpé en segments
+ * projetés en mémoire (voir LogSegment). Les anciens segments sont supprimés
+ * au-delà de la limite configurée.
+ *
+ * L'écriture est réservée au HistoryWriter ; la relecture peut se faire depuis
+ * n'importe quel thread et décode les messages un par un depuis les fichiers
+ * projetés, sans charger le journal sur le tas.
+ */
+final class HistoryLog {
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final List<LogSegment> segments;
+    private LogSegment active;
+    private long lastTime;
+
+    private HistoryLog(Path directory, int segmentSize, int maxSegments) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        this.segments = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Ouvre (ou crée) le journal dans le répertoire configuré.
+     */
+    static HistoryLog open(ServerConfig config) throws IOException {
+        Path directory = Paths.get(config.getHistoryDirectory());
+        Files.createDirectories(directory);
+        HistoryLog log = new HistoryLog(directory, config.getHistorySegmentBytes(), config.getHistorySegments());
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log")) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        Collections.sort(files); // noms à largeur fixe : ordre des décalages
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long baseOffset = Long.parseLong(name.substring(0, name.length() - ".log".length()));
+            log.segments.add(LogSegment.recover(file, baseOffset, log.segmentSize));
+        }
+
+        if (log.segments.isEmpty()) {
+            log.segments.add(LogSegment.create(directory, 0, log.segmentSize));
+        }
+        log.active = log.segments.get(log.segments.size() - 1);
+        log.lastTime = log.active.lastTime();
+        return log;
+    }
+
+    /**
+     * Ajoute une trame MessageCodec complète. Thread d'écriture uniquement ;
+     * rien n'est visible avant commit().
+     */
+    void append(byte[] frame, int length, long now) throws IOException {
+        // Heures croissantes même si l'horloge recule : la recherche par heure en dépend
+        lastTime = Math.max(lastTime, now);
+        if (active.append(lastTime, frame, length)) {
+            return;
+        }
+        if (length + 8 > segmentSize) {
+            ServerLog.error(ServerLog.Category.HISTORY, "[ERREUR] Message trop grand pour l'historique: {} octets", length);
+            return;
+        }
+        roll();
+        active.append(lastTime, frame, length);
+    }
+
+    private void roll() throws IOException {
+        active.commit();
+        LogSegment next = LogSegment.create(directory, active.endOffset(), segmentSize);
+        segments.add(next);
+        active = next;
+        while (segments.size() > maxSegments) {
+            segments.remove(0).delete();
+        }
+    }
+
+    void commit() {
+        active.commit();
+    }
+
+    /**
+     * Relit, dans l'ordre, les count derniers messages validés que filter
+     * accepte. On remonte le journal par fenêtres de décalages qui doublent :
+     * une seule fenêtre si presque tout passe le filtre, davantage quand les
+     * messages voulus sont rares.
+     * @return le nombre de messages relus
+     */
+    int replayLast(int count, Predicate<Message> filter, Consumer<Message> sink) throws IOException {
+        List<LogSegment> snapshot = new ArrayList<>(segments);
+        long first = snapshot.get(0).baseOffset();
+        long stop = snapshot.get(snapshot.size() - 1).endOffset();
+        long window = Math.max(count, 64);
+
+        List<ArrayDeque<Message>> windows = new ArrayList<>(); // du plus récent au plus ancien
+        int found = 0;
+        while (found < count && stop > first) {
+            long start = Math.max(first, stop - window);
+            int needed = count - found;
+            ArrayDeque<Message> kept = new ArrayDeque<>();
+            readRange(snapshot, start, stop, message -> {
+                if (filter.test(message)) {
+                    kept.addLast(message);
+                    if (kept.size() > needed) {
+                        kept.removeFirst(); // seuls les plus récents comptent
+                    }
+                }
+            });
+            windows.add(kept);
+            found += kept.size();
+            stop = start;
+            window *= 2;
+        }
+
+        for (int i = windows.size() - 1; i >= 0; i--) {
+            for (Message message : windows.get(i)) {
+                sink.accept(message);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Transmet à sink tous les messages de décalage compris dans [start, stop).
+     */
+    private static void readRange(List<LogSegment> snapshot, long start, long stop, Consumer<Message> sink)
+            throws IOException {
+        for (LogSegment segment : snapshot) {
+            if (segment.endOffset() <= start || segment.baseOffset() >= stop) {
+                continue;
+            }
+            long[] entry = segment.floorByOffset(start);
+            int records = (int) (Math.min(stop, segment.endOffset()) - start);
+            segment.read((int) entry[1], start - entry[0], 0, records, message -> true, sink);
+            start = segment.endOffset();
+        }
+    }
+
+    /**
+     * Relit au plus max messages ajoutés depuis since (heure du serveur, en ms)
+     * et acceptés par filter.
+     * @return le nombre de messages relus
+     */
+    int replaySince(long since, int max, Predicate<Message> filter, Consumer<Message> sink) throws IOException {
+        int delivered = 0;
+        boolean found = false;
+        for (LogSegment segment : new ArrayList<>(segments)) {
+            if (!found && segment.lastTime() < since) {
+                continue;
+            }
+            int position = found ? 0 : segment.floorByTime(since);
+            found = true;
+            delivered += segment.read(position, 0, since, max - delivered, filter, sink);
+            if (delivered >= max) {
+                break;
+            }
+        }
+        return delivered;
+    }
+
+    void close() {
+        commit();
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Écrivain de l'historique, sur son propre thread.
+ *
+ * Les diffusions déposent leur trame binaire (déjà encodée pour les clients)
+ * dans une file bornée sans jamais attendre ; le thread l'ajoute au journal
+ * par lots et ne force l'écriture sur disque qu'une fois par lot. Plus le
+ * trafic est dense, plus les lots sont gros. Si la file déborde (disque trop
+ * lent), le message est absent de l'historique mais la diffusion n'est pas
+ * ralentie.
+ */
+final class HistoryWriter implements Runnable {
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+
+    private final HistoryLog log;
+    private final ArrayBlockingQueue<OutboundFrame> queue;
+    private final LongAdder dropped;
+    private final CountDownLatch stopped;
+    private volatile boolean running;
+
+    HistoryWriter(HistoryLog log) {
+        this.log = log;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.dropped = new LongAdder();
+        this.stopped = new CountDownLatch(1);
+        this.running = true;
+    }
+
+    /**
+     * Dépose une trame au format BINARY ; l'écrivain prend possession de la référence.
+     */
+    void submit(OutboundFrame frame) {
+        if (!running || !queue.offer(frame)) {
+            frame.release();
+            dropped.increment();
+        }
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public void run() {
+        List<OutboundFrame> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (running || !queue.isEmpty()) {
+                OutboundFrame first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                long now = System.currentTimeMillis();
+                try {
+                    for (OutboundFrame frame : batch) {
+                        log.append(frame.bytes(), frame.length(), now);
+                    }
+                    log.commit();
+                } catch (IOException e) {
+                    ServerLog.error(ServerLog.Category.HISTORY, "[ERREUR] Ecriture de l'historique: {}", e.getMessage());
+                } finally {
+                    for (OutboundFrame frame : batch) {
+                        frame.release();
+                    }
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            log.close();
+            stopped.countDown();
+        }
+    }
+
+    /**
+     * Écrit ce qui reste en file puis ferme le journal.
+     */
+    void close() {
+        running = false;
+        try {
+            if (!stopped.await(5, TimeUnit.SECONDS)) {
+                System.err.println("[ERREUR] L'historique n'a pas pu etre vide a temps");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
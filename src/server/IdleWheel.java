@@ -0,0 +1,129 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Détection des connexions muettes par une roue temporelle hachée : une seule
+ * horloge pour toutes les connexions, au lieu d'une tâche planifiée par client.
+ *
+ * Chaque connexion surveillée a une échéance rangée dans la case de la roue qui
+ * lui correspond (tours restants pour les échéances de plus d'un tour). Un
+ * message reçu ne touche pas la roue : il met seulement à jour l'heure du
+ * dernier message du ClientHandler. À l'échéance, ClientHandler.checkIdle()
+ * décide : rien reçu depuis longtemps, on ferme ; silence plus court, on envoie
+ * un PING ; sinon l'échéance est simplement repoussée. Ajouter une connexion
+ * coûte O(1) depuis n'importe quel thread, chaque tic ne parcourt qu'une case.
+ */
+final class IdleWheel {
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int WHEEL_SIZE = 256; // 64 s par tour, puissance de deux
+
+    static final class Entry {
+        final ClientHandler client;
+        long deadline;
+        long rounds;
+        volatile boolean cancelled;
+
+        Entry(ClientHandler client, long deadline) {
+            this.client = client;
+            this.deadline = deadline;
+        }
+
+        void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final ArrayDeque<Entry>[] buckets; // thread de la roue seulement
+    private final ConcurrentLinkedQueue<Entry> incoming;
+    private final long start;
+    private long tick;
+    private volatile boolean running;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    IdleWheel(ServerConfig config) {
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(config.getHeartbeatSeconds());
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(config.getIdleTimeoutSeconds());
+        this.buckets = new ArrayDeque[WHEEL_SIZE];
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.start = System.nanoTime();
+        this.running = true;
+    }
+
+    /**
+     * Surveille une connexion à partir de maintenant.
+     * @return l'entrée, à annuler si la connexion est surveillée de nouveau
+     */
+    Entry watch(ClientHandler client) {
+        Entry entry = new Entry(client, System.nanoTime() + Math.min(intervalNanos, timeoutNanos));
+        incoming.add(entry);
+        return entry;
+    }
+
+    /**
+     * Boucle du thread de la roue : un tic toutes les 250 ms.
+     */
+    void run() {
+        while (running) {
+            long next = start + (tick + 1) * TICK_NANOS;
+            long wait;
+            while ((wait = next - System.nanoTime()) > 0 && running) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            tick++;
+            Entry entry;
+            while ((entry = incoming.poll()) != null) {
+                place(entry);
+            }
+            expire(buckets[(int) (tick & (WHEEL_SIZE - 1))]);
+        }
+    }
+
+    private void place(Entry entry) {
+        long ticks = Math.max(1, (entry.deadline - start + TICK_NANOS - 1) / TICK_NANOS - tick);
+        entry.rounds = (ticks - 1) / WHEEL_SIZE;
+        buckets[(int) ((tick + ticks) & (WHEEL_SIZE - 1))].addLast(entry);
+    }
+
+    private void expire(ArrayDeque<Entry> bucket) {
+        long now = System.nanoTime();
+        // Nombre fixé d'avance : une entrée replacée dans cette même case attend le tour suivant
+        for (int count = bucket.size(); count > 0; count--) {
+            Entry entry = bucket.pollFirst();
+            if (entry.cancelled) {
+                continue;
+            }
+            if (entry.rounds > 0) {
+                entry.rounds--;
+                bucket.addLast(entry);
+                continue;
+            }
+            long delay;
+            try {
+                delay = entry.client.checkIdle(now, intervalNanos, timeoutNanos);
+            } catch (RuntimeException e) {
+                ServerLog.error(ServerLog.Category.CONNECTION, "[ERREUR] Controle d'inactivite: {}", e.getMessage());
+                delay = -1;
+            }
+            if (delay >= 0) {
+                entry.deadline = now + delay;
+                place(entry);
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+    }
+}
@@ -0,0 +1,263 @@
+package server;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import common.Message;
+import common.MessageCodec;
+
+/**
+ * Segment du journal d'historique : un fichier de taille fixe projeté en mémoire.
+ *
+ * Enregistrement : [long heure d'ajout][trame MessageCodec, préfixe de longueur compris].
+ * L'heure est écrite en dernier et n'est jamais nulle : une heure à 0 marque la
+ * fin des données, ce qui suffit à retrouver la fin du segment au redémarrage.
+ *
+ * Un seul thread écrit (HistoryWriter) ; les lecteurs ne voient que ce qui a été
+ * validé par commit(). L'index clairsemé garde une entrée toutes les
+ * INDEX_INTERVAL octets environ, pour démarrer une relecture près de la cible.
+ */
+final class LogSegment {
+    private static final int TIME_LENGTH = 8;
+    private static final int INDEX_INTERVAL = 4096;
+
+    private final Path path;
+    private final long baseOffset;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+
+    // Index clairsemé, protégé par this
+    private long[] indexOffsets;
+    private int[] indexPositions;
+    private long[] indexTimes;
+    private int indexSize;
+
+    // Côté écrivain
+    private int writePosition;
+    private int lastIndexedPosition;
+    private long writeCount;
+    private long writeLastTime;
+
+    // Publié par commit()
+    private volatile int committedPosition;
+    private volatile long committedCount;
+    private volatile long lastTime;
+
+    private LogSegment(Path path, long baseOffset, int size) throws IOException {
+        this.path = path;
+        this.baseOffset = baseOffset;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        this.indexOffsets = new long[64];
+        this.indexPositions = new int[64];
+        this.indexTimes = new long[64];
+        this.lastIndexedPosition = -INDEX_INTERVAL;
+    }
+
+    static Path fileName(Path directory, long baseOffset) {
+        return directory.resolve(String.format("%020d.log", baseOffset));
+    }
+
+    static LogSegment create(Path directory, long baseOffset, int size) throws IOException {
+        Path path = fileName(directory, baseOffset);
+        Files.deleteIfExists(path); // reste d'un arrêt brutal pendant une bascule
+        return new LogSegment(path, baseOffset, size);
+    }
+
+    /**
+     * Rouvre un segment existant et retrouve sa fin en le parcourant
+     * (dans le fichier projeté, sans le charger sur le tas).
+     */
+    static LogSegment recover(Path path, long baseOffset, int size) throws IOException {
+        int fileSize = (int) Math.max(Files.size(path), size);
+        LogSegment segment = new LogSegment(path, baseOffset, fileSize);
+        segment.scan();
+        return segment;
+    }
+
+    private void scan() {
+        int position = 0;
+        while (position + TIME_LENGTH + 4 <= buffer.capacity()) {
+            long time = buffer.getLong(position);
+            int frameLength = 4 + buffer.getInt(position + TIME_LENGTH);
+            int end = position + TIME_LENGTH + frameLength;
+            if (time == 0 || frameLength <= 4 || end > buffer.capacity()) {
+                break;
+            }
+            index(position, time);
+            position = end;
+            writeCount++;
+            writeLastTime = time;
+        }
+        writePosition = position;
+        publish();
+    }
+
+    /**
+     * Ajoute un enregistrement ; false si le segment est plein.
+     * Appelé par le thread d'écriture uniquement.
+     */
+    boolean append(long time, byte[] frame, int length) {
+        int end = writePosition + TIME_LENGTH + length;
+        if (end > buffer.capacity()) {
+            return false;
+        }
+        buffer.put(writePosition + TIME_LENGTH, frame, 0, length);
+        buffer.putLong(writePosition, time);
+        index(writePosition, time);
+        writePosition = end;
+        writeCount++;
+        writeLastTime = time;
+        return true;
+    }
+
+    /**
+     * Force sur disque ce qui a été ajouté depuis le dernier appel, puis le rend
+     * visible aux lecteurs.
+     */
+    void commit() {
+        int from = committedPosition;
+        if (writePosition > from) {
+            buffer.force(from, writePosition - from);
+            publish();
+        }
+    }
+
+    private void publish() {
+        lastTime = writeLastTime;
+        committedCount = writeCount;
+        committedPosition = writePosition; // en dernier : publie le reste
+    }
+
+    private synchronized void index(int position, long time) {
+        if (position - lastIndexedPosition < INDEX_INTERVAL) {
+            return;
+        }
+        if (indexSize == indexOffsets.length) {
+            int capacity = indexSize * 2;
+            indexOffsets = Arrays.copyOf(indexOffsets, capacity);
+            indexPositions = Arrays.copyOf(indexPositions, capacity);
+            indexTimes = Arrays.copyOf(indexTimes, capacity);
+        }
+        indexOffsets[indexSize] = baseOffset + writeCount;
+        indexPositions[indexSize] = position;
+        indexTimes[indexSize] = time;
+        indexSize++;
+        lastIndexedPosition = position;
+    }
+
+    /**
+     * Dernière entrée d'index validée dont le décalage est au plus offset.
+     * @return {décalage, position}
+     */
+    synchronized long[] floorByOffset(long offset) {
+        int i = floor(indexOffsets, offset + 1);
+        return i < 0 ? new long[] { baseOffset, 0 } : new long[] { indexOffsets[i], indexPositions[i] };
+    }
+
+    /**
+     * Position de la dernière entrée d'index validée antérieure à time.
+     */
+    synchronized int floorByTime(long time) {
+        int i = floor(indexTimes, time);
+        return i < 0 ? 0 : indexPositions[i];
+    }
+
+    /**
+     * Dernière entrée validée dont la clé est strictement inférieure à bound
+     * (les clés sont croissantes), -1 s'il n'y en a pas. Appelé sous le verrou.
+     */
+    private int floor(long[] keys, long bound) {
+        int limit = committedPosition;
+        int low = 0;
+        int high = indexSize - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < bound && indexPositions[mid] < limit) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Relit les enregistrements validés à partir de position, en sautant les
+     * skip premiers, ceux antérieurs à since et ceux que filter écarte.
+     * @return le nombre de messages transmis à sink (au plus max)
+     */
+    int read(int position, long skip, long since, int max, Predicate<Message> filter,
+             Consumer<Message> sink) throws IOException {
+        int end = committedPosition;
+        byte[] body = new byte[256];
+        int delivered = 0;
+        while (position < end && delivered < max) {
+            long time = buffer.getLong(position);
+            int bodyLength = buffer.getInt(position + TIME_LENGTH);
+            int bodyPosition = position + TIME_LENGTH + 4;
+            position = bodyPosition + bodyLength;
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (time < since) {
+                continue;
+            }
+            if (body.length < bodyLength) {
+                body = new byte[bodyLength];
+            }
+            buffer.get(bodyPosition, body, 0, bodyLength);
+            Message message = MessageCodec.decode(body, 0, bodyLength);
+            if (filter.test(message)) {
+                sink.accept(message);
+                delivered++;
+            }
+        }
+        return delivered;
+    }
+
+    long baseOffset() {
+        return baseOffset;
+    }
+
+    /**
+     * Décalage qui suit le dernier enregistrement validé.
+     */
+    long endOffset() {
+        return baseOffset + committedCount;
+    }
+
+    long lastTime() {
+        return lastTime;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Fermeture du segment " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ferme et supprime le fichier. Les lecteurs en cours gardent leur projection.
+     */
+    void delete() {
+        close();
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Suppression du segment " + path + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Point de collecte des métriques en texte brut (format Prometheus), sur
+ * l'interface locale uniquement : GET http://127.0.0.1:P/metrics.
+ * Un seul thread suffit, chaque requête ne fait que lire des compteurs.
+ */
+class MetricsEndpoint {
+    private final HttpServer http;
+
+    MetricsEndpoint(ServerMetrics metrics, int port) throws IOException {
+        this.http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        http.createContext("/metrics", exchange -> respond(exchange, metrics.scrape()));
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    void start() {
+        http.start();
+    }
+
+    void close() {
+        http.stop(0);
+    }
+}
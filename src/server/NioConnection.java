@@ -0,0 +1,390 @@
+package server;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Constants;
+import common.Message;
+import common.MessageCodec;
+
+/**
+ * Connexion d'un client servie par un Reactor. Lecture et écriture se font
+ * sur le thread de la boucle ; send() peut être appelé depuis n'importe quel
+ * thread et se contente de mettre le message dans la file bornée de la
+ * connexion. Tant que le format n'est pas négocié, rien n'est envoyé au client.
+ *
+ * Les objets décodés sont traités par un thread du groupe de NioTransport,
+ * un seul à la fois et dans l'ordre pour une connexion : un rejeu
+ * d'historique ou une diffusion ne retient pas les autres connexions de la
+ * boucle. Trop d'objets en attente, et la boucle cesse de lire ce client.
+ *
+ * Les trames partagées ne sont jamais modifiées : à l'écriture, on les recopie
+ * dans le tampon direct du Reactor (ce que le JDK ferait de toute façon pour un
+ * tampon sur le tas), sans allocation par destinataire.
+ */
+class NioConnection implements Connection {
+    // Objets décodés en attente de traitement au-delà desquels on cesse de lire
+    private static final int MAX_PENDING_IN = 1024;
+    // Fin de lecture, traitée après les objets qui la précèdent
+    private static final Object END_OF_STREAM = new Object();
+
+    private final SocketChannel channel;
+    private final Reactor reactor;
+    private final ByteBuffer readBuffer;
+    private final OutboundQueue queue;
+    private final ArrayDeque<OutboundFrame> inflight; // sortis de la file, en cours d'écriture
+    private final OutboundFrame[] drainBatch;
+    private final AtomicBoolean flushScheduled;
+    private final ServerMetrics metrics;
+    private final Executor workers;
+    private final ConcurrentLinkedQueue<Object> incoming;
+    private final AtomicInteger pendingIn;
+    private final AtomicBoolean working; // un thread du groupe traite incoming
+    private volatile WireFormat format;
+    private FrameDecoder decoder;
+    private SelectionKey key;
+    private ClientHandler handler;
+    private int headOffset; // octets de la première trame de inflight déjà écrits
+    private boolean readEnded; // thread du Reactor : fin de flux ou erreur de lecture transmise
+    private volatile boolean readPaused;
+    private volatile long readResumesAt;
+    // Thread de traitement (un seul à la fois, ordonnés par working)
+    private boolean loggedIn;
+    private Object dispatching; // objet en cours de traitement
+    private Message delayed; // déjà admis, traité à la fin de la pause
+
+    NioConnection(SocketChannel channel, Reactor reactor, Executor workers, OutboundQueue queue, ServerMetrics metrics) {
+        this.channel = channel;
+        this.metrics = metrics;
+        this.reactor = reactor;
+        this.workers = workers;
+        this.incoming = new ConcurrentLinkedQueue<>();
+        this.pendingIn = new AtomicInteger();
+        this.working = new AtomicBoolean();
+        this.queue = queue;
+        this.readBuffer = ByteBuffer.allocate(Constants.BUFFER_SIZE * 8);
+        this.inflight = new ArrayDeque<>();
+        this.drainBatch = new OutboundFrame[64];
+        this.flushScheduled = new AtomicBoolean();
+    }
+
+    void attach(SelectionKey key, ClientHandler handler) {
+        this.key = key;
+        this.handler = handler;
+    }
+
+    @Override
+    public WireFormat format() {
+        return format;
+    }
+
+    @Override
+    public boolean send(OutboundFrame frame) throws IOException {
+        if (!channel.isOpen()) {
+            frame.release();
+            throw new ClosedChannelException();
+        }
+        OutboundQueue.Result result = enqueue(frame);
+        if (result == OutboundQueue.Result.OVERFLOW) {
+            throw new SlowConsumerException("file de sortie pleine (" + queue.capacity() + " messages)");
+        }
+        return result == OutboundQueue.Result.ACCEPTED;
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return queue;
+    }
+
+    private OutboundQueue.Result enqueue(OutboundFrame frame) {
+        OutboundQueue.Result result = queue.offer(frame);
+        if (result == OutboundQueue.Result.ACCEPTED && flushScheduled.compareAndSet(false, true)) {
+            reactor.execute(this::flush);
+        }
+        return result;
+    }
+
+    private void enqueue(byte[] bytes) {
+        enqueue(new OutboundFrame(bytes, bytes.length, true));
+    }
+
+    /**
+     * Écrit tout ce qui peut l'être sans bloquer ; le reste attend OP_WRITE.
+     * Appelé uniquement sur le thread du Reactor.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            releasePending();
+            return;
+        }
+        try {
+            ByteBuffer buffer = reactor.writeBuffer();
+            while (refill()) {
+                // Remplir le tampon avec autant de trames que possible
+                buffer.clear();
+                int offset = headOffset;
+                for (OutboundFrame frame : inflight) {
+                    int count = Math.min(frame.length() - offset, buffer.remaining());
+                    buffer.put(frame.bytes(), offset, count);
+                    offset = 0;
+                    if (!buffer.hasRemaining()) {
+                        break;
+                    }
+                }
+                buffer.flip();
+                consume(channel.write(buffer));
+
+                if (buffer.hasRemaining()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch (IOException e) {
+            handler.connectionFailed(this, e);
+        }
+    }
+
+    /**
+     * Complète inflight, jusqu'à un lot, avec ce qui attend dans la file : le
+     * reste y attend que le socket accepte la suite, dans l'ordre des voies.
+     * @return false s'il n'y a plus rien à écrire
+     */
+    private boolean refill() {
+        int from = inflight.size();
+        if (from < drainBatch.length) {
+            int count = queue.drainTo(drainBatch, from);
+            for (int i = from; i < from + count; i++) {
+                inflight.add(drainBatch[i]);
+                drainBatch[i] = null;
+            }
+        }
+        return !inflight.isEmpty();
+    }
+
+    /**
+     * Retire de la file les trames entièrement écrites et les rend au pool.
+     */
+    private void consume(int written) {
+        metrics.socketWrites.increment();
+        metrics.bytesOut.add(written);
+        while (written > 0) {
+            OutboundFrame head = inflight.peek();
+            int left = head.length() - headOffset;
+            if (written < left) {
+                headOffset += written;
+                return;
+            }
+            written -= left;
+            headOffset = 0;
+            inflight.poll().release();
+            metrics.messagesOut.increment();
+        }
+    }
+
+    private void releasePending() {
+        queue.close();
+        OutboundFrame frame;
+        while ((frame = inflight.poll()) != null) {
+            frame.release();
+        }
+        headOffset = 0;
+    }
+
+    /**
+     * Lit ce qui est disponible et confie les objets complets au traitement.
+     */
+    void onReadable() {
+        try {
+            int count = channel.read(readBuffer);
+            if (count < 0) {
+                endOfInput(END_OF_STREAM);
+                return;
+            }
+            metrics.bytesIn.add(count);
+            readBuffer.flip();
+            if (decoder == null && !negotiate()) {
+                readBuffer.compact(); // poignée de main incomplète
+                return;
+            }
+            List<Object> objects = decoder.decode(readBuffer);
+            readBuffer.clear();
+            if (!objects.isEmpty()) {
+                incoming.addAll(objects);
+                if (pendingIn.addAndGet(objects.size()) >= MAX_PENDING_IN) {
+                    updateReadInterest();
+                }
+                schedule();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            endOfInput(new ReadFailure(e));
+        }
+    }
+
+    /**
+     * Plus rien à lire : la fin sera signalée au ClientHandler après les
+     * objets déjà reçus.
+     */
+    private void endOfInput(Object end) {
+        readEnded = true;
+        updateReadInterest();
+        incoming.add(end);
+        pendingIn.incrementAndGet();
+        schedule();
+    }
+
+    /**
+     * Lecture voulue tant que le flux est ouvert, sans pause et sans trop
+     * d'objets en attente. Appelé uniquement sur le thread du Reactor.
+     */
+    private void updateReadInterest() {
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        boolean read = !readEnded && !readPaused && pendingIn.get() < MAX_PENDING_IN;
+        int ops = key.interestOps();
+        key.interestOps(read ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ);
+    }
+
+    private void schedule() {
+        if (!readPaused && working.compareAndSet(false, true)) {
+            workers.execute(this::work);
+        }
+    }
+
+    /**
+     * Traite dans l'ordre ce qui a été reçu, jusqu'à une pause ou une déconnexion.
+     */
+    private void work() {
+        try {
+            while (!readPaused && handler.isConnected()) {
+                if (delayed != null) {
+                    Message message = delayed;
+                    delayed = null;
+                    handler.handleAdmitted(message);
+                    continue;
+                }
+                Object obj = incoming.poll();
+                if (obj == null) {
+                    break;
+                }
+                // À mi-chemin en redescendant : la boucle relit si elle s'était arrêtée
+                if (pendingIn.decrementAndGet() == MAX_PENDING_IN / 2) {
+                    reactor.execute(this::updateReadInterest);
+                }
+                dispatching = obj;
+                try {
+                    dispatch(obj);
+                } finally {
+                    dispatching = null;
+                }
+            }
+        } finally {
+            working.set(false);
+        }
+        // Arrivés pendant la sortie : personne d'autre ne les traiterait
+        if (handler.isConnected() && (delayed != null || !incoming.isEmpty())) {
+            schedule();
+        }
+    }
+
+    private void dispatch(Object obj) {
+        if (obj == END_OF_STREAM) {
+            handler.connectionClosed(this);
+        } else if (obj instanceof ReadFailure) {
+            handler.connectionFailed(this, ((ReadFailure) obj).cause);
+        } else if (!loggedIn) {
+            loggedIn = true;
+            handler.handleLogin(obj);
+        } else {
+            handler.handleIncoming(obj);
+        }
+    }
+
+    /**
+     * Retient le message en cours et cesse de lire jusqu'à la fin de la
+     * pause, rétablie par une minuterie du Reactor ; le message est alors
+     * traité sans repasser l'admission.
+     */
+    @Override
+    public boolean pauseReading(long nanos) {
+        if (!(dispatching instanceof Message)) {
+            return true; // hors du traitement d'un message : rien à retenir
+        }
+        delayed = (Message) dispatching;
+        readResumesAt = System.nanoTime() + nanos;
+        readPaused = true;
+        reactor.execute(() -> {
+            updateReadInterest();
+            reactor.schedule(nanos, this::resumeReading);
+        });
+        return false;
+    }
+
+    private void resumeReading() {
+        long remaining = readResumesAt - System.nanoTime();
+        if (remaining > 0) {
+            reactor.schedule(remaining, this::resumeReading);
+            return;
+        }
+        readPaused = false;
+        updateReadInterest();
+        schedule();
+    }
+
+    /**
+     * Reconnaît le format aux premiers octets et répond à la poignée de main.
+     * @return false s'il faut attendre davantage d'octets
+     */
+    private boolean negotiate() throws IOException {
+        if (readBuffer.remaining() < 2) {
+            return false;
+        }
+        WireFormat detected = WireFormat.detect(readBuffer.get(0), readBuffer.get(1));
+        if (detected == null) {
+            throw new StreamCorruptedException("Protocole inconnu");
+        }
+
+        if (detected == WireFormat.BINARY) {
+            if (readBuffer.remaining() < MessageCodec.HANDSHAKE_LENGTH) {
+                return false;
+            }
+            byte[] handshake = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            readBuffer.get(handshake);
+            byte version = (byte) Math.min(MessageCodec.checkHandshake(handshake, 0), MessageCodec.VERSION);
+            enqueue(MessageCodec.handshake(version));
+        } else {
+            // L'en-tête reste dans readBuffer : ObjectStreamDecoder en a besoin
+            enqueue(WireFormat.SERIALIZED_HEADER);
+        }
+        decoder = detected.newDecoder();
+        format = detected;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        queue.close();
+        reactor.execute(this::releasePending);
+    }
+
+    /**
+     * Erreur de lecture, transmise au ClientHandler à son tour.
+     */
+    private static final class ReadFailure {
+        final Exception cause;
+
+        ReadFailure(Exception cause) {
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport NIO multi-boucles : un thread d'acceptation répartit les
+ * connexions à tour de rôle sur un petit groupe de Reactor. Les messages
+ * reçus sont traités par un groupe de threads commun, dans l'ordre de
+ * chaque connexion.
+ */
+class NioTransport {
+    private final ChatServer server;
+    private final Reactor[] reactors;
+    private final ExecutorService workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private int nextReactor;
+
+    NioTransport(ChatServer server, int reactorCount) throws IOException {
+        this.server = server;
+        this.reactors = new Reactor[reactorCount];
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(server.getConfig().getNioWorkers(), task -> {
+            Thread thread = new Thread(task, "nio-worker-" + workerCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(server, workers);
+        }
+    }
+
+    /**
+     * Ouvre le port d'écoute ; la ServerSocket retournée sert à l'affichage de l'état.
+     */
+    ServerSocket bind(int port) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        return serverChannel.socket();
+    }
+
+    void start() {
+        running = true;
+        for (int i = 0; i < reactors.length; i++) {
+            Thread reactorThread = new Thread(reactors[i], "nio-reactor-" + i);
+            reactorThread.setDaemon(true);
+            reactorThread.start();
+        }
+
+        Thread acceptThread = new Thread(() -> {
+            System.out.println("[INFO] En attente de connexions TCP (NIO)...");
+            acceptConnections();
+        }, "nio-acceptor");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                ServerLog.info(ServerLog.Category.CONNECTION, "[CONNEXION] Nouvelle connexion TCP depuis: {}",
+                    channel.socket().getInetAddress().getHostAddress());
+
+                reactors[nextReactor].register(channel);
+                nextReactor = (nextReactor + 1) % reactors.length;
+
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Erreur d'acceptation de connexion: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    void close() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Erreur fermeture TCP: " + e.getMessage());
+        }
+        for (Reactor reactor : reactors) {
+            reactor.shutdown();
+        }
+        workers.shutdownNow();
+    }
+}
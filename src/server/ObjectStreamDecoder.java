@@ -0,0 +1,98 @@
+package server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Décode un flux de sérialisation Java reçu par morceaux sur un canal non bloquant.
+ *
+ * Les objets ne sont pas délimités dans le flux : on accumule les octets et on
+ * relit depuis le dernier TC_RESET (après lequel aucun objet antérieur ne peut
+ * être référencé) jusqu'à tomber sur un objet incomplet. Les clients appelant
+ * reset() après chaque message, la partie rejouée se limite à un ou deux objets.
+ *
+ * Un objet tronqué ne se manifeste pas toujours par une EOFException (une coupure
+ * au milieu d'un bloc de données donne une StreamCorruptedException) : on regarde
+ * donc si la lecture a atteint la fin du tampon pour distinguer les deux cas.
+ */
+class ObjectStreamDecoder extends FrameDecoder {
+    private static final int HEADER_LENGTH = 4;
+
+    private int alreadyDecoded; // objets du tampon déjà rendus à l'appelant
+
+    @Override
+    List<Object> decode(ByteBuffer input) throws IOException, ClassNotFoundException {
+        append(input);
+        if (length < HEADER_LENGTH) {
+            return List.of();
+        }
+
+        ReplayInput bytes = new ReplayInput(buffer, length);
+        ObjectInputStream in = new ObjectInputStream(bytes);
+        List<Object> objects = new ArrayList<>();
+        int index = 0;
+        int resetPosition = -1;
+        int decodedAtReset = 0;
+
+        while (true) {
+            Object obj;
+            try {
+                obj = in.readObject();
+            } catch (IOException e) {
+                if (bytes.exhausted) {
+                    break; // objet incomplet : on attend la suite
+                }
+                throw e;
+            }
+            index++;
+            if (index > alreadyDecoded) {
+                objects.add(obj);
+            }
+            int position = length - bytes.available();
+            if (position < length && buffer[position] == ObjectStreamConstants.TC_RESET) {
+                resetPosition = position;
+                decodedAtReset = index;
+            }
+        }
+        alreadyDecoded = Math.max(alreadyDecoded, index);
+
+        if (resetPosition > 0) {
+            // On garde l'en-tête du flux suivi de tout ce qui commence au TC_RESET
+            System.arraycopy(buffer, resetPosition, buffer, HEADER_LENGTH, length - resetPosition);
+            length = HEADER_LENGTH + length - resetPosition;
+            alreadyDecoded -= decodedAtReset;
+        }
+        return objects;
+    }
+
+    /**
+     * Flux de relecture qui retient s'il a été lu jusqu'au bout.
+     */
+    private static class ReplayInput extends ByteArrayInputStream {
+        private boolean exhausted;
+
+        ReplayInput(byte[] buffer, int length) {
+            super(buffer, 0, length);
+        }
+
+        @Override
+        public synchronized int read() {
+            int value = super.read();
+            if (value < 0) {
+                exhausted = true;
+            }
+            return value;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            int count = super.read(b, off, len);
+            if (count < len) {
+                exhausted = true;
+            }
+            return count;
+        }
+    }
+}
\ No newline at end of file
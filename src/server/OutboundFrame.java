@@ -0,0 +1,75 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import common.Message;
+
+/**
+ * Trame encodée une seule fois et partagée entre tous ses destinataires.
+ * Les octets sont immuables ; chaque connexion qui reçoit la trame en détient
+ * une référence et la rend avec release() une fois la trame écrite ou
+ * abandonnée. Le tableau retourne au FramePool quand la dernière référence
+ * est rendue.
+ *
+ * Une trame critique (tout sauf un message de chat) n'est jamais sacrifiée
+ * par la politique DROP_NON_CRITICAL, et passe par la voie de contrôle de
+ * la file de sortie, devant le texte.
+ */
+final class OutboundFrame {
+    private final byte[] bytes;
+    private final int length;
+    private final boolean critical;
+    private boolean textLane;
+    private final AtomicInteger references;
+
+    OutboundFrame(byte[] bytes, int length, boolean critical) {
+        this.bytes = bytes;
+        this.length = length;
+        this.critical = critical;
+        this.textLane = !critical;
+        this.references = new AtomicInteger(1);
+    }
+
+    static boolean isCritical(Message message) {
+        return message.getType() != Message.MessageType.TEXT;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    int length() {
+        return length;
+    }
+
+    boolean isCritical() {
+        return critical;
+    }
+
+    boolean inTextLane() {
+        return textLane;
+    }
+
+    /**
+     * Fait passer une trame système par la voie du texte, pour qu'elle arrive
+     * après les messages de chat déjà en file (fin d'historique). Seulement
+     * sur une trame neuve, pas encore partagée.
+     */
+    OutboundFrame behindText() {
+        textLane = true;
+        return this;
+    }
+
+    OutboundFrame retain() {
+        references.incrementAndGet();
+        return this;
+    }
+
+    void release() {
+        int remaining = references.decrementAndGet();
+        if (remaining == 0) {
+            FramePool.release(bytes);
+        } else if (remaining < 0) {
+            throw new IllegalStateException("Trame liberee deux fois");
+        }
+    }
+}
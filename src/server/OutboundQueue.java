@@ -0,0 +1,307 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import common.LatencyHistogram;
+
+/**
+ * File de sortie bornée d'une connexion, alimentée par les diffusions et vidée
+ * par un unique écrivain (thread dédié ou Reactor).
+ *
+ * offer() ne fait jamais d'entrée/sortie : un client lent ne bloque donc plus
+ * l'émetteur. Quand la file est pleine, la politique ServerConfig.SlowConsumerPolicy décide
+ * quoi sacrifier. Tableaux circulaires sous un verrou court, sans allocation.
+ *
+ * Deux voies, chacune bornée : les trames de contrôle (tout sauf un message
+ * de chat : erreurs, PING, liste, annonces) passent devant le texte, si bien
+ * qu'une réponse à /list ou un PING n'attend pas derrière des milliers de
+ * lignes. Pour que le texte ne soit pas affamé, après --control-burst trames
+ * de contrôle d'affilée, une trame de texte plus ancienne passe. Le temps
+ * passé dans chaque voie est mesuré à la sortie.
+ *
+ * Pour une session reprenable, chaque trame qui sort de la file pour être
+ * écrite est numérotée dans son ResumeBuffer, sous le même verrou : l'ordre
+ * des numéros est celui du flux, même face à une fermeture concurrente.
+ */
+final class OutboundQueue {
+
+    enum Result {
+        ACCEPTED,
+        DROPPED,
+        OVERFLOW  // le client ne suit plus : il faut le déconnecter
+    }
+
+    /**
+     * Une voie : tableau circulaire des trames et de leur heure d'arrivée.
+     */
+    private static final class Lane {
+        final OutboundFrame[] ring;
+        final long[] enqueuedAt;
+        final LatencyHistogram wait;
+        int head;
+        int size;
+        long fullSince;  // 0 tant que la voie n'a pas débordé
+        int unrecorded;  // trames en tête arrivées avant la numérotation
+
+        Lane(int capacity, LatencyHistogram wait) {
+            this.ring = new OutboundFrame[capacity];
+            this.enqueuedAt = new long[capacity];
+            this.wait = wait;
+        }
+
+        void push(OutboundFrame frame, long now) {
+            int index = (head + size) % ring.length;
+            ring[index] = frame;
+            enqueuedAt[index] = now;
+            size++;
+        }
+
+        long headTime() {
+            return enqueuedAt[head];
+        }
+
+        OutboundFrame poll() {
+            if (unrecorded > 0) {
+                unrecorded--;
+            }
+            OutboundFrame frame = ring[head];
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+            fullSince = 0;
+            return frame;
+        }
+    }
+
+    private final Lane control;
+    private final Lane text;
+    private final ServerConfig.SlowConsumerPolicy policy;
+    private final long slowConsumerTimeoutNanos;
+    private final int controlBurst;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private int controlStreak; // trames de contrôle sorties d'affilée alors que du texte attendait
+    private volatile long dropped;
+    private boolean closed;
+    private ResumeBuffer recorder; // null sauf pour une session reprenable
+
+    OutboundQueue(ServerConfig config, ServerMetrics metrics) {
+        this.control = new Lane(config.getControlCapacity(), metrics.controlLaneWait);
+        this.text = new Lane(config.getOutboundCapacity(), metrics.textLaneWait);
+        this.policy = config.getSlowConsumerPolicy();
+        this.slowConsumerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getSlowConsumerTimeoutMillis());
+        this.controlBurst = config.getControlBurst();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+    }
+
+    /**
+     * Met une trame en file. La file prend possession de la référence : une trame
+     * refusée est rendue immédiatement.
+     */
+    Result offer(OutboundFrame frame) {
+        lock.lock();
+        try {
+            return offerLocked(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Numérote à partir de first (le message SESSION, numéro buffer.written() + 1)
+     * chaque trame retirée pour être écrite ; celles déjà en file, comme la
+     * réponse à la poignée de main, restent hors numérotation et sortent
+     * avant elle, dans leur ordre d'arrivée.
+     */
+    Result startRecording(ResumeBuffer buffer, OutboundFrame first) {
+        lock.lock();
+        try {
+            recorder = buffer;
+            control.unrecorded = control.size;
+            text.unrecorded = text.size;
+            return offerLocked(first);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Result offerLocked(OutboundFrame frame) {
+        if (closed) {
+            frame.release();
+            return Result.DROPPED;
+        }
+        Lane lane = frame.inTextLane() ? text : control;
+        if (lane.size < lane.ring.length) {
+            push(lane, frame);
+            return Result.ACCEPTED;
+        }
+        return offerWhenFull(lane, frame);
+    }
+
+    private Result offerWhenFull(Lane lane, OutboundFrame frame) {
+        dropped++;
+        switch (policy) {
+            case DROP_OLDEST:
+                lane.poll().release();
+                push(lane, frame);
+                return Result.ACCEPTED;
+
+            case DROP_NON_CRITICAL:
+                // Voie de contrôle pleine : plus rien à sacrifier, la file n'est faite que de messages système
+                frame.release();
+                return frame.isCritical() && lane == control ? Result.OVERFLOW : Result.DROPPED;
+
+            default:
+                long now = System.nanoTime();
+                if (lane.fullSince == 0) {
+                    lane.fullSince = now;
+                }
+                frame.release();
+                return now - lane.fullSince >= slowConsumerTimeoutNanos ? Result.OVERFLOW : Result.DROPPED;
+        }
+    }
+
+    /**
+     * Attend une trame ; retourne null une fois la file fermée.
+     */
+    OutboundFrame take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (control.size + text.size == 0 && !closed) {
+                notEmpty.await();
+            }
+            return closed ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Attend une trame au plus nanos ; null à l'échéance ou une fois la file fermée.
+     */
+    OutboundFrame poll(long nanos) throws InterruptedException {
+        lock.lock();
+        try {
+            while (control.size + text.size == 0 && !closed) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return closed ? null : next();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retire sans attendre jusqu'à batch.length - offset trames.
+     * @return le nombre de trames copiées dans batch à partir de offset
+     */
+    int drainTo(OutboundFrame[] batch, int offset) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (control.size + text.size > 0 && offset + count < batch.length) {
+                batch[offset + count++] = next();
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return control.size + text.size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Profondeur de chaque voie face à sa propre capacité, pour la console.
+     */
+    String describeLanes() {
+        lock.lock();
+        try {
+            return "controle " + control.size + "/" + control.ring.length
+                + ", texte " + text.size + "/" + text.ring.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Capacité de la voie du texte, celle qui déborde d'ordinaire.
+     */
+    int capacity() {
+        return text.ring.length;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Ferme la file, rend les trames en attente et réveille l'écrivain. Pour
+     * une session reprenable, elles sont d'abord numérotées : jamais écrites,
+     * elles seront renvoyées à la reprise.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (control.size + text.size > 0) {
+                next().release();
+            }
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Appelé sous le verrou
+    private void push(Lane lane, OutboundFrame frame) {
+        lane.push(frame, System.nanoTime());
+        notEmpty.signal();
+    }
+
+    // Trame suivante, sortie pour être écrite
+    private OutboundFrame next() {
+        Lane lane = pick();
+        boolean numbered = lane.unrecorded == 0;
+        lane.wait.recordNanos(System.nanoTime() - lane.headTime());
+        OutboundFrame frame = lane.poll();
+        if (numbered && recorder != null) {
+            recorder.record(frame);
+        }
+        return frame;
+    }
+
+    private Lane pick() {
+        if (text.size == 0) {
+            return control;
+        }
+        if (control.size == 0) {
+            controlStreak = 0;
+            return text;
+        }
+        // Trames d'avant la numérotation : dans leur ordre d'arrivée, avant le message SESSION
+        if (control.unrecorded > 0 || text.unrecorded > 0) {
+            boolean textFirst = control.unrecorded == 0
+                || text.unrecorded > 0 && text.headTime() < control.headTime();
+            return textFirst ? text : control;
+        }
+        // Garde contre la famine : le texte plus ancien passe de temps en temps
+        if (controlStreak >= controlBurst && text.headTime() < control.headTime()) {
+            controlStreak = 0;
+            return text;
+        }
+        controlStreak++;
+        return control;
+    }
+}
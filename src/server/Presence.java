@@ -0,0 +1,484 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+import common.Constants;
+import common.Message;
+import common.PresenceUpdate;
+
+/**
+ * Liste des connectés versionnée.
+ *
+ * Chaque arrivée ou départ incrémente la version. Un client qui gère la
+ * présence reçoit un instantané complet à la connexion, puis seulement les
+ * deltas ; s'il constate un trou dans les versions, il demande à se
+ * resynchroniser à partir de la dernière version connue (/presence v). Les
+ * autres clients gardent l'ancien comportement : liste texte à la connexion,
+ * messages CONNECT/DISCONNECT ensuite.
+ *
+ * Pendant une vague de connexions (plus de presence-burst événements dans une
+ * fenêtre de presence-window-ms), les événements suivants sont regroupés et
+ * annoncés en fin de fenêtre : un delta par sens pour les clients qui gèrent
+ * la présence, un seul message de résumé pour les autres. Un client qui part
+ * et revient dans la même fenêtre n'est pas annoncé du tout.
+ *
+ * Dans une grappe, la liste comprend aussi les clients des autres nœuds,
+ * annoncés par ClusterBridge ; chaque nœud tient ses propres versions.
+ *
+ * Le verrou ne couvre que la liste, la version et le journal des deltas ;
+ * les envois correspondants sont mis en file sous ce verrou, donc dans
+ * l'ordre des versions, et faits par un seul thread d'envoi. Une diffusion
+ * ne retient ainsi ni les arrivées et départs suivants, ni (ReentrantLock
+ * plutôt qu'un moniteur) les threads virtuels qui les annoncent.
+ */
+final class Presence {
+    // Deltas gardés pour resynchroniser un client sans lui renvoyer toute la liste
+    private static final int DELTA_LOG = 1024;
+    private static final Runnable STOP = () -> { };
+
+    private final ChatServer server;
+    private final long windowNanos;
+    private final int burst;
+    private final int summaryNames;
+    private final TreeMap<String, ClientHandler> roster;
+    private final ConcurrentHashMap<String, String> remote; // client d'un autre nœud -> nom du nœud, lu sans verrou
+    private final ArrayDeque<String> deltas; // contenus des derniers deltas, versions consécutives
+    private final LinkedHashMap<String, Boolean> pending; // nom -> arrivée (true) ou départ
+    private final ReentrantLock lock;
+    private final LinkedBlockingQueue<Runnable> outbox; // envois, dans l'ordre des versions
+    private long version;
+    private String snapshot; // instantané de la version courante, construit à la demande
+    private long windowStart;
+    private int windowEvents;
+    private ScheduledExecutorService flusher;
+    private boolean flushScheduled;
+
+    Presence(ChatServer server) {
+        this.server = server;
+        ServerConfig config = server.getConfig();
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(config.getPresenceWindowMillis());
+        this.burst = config.getPresenceBurst();
+        this.summaryNames = config.getPresenceNames();
+        this.roster = new TreeMap<>();
+        this.remote = new ConcurrentHashMap<>();
+        this.deltas = new ArrayDeque<>();
+        this.pending = new LinkedHashMap<>();
+        this.lock = new ReentrantLock();
+        this.outbox = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * Lance le thread d'envoi, virtuel en mode VIRTUAL.
+     */
+    void start() {
+        server.startThread("presence-sender", true, this::sendLoop);
+    }
+
+    private void sendLoop() {
+        try {
+            while (true) {
+                Runnable send = outbox.take();
+                if (send == STOP) {
+                    return;
+                }
+                try {
+                    send.run();
+                } catch (RuntimeException e) {
+                    ServerLog.error(ServerLog.Category.CONNECTION, "[ERREUR] Envoi de presence: {}", e.toString());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Arrêt du serveur
+        }
+    }
+
+    /**
+     * Annonce un client qui vient de s'identifier et lui envoie la liste.
+     */
+    void join(ClientHandler client) {
+        String name = client.getUsername();
+        lock.lock();
+        try {
+            if (remote.containsKey(name)) {
+                return; // nom cédé à un autre nœud depuis sa réservation, déconnexion en cours
+            }
+            roster.put(name, client);
+            snapshot = null;
+            announce(name, true);
+            client.setPresenceVersion(version); // son arrivée comprise, s'il n'y a pas de vague
+            sendRoster(client);
+            ClusterBridge cluster = server.getCluster();
+            if (cluster != null) {
+                outbox.add(() -> cluster.publishJoin(name));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Annonce le départ d'un client, s'il figurait dans la liste.
+     */
+    void leave(ClientHandler client) {
+        String name = client.getUsername();
+        if (name == null) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (!roster.remove(name, client)) {
+                return;
+            }
+            snapshot = null;
+            announce(name, false);
+            ClusterBridge cluster = server.getCluster();
+            if (cluster != null) {
+                outbox.add(() -> cluster.publishLeave(name));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Réserve le nom d'un client local s'il n'est pas pris sur un autre nœud.
+     * @param bind réservation locale, faite sous le verrou
+     */
+    boolean reserve(String name, BooleanSupplier bind) {
+        lock.lock();
+        try {
+            return !remote.containsKey(name) && bind.getAsBoolean();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Arrivée d'un client sur un autre nœud. Un nom pris sur deux nœuds à la
+     * fois (connexions simultanées, lien rétabli) revient au nœud au plus
+     * petit nom : chaque nœud en décide de même, et le client local qui perd
+     * son nom est déconnecté.
+     * @return false si le nom reste à un autre client
+     */
+    boolean joinRemote(String name, String nodeId) {
+        lock.lock();
+        try {
+            String holder = remote.get(name);
+            if (holder != null) {
+                if (nodeId.compareTo(holder) > 0) {
+                    ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Nom {} deja pris sur un autre noeud, annonce de {} ignoree",
+                        name, nodeId);
+                    return false;
+                }
+                remote.put(name, nodeId); // le nom reste dans la liste, seul son nœud change
+                return true;
+            }
+            ClientHandler local = server.findClient(name);
+            if (local != null) {
+                if (server.getConfig().getNodeId().compareTo(nodeId) < 0) {
+                    ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Nom {} deja pris ici, annonce de {} ignoree",
+                        name, nodeId);
+                    return false;
+                }
+                evict(local, name, nodeId);
+            }
+            remote.put(name, nodeId);
+            snapshot = null;
+            announce(name, true);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retire un client local dont le nom revient à un autre nœud, puis le
+     * déconnecte depuis le thread d'envoi. Sous le verrou.
+     */
+    private void evict(ClientHandler client, String name, String nodeId) {
+        ServerLog.warn(ServerLog.Category.CLUSTER, "[GRAPPE] Nom {} pris aussi sur {}, client local deconnecte",
+            name, nodeId);
+        if (roster.remove(name, client)) {
+            snapshot = null;
+            announce(name, false);
+            ClusterBridge cluster = server.getCluster();
+            outbox.add(() -> cluster.publishLeave(name));
+        }
+        // À sa reconnexion, le client reçoit un nom libre comme à toute arrivée
+        outbox.add(client::disconnect);
+    }
+
+    void leaveRemote(String name, String nodeId) {
+        lock.lock();
+        try {
+            if (remote.remove(name, nodeId)) {
+                snapshot = null;
+                announce(name, false);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Nouveau lien vers un nœud : il reçoit nos connectés, puis chaque
+     * arrivée et départ suivant, sans trou ni doublon.
+     */
+    void attachPeer(ClusterBridge.Peer peer) {
+        lock.lock();
+        try {
+            List<String> names = new ArrayList<>(roster.keySet());
+            outbox.add(() -> peer.activate(names));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Lien coupé : ses clients quittent la liste (annonce groupée si nombreux).
+     */
+    void detachPeer(String nodeId, Collection<String> names) {
+        lock.lock();
+        try {
+            for (String name : names) {
+                leaveRemote(name, nodeId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Nœud d'un client distant, null s'il n'est pas connu dans la grappe.
+     */
+    String nodeOf(String name) {
+        return remote.get(name);
+    }
+
+    /**
+     * Clients locaux et distants, triés par nom.
+     */
+    List<String> names() {
+        lock.lock();
+        try {
+            return new ArrayList<>(allNames());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Collection<String> allNames() {
+        if (remote.isEmpty()) {
+            return roster.keySet();
+        }
+        TreeSet<String> names = new TreeSet<>(roster.keySet());
+        names.addAll(remote.keySet());
+        return names;
+    }
+
+    /**
+     * Annonce immédiate si le trafic est calme, sinon mise en attente jusqu'à
+     * la fin de la fenêtre. Sous le verrou.
+     */
+    private void announce(String name, boolean joined) {
+        long now = System.nanoTime();
+        if (now - windowStart >= windowNanos) {
+            windowStart = now;
+            windowEvents = 0;
+        }
+        windowEvents++;
+
+        if (windowNanos == 0 || (pending.isEmpty() && windowEvents <= burst)) {
+            PresenceUpdate.Kind kind = joined ? PresenceUpdate.Kind.JOIN : PresenceUpdate.Kind.LEAVE;
+            String delta = record(PresenceUpdate.format(kind, version + 1, name));
+            long deltaVersion = version;
+            outbox.add(() -> server.broadcastPresence(
+                new Message(Constants.SYSTEM_SENDER, delta, Message.MessageType.PRESENCE),
+                new Message(Constants.SYSTEM_SENDER,
+                    name + (joined ? Constants.CONNECT_MESSAGE : Constants.DISCONNECT_MESSAGE),
+                    joined ? Message.MessageType.CONNECT : Message.MessageType.DISCONNECT),
+                deltaVersion));
+            return;
+        }
+
+        // Un départ suivi d'un retour (ou l'inverse) ne change rien pour les autres
+        Boolean previous = pending.remove(name);
+        if (previous == null || previous == joined) {
+            pending.put(name, joined);
+        }
+        if (!flushScheduled) {
+            flushScheduled = true;
+            long delay = Math.max(0, windowStart + windowNanos - now);
+            scheduler().schedule(this::flush, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private ScheduledExecutorService scheduler() {
+        if (flusher == null) {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "presence-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return flusher;
+    }
+
+    /**
+     * Fin de fenêtre : annonce groupée des arrivées et départs en attente.
+     */
+    private void flush() {
+        lock.lock();
+        try {
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<String> joined = new ArrayList<>();
+            List<String> left = new ArrayList<>();
+            for (Map.Entry<String, Boolean> entry : pending.entrySet()) {
+                (entry.getValue() ? joined : left).add(entry.getKey());
+            }
+            pending.clear();
+
+            // Un seul résumé pour les anciens clients, avec le premier delta
+            String joinDelta = joined.isEmpty() ? null
+                : record(PresenceUpdate.format(PresenceUpdate.Kind.JOIN, version + 1, joined));
+            long joinVersion = version;
+            String leaveDelta = left.isEmpty() ? null
+                : record(PresenceUpdate.format(PresenceUpdate.Kind.LEAVE, version + 1, left));
+            long leaveVersion = version;
+            outbox.add(() -> {
+                Message summary = new Message(Constants.SYSTEM_SENDER, summarize(joined, left), Message.MessageType.INFO);
+                if (joinDelta != null) {
+                    server.broadcastPresence(new Message(Constants.SYSTEM_SENDER, joinDelta, Message.MessageType.PRESENCE),
+                        summary, joinVersion);
+                    summary = null;
+                }
+                if (leaveDelta != null) {
+                    server.broadcastPresence(new Message(Constants.SYSTEM_SENDER, leaveDelta, Message.MessageType.PRESENCE),
+                        summary, leaveVersion);
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * "🔁 +312 connecté(e)s, -40 déconnecté(e)s" suivi d'au plus summaryNames noms.
+     */
+    private String summarize(List<String> joined, List<String> left) {
+        StringBuilder text = new StringBuilder("🔁 ");
+        if (!joined.isEmpty()) {
+            text.append('+').append(joined.size()).append(" connecté(e)s");
+        }
+        if (!left.isEmpty()) {
+            text.append(joined.isEmpty() ? "" : ", ").append('-').append(left.size()).append(" déconnecté(e)s");
+        }
+        appendNames(text, "\n  + ", joined);
+        appendNames(text, "\n  - ", left);
+        return text.toString();
+    }
+
+    private void appendNames(StringBuilder text, String prefix, List<String> names) {
+        if (summaryNames == 0 || names.isEmpty()) {
+            return;
+        }
+        text.append(prefix);
+        int shown = Math.min(names.size(), summaryNames);
+        text.append(String.join(", ", names.subList(0, shown)));
+        if (names.size() > shown) {
+            text.append(" (et ").append(names.size() - shown).append(" autres)");
+        }
+    }
+
+    /**
+     * Renvoie à un client ce qui lui manque depuis knownVersion : les deltas
+     * s'ils sont encore en mémoire, sinon un instantané.
+     */
+    void resync(ClientHandler client, long knownVersion) {
+        lock.lock();
+        try {
+            long oldest = version - deltas.size();
+            if (knownVersion < oldest || knownVersion > version) {
+                sendSnapshot(client);
+                return;
+            }
+            // Les deltas manquants sont les (version - knownVersion) derniers
+            List<String> missing = new ArrayList<>();
+            long skip = deltas.size() - (version - knownVersion);
+            for (String delta : deltas) {
+                if (skip-- <= 0) {
+                    missing.add(delta);
+                }
+            }
+            outbox.add(() -> {
+                for (String delta : missing) {
+                    client.sendMessage(new Message(Constants.SYSTEM_SENDER, delta, Message.MessageType.PRESENCE));
+                }
+            });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Liste envoyée à la connexion : instantané versionné, ou texte pour les
+     * clients qui ne gèrent pas la présence.
+     */
+    private void sendRoster(ClientHandler client) {
+        if (client.supportsPresence()) {
+            sendSnapshot(client);
+        } else {
+            outbox.add(client::sendUserList);
+        }
+    }
+
+    /**
+     * L'instantané reflète la liste réelle, y compris les événements encore en
+     * attente : les deltas qui les annonceront ensuite sont sans effet.
+     */
+    private void sendSnapshot(ClientHandler client) {
+        if (snapshot == null) {
+            snapshot = PresenceUpdate.format(PresenceUpdate.Kind.SNAPSHOT, version, allNames());
+        }
+        String content = snapshot;
+        outbox.add(() -> client.sendMessage(new Message(Constants.SYSTEM_SENDER, content, Message.MessageType.PRESENCE)));
+    }
+
+    private String record(String delta) {
+        version++;
+        snapshot = null;
+        deltas.addLast(delta);
+        if (deltas.size() > DELTA_LOG) {
+            deltas.removeFirst();
+        }
+        return delta;
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            if (flusher != null) {
+                flusher.shutdownNow();
+            }
+            outbox.add(STOP);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Boucle d'événements NIO : un Selector et un thread qui servent toutes
+ * les connexions qui lui ont été attribuées par NioTransport.
+ * Les autres threads n'agissent sur ces connexions qu'au travers de execute().
+ */
+class Reactor implements Runnable {
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final ByteBuffer writeBuffer;
+    private final Queue<Runnable> tasks;
+    private final PriorityQueue<Timer> timers; // thread de la boucle seulement
+    private final AtomicBoolean wakeupPending;
+    private final ChatServer server;
+    private final Executor workers; // traitement des messages reçus, hors de la boucle
+    private volatile boolean running;
+
+    Reactor(ChatServer server, Executor workers) throws IOException {
+        this.selector = Selector.open();
+        this.writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.timers = new PriorityQueue<>(Comparator.comparingLong((Timer timer) -> timer.deadline));
+        this.wakeupPending = new AtomicBoolean();
+        this.server = server;
+        this.workers = workers;
+        this.running = true;
+    }
+
+    /**
+     * Planifie une tâche sur le thread de la boucle et réveille le Selector si besoin.
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        if (wakeupPending.compareAndSet(false, true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Lance task sur le thread de la boucle dans delayNanos. À appeler
+     * depuis ce thread.
+     */
+    void schedule(long delayNanos, Runnable task) {
+        timers.add(new Timer(System.nanoTime() + delayNanos, task));
+    }
+
+    /**
+     * Confie un canal fraîchement accepté à cette boucle.
+     */
+    void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true); // seul recours pour les clients sans PING
+
+                NioConnection connection = new NioConnection(channel, this, workers,
+                    new OutboundQueue(server.getConfig(), server.getMetrics()), server.getMetrics());
+                ClientHandler handler = new ClientHandler(connection, channel.socket(), server);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+                connection.attach(key, handler);
+                server.addClient(handler);
+            } catch (IOException e) {
+                ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Enregistrement NIO impossible: {}", e.getMessage());
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // Ignorer les erreurs de fermeture
+                }
+            }
+        });
+    }
+
+    /**
+     * Tampon d'écriture partagé par toutes les connexions de la boucle
+     * (une seule l'utilise à la fois puisque tout se passe sur ce thread).
+     */
+    ByteBuffer writeBuffer() {
+        return writeBuffer;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                long timeout = nextTimeoutMillis();
+                if (timeout > 0) {
+                    selector.select(timeout);
+                } else {
+                    selector.select();
+                }
+                wakeupPending.set(false);
+                runTasks();
+                runTimers();
+
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+                // Les écritures demandées par les lectures de ce tour partent
+                // maintenant, une par connexion, sans attendre un réveil
+                runTasks();
+            } catch (CancelledKeyException e) {
+                // Connexion fermée par un autre thread pendant le traitement
+            } catch (IOException e) {
+                if (running) {
+                    ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Boucle NIO: {}", e.getMessage());
+                }
+            }
+        }
+        closeSelector();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Tache NIO: {}", e);
+            }
+        }
+    }
+
+    /**
+     * Attente maximale avant la prochaine minuterie, 0 s'il n'y en a pas.
+     */
+    private long nextTimeoutMillis() {
+        Timer next = timers.peek();
+        if (next == null) {
+            return 0;
+        }
+        long remaining = next.deadline - System.nanoTime();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + TimeUnit.MILLISECONDS.toNanos(1) - 1));
+    }
+
+    private void runTimers() {
+        long now = System.nanoTime();
+        Timer next;
+        while ((next = timers.peek()) != null && next.deadline - now <= 0) {
+            timers.poll();
+            try {
+                next.task.run();
+            } catch (RuntimeException e) {
+                ServerLog.error(ServerLog.Category.TRANSPORT, "[ERREUR] Minuterie NIO: {}", e);
+            }
+        }
+    }
+
+    private static final class Timer {
+        final long deadline;
+        final Runnable task;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeSelector() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        } catch (IOException e) {
+            // Ignorer les erreurs de fermeture
+        }
+    }
+}
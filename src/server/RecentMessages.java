@@ -0,0 +1,161 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import common.Message;
+
+/**
+ * Derniers messages de chaque salon, gardés en mémoire déjà encodés pour
+ * être envoyés à un client qui arrive : une vague de reconnexions est servie
+ * sans lire le disque ni réencoder.
+ *
+ * Chaque salon a un anneau borné en messages et en octets. La trame binaire
+ * est celle de la diffusion (une référence de plus) ; la trame sérialisée
+ * n'est encodée qu'à la première demande d'un ancien client, puis partagée.
+ * Un anneau suit son salon : il est créé à l'arrivée du premier membre local
+ * et disparaît quand le salon se vide, sauf celui du salon par défaut. Un
+ * message pour un salon sans anneau (relayé par un autre nœud sans membre
+ * ici, ou arrivé juste après le départ du dernier) n'est pas gardé.
+ */
+final class RecentMessages {
+
+    private static final class Entry {
+        final Message message;
+        final OutboundFrame binary;
+        OutboundFrame serialized; // sous le verrou de l'anneau
+
+        Entry(Message message, OutboundFrame binary) {
+            this.message = message;
+            this.binary = binary;
+        }
+
+        /**
+         * Trame pour ce format, avec une référence pour l'appelant.
+         */
+        OutboundFrame frameFor(WireFormat format) {
+            if (format == WireFormat.BINARY) {
+                return binary.retain();
+            }
+            if (serialized == null) {
+                serialized = format.encode(message);
+            }
+            return serialized.retain();
+        }
+
+        void release() {
+            binary.release();
+            if (serialized != null) {
+                serialized.release();
+            }
+        }
+    }
+
+    private static final class Ring {
+        final ArrayDeque<Entry> entries = new ArrayDeque<>();
+        long bytes;
+        boolean dropped; // retiré de la table pendant un ajout
+    }
+
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<>();
+    private final int maxMessages;
+    private final long maxBytes;
+
+    RecentMessages(ServerConfig config) {
+        this.maxMessages = config.getRecentMessages();
+        this.maxBytes = config.getRecentBytes();
+    }
+
+    boolean isEnabled() {
+        return maxMessages > 0;
+    }
+
+    /**
+     * Ouvre l'anneau d'un salon qui vient d'être créé.
+     */
+    void open(String room) {
+        if (maxMessages > 0) {
+            rings.computeIfAbsent(room, key -> new Ring());
+        }
+    }
+
+    /**
+     * Garde un message de chat diffusé dans un salon ouvert ; les plus anciens
+     * sortent au-delà des limites.
+     */
+    void add(EncodedMessage encoded) {
+        Message message = encoded.message();
+        if (maxMessages == 0 || message.getRoom() == null || message.getType() != Message.MessageType.TEXT) {
+            return;
+        }
+        OutboundFrame frame = encoded.frameFor(WireFormat.BINARY);
+        if (frame.length() > maxBytes) {
+            frame.release();
+            return;
+        }
+        Ring ring = rings.get(message.getRoom());
+        if (ring == null) {
+            frame.release();
+            return;
+        }
+        synchronized (ring) {
+            if (ring.dropped) {
+                frame.release();
+                return;
+            }
+            ring.entries.addLast(new Entry(message, frame));
+            ring.bytes += frame.length();
+            while (ring.entries.size() > maxMessages || ring.bytes > maxBytes) {
+                Entry oldest = ring.entries.removeFirst();
+                ring.bytes -= oldest.binary.length();
+                oldest.release();
+            }
+        }
+    }
+
+    /**
+     * Au plus max derniers messages du salon, du plus ancien au plus récent,
+     * chacun prêt pour ce format. L'appelant rend chaque EncodedMessage.
+     */
+    List<EncodedMessage> recent(String room, WireFormat format, int max) {
+        Ring ring = rings.get(room);
+        if (ring == null || max <= 0) {
+            return List.of();
+        }
+        synchronized (ring) {
+            List<EncodedMessage> recent = new ArrayList<>(Math.min(max, ring.entries.size()));
+            int skip = ring.entries.size() - max;
+            for (Entry entry : ring.entries) {
+                if (skip-- > 0) {
+                    continue;
+                }
+                recent.add(new EncodedMessage(entry.message, format, entry.frameFor(format)));
+            }
+            return recent;
+        }
+    }
+
+    /**
+     * Oublie les messages d'un salon fermé.
+     */
+    void drop(String room) {
+        Ring ring = rings.remove(room);
+        if (ring != null) {
+            synchronized (ring) {
+                ring.dropped = true;
+                for (Entry entry : ring.entries) {
+                    entry.release();
+                }
+                ring.entries.clear();
+                ring.bytes = 0;
+            }
+        }
+    }
+
+    void clear() {
+        for (String room : rings.keySet()) {
+            drop(room);
+        }
+    }
+}
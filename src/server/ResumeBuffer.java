@@ -0,0 +1,102 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tampon de reprise d'une session : les dernières trames envoyées au client,
+ * numérotées dans l'ordre du flux, gardées jusqu'à son acquittement.
+ *
+ * Le numéro d'une trame est sa position dans le flux de la session : il est
+ * attribué quand la trame sort de la file de sortie pour être écrite (ou
+ * directement ici pendant une coupure), et le client compte de son côté les
+ * trames lues. Les trames partagées d'une diffusion restent ainsi encodées une
+ * seule fois, sans numéro propre à chaque destinataire. Une trame écartée par
+ * la politique de client lent ne sort jamais de la file : elle n'a pas de
+ * numéro, et les deux compteurs restent d'accord.
+ *
+ * Tampon plein : la trame la plus ancienne non acquittée est perdue, une
+ * reprise qui en aurait besoin est refusée.
+ */
+final class ResumeBuffer {
+    private final OutboundFrame[] frames; // la trame n est dans la case n % frames.length
+    private long written; // numéro de la dernière trame
+    private long acked;   // trames rendues jusqu'à ce numéro
+    private boolean closed;
+
+    ResumeBuffer(int capacity) {
+        this.frames = new OutboundFrame[capacity];
+    }
+
+    /**
+     * Numérote une trame et en garde une référence.
+     */
+    synchronized void record(OutboundFrame frame) {
+        if (closed) {
+            return;
+        }
+        written++;
+        int slot = (int) (written % frames.length);
+        if (frames[slot] != null) {
+            frames[slot].release(); // jamais acquittée, la reprise sera refusée
+        }
+        frames[slot] = frame.retain();
+    }
+
+    /**
+     * Acquittement cumulatif : le client a lu toutes les trames jusqu'à sequence.
+     */
+    synchronized void ack(long sequence) {
+        if (closed) {
+            return; // acquittement tardif, toutes les trames sont déjà rendues
+        }
+        long upTo = Math.min(sequence, written);
+        // Les cases plus anciennes que le tampon ont déjà été réutilisées
+        for (long n = Math.max(acked, written - frames.length) + 1; n <= upTo; n++) {
+            int slot = (int) (n % frames.length);
+            frames[slot].release();
+            frames[slot] = null;
+        }
+        acked = Math.max(acked, upTo);
+    }
+
+    /**
+     * Reprise après la trame received : rend les trames suivantes, dans l'ordre,
+     * et revient à ce numéro (elles seront renumérotées à leur nouvel envoi).
+     * @return null si une trame manquante n'est plus dans le tampon
+     */
+    synchronized List<OutboundFrame> rewind(long received) {
+        if (closed || received > written || received < Math.max(acked, written - frames.length)) {
+            return null;
+        }
+        ack(received);
+        List<OutboundFrame> missed = new ArrayList<>((int) (written - received));
+        for (long n = received + 1; n <= written; n++) {
+            int slot = (int) (n % frames.length);
+            missed.add(frames[slot]); // la référence passe à l'appelant
+            frames[slot] = null;
+        }
+        written = received;
+        return missed;
+    }
+
+    /**
+     * Numéro de la dernière trame.
+     */
+    synchronized long written() {
+        return written;
+    }
+
+    /**
+     * Fin de session : rend toutes les trames, les suivantes sont ignorées.
+     */
+    synchronized void close() {
+        closed = true;
+        for (int i = 0; i < frames.length; i++) {
+            if (frames[i] != null) {
+                frames[i].release();
+                frames[i] = null;
+            }
+        }
+    }
+}
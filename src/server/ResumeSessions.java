@@ -0,0 +1,81 @@
+package server;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sessions reprenables, par jeton. Le jeton est remis au client dans le
+ * message SESSION ; il le présente en se reconnectant (attribut resume) pour
+ * retrouver son nom, sa place dans la liste et les messages manqués.
+ *
+ * Une session dont la connexion est coupée reste ouverte resume-timeout
+ * secondes, puis le client est déconnecté pour de bon.
+ */
+final class ResumeSessions {
+    private final ConcurrentHashMap<String, ClientHandler> byToken;
+    private final SecureRandom random;
+    private final long timeoutSeconds;
+    private ScheduledExecutorService expiry;
+    private boolean closed;
+
+    ResumeSessions(ServerConfig config) {
+        this.byToken = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+        this.timeoutSeconds = config.getResumeTimeoutSeconds();
+    }
+
+    /**
+     * Ouvre une session pour ce client.
+     * @return son jeton, difficile à deviner
+     */
+    String open(ClientHandler client) {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder(32);
+        for (byte b : bytes) {
+            token.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        byToken.put(token.toString(), client);
+        return token.toString();
+    }
+
+    ClientHandler find(String token) {
+        return byToken.get(token);
+    }
+
+    void remove(String token, ClientHandler client) {
+        byToken.remove(token, client);
+    }
+
+    long timeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    /**
+     * Lance task après le délai de reprise.
+     */
+    synchronized void expireLater(Runnable task) {
+        if (closed) {
+            return; // arrêt du serveur : les clients sont déjà déconnectés
+        }
+        if (expiry == null) {
+            expiry = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-expiry");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        expiry.schedule(task, timeoutSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void close() {
+        closed = true;
+        if (expiry != null) {
+            expiry.shutdownNow();
+        }
+        byToken.clear();
+    }
+}
@@ -0,0 +1,133 @@
+package server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import common.Constants;
+
+/**
+ * Table des salons : nom → membres locaux. Une diffusion dans un salon ne
+ * parcourt que ses membres.
+ *
+ * Chaque salon garde, comme ClientRegistry, un instantané en tableau de ses
+ * membres, reconstruit à la diffusion suivante quand la version a changé :
+ * rejoindre ou quitter ne fait qu'ajouter ou retirer dans un ensemble
+ * concurrent et incrémenter la version, sans jamais attendre une diffusion en
+ * cours. Création et suppression d'un salon passent par compute() sur sa
+ * seule entrée de la table, si bien qu'un salon vidé n'est pas retiré sous
+ * les pieds d'un client qui le rejoint au même moment. Les derniers messages
+ * d'un salon (RecentMessages) naissent avec lui et sont emportés à sa
+ * suppression, sauf ceux du salon par défaut.
+ */
+final class Rooms {
+    private static final ClientHandler[] EMPTY = new ClientHandler[0];
+
+    private static final class Room {
+        final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+        final AtomicLong version = new AtomicLong();
+        volatile Snapshot snapshot = new Snapshot(0, EMPTY);
+
+        ClientHandler[] snapshot() {
+            long current = version.get();
+            Snapshot cached = snapshot;
+            if (cached.version == current) {
+                return cached.members;
+            }
+            // Lu après la version : contient au moins tous les membres arrivés avant
+            Snapshot rebuilt = new Snapshot(current, members.toArray(EMPTY));
+            if (snapshot.version < current) {
+                snapshot = rebuilt; // au pire un tableau plus ancien écrase celui-ci et sera refait
+            }
+            return rebuilt.members;
+        }
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final ClientHandler[] members;
+
+        Snapshot(long version, ClientHandler[] members) {
+            this.version = version;
+            this.members = members;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final RecentMessages recent;
+
+    Rooms(RecentMessages recent) {
+        this.recent = recent;
+    }
+
+    /**
+     * Ajoute client au salon, créé au besoin.
+     * @return false s'il en était déjà membre
+     */
+    boolean join(String name, ClientHandler client) {
+        boolean[] added = new boolean[1];
+        rooms.compute(name, (key, room) -> {
+            if (room == null) {
+                room = new Room();
+                recent.open(key);
+            }
+            added[0] = room.members.add(client);
+            if (added[0]) {
+                room.version.incrementAndGet();
+            }
+            return room;
+        });
+        return added[0];
+    }
+
+    /**
+     * Retire client du salon, supprimé s'il devient vide.
+     * @return false s'il n'en était pas membre
+     */
+    boolean leave(String name, ClientHandler client) {
+        boolean[] removed = new boolean[1];
+        rooms.computeIfPresent(name, (key, room) -> {
+            removed[0] = room.members.remove(client);
+            if (removed[0]) {
+                room.version.incrementAndGet();
+            }
+            if (!room.members.isEmpty()) {
+                return room;
+            }
+            if (!key.equals(Constants.DEFAULT_ROOM)) {
+                recent.drop(key);
+            }
+            return null;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Membres à parcourir pour une diffusion dans ce salon (ne pas modifier).
+     */
+    ClientHandler[] members(String name) {
+        Room room = rooms.get(name);
+        return room != null ? room.snapshot() : EMPTY;
+    }
+
+    int size(String name) {
+        Room room = rooms.get(name);
+        return room != null ? room.members.size() : 0;
+    }
+
+    /**
+     * Salons ouverts et leur nombre de membres, par nom.
+     */
+    Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, Room> entry : rooms.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().members.size());
+        }
+        return counts;
+    }
+
+    void clear() {
+        rooms.clear();
+    }
+}
@@ -0,0 +1,436 @@
+package server;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import common.Constants;
+import common.Message;
+
+/**
+ * Index de recherche plein texte des messages de chat diffusés.
+ *
+ * Les diffusions déposent leur message dans une file bornée sans attendre ;
+ * un thread d'indexation le range dans un segment en construction, scellé
+ * tous les SEGMENT_DOCS messages ou toutes les 200 ms. Les segments scellés
+ * sont immuables : les requêtes les lisent sans verrou, sur leur propre pool,
+ * sans jamais retarder la diffusion. Dès que quatre segments de même taille
+ * (à un facteur 4 près) se suivent, ils sont fusionnés : le nombre de
+ * segments reste logarithmique. Au-delà de --search-docs messages, les plus
+ * anciens segments sont oubliés.
+ *
+ * L'expéditeur et le salon sont indexés comme des termes (@nom, #salon) :
+ * from: et in: sont des intersections comme les autres.
+ */
+final class SearchIndex implements Runnable {
+    static final int PAGE_SIZE = 10;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int MAX_BATCH = 1024;
+    private static final int SEGMENT_DOCS = 4096;
+    private static final long SEAL_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final int MERGE_FACTOR = 4;
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_DOCS = 1 << PAGE_BITS;
+    private static final int MAX_CONTENT = 200;
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("dd/MM HH:mm")
+        .withZone(ZoneId.systemDefault());
+
+    /**
+     * Messages indexés par tranches de PAGE_DOCS, rangées en anneau ; une
+     * tranche oubliée devient null ou cède sa place, d'où son numéro.
+     */
+    private static final class DocPage {
+        final long number;
+        final long[] times = new long[PAGE_DOCS];
+        final String[] senders = new String[PAGE_DOCS];
+        final String[] rooms = new String[PAGE_DOCS];
+        final String[] contents = new String[PAGE_DOCS];
+        // Noms et salons partagés dans la tranche, le temps de la remplir
+        Map<String, String> names = new HashMap<>();
+
+        DocPage(long number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Résultat d'une requête : le nombre total de messages trouvés et la page demandée.
+     */
+    static final class Result {
+        final int total;
+        final List<Message> hits;
+
+        Result(int total, List<Message> hits) {
+            this.total = total;
+            this.hits = hits;
+        }
+    }
+
+    private final int maxDocs;
+    private final ServerMetrics metrics;
+    private final ArrayBlockingQueue<Message> queue;
+    private final ThreadPoolExecutor pool;
+
+    // Écrits par le thread d'indexation, publiés par l'écriture de segments
+    private volatile SearchSegment[] segments = new SearchSegment[0];
+    private volatile DocPage[] pages = new DocPage[16];
+    private long nextDoc;
+    private long firstKeptPage;
+    private SearchSegment.Builder building;
+    private long buildingSince;
+    private volatile boolean running;
+
+    SearchIndex(ServerConfig config, ServerMetrics metrics) {
+        this.maxDocs = config.getSearchDocs();
+        this.metrics = metrics;
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.building = new SearchSegment.Builder(0);
+        this.running = maxDocs > 0;
+        int threads = config.getSearchThreads();
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(64), task -> {
+                Thread thread = new Thread(task, "search-query");
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    boolean isEnabled() {
+        return maxDocs > 0;
+    }
+
+    /**
+     * Dépose un message de chat diffusé ; si l'indexation est en retard, il
+     * manquera à l'index mais la diffusion n'attend pas.
+     */
+    void submit(Message message) {
+        if (!running || message.getType() != Message.MessageType.TEXT) {
+            return;
+        }
+        if (!queue.offer(message)) {
+            metrics.searchDropped.increment();
+        }
+    }
+
+    /**
+     * Indexe l'historique sur disque, avant le lancement du thread d'indexation.
+     * @return le nombre de messages indexés
+     */
+    int seed(HistoryLog history) throws IOException {
+        int[] count = new int[1];
+        history.replayLast(maxDocs, message -> message.getType() == Message.MessageType.TEXT, message -> {
+            add(message);
+            count[0]++;
+        });
+        seal();
+        return count[0];
+    }
+
+    @Override
+    public void run() {
+        List<Message> batch = new ArrayList<>(MAX_BATCH);
+        while (running) {
+            try {
+                Message first = queue.poll(50, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (Message message : batch) {
+                        add(message);
+                    }
+                    batch.clear();
+                }
+                if (!building.isEmpty() && System.nanoTime() - buildingSince >= SEAL_NANOS) {
+                    seal();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                ServerLog.error(ServerLog.Category.HISTORY, "[ERREUR] Indexation de la recherche: {}", e.toString());
+                batch.clear();
+            }
+        }
+    }
+
+    private void add(Message message) {
+        long doc = nextDoc++;
+        int slot = (int) (doc & (PAGE_DOCS - 1));
+        long number = doc >>> PAGE_BITS;
+        DocPage[] current = pages;
+        DocPage page = current[(int) (number % current.length)];
+        if (page == null || page.number != number) {
+            if (page != null && page.number >= firstKeptPage) {
+                current = grow(current); // anneau plein de tranches encore indexées
+            }
+            page = new DocPage(number);
+            current[(int) (number % current.length)] = page;
+        }
+        long time = message.getTimestamp() != null ? message.getTimestamp().getTime() : System.currentTimeMillis();
+        String sender = message.getSender() != null ? message.getSender() : "";
+        String content = message.getContent() != null ? message.getContent() : "";
+        page.times[slot] = time;
+        page.senders[slot] = page.names.computeIfAbsent(sender, name -> name);
+        page.rooms[slot] = message.getRoom() != null ? page.names.computeIfAbsent(message.getRoom(), name -> name) : null;
+        page.contents[slot] = content;
+        if (slot == PAGE_DOCS - 1) {
+            page.names = null; // tranche pleine
+        }
+
+        List<String> terms = SearchQuery.tokens(content);
+        terms.add("@" + SearchQuery.normalize(sender));
+        if (message.getRoom() != null) {
+            terms.add("#" + SearchQuery.normalize(message.getRoom()));
+        }
+        if (building.isEmpty()) {
+            buildingSince = System.nanoTime();
+        }
+        building.add(doc, time, terms);
+        metrics.searchIndexed.increment();
+        if (building.docCount() >= SEGMENT_DOCS) {
+            seal();
+        }
+    }
+
+    /**
+     * Scelle le segment en construction, fusionne les derniers segments de
+     * même taille et oublie les plus anciens au-delà de la limite.
+     */
+    private void seal() {
+        if (building.isEmpty()) {
+            return;
+        }
+        List<SearchSegment> list = new ArrayList<>(Arrays.asList(segments));
+        list.add(building.build());
+        building = new SearchSegment.Builder(nextDoc);
+
+        while (list.size() >= MERGE_FACTOR) {
+            List<SearchSegment> tail = list.subList(list.size() - MERGE_FACTOR, list.size());
+            int tier = tier(tail.get(0));
+            int docs = 0;
+            boolean sameTier = true;
+            for (SearchSegment segment : tail) {
+                sameTier &= tier(segment) == tier;
+                docs += segment.docCount();
+            }
+            // Pas de segment plus gros qu'un quart de la limite : l'oubli reste progressif
+            if (!sameTier || docs > maxDocs / MERGE_FACTOR) {
+                break;
+            }
+            SearchSegment merged = SearchSegment.merge(new ArrayList<>(tail));
+            tail.clear();
+            list.add(merged);
+            metrics.searchMerges.increment();
+        }
+
+        int total = 0;
+        for (SearchSegment segment : list) {
+            total += segment.docCount();
+        }
+        while (total > maxDocs && list.size() > 1) {
+            total -= list.remove(0).docCount();
+        }
+        segments = list.toArray(new SearchSegment[0]);
+
+        // Tranches de documents entièrement oubliées
+        firstKeptPage = list.get(0).firstDoc >>> PAGE_BITS;
+        DocPage[] current = pages;
+        for (int p = 0; p < current.length; p++) {
+            if (current[p] != null && current[p].number < firstKeptPage) {
+                current[p] = null;
+            }
+        }
+    }
+
+    /**
+     * Double l'anneau des tranches en y replaçant celles encore indexées.
+     */
+    private DocPage[] grow(DocPage[] current) {
+        DocPage[] grown = new DocPage[current.length * 2];
+        for (DocPage page : current) {
+            if (page != null && page.number >= firstKeptPage) {
+                grown[(int) (page.number % grown.length)] = page;
+            }
+        }
+        pages = grown;
+        return grown;
+    }
+
+    private static int tier(SearchSegment segment) {
+        int tier = 0;
+        for (long docs = segment.docCount() / SEGMENT_DOCS; docs >= MERGE_FACTOR; docs /= MERGE_FACTOR) {
+            tier++;
+        }
+        return tier;
+    }
+
+    /**
+     * Lance la requête sur le pool de recherche ; reply reçoit la page de
+     * résultats, déjà mise en forme.
+     * @return false si trop de recherches attendent déjà
+     */
+    boolean submit(SearchQuery query, Set<String> rooms, Consumer<Message> reply) {
+        try {
+            pool.execute(() -> reply.accept(format(query, search(query, rooms))));
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Exécute une requête sur le thread appelant, les plus récents d'abord.
+     * rooms limite les salons visibles (null : tous) ; les messages sans salon
+     * (antérieurs aux salons) sont visibles de tous.
+     */
+    Result search(SearchQuery query, Set<String> rooms) {
+        long start = System.nanoTime();
+        List<String> required = new ArrayList<>(query.terms);
+        if (query.from != null) {
+            required.add("@" + query.from);
+        }
+        if (query.room != null) {
+            required.add("#" + SearchQuery.normalize(query.room));
+        }
+        int skip = (query.page - 1) * PAGE_SIZE;
+        int total = 0;
+        List<Message> hits = new ArrayList<>(PAGE_SIZE);
+        SearchSegment[] snapshot = segments;
+        DocPage[] docs = pages;
+        for (int s = snapshot.length - 1; s >= 0; s--) {
+            SearchSegment segment = snapshot[s];
+            if (segment.maxTime < query.since) {
+                continue;
+            }
+            int[] matches = matches(segment, required, query.prefixes);
+            for (int i = matches.length - 1; i >= 0; i--) {
+                long doc = segment.firstDoc + matches[i];
+                long number = doc >>> PAGE_BITS;
+                DocPage page = docs[(int) (number % docs.length)];
+                if (page == null || page.number != number) {
+                    continue; // oublié pendant la requête
+                }
+                int slot = (int) (doc & (PAGE_DOCS - 1));
+                String room = page.rooms[slot];
+                if (page.times[slot] < query.since || (rooms != null && room != null && !rooms.contains(room))) {
+                    continue;
+                }
+                if (total++ >= skip && hits.size() < PAGE_SIZE) {
+                    Message hit = new Message(page.senders[slot], page.contents[slot], Message.MessageType.TEXT,
+                        new Date(page.times[slot]));
+                    hit.setRoom(room);
+                    hits.add(hit);
+                }
+            }
+        }
+        metrics.searchQueries.increment();
+        metrics.searchLatency.recordNanos(System.nanoTime() - start);
+        return new Result(total, hits);
+    }
+
+    /**
+     * Rangs des documents du segment qui ont tous les termes et un terme par préfixe,
+     * croissants ; la liste la plus courte est parcourue la première.
+     */
+    private static int[] matches(SearchSegment segment, List<String> terms, List<String> prefixes) {
+        List<int[]> lists = new ArrayList<>(terms.size() + prefixes.size());
+        for (String term : terms) {
+            int[] list = segment.docs(term);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        for (String prefix : prefixes) {
+            int[] list = segment.docsWithPrefix(prefix);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort((a, b) -> Integer.compare(a.length, b.length));
+        int[] result = lists.get(0);
+        for (int l = 1; l < lists.size() && result.length > 0; l++) {
+            result = intersect(result, lists.get(l));
+        }
+        return result;
+    }
+
+    /**
+     * Intersection d'une liste courte et d'une longue : recherche par bonds
+     * dans la longue à partir de la dernière position.
+     */
+    private static int[] intersect(int[] small, int[] large) {
+        int[] result = new int[small.length];
+        int count = 0;
+        int low = 0;
+        for (int doc : small) {
+            int step = 1;
+            int high = low;
+            while (high < large.length && large[high] < doc) {
+                low = high + 1;
+                high += step;
+                step <<= 1;
+            }
+            int index = Arrays.binarySearch(large, low, Math.min(high + 1, large.length), doc);
+            if (index >= 0) {
+                result[count++] = doc;
+                low = index + 1;
+            } else {
+                low = -index - 1;
+            }
+            if (low >= large.length) {
+                break;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Page de résultats en un seul message INFO.
+     */
+    static Message format(SearchQuery query, Result result) {
+        StringBuilder text = new StringBuilder();
+        int pages = (result.total + PAGE_SIZE - 1) / PAGE_SIZE;
+        if (result.total == 0) {
+            text.append("🔎 Aucun résultat pour « ").append(query.text).append(" »");
+        } else {
+            text.append("🔎 ").append(result.total).append(result.total > 1 ? " résultats" : " résultat")
+                .append(" pour « ").append(query.text).append(" » (page ")
+                .append(query.page).append('/').append(pages).append(')');
+            for (Message hit : result.hits) {
+                String content = hit.getContent();
+                if (content.length() > MAX_CONTENT) {
+                    content = content.substring(0, MAX_CONTENT) + "…";
+                }
+                text.append("\n[").append(TIME.format(Instant.ofEpochMilli(hit.getTimestamp().getTime()))).append("] ");
+                if (hit.getRoom() != null) {
+                    text.append('#').append(hit.getRoom()).append(' ');
+                }
+                text.append(hit.getSender()).append(": ").append(content);
+            }
+            if (query.page < pages) {
+                text.append("\n(page:").append(query.page + 1).append(" pour la suite)");
+            }
+        }
+        return new Message(Constants.SYSTEM_SENDER, text.toString(), Message.MessageType.INFO);
+    }
+
+    void close() {
+        running = false;
+        pool.shutdownNow();
+        queue.clear();
+    }
+}
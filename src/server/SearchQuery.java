@@ -0,0 +1,167 @@
+package server;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Requête de /search : des termes (tous requis, "mot*" pour un préfixe) et
+ * des filtres from:nom, in:salon, since:durée|date et page:N.
+ *
+ * Les termes sont normalisés comme le texte indexé : minuscules, sans
+ * accents, découpés sur ce qui n'est ni lettre ni chiffre.
+ */
+final class SearchQuery {
+    static final String USAGE = "Usage: /search <mots> [from:nom] [in:salon] [since:2h|3j|hier|2024-05-01] [page:N]";
+    private static final int MIN_TERM = 2;
+    private static final int MAX_TERM = 32;
+
+    final String text;
+    final List<String> terms = new ArrayList<>();
+    final List<String> prefixes = new ArrayList<>();
+    String from;
+    String room;
+    long since;
+    int page = 1;
+
+    private SearchQuery(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @throws IllegalArgumentException avec le message à renvoyer au client
+     */
+    static SearchQuery parse(String text, long now) {
+        SearchQuery query = new SearchQuery(text.trim());
+        for (String word : query.text.split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            int colon = word.indexOf(':');
+            String key = colon > 0 ? word.substring(0, colon).toLowerCase(Locale.ROOT) : "";
+            String value = colon > 0 ? word.substring(colon + 1) : "";
+            switch (key) {
+                case "from":
+                    query.from = normalize(value.startsWith("@") ? value.substring(1) : value);
+                    break;
+                case "in":
+                    query.room = value.startsWith("#") ? value.substring(1) : value;
+                    break;
+                case "since":
+                    query.since = parseSince(value, now);
+                    break;
+                case "page":
+                    try {
+                        query.page = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        query.page = 0;
+                    }
+                    if (query.page < 1) {
+                        throw new IllegalArgumentException("Page invalide: " + value);
+                    }
+                    break;
+                default:
+                    if (word.endsWith("*")) {
+                        List<String> parts = tokens(word.substring(0, word.length() - 1));
+                        if (!parts.isEmpty()) {
+                            // Seul le dernier morceau est un préfixe ("l'été*" : l, ete*)
+                            query.terms.addAll(parts.subList(0, parts.size() - 1));
+                            query.prefixes.add(parts.get(parts.size() - 1));
+                        }
+                    } else {
+                        query.terms.addAll(tokens(word));
+                    }
+            }
+        }
+        if (query.terms.isEmpty() && query.prefixes.isEmpty() && query.from == null && query.room == null) {
+            throw new IllegalArgumentException(USAGE);
+        }
+        return query;
+    }
+
+    /**
+     * since: durée (30m, 2h, 3j ou 3d, 1s), hier, aujourdhui, date (2024-05-01)
+     * ou date et heure (2024-05-01T14:30), à l'heure locale du serveur.
+     */
+    private static long parseSince(String value, long now) {
+        ZoneId zone = ZoneId.systemDefault();
+        String lower = value.toLowerCase(Locale.ROOT);
+        if (lower.equals("aujourdhui")) {
+            return LocalDate.now(zone).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        if (lower.equals("hier")) {
+            return LocalDate.now(zone).minusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        }
+        if (lower.matches("\\d{1,6}[smhjd]")) {
+            long amount = Long.parseLong(lower.substring(0, lower.length() - 1));
+            switch (lower.charAt(lower.length() - 1)) {
+                case 's':
+                    return now - amount * 1000;
+                case 'm':
+                    return now - amount * 60_000;
+                case 'h':
+                    return now - amount * 3_600_000;
+                default:
+                    return now - amount * 86_400_000;
+            }
+        }
+        try {
+            if (lower.contains("t")) {
+                return LocalDateTime.parse(value).atZone(zone).toInstant().toEpochMilli();
+            }
+            return LocalDate.parse(value).atStartOfDay(zone).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Date invalide: " + value + " (2h, 3j, hier, 2024-05-01...)");
+        }
+    }
+
+    /**
+     * Termes d'un texte : minuscules sans accents, au moins deux caractères,
+     * coupés à 32.
+     */
+    static List<String> tokens(String text) {
+        String folded = normalize(text);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= folded.length(); i++) {
+            boolean word = i < folded.length() && Character.isLetterOrDigit(folded.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (!word && start >= 0) {
+                if (i - start >= MIN_TERM) {
+                    tokens.add(folded.substring(start, Math.min(i, start + MAX_TERM)));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Minuscules sans accents ; le texte déjà en ASCII minuscule est rendu tel quel.
+     */
+    static String normalize(String text) {
+        boolean plain = true;
+        for (int i = 0; i < text.length() && plain; i++) {
+            char c = text.charAt(i);
+            plain = c < 0x80 && (c < 'A' || c > 'Z');
+        }
+        if (plain) {
+            return text;
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder folded = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                folded.append(c);
+            }
+        }
+        return folded.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,255 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Segment immuable de l'index de recherche : les termes triés et, pour
+ * chacun, la liste des documents qui le contiennent.
+ *
+ * Les documents d'un segment sont consécutifs ([firstDoc, endDoc)) ; les
+ * listes les désignent par leur rang depuis firstDoc, en écarts croissants
+ * codés en entiers variables (7 bits par octet), toutes bout à bout dans un
+ * seul tableau. Un message courant coûte ainsi un ou deux octets par terme.
+ */
+final class SearchSegment {
+    final long firstDoc;
+    final long endDoc;
+    final long minTime;
+    final long maxTime;
+    private final String[] terms;
+    private final int[] offsets; // terms.length + 1 positions dans postings
+    private final byte[] postings;
+
+    private SearchSegment(long firstDoc, long endDoc, long minTime, long maxTime,
+                          String[] terms, int[] offsets, byte[] postings) {
+        this.firstDoc = firstDoc;
+        this.endDoc = endDoc;
+        this.minTime = minTime;
+        this.maxTime = maxTime;
+        this.terms = terms;
+        this.offsets = offsets;
+        this.postings = postings;
+    }
+
+    int docCount() {
+        return (int) (endDoc - firstDoc);
+    }
+
+    /**
+     * Rangs des documents contenant exactement ce terme, croissants ; null si aucun.
+     */
+    int[] docs(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index >= 0 ? decode(index) : null;
+    }
+
+    /**
+     * Rangs des documents contenant un terme qui commence par prefix (union des listes),
+     * croissants ; null si aucun.
+     */
+    int[] docsWithPrefix(String prefix) {
+        int index = Arrays.binarySearch(terms, prefix);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        List<int[]> lists = new ArrayList<>();
+        int total = 0;
+        for (; index < terms.length && terms[index].startsWith(prefix); index++) {
+            int[] docs = decode(index);
+            lists.add(docs);
+            total += docs.length;
+        }
+        if (lists.size() <= 1) {
+            return lists.isEmpty() ? null : lists.get(0);
+        }
+        // Toutes les listes à la suite, triées, sans doublons
+        int[] union = new int[total];
+        int position = 0;
+        for (int[] docs : lists) {
+            System.arraycopy(docs, 0, union, position, docs.length);
+            position += docs.length;
+        }
+        Arrays.sort(union);
+        int count = 0;
+        for (int i = 0; i < union.length; i++) {
+            if (count == 0 || union[count - 1] != union[i]) {
+                union[count++] = union[i];
+            }
+        }
+        return Arrays.copyOf(union, count);
+    }
+
+    private int[] decode(int index) {
+        int position = offsets[index];
+        int end = offsets[index + 1];
+        int[] docs = new int[8];
+        int count = 0;
+        int doc = 0;
+        while (position < end) {
+            int gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[position++];
+                gap |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += gap;
+            if (count == docs.length) {
+                docs = Arrays.copyOf(docs, count * 2);
+            }
+            docs[count++] = doc;
+        }
+        return count == docs.length ? docs : Arrays.copyOf(docs, count);
+    }
+
+    /**
+     * Segment en construction, propre au thread d'indexation.
+     */
+    static final class Builder {
+        private final Map<String, int[]> lists = new HashMap<>();
+        private final long firstDoc;
+        private long endDoc;
+        private long minTime = Long.MAX_VALUE;
+        private long maxTime = Long.MIN_VALUE;
+
+        Builder(long firstDoc) {
+            this.firstDoc = firstDoc;
+            this.endDoc = firstDoc;
+        }
+
+        /**
+         * Ajoute le document suivant ; un terme répété n'est compté qu'une fois.
+         */
+        void add(long doc, long time, List<String> docTerms) {
+            int rank = (int) (doc - firstDoc);
+            endDoc = doc + 1;
+            minTime = Math.min(minTime, time);
+            maxTime = Math.max(maxTime, time);
+            for (String term : docTerms) {
+                // Liste : [taille, doc, doc...]
+                int[] list = lists.get(term);
+                if (list == null) {
+                    list = new int[4];
+                } else if (list[list[0]] == rank) {
+                    continue;
+                } else if (list[0] + 1 == list.length) {
+                    list = Arrays.copyOf(list, list.length * 2);
+                }
+                list[++list[0]] = rank;
+                lists.put(term, list);
+            }
+        }
+
+        boolean isEmpty() {
+            return endDoc == firstDoc;
+        }
+
+        int docCount() {
+            return (int) (endDoc - firstDoc);
+        }
+
+        SearchSegment build() {
+            String[] sorted = lists.keySet().toArray(new String[0]);
+            Arrays.sort(sorted);
+            int[] offsets = new int[sorted.length + 1];
+            Writer writer = new Writer(lists.size() * 4);
+            for (int t = 0; t < sorted.length; t++) {
+                offsets[t] = writer.size;
+                int[] list = lists.get(sorted[t]);
+                writer.writeDocs(list, 1, list[0] + 1, 0, 0);
+            }
+            offsets[sorted.length] = writer.size;
+            return new SearchSegment(firstDoc, endDoc, minTime, maxTime, sorted, offsets, writer.toArray());
+        }
+    }
+
+    /**
+     * Fusionne des segments consécutifs, du plus ancien au plus récent, en un
+     * seul : les dictionnaires sont fusionnés dans l'ordre et les listes d'un
+     * même terme mises bout à bout, leurs rangs décalés sur le premier.
+     */
+    static SearchSegment merge(List<SearchSegment> parts) {
+        SearchSegment first = parts.get(0);
+        SearchSegment last = parts.get(parts.size() - 1);
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        long bytes = 0;
+        for (SearchSegment part : parts) {
+            minTime = Math.min(minTime, part.minTime);
+            maxTime = Math.max(maxTime, part.maxTime);
+            bytes += part.postings.length;
+        }
+
+        int[] cursors = new int[parts.size()];
+        List<String> terms = new ArrayList<>();
+        List<Integer> offsets = new ArrayList<>();
+        Writer writer = new Writer((int) Math.min(Integer.MAX_VALUE - 8, bytes + 64));
+        while (true) {
+            String term = null;
+            for (int p = 0; p < parts.size(); p++) {
+                SearchSegment part = parts.get(p);
+                if (cursors[p] < part.terms.length && (term == null || part.terms[cursors[p]].compareTo(term) < 0)) {
+                    term = part.terms[cursors[p]];
+                }
+            }
+            if (term == null) {
+                break;
+            }
+            terms.add(term);
+            offsets.add(writer.size);
+            int previous = 0;
+            for (int p = 0; p < parts.size(); p++) {
+                SearchSegment part = parts.get(p);
+                if (cursors[p] < part.terms.length && part.terms[cursors[p]].equals(term)) {
+                    int[] docs = part.decode(cursors[p]++);
+                    int shift = (int) (part.firstDoc - first.firstDoc);
+                    writer.writeDocs(docs, 0, docs.length, shift, previous);
+                    previous = docs[docs.length - 1] + shift;
+                }
+            }
+        }
+        int[] offsetArray = new int[offsets.size() + 1];
+        for (int i = 0; i < offsets.size(); i++) {
+            offsetArray[i] = offsets.get(i);
+        }
+        offsetArray[offsets.size()] = writer.size;
+        return new SearchSegment(first.firstDoc, last.endDoc, minTime, maxTime,
+            terms.toArray(new String[0]), offsetArray, writer.toArray());
+    }
+
+    /**
+     * Tableau d'octets extensible pour les écarts codés.
+     */
+    private static final class Writer {
+        byte[] bytes;
+        int size;
+
+        Writer(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void writeDocs(int[] docs, int from, int to, int shift, int previous) {
+            for (int i = from; i < to; i++) {
+                int gap = docs[i] + shift - previous;
+                previous = docs[i] + shift;
+                if (size + 5 > bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                while ((gap & ~0x7F) != 0) {
+                    bytes[size++] = (byte) ((gap & 0x7F) | 0x80);
+                    gap >>>= 7;
+                }
+                bytes[size++] = (byte) gap;
+            }
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
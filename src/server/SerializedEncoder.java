@@ -0,0 +1,60 @@
+package server;
+
+import java.io.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import common.Message;
+
+/**
+ * Sérialisation Java d'un message en trame autonome : l'objet suivi d'un
+ * TC_RESET, sans en-tête de flux. Comme le récepteur remet sa table de
+ * références à zéro après chaque trame, la même suite d'octets convient à
+ * n'importe quelle connexion au format SERIALIZED.
+ *
+ * Les ObjectOutputStream sont coûteux à créer : on les recycle via un petit pool
+ * plutôt qu'un ThreadLocal, qui grossirait avec le nombre de threads virtuels.
+ */
+final class SerializedEncoder {
+    private static final Queue<SerializedEncoder> POOL = new ConcurrentLinkedQueue<>();
+
+    private final ExposedByteArrayOutputStream bytes;
+    private final ObjectOutputStream out;
+
+    private SerializedEncoder() throws IOException {
+        this.bytes = new ExposedByteArrayOutputStream();
+        this.out = new ObjectOutputStream(bytes);
+        this.out.flush();
+        this.bytes.reset(); // on ne garde pas l'en-tête du flux
+    }
+
+    static OutboundFrame encode(Message message) {
+        SerializedEncoder encoder = POOL.poll();
+        try {
+            if (encoder == null) {
+                encoder = new SerializedEncoder();
+            }
+            encoder.out.writeObject(message);
+            encoder.out.reset();
+            encoder.out.flush();
+            OutboundFrame frame = encoder.bytes.toFrame(OutboundFrame.isCritical(message));
+            encoder.bytes.reset();
+            POOL.offer(encoder);
+            return frame;
+        } catch (IOException e) {
+            // Impossible en mémoire, sauf objet non sérialisable
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Donne accès au tampon interne pour copier directement dans un tableau recyclé.
+     */
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        OutboundFrame toFrame(boolean critical) {
+            byte[] frame = FramePool.acquire(count);
+            System.arraycopy(buf, 0, frame, 0, count);
+            return new OutboundFrame(frame, count, critical);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,862 @@
+package server;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import common.Constants;
+
+/**
+ * Paramètres de démarrage du serveur, lus depuis la ligne de commande
+ * sous la forme --cle=valeur.
+ */
+public class ServerConfig {
+
+    public enum TransportMode {
+        THREAD,  // un thread bloquant par client (comportement historique)
+        VIRTUAL, // même code bloquant, mais sur des threads virtuels
+        NIO      // quelques boucles d'événements sur Selector
+    }
+
+    /**
+     * Que faire quand la file de sortie d'un client est pleine.
+     */
+    public enum SlowConsumerPolicy {
+        DROP_OLDEST,        // la trame la plus ancienne laisse sa place
+        DROP_NON_CRITICAL,  // les messages de chat sont perdus, jamais les messages système
+        DISCONNECT          // on jette, puis on déconnecte si la file reste pleine trop longtemps
+    }
+
+    /**
+     * Que faire d'un message qui dépasse le débit permis à son émetteur.
+     */
+    public enum FloodPolicy {
+        DELAY,  // on cesse de lire ce client le temps nécessaire (refus au-delà d'une seconde)
+        DROP,   // le message est ignoré sans rien dire
+        ERROR   // le message est refusé et le client reçoit une ERROR
+    }
+
+    public enum LogLevel {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    private TransportMode transportMode;
+    private int reactorThreads;
+    private int nioWorkers;
+    private int tcpPort;
+    private int udpPort;
+    private int udpReceivers;
+    private int udpQueueCapacity;
+    private int outboundCapacity;
+    private int controlCapacity;
+    private int controlBurst;
+    private SlowConsumerPolicy slowConsumerPolicy;
+    private long slowConsumerTimeoutMillis;
+    private String historyDirectory;
+    private int historySegmentBytes;
+    private int historySegments;
+    private int metricsPort;
+    private LogLevel logLevel;
+    private String logFile;
+    private int logRate;
+    private long presenceWindowMillis;
+    private int presenceBurst;
+    private int presenceNames;
+    private long resumeTimeoutSeconds;
+    private int resumeBufferFrames;
+    private int heartbeatSeconds;
+    private int idleTimeoutSeconds;
+    private FloodPolicy floodPolicy;
+    private int floodRate;
+    private int floodBurst;
+    private int floodByteRate;
+    private long floodGlobalRate;
+    private int flushBytes;
+    private int recentMessages;
+    private long recentBytes;
+    private int searchDocs;
+    private int searchThreads;
+    private long flushDelayMicros;
+    private String nodeId;
+    private int clusterPort;
+    private String clusterBind;
+    private String clusterSecret;
+    private List<InetSocketAddress> peers;
+
+    public ServerConfig() {
+        this.transportMode = TransportMode.THREAD;
+        this.reactorThreads = Runtime.getRuntime().availableProcessors();
+        this.nioWorkers = 2 * Runtime.getRuntime().availableProcessors();
+        this.tcpPort = Constants.TCP_PORT;
+        this.udpPort = Constants.UDP_PORT;
+        this.udpReceivers = Math.min(4, Runtime.getRuntime().availableProcessors());
+        this.udpQueueCapacity = 16384;
+        this.outboundCapacity = 1024;
+        this.controlCapacity = 256;
+        this.controlBurst = 16;
+        this.slowConsumerPolicy = SlowConsumerPolicy.DROP_NON_CRITICAL;
+        this.slowConsumerTimeoutMillis = 5000;
+        this.historyDirectory = "history";
+        this.historySegmentBytes = 16 * 1024 * 1024;
+        this.historySegments = 8;
+        this.metricsPort = 0;
+        this.logLevel = LogLevel.INFO;
+        this.logFile = "";
+        this.logRate = 100;
+        this.presenceWindowMillis = 250;
+        this.presenceBurst = 10;
+        this.presenceNames = 20;
+        this.resumeTimeoutSeconds = 30;
+        this.resumeBufferFrames = 512;
+        this.heartbeatSeconds = Constants.HEARTBEAT_INTERVAL_SECONDS;
+        this.idleTimeoutSeconds = Constants.IDLE_TIMEOUT_SECONDS;
+        this.floodPolicy = FloodPolicy.DELAY;
+        this.floodRate = 50;
+        this.floodBurst = 200;
+        this.floodByteRate = 256 * 1024;
+        this.floodGlobalRate = 0;
+        this.flushBytes = 16 * 1024;
+        this.flushDelayMicros = 50;
+        this.recentMessages = 50;
+        this.recentBytes = 64 * 1024;
+        this.searchDocs = 1_000_000;
+        this.searchThreads = 2;
+        this.nodeId = "";
+        this.clusterPort = 0;
+        this.clusterBind = "127.0.0.1";
+        this.clusterSecret = "";
+        this.peers = List.of();
+    }
+
+    /**
+     * Construit la configuration à partir des arguments du lanceur.
+     * @throws IllegalArgumentException si un argument est inconnu ou invalide
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("Argument invalide: " + arg);
+            }
+            String key = arg.substring(2, separator);
+            String value = arg.substring(separator + 1);
+
+            switch (key) {
+                case "transport":
+                    config.setTransportMode(TransportMode.valueOf(value.toUpperCase()));
+                    break;
+                case "reactors":
+                    config.setReactorThreads(Integer.parseInt(value));
+                    break;
+                case "nio-workers":
+                    config.setNioWorkers(Integer.parseInt(value));
+                    break;
+                case "tcp-port":
+                    config.setTcpPort(Integer.parseInt(value));
+                    break;
+                case "udp-port":
+                    config.setUdpPort(Integer.parseInt(value));
+                    break;
+                case "udp-receivers":
+                    config.setUdpReceivers(Integer.parseInt(value));
+                    break;
+                case "udp-queue":
+                    config.setUdpQueueCapacity(Integer.parseInt(value));
+                    break;
+                case "outbound-capacity":
+                    config.setOutboundCapacity(Integer.parseInt(value));
+                    break;
+                case "control-capacity":
+                    config.setControlCapacity(Integer.parseInt(value));
+                    break;
+                case "control-burst":
+                    config.setControlBurst(Integer.parseInt(value));
+                    break;
+                case "slow-consumer":
+                    config.setSlowConsumerPolicy(SlowConsumerPolicy.valueOf(
+                        value.toUpperCase().replace('-', '_')));
+                    break;
+                case "slow-consumer-timeout-ms":
+                    config.setSlowConsumerTimeoutMillis(Long.parseLong(value));
+                    break;
+                case "history-dir":
+                    config.setHistoryDirectory(value);
+                    break;
+                case "history-segment-mb":
+                    config.setHistorySegmentBytes(Integer.parseInt(value) * 1024 * 1024);
+                    break;
+                case "history-segments":
+                    config.setHistorySegments(Integer.parseInt(value));
+                    break;
+                case "metrics-port":
+                    config.setMetricsPort(Integer.parseInt(value));
+                    break;
+                case "log-level":
+                    config.setLogLevel(LogLevel.valueOf(value.toUpperCase()));
+                    break;
+                case "log-file":
+                    config.setLogFile(value);
+                    break;
+                case "log-rate":
+                    config.setLogRate(Integer.parseInt(value));
+                    break;
+                case "presence-window-ms":
+                    config.setPresenceWindowMillis(Long.parseLong(value));
+                    break;
+                case "presence-burst":
+                    config.setPresenceBurst(Integer.parseInt(value));
+                    break;
+                case "presence-names":
+                    config.setPresenceNames(Integer.parseInt(value));
+                    break;
+                case "resume-timeout-s":
+                    config.setResumeTimeoutSeconds(Long.parseLong(value));
+                    break;
+                case "resume-buffer":
+                    config.setResumeBufferFrames(Integer.parseInt(value));
+                    break;
+                case "heartbeat-s":
+                    config.setHeartbeatSeconds(Integer.parseInt(value));
+                    break;
+                case "idle-timeout-s":
+                    config.setIdleTimeoutSeconds(Integer.parseInt(value));
+                    break;
+                case "flood-policy":
+                    config.setFloodPolicy(FloodPolicy.valueOf(value.toUpperCase()));
+                    break;
+                case "flood-rate":
+                    config.setFloodRate(Integer.parseInt(value));
+                    break;
+                case "flood-burst":
+                    config.setFloodBurst(Integer.parseInt(value));
+                    break;
+                case "flood-bytes":
+                    config.setFloodByteRate(Integer.parseInt(value));
+                    break;
+                case "flood-global":
+                    config.setFloodGlobalRate(Long.parseLong(value));
+                    break;
+                case "flush-bytes":
+                    config.setFlushBytes(Integer.parseInt(value));
+                    break;
+                case "flush-delay-us":
+                    config.setFlushDelayMicros(Long.parseLong(value));
+                    break;
+                case "recent-messages":
+                    config.setRecentMessages(Integer.parseInt(value));
+                    break;
+                case "recent-bytes":
+                    config.setRecentBytes(Long.parseLong(value));
+                    break;
+                case "search-docs":
+                    config.setSearchDocs(Integer.parseInt(value));
+                    break;
+                case "search-threads":
+                    config.setSearchThreads(Integer.parseInt(value));
+                    break;
+                case "node-id":
+                    config.setNodeId(value);
+                    break;
+                case "cluster-port":
+                    config.setClusterPort(Integer.parseInt(value));
+                    break;
+                case "cluster-bind":
+                    config.setClusterBind(value);
+                    break;
+                case "cluster-secret":
+                    config.setClusterSecret(value);
+                    break;
+                case "peers":
+                    config.setPeers(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Option inconnue: --" + key);
+            }
+        }
+        if (config.isClusterEnabled() && config.getClusterSecret().isEmpty()) {
+            throw new IllegalArgumentException("--cluster-secret est obligatoire avec --cluster-port");
+        }
+        return config;
+    }
+
+    public static String usage() {
+        return "Options: --transport=thread|virtual|nio --reactors=N --nio-workers=N --tcp-port=P --udp-port=P\n"
+            + "         --udp-receivers=N --udp-queue=N\n"
+            + "         --outbound-capacity=N --slow-consumer=drop-oldest|drop-non-critical|disconnect\n"
+            + "         --slow-consumer-timeout-ms=T --control-capacity=N --control-burst=N\n"
+            + "         --history-dir=DIR (vide pour desactiver) --history-segment-mb=N --history-segments=N\n"
+            + "         --metrics-port=P (collecte des metriques sur 127.0.0.1, 0 pour desactiver)\n"
+            + "         --log-level=debug|info|warn|error --log-file=FICHIER --log-rate=N\n"
+            + "         --presence-window-ms=T (0 pour tout annoncer) --presence-burst=N --presence-names=N\n"
+            + "         --resume-timeout-s=T (0 : pas de reprise de session) --resume-buffer=N\n"
+            + "         --heartbeat-s=T (0 : pas de surveillance) --idle-timeout-s=T\n"
+            + "         --flood-policy=delay|drop|error --flood-rate=N --flood-burst=N --flood-bytes=N\n"
+            + "         --flood-global=N (remises/s pour tout le serveur, 0 : sans limite)\n"
+            + "         --flush-bytes=N --flush-delay-us=T (0 : ecrire chaque lot sans attendre)\n"
+            + "         --recent-messages=N (0 : historique lu sur disque) --recent-bytes=N\n"
+            + "         --search-docs=N (0 : pas de /search) --search-threads=N\n"
+            + "         --cluster-port=P (0 : noeud seul) --node-id=NOM --peers=hote:port,hote:port\n"
+            + "         --cluster-bind=ADRESSE (defaut 127.0.0.1) --cluster-secret=SECRET";
+    }
+
+    // Getters et setters
+    public TransportMode getTransportMode() {
+        return transportMode;
+    }
+
+    public void setTransportMode(TransportMode transportMode) {
+        this.transportMode = transportMode;
+    }
+
+    public int getReactorThreads() {
+        return reactorThreads;
+    }
+
+    public void setReactorThreads(int reactorThreads) {
+        if (reactorThreads < 1) {
+            throw new IllegalArgumentException("Il faut au moins une boucle NIO");
+        }
+        this.reactorThreads = reactorThreads;
+    }
+
+    /**
+     * Threads qui traitent les messages reçus en mode NIO, hors des boucles.
+     */
+    public int getNioWorkers() {
+        return nioWorkers;
+    }
+
+    public void setNioWorkers(int nioWorkers) {
+        if (nioWorkers < 1) {
+            throw new IllegalArgumentException("Il faut au moins un thread de traitement NIO");
+        }
+        this.nioWorkers = nioWorkers;
+    }
+
+    public int getTcpPort() {
+        return tcpPort;
+    }
+
+    public void setTcpPort(int tcpPort) {
+        this.tcpPort = tcpPort;
+    }
+
+    public int getUdpPort() {
+        return udpPort;
+    }
+
+    public void setUdpPort(int udpPort) {
+        this.udpPort = udpPort;
+    }
+
+    /**
+     * Nombre de canaux UDP liés au port (SO_REUSEPORT), chacun avec son thread.
+     */
+    public int getUdpReceivers() {
+        return udpReceivers;
+    }
+
+    public void setUdpReceivers(int udpReceivers) {
+        if (udpReceivers < 1) {
+            throw new IllegalArgumentException("Il faut au moins un recepteur UDP");
+        }
+        this.udpReceivers = udpReceivers;
+    }
+
+    /**
+     * Datagrammes en attente de diffusion avant d'être perdus (arrondi à la
+     * puissance de deux supérieure).
+     */
+    public int getUdpQueueCapacity() {
+        return udpQueueCapacity;
+    }
+
+    public void setUdpQueueCapacity(int udpQueueCapacity) {
+        if (udpQueueCapacity < 1 || udpQueueCapacity > (1 << 24)) {
+            throw new IllegalArgumentException("--udp-queue doit etre entre 1 et " + (1 << 24));
+        }
+        this.udpQueueCapacity = udpQueueCapacity;
+    }
+
+    public int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    public void setOutboundCapacity(int outboundCapacity) {
+        if (outboundCapacity < 1) {
+            throw new IllegalArgumentException("La file de sortie doit contenir au moins un message");
+        }
+        this.outboundCapacity = outboundCapacity;
+    }
+
+    /**
+     * Trames système (erreurs, PING, listes, annonces) en attente par client,
+     * dans leur propre voie, devant le texte.
+     */
+    public int getControlCapacity() {
+        return controlCapacity;
+    }
+
+    public void setControlCapacity(int controlCapacity) {
+        if (controlCapacity < 1) {
+            throw new IllegalArgumentException("--control-capacity doit etre positif");
+        }
+        this.controlCapacity = controlCapacity;
+    }
+
+    /**
+     * Trames système écrites d'affilée avant de laisser passer une ligne de
+     * texte plus ancienne.
+     */
+    public int getControlBurst() {
+        return controlBurst;
+    }
+
+    public void setControlBurst(int controlBurst) {
+        if (controlBurst < 1) {
+            throw new IllegalArgumentException("--control-burst doit etre positif");
+        }
+        this.controlBurst = controlBurst;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    public void setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+    }
+
+    public long getSlowConsumerTimeoutMillis() {
+        return slowConsumerTimeoutMillis;
+    }
+
+    public void setSlowConsumerTimeoutMillis(long slowConsumerTimeoutMillis) {
+        this.slowConsumerTimeoutMillis = slowConsumerTimeoutMillis;
+    }
+
+    public boolean isHistoryEnabled() {
+        return historyDirectory != null && !historyDirectory.isEmpty();
+    }
+
+    public String getHistoryDirectory() {
+        return historyDirectory;
+    }
+
+    public void setHistoryDirectory(String historyDirectory) {
+        this.historyDirectory = historyDirectory;
+    }
+
+    public int getHistorySegmentBytes() {
+        return historySegmentBytes;
+    }
+
+    public void setHistorySegmentBytes(int historySegmentBytes) {
+        // Un segment doit pouvoir contenir le plus grand message accepté
+        if (historySegmentBytes < 2 * Constants.MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("Un segment d'historique fait au moins 2 Mo");
+        }
+        this.historySegmentBytes = historySegmentBytes;
+    }
+
+    public int getHistorySegments() {
+        return historySegments;
+    }
+
+    public void setHistorySegments(int historySegments) {
+        if (historySegments < 1) {
+            throw new IllegalArgumentException("Il faut garder au moins un segment d'historique");
+        }
+        this.historySegments = historySegments;
+    }
+
+    public boolean isMetricsEndpointEnabled() {
+        return metricsPort > 0;
+    }
+
+    public int getMetricsPort() {
+        return metricsPort;
+    }
+
+    public void setMetricsPort(int metricsPort) {
+        this.metricsPort = metricsPort;
+    }
+
+    public LogLevel getLogLevel() {
+        return logLevel;
+    }
+
+    public void setLogLevel(LogLevel logLevel) {
+        this.logLevel = logLevel;
+    }
+
+    public boolean isLogFileEnabled() {
+        return !logFile.isEmpty();
+    }
+
+    public String getLogFile() {
+        return logFile;
+    }
+
+    public void setLogFile(String logFile) {
+        this.logFile = logFile;
+    }
+
+    /**
+     * Nombre maximal d'événements journalisés par seconde pour chaque catégorie
+     * par message (chat, UDP) ; 0 pour ne plus les journaliser.
+     */
+    public int getLogRate() {
+        return logRate;
+    }
+
+    public void setLogRate(int logRate) {
+        if (logRate < 0) {
+            throw new IllegalArgumentException("--log-rate ne peut pas etre negatif");
+        }
+        this.logRate = logRate;
+    }
+
+    /**
+     * Durée d'une fenêtre de regroupement des arrivées et départs ; 0 pour
+     * annoncer chaque événement immédiatement.
+     */
+    public long getPresenceWindowMillis() {
+        return presenceWindowMillis;
+    }
+
+    public void setPresenceWindowMillis(long presenceWindowMillis) {
+        if (presenceWindowMillis < 0) {
+            throw new IllegalArgumentException("--presence-window-ms ne peut pas etre negatif");
+        }
+        this.presenceWindowMillis = presenceWindowMillis;
+    }
+
+    /**
+     * Nombre d'arrivées et départs par fenêtre annoncés un par un ; au-delà,
+     * ils sont regroupés jusqu'à la fin de la fenêtre.
+     */
+    public int getPresenceBurst() {
+        return presenceBurst;
+    }
+
+    public void setPresenceBurst(int presenceBurst) {
+        if (presenceBurst < 1) {
+            throw new IllegalArgumentException("--presence-burst doit etre positif");
+        }
+        this.presenceBurst = presenceBurst;
+    }
+
+    /**
+     * Nombre de noms cités dans un résumé envoyé aux anciens clients ; 0 pour
+     * n'envoyer que les nombres.
+     */
+    public int getPresenceNames() {
+        return presenceNames;
+    }
+
+    public void setPresenceNames(int presenceNames) {
+        if (presenceNames < 0) {
+            throw new IllegalArgumentException("--presence-names ne peut pas etre negatif");
+        }
+        this.presenceNames = presenceNames;
+    }
+
+    public boolean isResumeEnabled() {
+        return resumeTimeoutSeconds > 0;
+    }
+
+    /**
+     * Durée pendant laquelle une session coupée peut être reprise ; 0 pour
+     * déconnecter aussitôt, comme avant.
+     */
+    public long getResumeTimeoutSeconds() {
+        return resumeTimeoutSeconds;
+    }
+
+    public void setResumeTimeoutSeconds(long resumeTimeoutSeconds) {
+        if (resumeTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("--resume-timeout-s ne peut pas etre negatif");
+        }
+        this.resumeTimeoutSeconds = resumeTimeoutSeconds;
+    }
+
+    /**
+     * Trames non acquittées gardées par session ; au-delà, une reprise
+     * repart d'une connexion neuve.
+     */
+    public int getResumeBufferFrames() {
+        return resumeBufferFrames;
+    }
+
+    public void setResumeBufferFrames(int resumeBufferFrames) {
+        if (resumeBufferFrames < 1) {
+            throw new IllegalArgumentException("--resume-buffer doit etre positif");
+        }
+        this.resumeBufferFrames = resumeBufferFrames;
+    }
+
+    /**
+     * Silence après lequel le serveur envoie un PING ; 0 pour ne surveiller
+     * aucune connexion.
+     */
+    public int getHeartbeatSeconds() {
+        return heartbeatSeconds;
+    }
+
+    public void setHeartbeatSeconds(int heartbeatSeconds) {
+        if (heartbeatSeconds < 0) {
+            throw new IllegalArgumentException("--heartbeat-s ne peut pas etre negatif");
+        }
+        this.heartbeatSeconds = heartbeatSeconds;
+    }
+
+    /**
+     * Silence après lequel une connexion est fermée : client sans réponse aux
+     * PING, ou connexion jamais identifiée.
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    public void setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+        if (idleTimeoutSeconds < 1) {
+            throw new IllegalArgumentException("--idle-timeout-s doit etre positif");
+        }
+        this.idleTimeoutSeconds = idleTimeoutSeconds;
+    }
+
+    public FloodPolicy getFloodPolicy() {
+        return floodPolicy;
+    }
+
+    public void setFloodPolicy(FloodPolicy floodPolicy) {
+        this.floodPolicy = floodPolicy;
+    }
+
+    /**
+     * Messages par seconde permis à chaque client, commandes comprises ; 0
+     * pour ne pas limiter.
+     */
+    public int getFloodRate() {
+        return floodRate;
+    }
+
+    public void setFloodRate(int floodRate) {
+        if (floodRate < 0) {
+            throw new IllegalArgumentException("--flood-rate ne peut pas etre negatif");
+        }
+        this.floodRate = floodRate;
+    }
+
+    /**
+     * Messages qu'un client peut envoyer d'un coup après un silence.
+     */
+    public int getFloodBurst() {
+        return floodBurst;
+    }
+
+    public void setFloodBurst(int floodBurst) {
+        if (floodBurst < 1) {
+            throw new IllegalArgumentException("--flood-burst doit etre positif");
+        }
+        this.floodBurst = floodBurst;
+    }
+
+    /**
+     * Octets par seconde permis à chaque client ; 0 pour ne pas limiter.
+     */
+    public int getFloodByteRate() {
+        return floodByteRate;
+    }
+
+    public void setFloodByteRate(int floodByteRate) {
+        if (floodByteRate < 0) {
+            throw new IllegalArgumentException("--flood-bytes ne peut pas etre negatif");
+        }
+        this.floodByteRate = floodByteRate;
+    }
+
+    /**
+     * Budget de diffusion de tout le serveur, en remises par seconde (un
+     * message diffusé à N clients en coûte N) ; 0 pour ne pas limiter.
+     */
+    public long getFloodGlobalRate() {
+        return floodGlobalRate;
+    }
+
+    public void setFloodGlobalRate(long floodGlobalRate) {
+        if (floodGlobalRate < 0) {
+            throw new IllegalArgumentException("--flood-global ne peut pas etre negatif");
+        }
+        this.floodGlobalRate = floodGlobalRate;
+    }
+
+    /**
+     * Octets accumulés avant d'écrire sans attendre la suite d'une rafale.
+     */
+    public int getFlushBytes() {
+        return flushBytes;
+    }
+
+    public void setFlushBytes(int flushBytes) {
+        if (flushBytes < 512) {
+            throw new IllegalArgumentException("--flush-bytes doit valoir au moins 512");
+        }
+        this.flushBytes = flushBytes;
+    }
+
+    /**
+     * Attente maximale, en microsecondes, de la suite d'une rafale avant
+     * d'écrire ce qui est déjà prêt ; 0 pour écrire chaque lot aussitôt.
+     */
+    public long getFlushDelayMicros() {
+        return flushDelayMicros;
+    }
+
+    public void setFlushDelayMicros(long flushDelayMicros) {
+        if (flushDelayMicros < 0) {
+            throw new IllegalArgumentException("--flush-delay-us ne peut pas etre negatif");
+        }
+        this.flushDelayMicros = flushDelayMicros;
+    }
+
+    /**
+     * Derniers messages gardés en mémoire par salon, envoyés à l'arrivée ; 0
+     * pour relire l'historique sur disque.
+     */
+    public int getRecentMessages() {
+        return recentMessages;
+    }
+
+    public void setRecentMessages(int recentMessages) {
+        if (recentMessages < 0) {
+            throw new IllegalArgumentException("--recent-messages ne peut pas etre negatif");
+        }
+        this.recentMessages = recentMessages;
+    }
+
+    /**
+     * Octets gardés au plus par salon pour ces derniers messages.
+     */
+    public long getRecentBytes() {
+        return recentBytes;
+    }
+
+    public void setRecentBytes(long recentBytes) {
+        if (recentBytes < 1024) {
+            throw new IllegalArgumentException("--recent-bytes doit valoir au moins 1024");
+        }
+        this.recentBytes = recentBytes;
+    }
+
+    /**
+     * Messages gardés au plus dans l'index de /search ; 0 pour désactiver la recherche.
+     */
+    public int getSearchDocs() {
+        return searchDocs;
+    }
+
+    public void setSearchDocs(int searchDocs) {
+        if (searchDocs < 0) {
+            throw new IllegalArgumentException("--search-docs ne peut pas etre negatif");
+        }
+        this.searchDocs = searchDocs;
+    }
+
+    /**
+     * Threads qui exécutent les requêtes /search, à part de la diffusion.
+     */
+    public int getSearchThreads() {
+        return searchThreads;
+    }
+
+    public void setSearchThreads(int searchThreads) {
+        if (searchThreads < 1) {
+            throw new IllegalArgumentException("--search-threads doit valoir au moins 1");
+        }
+        this.searchThreads = searchThreads;
+    }
+
+    public boolean isClusterEnabled() {
+        return clusterPort > 0;
+    }
+
+    /**
+     * Nom du nœud dans la grappe, unique parmi les nœuds ; par défaut
+     * "noeud-" suivi du port TCP.
+     */
+    public String getNodeId() {
+        return nodeId.isEmpty() ? "noeud-" + tcpPort : nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId.trim();
+    }
+
+    /**
+     * Port des liens entre nœuds ; 0 pour un serveur seul.
+     */
+    public int getClusterPort() {
+        return clusterPort;
+    }
+
+    public void setClusterPort(int clusterPort) {
+        this.clusterPort = clusterPort;
+    }
+
+    /**
+     * Adresse d'écoute des liens entre nœuds ; la boucle locale par défaut,
+     * à élargir seulement pour une grappe sur plusieurs machines.
+     */
+    public String getClusterBind() {
+        return clusterBind;
+    }
+
+    public void setClusterBind(String clusterBind) {
+        if (clusterBind.isBlank()) {
+            throw new IllegalArgumentException("--cluster-bind ne peut pas etre vide");
+        }
+        this.clusterBind = clusterBind.trim();
+    }
+
+    /**
+     * Secret partagé par les nœuds de la grappe, prouvé à l'ouverture de
+     * chaque lien sans y circuler ; obligatoire avec --cluster-port.
+     */
+    public String getClusterSecret() {
+        return clusterSecret;
+    }
+
+    public void setClusterSecret(String clusterSecret) {
+        this.clusterSecret = clusterSecret;
+    }
+
+    /**
+     * Nœuds contactés au démarrage (et recontactés après une coupure). Il
+     * suffit qu'un des deux nœuds d'une paire connaisse l'autre.
+     */
+    public List<InetSocketAddress> getPeers() {
+        return peers;
+    }
+
+    /**
+     * @param peers liste "hote:port,hote:port" (vide : attendre les autres nœuds)
+     */
+    public void setPeers(String peers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.isEmpty()) {
+                continue;
+            }
+            int separator = peer.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Noeud invalide (hote:port attendu): " + peer);
+            }
+            addresses.add(InetSocketAddress.createUnresolved(peer.substring(0, separator),
+                Integer.parseInt(peer.substring(separator + 1))));
+        }
+        this.peers = List.copyOf(addresses);
+    }
+}
@@ -7,7 +7,16 @@ public class ServerLauncher {
         System.out.println("========================================");
         System.out.println();
         
-        ChatServer server = new ChatServer();
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ERREUR] " + e.getMessage());
+            System.err.println(ServerConfig.usage());
+            return;
+        }
+        
+        ChatServer server = new ChatServer(config);
         server.start();
     }
 }
\ No newline at end of file
@@ -0,0 +1,322 @@
+package server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Journal asynchrone du serveur.
+ *
+ * Les threads de lecture ne font que déposer l'événement (modèle et arguments,
+ * sans mise en forme) dans un anneau préalloué ; un thread dédié le met en
+ * forme et l'écrit sur la console et, si configuré, dans un fichier JSON (un
+ * objet par ligne). Un anneau plein fait perdre l'événement au lieu de
+ * bloquer, et les pertes sont signalées.
+ *
+ * Les catégories par message (chat, UDP) sont limitées à un nombre
+ * d'événements par seconde : au-delà, ils sont seulement comptés.
+ *
+ * Les modèles utilisent {} pour chaque argument, comme SLF4J.
+ */
+final class ServerLog {
+
+    enum Category {
+        CONNECTION(false),
+        CHAT(true),
+        UDP(true),
+        HISTORY(false),
+        TRANSPORT(false),
+        CLUSTER(false);
+
+        final boolean perMessage;
+        final AtomicLong window = new AtomicLong();
+        final AtomicInteger count = new AtomicInteger();
+        final LongAdder suppressed = new LongAdder();
+
+        Category(boolean perMessage) {
+            this.perMessage = perMessage;
+        }
+    }
+
+    private static final int CAPACITY = 8192; // puissance de deux
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final Event[] RING = new Event[CAPACITY];
+    private static final AtomicLong CLAIMED = new AtomicLong();
+    private static final LongAdder LOST = new LongAdder();
+    private static volatile long consumed;
+
+    private static volatile ServerConfig.LogLevel level = ServerConfig.LogLevel.INFO;
+    private static volatile int perMessageRate = 100;
+    private static volatile Writer file;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Event(i - CAPACITY);
+        }
+        Thread drain = new Thread(ServerLog::drainLoop, "log-writer");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    private ServerLog() {
+    }
+
+    /**
+     * Case de l'anneau, réutilisée indéfiniment.
+     */
+    private static final class Event {
+        volatile long sequence; // publié en dernier par le producteur
+        long time;
+        ServerConfig.LogLevel level;
+        Category category;
+        String thread;
+        String template;
+        Object arg0;
+        Object arg1;
+        Object arg2;
+
+        Event(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    static void configure(ServerConfig config) {
+        level = config.getLogLevel();
+        perMessageRate = config.getLogRate();
+    }
+
+    /**
+     * Ajoute la sortie fichier (JSON, une ligne par événement), en fin de fichier.
+     */
+    static void openFile(String path) throws IOException {
+        Writer previous = file;
+        file = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path, true), StandardCharsets.UTF_8));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    static boolean isEnabled(ServerConfig.LogLevel eventLevel) {
+        return eventLevel.compareTo(level) >= 0;
+    }
+
+    static void info(Category category, String template) {
+        publish(ServerConfig.LogLevel.INFO, category, template, null, null, null);
+    }
+
+    static void info(Category category, String template, Object arg0) {
+        publish(ServerConfig.LogLevel.INFO, category, template, arg0, null, null);
+    }
+
+    static void info(Category category, String template, Object arg0, Object arg1) {
+        publish(ServerConfig.LogLevel.INFO, category, template, arg0, arg1, null);
+    }
+
+    static void warn(Category category, String template, Object arg0) {
+        publish(ServerConfig.LogLevel.WARN, category, template, arg0, null, null);
+    }
+
+    static void warn(Category category, String template, Object arg0, Object arg1) {
+        publish(ServerConfig.LogLevel.WARN, category, template, arg0, arg1, null);
+    }
+
+    static void error(Category category, String template, Object arg0) {
+        publish(ServerConfig.LogLevel.ERROR, category, template, arg0, null, null);
+    }
+
+    static void error(Category category, String template, Object arg0, Object arg1) {
+        publish(ServerConfig.LogLevel.ERROR, category, template, arg0, arg1, null);
+    }
+
+    static void error(Category category, String template, Object arg0, Object arg1, Object arg2) {
+        publish(ServerConfig.LogLevel.ERROR, category, template, arg0, arg1, arg2);
+    }
+
+    private static void publish(ServerConfig.LogLevel eventLevel, Category category, String template,
+                                Object arg0, Object arg1, Object arg2) {
+        if (!isEnabled(eventLevel)) {
+            return;
+        }
+        if (category.perMessage && eventLevel.compareTo(ServerConfig.LogLevel.WARN) < 0 && !allow(category)) {
+            return;
+        }
+
+        long sequence;
+        do {
+            sequence = CLAIMED.get();
+            if (sequence - consumed >= CAPACITY) {
+                LOST.increment(); // anneau plein : on ne bloque pas l'appelant
+                return;
+            }
+        } while (!CLAIMED.compareAndSet(sequence, sequence + 1));
+
+        Event event = RING[(int) sequence & (CAPACITY - 1)];
+        event.time = System.currentTimeMillis();
+        event.level = eventLevel;
+        event.category = category;
+        event.thread = Thread.currentThread().getName();
+        event.template = template;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.sequence = sequence;
+    }
+
+    /**
+     * Limite par fenêtre d'environ une seconde (2^30 ns), sans verrou. Une fois
+     * la limite atteinte, le compteur partagé n'est plus que lu.
+     */
+    private static boolean allow(Category category) {
+        long now = System.nanoTime() >> 30;
+        long window = category.window.get();
+        if (window != now && category.window.compareAndSet(window, now)) {
+            category.count.set(0);
+        }
+        if (category.count.get() < perMessageRate && category.count.incrementAndGet() <= perMessageRate) {
+            return true;
+        }
+        category.suppressed.increment();
+        return false;
+    }
+
+    /**
+     * Attend que les événements déjà publiés soient écrits (arrêt du serveur).
+     */
+    static void flush() {
+        long target = CLAIMED.get();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (consumed < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static void drainLoop() {
+        StringBuilder line = new StringBuilder(256);
+        long nextReport = System.nanoTime() + REPORT_INTERVAL_NANOS;
+        while (true) {
+            // Aussi sous charge continue : c'est là que des événements se perdent
+            if (System.nanoTime() - nextReport >= 0) {
+                reportLosses();
+                nextReport = System.nanoTime() + REPORT_INTERVAL_NANOS;
+            }
+            long next = consumed;
+            Event event = RING[(int) next & (CAPACITY - 1)];
+            if (event.sequence != next) {
+                // Rien de publié : attendre un peu
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(2));
+                continue;
+            }
+
+            write(line, event.time, event.level, event.category, event.thread,
+                format(line, event.template, event.arg0, event.arg1, event.arg2));
+            event.template = null;
+            event.arg0 = null;
+            event.arg1 = null;
+            event.arg2 = null;
+            if (CLAIMED.get() == next + 1) {
+                flushOutputs(); // dernier événement en attente : flush() peut compter dessus
+            }
+            consumed = next + 1;
+        }
+    }
+
+    private static String format(StringBuilder buffer, String template, Object arg0, Object arg1, Object arg2) {
+        buffer.setLength(0);
+        Object[] args = { arg0, arg1, arg2 };
+        int argument = 0;
+        int from = 0;
+        int placeholder;
+        while ((placeholder = template.indexOf("{}", from)) >= 0 && argument < args.length) {
+            buffer.append(template, from, placeholder).append(args[argument++]);
+            from = placeholder + 2;
+        }
+        buffer.append(template, from, template.length());
+        return buffer.toString();
+    }
+
+    private static void write(StringBuilder buffer, long time, ServerConfig.LogLevel eventLevel,
+                              Category category, String thread, String message) {
+        if (eventLevel.compareTo(ServerConfig.LogLevel.WARN) >= 0) {
+            System.err.println(message);
+        } else {
+            System.out.println(message);
+        }
+
+        Writer out = file;
+        if (out == null) {
+            return;
+        }
+        buffer.setLength(0);
+        buffer.append("{\"time\":\"").append(Instant.ofEpochMilli(time))
+            .append("\",\"level\":\"").append(eventLevel)
+            .append("\",\"category\":\"").append(category)
+            .append("\",\"thread\":");
+        appendJson(buffer, thread);
+        buffer.append(",\"message\":");
+        appendJson(buffer, message);
+        buffer.append("}\n");
+        try {
+            out.append(buffer);
+        } catch (IOException e) {
+            System.err.println("[ERREUR] Journal: " + e.getMessage());
+            file = null;
+        }
+    }
+
+    private static void appendJson(StringBuilder buffer, String value) {
+        buffer.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                buffer.append('\\').append(c);
+            } else if (c == '\n') {
+                buffer.append("\\n");
+            } else if (c < 0x20) {
+                buffer.append(String.format("\\u%04x", (int) c));
+            } else {
+                buffer.append(c);
+            }
+        }
+        buffer.append('"');
+    }
+
+    private static void flushOutputs() {
+        System.out.flush();
+        Writer out = file;
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                System.err.println("[ERREUR] Journal: " + e.getMessage());
+                file = null;
+            }
+        }
+    }
+
+    /**
+     * Signale les événements perdus ou limités depuis le dernier rapport.
+     */
+    private static void reportLosses() {
+        long lost = LOST.sumThenReset();
+        if (lost > 0) {
+            write(new StringBuilder(), System.currentTimeMillis(), ServerConfig.LogLevel.WARN,
+                Category.TRANSPORT, Thread.currentThread().getName(),
+                "[LOG] " + lost + " evenements perdus (journal sature)");
+        }
+        for (Category category : Category.values()) {
+            long suppressed = category.suppressed.sumThenReset();
+            if (suppressed > 0) {
+                write(new StringBuilder(), System.currentTimeMillis(), ServerConfig.LogLevel.INFO,
+                    category, Thread.currentThread().getName(),
+                    "[LOG] " + suppressed + " evenements " + category + " non journalises (limite "
+                        + perMessageRate + "/s)");
+            }
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import common.LatencyHistogram;
+
+/**
+ * Instrumentation du serveur : compteurs répartis (LongAdder) et histogrammes
+ * de latence, alimentés par les connexions et relus à la demande par /stats,
+ * JMX et le point de collecte texte.
+ *
+ * L'enregistrement ne prend aucun verrou ; le coût est payé à la lecture
+ * (somme des cellules, parcours des files de sortie).
+ */
+final class ServerMetrics implements ServerMetricsMBean {
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ClientRegistry clients;
+
+    final LongAdder messagesIn = new LongAdder();
+    final LongAdder messagesOut = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder udpReceived = new LongAdder();
+    final LongAdder udpDropped = new LongAdder();
+    final LongAdder udpQueueFull = new LongAdder();
+    final LongAdder clusterRecordsOut = new LongAdder();
+    final LongAdder clusterBatchesOut = new LongAdder();
+    final LongAdder clusterRecordsIn = new LongAdder();
+    final LongAdder pingsSent = new LongAdder();
+    final LongAdder idleEvictions = new LongAdder();
+    final LongAdder floodDelayed = new LongAdder();
+    final LongAdder floodRefused = new LongAdder();
+    final LongAdder socketWrites = new LongAdder();
+    final LongAdder recentServed = new LongAdder();
+    final LongAdder historyReplays = new LongAdder();
+    final LongAdder searchIndexed = new LongAdder();
+    final LongAdder searchDropped = new LongAdder();
+    final LongAdder searchMerges = new LongAdder();
+    final LongAdder searchQueries = new LongAdder();
+    final LatencyHistogram broadcastFanout = new LatencyHistogram();
+    final LatencyHistogram handshake = new LatencyHistogram();
+    final LatencyHistogram controlLaneWait = new LatencyHistogram();
+    final LatencyHistogram textLaneWait = new LatencyHistogram();
+    final LatencyHistogram searchLatency = new LatencyHistogram();
+
+    // Débits : moyenne sur la dernière fenêtre close (au moins une seconde)
+    private long windowStart;
+    private long windowIn;
+    private long windowOut;
+    private volatile double inPerSecond;
+    private volatile double outPerSecond;
+
+    ServerMetrics(ClientRegistry clients) {
+        this.clients = clients;
+        this.windowStart = System.nanoTime();
+    }
+
+    private synchronized void updateRates() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < RATE_WINDOW_NANOS) {
+            return;
+        }
+        long in = messagesIn.sum();
+        long out = messagesOut.sum();
+        double seconds = elapsed / 1e9;
+        inPerSecond = (in - windowIn) / seconds;
+        outPerSecond = (out - windowOut) / seconds;
+        windowIn = in;
+        windowOut = out;
+        windowStart = now;
+    }
+
+    /**
+     * Rapport lisible pour la commande /stats de la console.
+     */
+    String report() {
+        updateRates();
+        StringBuilder report = new StringBuilder();
+        report.append("Connexions actives: ").append(getActiveConnections()).append('\n');
+        report.append(String.format("Messages recus: %d (%.0f/s), envoyes: %d (%.0f/s)%n",
+            getMessagesIn(), inPerSecond, getMessagesOut(), outPerSecond));
+        report.append(String.format("Octets recus: %d, envoyes: %d%n", getBytesIn(), getBytesOut()));
+        report.append(String.format("Files de sortie: %d trames en attente, max %d par client, %d pertes%n",
+            getOutboundBacklog(), getMaxOutboundBacklog(), getDroppedMessages()));
+        report.append(String.format("UDP: %d datagrammes recus, %d ignores ou perdus (dont %d file pleine)%n",
+            getUdpDatagramsReceived(), getUdpDatagramsDropped(), getUdpQueueFull()));
+        report.append(String.format("Grappe: %d enregistrements envoyes en %d trames, %d recus%n",
+            getClusterRecordsOut(), getClusterBatchesOut(), getClusterRecordsIn()));
+        report.append(String.format("Inactivite: %d PING envoyes, %d connexions muettes fermees%n",
+            getPingsSent(), getIdleEvictions()));
+        report.append(String.format("Debit limite: %d messages retardes, %d refuses%n",
+            getFloodDelayed(), getFloodRefused()));
+        report.append(String.format("Historique a l'arrivee: %d messages servis depuis la memoire, %d relectures sur disque%n",
+            getRecentServed(), getHistoryReplays()));
+        report.append(String.format("Recherche: %d messages indexes (%d perdus), %d fusions de segments, %d requetes%n",
+            getSearchIndexed(), getSearchDropped(), getSearchMerges(), getSearchQueries()));
+        long writes = getSocketWrites();
+        report.append(String.format("Ecritures TCP: %d appels, %.1f messages par appel%n",
+            writes, writes > 0 ? (double) getMessagesOut() / writes : 0.0));
+        report.append("Diffusion (us): ").append(broadcastFanout.summary()).append('\n');
+        report.append("Poignee de main (us): ").append(handshake.summary()).append('\n');
+        report.append("Attente en file, controle (us): ").append(controlLaneWait.summary()).append('\n');
+        report.append("Attente en file, texte (us): ").append(textLaneWait.summary()).append('\n');
+        report.append("Recherche (us): ").append(searchLatency.summary());
+        return report.toString();
+    }
+
+    /**
+     * Texte au format d'exposition Prometheus, pour le point de collecte.
+     */
+    String scrape() {
+        updateRates();
+        StringBuilder text = new StringBuilder();
+        gauge(text, "chat_active_connections", getActiveConnections());
+        counter(text, "chat_messages_in_total", getMessagesIn());
+        counter(text, "chat_messages_out_total", getMessagesOut());
+        counter(text, "chat_bytes_in_total", getBytesIn());
+        counter(text, "chat_bytes_out_total", getBytesOut());
+        gauge(text, "chat_outbound_backlog", getOutboundBacklog());
+        gauge(text, "chat_outbound_backlog_max", getMaxOutboundBacklog());
+        counter(text, "chat_outbound_dropped_total", getDroppedMessages());
+        counter(text, "chat_udp_datagrams_received_total", getUdpDatagramsReceived());
+        counter(text, "chat_udp_datagrams_dropped_total", getUdpDatagramsDropped());
+        counter(text, "chat_udp_queue_full_total", getUdpQueueFull());
+        counter(text, "chat_cluster_records_out_total", getClusterRecordsOut());
+        counter(text, "chat_cluster_batches_out_total", getClusterBatchesOut());
+        counter(text, "chat_cluster_records_in_total", getClusterRecordsIn());
+        counter(text, "chat_pings_sent_total", getPingsSent());
+        counter(text, "chat_idle_evictions_total", getIdleEvictions());
+        counter(text, "chat_flood_delayed_total", getFloodDelayed());
+        counter(text, "chat_flood_refused_total", getFloodRefused());
+        counter(text, "chat_socket_writes_total", getSocketWrites());
+        counter(text, "chat_recent_served_total", getRecentServed());
+        counter(text, "chat_history_replays_total", getHistoryReplays());
+        counter(text, "chat_search_indexed_total", getSearchIndexed());
+        counter(text, "chat_search_dropped_total", getSearchDropped());
+        counter(text, "chat_search_merges_total", getSearchMerges());
+        counter(text, "chat_search_queries_total", getSearchQueries());
+        summary(text, "chat_broadcast_fanout_microseconds", broadcastFanout);
+        summary(text, "chat_handshake_microseconds", handshake);
+        summary(text, "chat_control_lane_wait_microseconds", controlLaneWait);
+        summary(text, "chat_text_lane_wait_microseconds", textLaneWait);
+        summary(text, "chat_search_microseconds", searchLatency);
+        return text.toString();
+    }
+
+    private static void counter(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" counter\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void gauge(StringBuilder text, String name, long value) {
+        text.append("# TYPE ").append(name).append(" gauge\n");
+        text.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder text, String name, LatencyHistogram histogram) {
+        text.append("# TYPE ").append(name).append(" summary\n");
+        for (String quantile : new String[] { "0.5", "0.99", "0.999" }) {
+            text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(Math.max(0, histogram.percentile(Double.parseDouble(quantile)))).append('\n');
+        }
+        text.append(name).append("_count ").append(histogram.count()).append('\n');
+    }
+
+    // ServerMetricsMBean
+    @Override
+    public int getActiveConnections() {
+        return clients.size();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        updateRates();
+        return inPerSecond;
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        updateRates();
+        return outPerSecond;
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getOutboundBacklog() {
+        long backlog = 0;
+        for (ClientHandler client : clients.snapshot()) {
+            backlog += client.getQueueDepth();
+        }
+        return backlog;
+    }
+
+    @Override
+    public int getMaxOutboundBacklog() {
+        int max = 0;
+        for (ClientHandler client : clients.snapshot()) {
+            max = Math.max(max, client.getQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getDroppedMessages() {
+        long dropped = 0;
+        for (ClientHandler client : clients.snapshot()) {
+            dropped += client.getDroppedMessages();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getUdpDatagramsReceived() {
+        return udpReceived.sum();
+    }
+
+    @Override
+    public long getUdpDatagramsDropped() {
+        return udpDropped.sum();
+    }
+
+    @Override
+    public long getUdpQueueFull() {
+        return udpQueueFull.sum();
+    }
+
+    @Override
+    public long getClusterRecordsOut() {
+        return clusterRecordsOut.sum();
+    }
+
+    @Override
+    public long getClusterBatchesOut() {
+        return clusterBatchesOut.sum();
+    }
+
+    @Override
+    public long getClusterRecordsIn() {
+        return clusterRecordsIn.sum();
+    }
+
+    @Override
+    public long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    @Override
+    public long getIdleEvictions() {
+        return idleEvictions.sum();
+    }
+
+    @Override
+    public long getFloodDelayed() {
+        return floodDelayed.sum();
+    }
+
+    @Override
+    public long getFloodRefused() {
+        return floodRefused.sum();
+    }
+
+    @Override
+    public long getSocketWrites() {
+        return socketWrites.sum();
+    }
+
+    @Override
+    public long getRecentServed() {
+        return recentServed.sum();
+    }
+
+    @Override
+    public long getHistoryReplays() {
+        return historyReplays.sum();
+    }
+
+    @Override
+    public long getSearchIndexed() {
+        return searchIndexed.sum();
+    }
+
+    @Override
+    public long getSearchDropped() {
+        return searchDropped.sum();
+    }
+
+    @Override
+    public long getSearchMerges() {
+        return searchMerges.sum();
+    }
+
+    @Override
+    public long getSearchQueries() {
+        return searchQueries.sum();
+    }
+
+    @Override
+    public long getBroadcastFanoutP50Micros() {
+        return broadcastFanout.percentile(0.50);
+    }
+
+    @Override
+    public long getBroadcastFanoutP99Micros() {
+        return broadcastFanout.percentile(0.99);
+    }
+
+    @Override
+    public long getBroadcastFanoutMaxMicros() {
+        return broadcastFanout.max();
+    }
+
+    @Override
+    public long getHandshakeP50Micros() {
+        return handshake.percentile(0.50);
+    }
+
+    @Override
+    public long getHandshakeP99Micros() {
+        return handshake.percentile(0.99);
+    }
+
+    @Override
+    public long getHandshakeMaxMicros() {
+        return handshake.max();
+    }
+
+    @Override
+    public long getControlLaneWaitP99Micros() {
+        return controlLaneWait.percentile(0.99);
+    }
+
+    @Override
+    public long getTextLaneWaitP99Micros() {
+        return textLaneWait.percentile(0.99);
+    }
+
+    @Override
+    public long getSearchP99Micros() {
+        return searchLatency.percentile(0.99);
+    }
+}
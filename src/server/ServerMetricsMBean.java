@@ -0,0 +1,80 @@
+package server;
+
+/**
+ * Vue JMX des métriques du serveur (chat.server:type=Metrics,port=P).
+ * Les latences sont en microsecondes.
+ */
+public interface ServerMetricsMBean {
+
+    int getActiveConnections();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getOutboundBacklog();
+
+    int getMaxOutboundBacklog();
+
+    long getDroppedMessages();
+
+    long getUdpDatagramsReceived();
+
+    long getUdpDatagramsDropped();
+
+    long getUdpQueueFull();
+
+    long getClusterRecordsOut();
+
+    long getClusterBatchesOut();
+
+    long getClusterRecordsIn();
+
+    long getPingsSent();
+
+    long getIdleEvictions();
+
+    long getFloodDelayed();
+
+    long getFloodRefused();
+
+    long getSocketWrites();
+
+    long getRecentServed();
+
+    long getHistoryReplays();
+
+    long getSearchIndexed();
+
+    long getSearchDropped();
+
+    long getSearchMerges();
+
+    long getSearchQueries();
+
+    long getBroadcastFanoutP50Micros();
+
+    long getBroadcastFanoutP99Micros();
+
+    long getBroadcastFanoutMaxMicros();
+
+    long getHandshakeP50Micros();
+
+    long getHandshakeP99Micros();
+
+    long getHandshakeMaxMicros();
+
+    long getControlLaneWaitP99Micros();
+
+    long getTextLaneWaitP99Micros();
+
+    long getSearchP99Micros();
+}
@@ -0,0 +1,14 @@
+package server;
+
+import java.io.IOException;
+
+/**
+ * Levée quand un client ne lit plus assez vite et que sa file de sortie a débordé.
+ */
+class SlowConsumerException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    SlowConsumerException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,218 @@
+package server;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import common.MessageCodec;
+
+/**
+ * Connexion bloquante classique, lue par le thread du ClientHandler.
+ * Le format (sérialisation Java ou trames binaires) est reconnu aux premiers
+ * octets envoyés par le client.
+ *
+ * Les trames passent par une file bornée vidée par un écrivain dédié
+ * (writeLoop, lancé sur son propre thread) : une diffusion vers un client
+ * dont le tampon TCP est plein ne bloque donc plus l'émetteur.
+ *
+ * L'écrivain regroupe les trames en un seul appel d'écriture : tout ce qui
+ * attend dans la file part ensemble, et pendant une rafale il attend encore
+ * la suite au plus --flush-delay-us, tant que --flush-bytes n'est pas atteint.
+ * Une trame isolée part aussitôt.
+ */
+class SocketConnection implements Connection {
+    private final Socket socket;
+    private final WireFormat format;
+    private final OutputStream out;
+    private final ObjectInputStream objectIn;
+    private final DataInputStream dataIn;
+    private final OutboundQueue queue;
+    private final ClientHandler handler;
+    private final ServerMetrics metrics;
+    private final long flushDelayNanos;
+
+    SocketConnection(Socket socket, OutboundQueue queue, ClientHandler handler, ServerConfig config,
+            ServerMetrics metrics) throws IOException {
+        this.socket = socket;
+        this.queue = queue;
+        this.handler = handler;
+        this.metrics = metrics;
+        this.flushDelayNanos = TimeUnit.MICROSECONDS.toNanos(config.getFlushDelayMicros());
+        // Le tampon fait --flush-bytes : plein, il part de lui-même
+        this.out = new BufferedOutputStream(new CountingOutputStream(socket.getOutputStream(), metrics),
+            config.getFlushBytes());
+        InputStream in = new BufferedInputStream(new CountingInputStream(socket.getInputStream(), metrics));
+
+        // Les deux premiers octets suffisent à reconnaître le format
+        in.mark(2);
+        int first = in.read();
+        int second = in.read();
+        if (second < 0) {
+            throw new EOFException("Connexion fermee pendant la poignee de main");
+        }
+        in.reset();
+        this.format = WireFormat.detect((byte) first, (byte) second);
+
+        if (format == WireFormat.SERIALIZED) {
+            // Ancien client : il attend notre en-tête avant d'envoyer son nom
+            out.write(WireFormat.SERIALIZED_HEADER);
+            out.flush();
+            this.objectIn = new ObjectInputStream(in);
+            this.dataIn = null;
+        } else if (format == WireFormat.BINARY) {
+            this.dataIn = new DataInputStream(in);
+            byte[] handshake = new byte[MessageCodec.HANDSHAKE_LENGTH];
+            dataIn.readFully(handshake);
+            byte version = (byte) Math.min(MessageCodec.checkHandshake(handshake, 0), MessageCodec.VERSION);
+            out.write(MessageCodec.handshake(version));
+            out.flush();
+            this.objectIn = null;
+        } else {
+            throw new StreamCorruptedException("Protocole inconnu");
+        }
+    }
+
+    Object readObject() throws IOException, ClassNotFoundException {
+        if (format == WireFormat.SERIALIZED) {
+            return objectIn.readObject();
+        }
+        return MessageCodec.read(dataIn);
+    }
+
+    @Override
+    public WireFormat format() {
+        return format;
+    }
+
+    @Override
+    public boolean send(OutboundFrame frame) throws IOException {
+        OutboundQueue.Result result = queue.offer(frame);
+        if (result == OutboundQueue.Result.OVERFLOW) {
+            throw new SlowConsumerException("file de sortie pleine (" + queue.capacity() + " messages)");
+        }
+        return result == OutboundQueue.Result.ACCEPTED;
+    }
+
+    @Override
+    public OutboundQueue outboundQueue() {
+        return queue;
+    }
+
+    /**
+     * Boucle de l'écrivain : vide la file par lots et ne vide le tampon TCP
+     * qu'une fois la rafale passée (ou l'échéance atteinte). Se termine à la
+     * fermeture de la file.
+     */
+    void writeLoop() {
+        OutboundFrame[] batch = new OutboundFrame[64];
+        long lastFlush = System.nanoTime() - flushDelayNanos;
+        try {
+            OutboundFrame next;
+            while ((next = queue.take()) != null) {
+                long start = System.nanoTime();
+                long deadline = start + flushDelayNanos;
+                // Rafale : le dernier envoi est tout proche, ou d'autres trames attendaient déjà
+                boolean burst = start - lastFlush < flushDelayNanos;
+                while (next != null) {
+                    batch[0] = next;
+                    int count = 1 + queue.drainTo(batch, 1);
+                    write(batch, count);
+                    burst |= count > 1;
+                    long remaining = deadline - System.nanoTime();
+                    next = burst && remaining > 0 ? queue.poll(remaining) : null;
+                }
+                out.flush();
+                lastFlush = System.nanoTime();
+            }
+        } catch (IOException e) {
+            handler.connectionFailed(this, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(OutboundFrame[] batch, int count) throws IOException {
+        long bytes = 0;
+        try {
+            for (int i = 0; i < count; i++) {
+                out.write(batch[i].bytes(), 0, batch[i].length());
+                bytes += batch[i].length();
+            }
+            metrics.messagesOut.add(count);
+            metrics.bytesOut.add(bytes);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                batch[i].release();
+                batch[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Le thread de lecture dort : plus rien n'est lu pendant ce temps.
+     */
+    @Override
+    public boolean pauseReading(long nanos) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        queue.close();
+        if (!socket.isClosed()) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Compte les appels d'écriture qui atteignent le socket, sous le tampon.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private final ServerMetrics metrics;
+
+        CountingOutputStream(OutputStream out, ServerMetrics metrics) {
+            super(out);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            metrics.socketWrites.increment();
+        }
+    }
+
+    /**
+     * Compte les octets reçus, sous le tampon de lecture.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final ServerMetrics metrics;
+
+        CountingInputStream(InputStream in, ServerMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                metrics.bytesIn.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                metrics.bytesIn.add(count);
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Seau à jetons sans verrou, tenu sous forme d'horloge virtuelle (GCRA) :
+ * un seul long, l'instant où le seau serait de nouveau plein. Prendre des
+ * jetons avance cet instant ; le seau déborde quand il dépasse maintenant de
+ * plus que la rafale permise. Un compareAndSet par demande, sans tâche de
+ * remplissage.
+ */
+final class TokenBucket {
+    private final long nanosPerToken;
+    private final long tolerance; // rafale, en ns de jetons
+    private final long burst;
+    private final AtomicLong full = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * @param perSecond jetons rendus par seconde
+     * @param burst jetons disponibles d'un coup, seau plein
+     */
+    TokenBucket(long perSecond, long burst) {
+        this.nanosPerToken = Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.burst = Math.max(1, burst);
+        this.tolerance = this.burst * nanosPerToken;
+    }
+
+    /**
+     * Prend cost jetons (au plus la rafale : une demande plus grosse que le
+     * seau passerait sinon jamais).
+     * @param maxDelay attente acceptée si le seau est vide, en ns
+     * @return 0 si les jetons étaient là, le délai à respecter avant d'agir
+     *         s'il a fallu les emprunter, -1 (rien pris) si ce délai dépasse maxDelay
+     */
+    long acquire(long cost, long now, long maxDelay) {
+        long increment = Math.min(cost, burst) * nanosPerToken;
+        while (true) {
+            long current = full.get();
+            long next = Math.max(current, now) + increment;
+            long delay = next - now - tolerance;
+            if (delay > maxDelay) {
+                return -1;
+            }
+            if (full.compareAndSet(current, next)) {
+                return Math.max(0, delay);
+            }
+        }
+    }
+
+    /**
+     * Rend des jetons pris par acquire() pour une demande finalement refusée.
+     */
+    void refund(long cost) {
+        full.addAndGet(-Math.min(cost, burst) * nanosPerToken);
+    }
+}
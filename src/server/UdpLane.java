@@ -0,0 +1,297 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import common.MessageCodec;
+
+/**
+ * Voie UDP : rapide, sans garantie de remise.
+ *
+ * Chaque client binaire annonce son port UDP à la connexion TCP ; le couple
+ * (adresse TCP, port annoncé) identifie ensuite ses datagrammes.
+ *
+ * Réception : plusieurs canaux liés au même port (SO_REUSEPORT, le noyau
+ * répartit les expéditeurs entre eux), chacun vidé par son propre thread.
+ * À chaque réveil, un récepteur lit tous les datagrammes prêts dans un tampon
+ * direct réutilisé et les copie dans un anneau préalloué, sans verrou.
+ *
+ * Diffusion : un seul thread vide l'anneau, encode chaque datagramme (texte
+ * UTF-8) en trame MessageCodec sans le décoder, puis le renvoie aux autres
+ * membres du salon courant de l'expéditeur. Anneau plein : le datagramme est perdu et
+ * compté, les récepteurs ne bloquent jamais.
+ */
+class UdpLane {
+    // Charge utile maximale d'un datagramme IPv4
+    private static final int MAX_DATAGRAM = 65507;
+    // Datagrammes lus par réveil avant de relancer la diffusion
+    private static final int RECEIVE_BATCH = 256;
+    private static final int RECEIVE_BUFFER_BYTES = 4 * 1024 * 1024;
+
+    private final ChatServer server;
+    private final DatagramChannel[] channels;
+    private final Selector[] selectors;
+    private final ConcurrentHashMap<SocketAddress, ClientHandler> endpoints;
+    private final DatagramRing ring;
+    private final ByteBuffer sendBuffer;
+    private final byte[] frame;
+    private volatile Thread fanOutThread;
+    private volatile boolean fanOutWaiting;
+
+    UdpLane(ChatServer server, int port) throws IOException {
+        this.server = server;
+        ServerConfig config = server.getConfig();
+        int receivers = config.getUdpReceivers();
+        if (receivers > 1 && !supportsReusePort()) {
+            System.out.println("[ATTENTION] SO_REUSEPORT indisponible : un seul recepteur UDP");
+            receivers = 1;
+        }
+        this.channels = new DatagramChannel[receivers];
+        this.selectors = new Selector[receivers];
+        for (int i = 0; i < receivers; i++) {
+            DatagramChannel channel = DatagramChannel.open();
+            if (receivers > 1) {
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, RECEIVE_BUFFER_BYTES);
+            channel.bind(new InetSocketAddress(port));
+            channel.configureBlocking(false);
+            selectors[i] = Selector.open();
+            channel.register(selectors[i], SelectionKey.OP_READ);
+            channels[i] = channel;
+        }
+        this.endpoints = new ConcurrentHashMap<>();
+        this.ring = new DatagramRing(config.getUdpQueueCapacity());
+        this.sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        this.frame = new byte[MAX_DATAGRAM];
+    }
+
+    private static boolean supportsReusePort() throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            return probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    int receivers() {
+        return channels.length;
+    }
+
+    /**
+     * Lance les récepteurs et le thread de diffusion, virtuels en mode VIRTUAL
+     * comme le reste du serveur.
+     */
+    void start() {
+        server.startThread("udp-fanout", true, this::fanOutLoop);
+        for (int i = 0; i < channels.length; i++) {
+            int index = i;
+            server.startThread("udp-receive-" + i, true, () -> receiveLoop(index));
+        }
+    }
+
+    void register(ClientHandler client, InetSocketAddress endpoint) {
+        endpoints.put(endpoint, client);
+    }
+
+    void unregister(ClientHandler client, InetSocketAddress endpoint) {
+        endpoints.remove(endpoint, client);
+    }
+
+    private void receiveLoop(int index) {
+        DatagramChannel channel = channels[index];
+        Selector selector = selectors[index];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+        ServerMetrics metrics = server.getMetrics();
+        while (channel.isOpen()) {
+            try {
+                selector.select();
+                selector.selectedKeys().clear();
+
+                // Tout ce qui est prêt, dans la limite d'un lot
+                int queued = 0;
+                for (int i = 0; i < RECEIVE_BATCH; i++) {
+                    buffer.clear();
+                    SocketAddress from = channel.receive(buffer);
+                    if (from == null) {
+                        break;
+                    }
+                    metrics.udpReceived.increment();
+                    ClientHandler sender = endpoints.get(from);
+                    if (sender == null || sender.getUsername() == null) {
+                        metrics.udpDropped.increment();
+                        ServerLog.info(ServerLog.Category.UDP, "[UDP] Datagramme ignore (expediteur non enregistre): {}", from);
+                        continue;
+                    }
+                    buffer.flip();
+                    if (ring.offer(sender, buffer)) {
+                        queued++;
+                    } else {
+                        metrics.udpDropped.increment();
+                        metrics.udpQueueFull.increment();
+                    }
+                }
+                if (queued > 0 && fanOutWaiting) {
+                    LockSupport.unpark(fanOutThread);
+                }
+
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                break; // arrêt du serveur
+            } catch (IOException e) {
+                ServerLog.error(ServerLog.Category.UDP, "[ERREUR] Erreur UDP: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void fanOutLoop() {
+        // Avant toute attente : les récepteurs ne réveillent qu'un thread annoncé
+        fanOutThread = Thread.currentThread();
+        ServerMetrics metrics = server.getMetrics();
+        while (isOpen()) {
+            DatagramRing.Slot slot = ring.peek();
+            if (slot == null) {
+                // Annoncer l'attente, puis revérifier : un récepteur qui publie
+                // entre-temps voit fanOutWaiting et nous réveille
+                fanOutWaiting = true;
+                if (ring.peek() == null) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(10));
+                }
+                fanOutWaiting = false;
+                continue;
+            }
+
+            ClientHandler sender = slot.sender;
+            String username = sender.getUsername();
+            String room = sender.getCurrentRoom(); // le datagramme suit le texte : salon courant
+            if (room == null || MessageCodec.textFrameLength(username, room, slot.length) > MAX_DATAGRAM) {
+                metrics.udpDropped.increment(); // sans salon, ou ne tiendrait pas dans un datagramme
+            } else {
+                int length = MessageCodec.encodeText(username, room, System.currentTimeMillis(),
+                    slot.payload, 0, slot.length, frame, 0);
+                sendBuffer.clear();
+                sendBuffer.put(frame, 0, length).flip();
+                server.broadcastUDPMessage(sendBuffer, sender, room);
+            }
+            ring.advance();
+        }
+    }
+
+    /**
+     * Envoie la trame courante à un client. Appelé depuis le thread de
+     * diffusion uniquement ; un tampon d'émission plein fait perdre le
+     * datagramme au lieu de bloquer la diffusion.
+     */
+    void send(ByteBuffer datagram, InetSocketAddress endpoint) {
+        try {
+            datagram.rewind();
+            if (channels[0].send(datagram, endpoint) == 0) {
+                server.getMetrics().udpDropped.increment();
+            }
+        } catch (IOException e) {
+            // Voie sans garantie : une perte n'est pas une erreur de connexion
+            server.getMetrics().udpDropped.increment();
+        }
+    }
+
+    boolean isOpen() {
+        return channels[0].isOpen();
+    }
+
+    void close() {
+        for (int i = 0; i < channels.length; i++) {
+            try {
+                channels[i].close();
+                selectors[i].close(); // libère le port et réveille le récepteur
+            } catch (IOException e) {
+                System.err.println("[ERREUR] Erreur fermeture UDP: " + e.getMessage());
+            }
+        }
+        Thread fanOut = fanOutThread;
+        if (fanOut != null) {
+            LockSupport.unpark(fanOut);
+        }
+    }
+
+    /**
+     * File bornée à plusieurs producteurs (les récepteurs) et un consommateur
+     * (la diffusion), sans verrou : même principe que l'anneau de ServerLog.
+     * Chaque case garde son tableau d'octets, agrandi au besoin : en régime
+     * établi, recevoir un datagramme n'alloue rien.
+     */
+    private static final class DatagramRing {
+        private static final int INITIAL_PAYLOAD = 512;
+
+        static final class Slot {
+            volatile long sequence; // publié en dernier par le producteur
+            ClientHandler sender;
+            byte[] payload = new byte[INITIAL_PAYLOAD];
+            int length;
+
+            Slot(long sequence) {
+                this.sequence = sequence;
+            }
+        }
+
+        private final Slot[] slots;
+        private final int mask;
+        private final AtomicLong claimed = new AtomicLong();
+        private volatile long consumed;
+
+        DatagramRing(int capacity) {
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1; // puissance de deux
+            this.slots = new Slot[size];
+            this.mask = size - 1;
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot(i - size);
+            }
+        }
+
+        /**
+         * Copie le datagramme dans la prochaine case libre.
+         * @return false si l'anneau est plein
+         */
+        boolean offer(ClientHandler sender, ByteBuffer datagram) {
+            long sequence;
+            do {
+                sequence = claimed.get();
+                if (sequence - consumed >= slots.length) {
+                    return false;
+                }
+            } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+            Slot slot = slots[(int) sequence & mask];
+            int length = datagram.remaining();
+            if (slot.payload.length < length) {
+                slot.payload = new byte[length];
+            }
+            datagram.get(slot.payload, 0, length);
+            slot.length = length;
+            slot.sender = sender;
+            slot.sequence = sequence;
+            return true;
+        }
+
+        /**
+         * Case suivante si elle est publiée, sans la libérer.
+         */
+        Slot peek() {
+            long next = consumed;
+            Slot slot = slots[(int) next & mask];
+            return slot.sequence == next ? slot : null;
+        }
+
+        void advance() {
+            slots[(int) consumed & mask].sender = null;
+            consumed = consumed + 1;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package server;
+
+import common.Message;
+import common.MessageCodec;
+
+/**
+ * Formats de fil négociés à l'ouverture d'une connexion : sérialisation Java
+ * pour les anciens clients, trames binaires MessageCodec pour les autres.
+ */
+enum WireFormat {
+    SERIALIZED {
+        @Override
+        OutboundFrame encode(Message message) {
+            return SerializedEncoder.encode(message);
+        }
+
+        @Override
+        FrameDecoder newDecoder() {
+            return new ObjectStreamDecoder();
+        }
+    },
+    BINARY {
+        @Override
+        OutboundFrame encode(Message message) {
+            int length = MessageCodec.frameLength(message);
+            byte[] bytes = FramePool.acquire(length);
+            MessageCodec.encode(message, bytes, 0);
+            return new OutboundFrame(bytes, length, OutboundFrame.isCritical(message));
+        }
+
+        @Override
+        FrameDecoder newDecoder() {
+            return new BinaryFrameDecoder();
+        }
+    };
+
+    /** En-tête d'un flux de sérialisation Java (STREAM_MAGIC puis STREAM_VERSION). */
+    static final byte[] SERIALIZED_HEADER = { (byte) 0xAC, (byte) 0xED, 0x00, 0x05 };
+
+    /**
+     * Encode un message en trame prête à être écrite sur une connexion de ce format.
+     */
+    abstract OutboundFrame encode(Message message);
+
+    abstract FrameDecoder newDecoder();
+
+    /**
+     * Reconnaît le format à partir des deux premiers octets envoyés par le client.
+     * @return null si aucun format ne correspond
+     */
+    static WireFormat detect(byte first, byte second) {
+        if (first == SERIALIZED_HEADER[0] && second == SERIALIZED_HEADER[1]) {
+            return SERIALIZED;
+        }
+        if (first == MessageCodec.MAGIC[0] && second == MessageCodec.MAGIC[1]) {
+            return BINARY;
+        }
+        return null;
+    }
+}